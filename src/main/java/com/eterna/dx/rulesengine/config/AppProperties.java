@@ -15,4 +15,16 @@ public class AppProperties {
     private int maxRecsPerCategoryPerDay = 1;
     private int antiRepeatDays = 7;
     private boolean authEnabled = false;
+
+    // Reglas compiladas a clases generadas; el intérprete solo construye la traza de las que no dan falso
+    private boolean compiledRulesEnabled = false;
+    // Con reglas compiladas, recorre también las que dan falso para guardar su traza en la auditoría
+    private boolean compiledRulesAuditTrace = false;
+    // Reordena all/any/none de las reglas compiladas según la selectividad observada
+    private boolean compiledRulesAdaptive = true;
+    // Diagrama de decisión (ROBDD) compartido por las reglas compiladas del tenant
+    private boolean compiledRulesDiagram = false;
+
+    // Simplificación estática de la lógica al parsearla para evaluar (aplanado, duplicados, rangos)
+    private boolean simplifyRulesEnabled = true;
 }
@@ -4,6 +4,9 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Data
 @Component
 @ConfigurationProperties(prefix = "data")
@@ -14,4 +17,53 @@ public class DataProperties {
     private String sleepCsvPath = "data/patient_sleep_data.csv";
     private String processedCsvPath = "data/daily_processed.csv";
     private String patientCsvPath = "data/patient_fixed.csv";
+
+    // Snapshot binario del dataset combinado
+    private boolean snapshotEnabled = true;
+    private String snapshotPath = "data/dataset.snapshot";
+    private boolean snapshotCompressed = false;
+
+    // Ingesta incremental de filas añadidas a los CSV
+    private boolean watchEnabled = true;
+    private long watchPollMs = 500;
+
+    // Log durable de la API de ingesta (POST /ingest/daily, /ingest/sleep)
+    private String ingestLogPath = "data/ingest.log";
+    private boolean ingestLogFsync = true;
+
+    // Tabla materializada de features (POST /features/materialize)
+    private boolean materializedPersist = true;
+    private String materializedPath = "data/features.materialized";
+    private int materializeThreads = Runtime.getRuntime().availableProcessors();
+
+    // TRIMP y ACWR calculados en la carga e ingesta (en lugar del CSV procesado)
+    private boolean workloadEnabled = true;
+
+    // Series del almacén fuera del heap (memoria directa o, con offHeapDir, ficheros mapeados)
+    private boolean offHeapEnabled = false;
+    private String offHeapDir = "";
+    private int offHeapSlabMb = 64;
+
+    // Series del almacén comprimidas por columnas (delta-varint, XOR y mapa de nulos)
+    private boolean storeCompressed = false;
+
+    // Series particionadas en disco (bucket por hash de usuario) con carga bajo demanda
+    private boolean partitionedEnabled = false;
+    private String partitionDir = "data/partitions";
+    private int partitionBuckets = 64;
+    private int partitionMaxResidentUsers = 10000;
+
+    // Percentiles por cohorte (sexo y franja de edad) y población: cohort_pct, population_pct, ...
+    private List<String> cohortVariables = new ArrayList<>(List.of(
+            "steps", "resting_heart_rate", "heart_rate_variability_sdnn", "asleep_state_minutes", "trimp"));
+    private int cohortAgeBandYears = 10;
+    private int cohortMinSize = 5;
+    private int cohortSketchK = 200;
+
+    // Estado por usuario de las rachas y recuentos (streak_*, count_*) entre evaluaciones
+    private int temporalStateMaxUsers = 10000;
+
+    // Caché de features por (usuario, fecha, versión de datos)
+    private int featureCacheMaxEntries = 10000;
+    private long featureCacheTtlSeconds = 300;
 }
@@ -2,14 +2,19 @@ package com.eterna.dx.rulesengine.controller;
 
 import com.eterna.dx.rulesengine.dto.request.SimulateRequest;
 import com.eterna.dx.rulesengine.dto.response.SimulationResult;
+import com.eterna.dx.rulesengine.features.FeatureCache;
+import com.eterna.dx.rulesengine.features.FeatureMaterializer;
 import com.eterna.dx.rulesengine.service.RulesEngineService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDate;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,6 +27,8 @@ import java.util.Map;
 public class EvaluationController {
 
     private final RulesEngineService rulesEngineService;
+    private final FeatureMaterializer featureMaterializer;
+    private final FeatureCache featureCache;
 
     /**
      * Simula la evaluación de reglas para un usuario en una fecha.
@@ -40,17 +47,74 @@ public class EvaluationController {
         );
     }
 
+    /**
+     * Evalúa las reglas de un tenant para muchos usuarios en una fecha (por columnas).
+     * POST /simulate/batch?date=...[&tenant_id=...][&user_ids=u1,u2]
+     *
+     * Sin user_ids se evalúan todos los usuarios. Solo informa de las reglas que
+     * se disparan: no selecciona mensajes ni registra auditorías.
+     */
+    @PostMapping("/simulate/batch")
+    public Map<String, Object> simulateBatch(
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date,
+            @RequestParam(value = "tenant_id", defaultValue = "default") String tenantId,
+            @RequestParam(value = "user_ids", required = false) List<String> userIds) {
+
+        log.info("Simulando evaluación por lotes para tenant {} en fecha {} ({} usuarios)",
+                tenantId, date, userIds != null ? userIds.size() : "todos los");
+        return rulesEngineService.evaluateBatch(tenantId, date, userIds);
+    }
+
     /**
      * Obtiene features calculadas para un usuario (endpoint de debug).
-     * GET /features?user_id=...&date=...
+     * GET /features?user_id=...&date=...[&tenant_id=...]
+     *
+     * Sin tenant_id devuelve el conjunto completo de features; con tenant_id,
+     * solo las que usan las reglas activas de ese tenant.
      */
     @GetMapping("/features")
     public Map<String, Map<String, Object>> getFeatures(
             @RequestParam("user_id") String userId,
-            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) {
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date,
+            @RequestParam(value = "tenant_id", required = false) String tenantId) {
         
         log.debug("Obteniendo features para usuario {} en fecha {}", userId, date);
-        return rulesEngineService.getFeatures(userId, date);
+        return rulesEngineService.getFeatures(userId, date, tenantId);
     }
-}
 
+    /**
+     * Materializa las features de todos los usuarios para una fecha o rango de fechas.
+     * POST /features/materialize?start=...[&end=...]
+     */
+    @PostMapping("/features/materialize")
+    public Map<String, Object> materializeFeatures(
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate start,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate end) {
+
+        log.info("Materializando features desde {} hasta {}", start, end != null ? end : start);
+        try {
+            return featureMaterializer.materialize(start, end != null ? end : start);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Métricas de la caché de features.
+     * GET /features/cache
+     */
+    @GetMapping("/features/cache")
+    public Map<String, Object> getFeatureCacheStats() {
+        return featureCache.stats();
+    }
+
+    /**
+     * Vacía la caché de features.
+     * DELETE /features/cache
+     */
+    @DeleteMapping("/features/cache")
+    public Map<String, Object> clearFeatureCache() {
+        featureCache.invalidateAll();
+        return featureCache.stats();
+    }
+}
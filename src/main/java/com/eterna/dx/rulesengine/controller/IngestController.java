@@ -0,0 +1,38 @@
+package com.eterna.dx.rulesengine.controller;
+
+import com.eterna.dx.rulesengine.dto.response.IngestResult;
+import com.eterna.dx.rulesengine.service.IngestionService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Controlador para ingesta de mediciones por API (alternativa a dejar CSV en data/).
+ * Acepta lotes en JSON (objeto o array) o NDJSON (un objeto por línea).
+ */
+@RestController
+@RequestMapping("/ingest")
+@RequiredArgsConstructor
+@Slf4j
+public class IngestController {
+
+    private final IngestionService ingestionService;
+
+    /**
+     * Ingresa mediciones diarias de actividad.
+     * POST /ingest/daily
+     */
+    @PostMapping(value = "/daily", consumes = {"application/json", "application/x-ndjson", "text/plain"})
+    public IngestResult ingestDaily(@RequestBody String body) {
+        return ingestionService.ingest(IngestionService.SOURCE_DAILY, body);
+    }
+
+    /**
+     * Ingresa mediciones de sueño.
+     * POST /ingest/sleep
+     */
+    @PostMapping(value = "/sleep", consumes = {"application/json", "application/x-ndjson", "text/plain"})
+    public IngestResult ingestSleep(@RequestBody String body) {
+        return ingestionService.ingest(IngestionService.SOURCE_SLEEP, body);
+    }
+}
@@ -3,10 +3,14 @@ package com.eterna.dx.rulesengine.controller;
 import com.eterna.dx.rulesengine.dto.request.MessageRequest;
 import com.eterna.dx.rulesengine.dto.request.RuleRequest;
 import com.eterna.dx.rulesengine.dto.request.RuleUpdateRequest;
+import com.eterna.dx.rulesengine.dsl.DSLParser;
+import com.eterna.dx.rulesengine.dsl.Node;
+import com.eterna.dx.rulesengine.dsl.RuleSimplifier;
 import com.eterna.dx.rulesengine.entity.Rule;
 import com.eterna.dx.rulesengine.entity.RuleMessage;
 import com.eterna.dx.rulesengine.repository.RuleMessageRepository;
 import com.eterna.dx.rulesengine.repository.RuleRepository;
+import com.eterna.dx.rulesengine.service.RuleAnalysisService;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
@@ -36,8 +40,13 @@ import java.util.regex.Pattern;
 @Slf4j
 public class RuleController {
 
+    // Lógica por defecto de las reglas importadas por CSV sin condiciones
+    private static final Map<String, Object> PLACEHOLDER_LOGIC = Map.of("var", "steps", "op", ">", "value", 0);
+
     private final RuleRepository ruleRepository;
     private final RuleMessageRepository ruleMessageRepository;
+    private final DSLParser dslParser;
+    private final RuleAnalysisService ruleAnalysisService;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory())
             .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
@@ -386,6 +395,117 @@ public class RuleController {
         }
     }
 
+    /**
+     * Informe de la simplificación estática de la lógica de las reglas.
+     * GET /rules/simplification?tenantId=...
+     *
+     * Lista las reglas cuya lógica cambia al simplificarse (con el número de
+     * nodos antes y después y la lógica resultante), las que no se pueden
+     * parsear y las que conservan la lógica por defecto de la importación CSV.
+     */
+    @GetMapping("/simplification")
+    public Map<String, Object> simplificationReport(@RequestParam(defaultValue = "default") String tenantId) {
+        List<Rule> rules = ruleRepository.findByTenantId(tenantId);
+        List<Map<String, Object>> changed = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        List<Map<String, Object>> invalid = new ArrayList<>();
+        int nodesBefore = 0;
+        int nodesAfter = 0;
+
+        for (Rule rule : rules) {
+            if (PLACEHOLDER_LOGIC.equals(rule.getLogic())) {
+                placeholders.add(rule.getId());
+            }
+            Node node;
+            try {
+                node = dslParser.parseNode(rule.getLogic());
+            } catch (Exception e) {
+                invalid.add(Map.of("rule_id", rule.getId(), "error", String.valueOf(e.getMessage())));
+                continue;
+            }
+            Node simplified = RuleSimplifier.simplify(node);
+            int before = RuleSimplifier.size(node);
+            int after = RuleSimplifier.size(simplified);
+            nodesBefore += before;
+            nodesAfter += after;
+            if (simplified != node) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("rule_id", rule.getId());
+                entry.put("nodes_before", before);
+                entry.put("nodes_after", after);
+                entry.put("logic", simplified);
+                changed.add(entry);
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("tenant_id", tenantId);
+        report.put("rules", rules.size());
+        report.put("nodes_before", nodesBefore);
+        report.put("nodes_after", nodesAfter);
+        report.put("changed", changed);
+        report.put("placeholders", placeholders);
+        report.put("invalid", invalid);
+        return report;
+    }
+
+    /**
+     * Análisis estático de las reglas de un tenant.
+     * GET /rules/analysis?tenantId=...
+     *
+     * Por regla: nodos, features y celdas que necesita, coste estimado, hojas
+     * compartidas con otras reglas y condiciones que no se pueden cumplir.
+     */
+    @GetMapping("/analysis")
+    public Map<String, Object> analyzeRules(@RequestParam(defaultValue = "default") String tenantId) {
+        Map<String, Object> logic = new LinkedHashMap<>();
+        for (Rule rule : ruleRepository.findByTenantId(tenantId)) {
+            logic.put(rule.getId(), rule.getLogic());
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("tenant_id", tenantId);
+        report.putAll(ruleAnalysisService.analyze(logic, Map.of()));
+        return report;
+    }
+
+    /**
+     * Análisis estático de una importación propuesta (mismo cuerpo que POST
+     * /rules/import) frente a las reglas actuales del tenant, sin guardar nada.
+     * POST /rules/analysis?tenantId=...&format=json|yaml
+     */
+    @PostMapping("/analysis")
+    public Map<String, Object> analyzeImport(@RequestBody String data,
+                                             @RequestParam(defaultValue = "json") String format,
+                                             @RequestParam(defaultValue = "default") String tenantId) {
+        List<RuleRequest> proposed;
+        try {
+            proposed = parseImport(data, format);
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Importación no válida: " + e.getMessage());
+        }
+        if (proposed == null || proposed.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Los datos deben contener una lista de reglas");
+        }
+
+        Map<String, Object> logic = new LinkedHashMap<>();
+        for (RuleRequest request : proposed) {
+            logic.put(request.getId(), request.getLogic());
+        }
+        // Las reglas con el mismo id se sustituirían al importar
+        Map<String, Object> existing = new LinkedHashMap<>();
+        for (Rule rule : ruleRepository.findByTenantId(tenantId)) {
+            if (!logic.containsKey(rule.getId())) {
+                existing.put(rule.getId(), rule.getLogic());
+            }
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("tenant_id", tenantId);
+        report.put("existing_rules", existing.size());
+        report.putAll(ruleAnalysisService.analyze(logic, existing));
+        return report;
+    }
+
     /**
      * Exporta reglas en formato JSON o YAML.
      * GET /rules/export?format=json|yaml
@@ -418,37 +538,7 @@ public class RuleController {
     public Map<String, Object> importRules(@RequestBody String data,
                                           @RequestParam(defaultValue = "json") String format) {
         try {
-            List<RuleRequest> rulesToImport;
-
-            if ("yaml".equalsIgnoreCase(format)) {
-                try {
-                    // Intento directo a RuleRequest (YAML en snake_case como lista)
-                    rulesToImport = yamlMapper.readValue(data, new TypeReference<List<RuleRequest>>() {});
-                } catch (Exception parseEx) {
-                    try {
-                        // Fallback: YAML con estructura de mensajes anidada como lista
-                        List<Map<String, Object>> rawList = yamlMapper.readValue(data, new TypeReference<List<Map<String, Object>>>() {});
-                        rulesToImport = new ArrayList<>();
-                        for (Map<String, Object> raw : rawList) {
-                            rulesToImport.add(convertRawToRuleRequest(raw));
-                        }
-                    } catch (Exception parseEx2) {
-                        // Fallback final: YAML con reglas como claves del nivel raíz (formato rules_basic.yaml)
-                        Map<String, Object> rootMap = yamlMapper.readValue(data, new TypeReference<Map<String, Object>>() {});
-                        rulesToImport = new ArrayList<>();
-                        for (Map.Entry<String, Object> entry : rootMap.entrySet()) {
-                            String ruleId = entry.getKey();
-                            if (entry.getValue() instanceof Map<?, ?> ruleData) {
-                                Map<String, Object> ruleMap = new HashMap<>((Map<String, Object>) ruleData);
-                                ruleMap.put("id", ruleId); // Agregar el ID como campo
-                                rulesToImport.add(convertRawToRuleRequest(ruleMap));
-                            }
-                        }
-                    }
-                }
-            } else {
-                rulesToImport = objectMapper.readValue(data, new TypeReference<List<RuleRequest>>() {});
-            }
+            List<RuleRequest> rulesToImport = parseImport(data, format);
 
             if (rulesToImport == null || rulesToImport.isEmpty()) {
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST, 
@@ -492,6 +582,44 @@ public class RuleController {
         }
     }
 
+    /**
+     * Reglas de un cuerpo de importación JSON o YAML (mismos formatos que POST /rules/import).
+     */
+    private List<RuleRequest> parseImport(String data, String format) throws Exception {
+        List<RuleRequest> rulesToImport;
+
+        if ("yaml".equalsIgnoreCase(format)) {
+            try {
+                // Intento directo a RuleRequest (YAML en snake_case como lista)
+                rulesToImport = yamlMapper.readValue(data, new TypeReference<List<RuleRequest>>() {});
+            } catch (Exception parseEx) {
+                try {
+                    // Fallback: YAML con estructura de mensajes anidada como lista
+                    List<Map<String, Object>> rawList = yamlMapper.readValue(data, new TypeReference<List<Map<String, Object>>>() {});
+                    rulesToImport = new ArrayList<>();
+                    for (Map<String, Object> raw : rawList) {
+                        rulesToImport.add(convertRawToRuleRequest(raw));
+                    }
+                } catch (Exception parseEx2) {
+                    // Fallback final: YAML con reglas como claves del nivel raíz (formato rules_basic.yaml)
+                    Map<String, Object> rootMap = yamlMapper.readValue(data, new TypeReference<Map<String, Object>>() {});
+                    rulesToImport = new ArrayList<>();
+                    for (Map.Entry<String, Object> entry : rootMap.entrySet()) {
+                        String ruleId = entry.getKey();
+                        if (entry.getValue() instanceof Map<?, ?> ruleData) {
+                            Map<String, Object> ruleMap = new HashMap<>((Map<String, Object>) ruleData);
+                            ruleMap.put("id", ruleId); // Agregar el ID como campo
+                            rulesToImport.add(convertRawToRuleRequest(ruleMap));
+                        }
+                    }
+                }
+            }
+        } else {
+            rulesToImport = objectMapper.readValue(data, new TypeReference<List<RuleRequest>>() {});
+        }
+        return rulesToImport;
+    }
+
     /**
      * Convierte un mapa crudo (posible YAML) a RuleRequest, aceptando keys snake_case y
      * mensajes anidados (messages: { locale, candidates: [...] }).
@@ -748,7 +876,7 @@ public class RuleController {
                             .build();
                     
                     rule.setTags(List.of());
-                    rule.setLogic(Map.of("var", "steps", "op", ">", "value", 0)); // Lógica por defecto
+                    rule.setLogic(PLACEHOLDER_LOGIC); // Lógica por defecto
                     created++;
                 }
                 
@@ -825,7 +953,7 @@ public class RuleController {
                                 .build();
                         
                         rule.setTags(List.of());
-                        rule.setLogic(Map.of("var", "steps", "op", ">", "value", 0)); // Lógica por defecto
+                        rule.setLogic(PLACEHOLDER_LOGIC); // Lógica por defecto
                         created++;
                     }
                     
@@ -2,12 +2,17 @@ package com.eterna.dx.rulesengine.controller;
 
 import com.eterna.dx.rulesengine.dto.request.VariableRequest;
 import com.eterna.dx.rulesengine.entity.Variable;
+import com.eterna.dx.rulesengine.features.DerivedExpression;
+import com.eterna.dx.rulesengine.features.FeatureCache;
+import com.eterna.dx.rulesengine.features.FeatureService;
 import com.eterna.dx.rulesengine.repository.VariableRepository;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
 import java.util.Map;
@@ -23,6 +28,8 @@ import java.util.Map;
 public class VariableController {
 
     private final VariableRepository variableRepository;
+    private final FeatureService featureService;
+    private final FeatureCache featureCache;
 
     /**
      * Lista todas las variables.
@@ -39,6 +46,15 @@ public class VariableController {
      */
     @PostMapping
     public Map<String, String> createOrUpdateVariable(@Valid @RequestBody VariableRequest request) {
+        String derivedExpression = request.getDerivedExpression();
+        if (derivedExpression != null && !derivedExpression.isBlank()) {
+            try {
+                DerivedExpression.parse(derivedExpression);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+        }
+
         try {
             Variable variable = variableRepository.findByKey(request.getKey())
                     .orElse(new Variable());
@@ -55,10 +71,14 @@ public class VariableController {
             variable.setMissingPolicy(request.getMissingPolicy());
             variable.setDecimals(request.getDecimals());
             variable.setCategory(request.getCategory());
+            variable.setDerivedExpression(derivedExpression);
             variable.setTenantId(request.getTenantId());
             variable.setExamples(request.getExamples());
 
             variableRepository.save(variable);
+            // Los agregadores del catálogo y las expresiones derivadas cambian el conjunto de features
+            featureService.refreshVariableDefinitions();
+            featureCache.invalidateAll();
 
             log.info("Variable {} creada/actualizada exitosamente", request.getKey());
             return Map.of("key", request.getKey());
@@ -0,0 +1,422 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Regla compilada que reordena los hijos de all/any/none según la
+ * selectividad observada.
+ *
+ * Una de cada {@value #SAMPLE_PERIOD} evaluaciones con todas las features
+ * presentes se evalúa además sobre una réplica del árbol que cuenta, por
+ * hijo, cuántas veces resulta cierto. Cada {@value #SAMPLES_PER_REORDER}
+ * muestras se ordena cada grupo por coste / probabilidad de cortar (falso en
+ * all, cierto en any/none) y, si el orden cambia, se regenera la clase. El
+ * coste de un hijo es su número de condiciones; las muestras antiguas pierden
+ * peso en cada ronda para seguir los cambios en los datos.
+ *
+ * El orden solo afecta a la vía rápida de la clase generada; con features
+ * ausentes se sigue el orden escrito, y la traza del intérprete nunca cambia.
+ */
+@Slf4j
+final class AdaptiveRule implements CompiledRule {
+
+    private static final int SAMPLE_PERIOD = 64;
+    private static final int SAMPLES_PER_REORDER = 256;
+    private static final double MIN_PROBABILITY = 0.01;
+
+    private final String ruleId;
+    private final Function<Map<Node, List<Node>>, CompiledRule> generator;
+    private final Probe probe;
+    private final int[] slots;
+    private final List<Group> groups;
+
+    private volatile CompiledRule current;
+    // Contador sin sincronizar: perder incrementos solo altera el muestreo
+    private int evaluations;
+    private int samples;
+
+    private AdaptiveRule(String ruleId, CompiledRule initial, Function<Map<Node, List<Node>>, CompiledRule> generator,
+                         Probe probe, int[] slots, List<Group> groups) {
+        this.ruleId = ruleId;
+        this.current = initial;
+        this.generator = generator;
+        this.probe = probe;
+        this.slots = slots;
+        this.groups = groups;
+    }
+
+    /**
+     * Envuelve una regla compilada si tiene algún grupo que reordenar.
+     *
+     * @param generator genera la regla con el orden de hijos indicado
+     * @param slotIndex slots del conjunto (ya incluyen los de la regla)
+     * @return la regla adaptativa, o la compilada si no hay nada que reordenar
+     * o alguna condición falla siempre
+     */
+    static CompiledRule wrap(String ruleId, Node root, CompiledRule compiled,
+                             Function<Map<Node, List<Node>>, CompiledRule> generator, Map<String, Integer> slotIndex) {
+        List<Group> groups = new ArrayList<>();
+        List<Integer> used = new ArrayList<>();
+        Probe probe = build(root, slotIndex, groups, used);
+        if (probe == null || groups.isEmpty()) {
+            return compiled;
+        }
+        int[] slots = used.stream().mapToInt(Integer::intValue).distinct().toArray();
+        return new AdaptiveRule(ruleId, compiled, generator, probe, slots, groups);
+    }
+
+    /**
+     * Hijos de un grupo all/any/none en el orden escrito.
+     */
+    static List<Node> children(Node node) {
+        if (node instanceof AllCondition) {
+            return ((AllCondition) node).getAll();
+        }
+        if (node instanceof AnyCondition) {
+            return ((AnyCondition) node).getAny();
+        }
+        return ((NoneCondition) node).getNone();
+    }
+
+    @Override
+    public int evaluate(double[] values, boolean[] present) {
+        if (++evaluations % SAMPLE_PERIOD == 0) {
+            sample(values, present);
+        }
+        return current.evaluate(values, present);
+    }
+
+    private synchronized void sample(double[] values, boolean[] present) {
+        for (int slot : slots) {
+            if (!present[slot]) {
+                return;
+            }
+        }
+        probe.test(values);
+        if (++samples % SAMPLES_PER_REORDER == 0) {
+            reorder();
+        }
+    }
+
+    private void reorder() {
+        boolean changed = false;
+        for (Group group : groups) {
+            changed |= group.reorder();
+        }
+        if (!changed) {
+            return;
+        }
+        Map<Node, List<Node>> order = new IdentityHashMap<>();
+        for (Group group : groups) {
+            List<Node> children = new ArrayList<>(group.order.length);
+            for (int index : group.order) {
+                children.add(group.children.get(index));
+            }
+            order.put(group.node, children);
+        }
+        try {
+            current = generator.apply(order);
+            log.debug("Regla {} reordenada", ruleId);
+        } catch (RuntimeException | LinkageError e) {
+            log.warn("No se pudo regenerar la regla {}: {}", ruleId, e.getMessage());
+        }
+    }
+
+    /**
+     * Réplica del árbol para muestrear; null si alguna condición falla siempre
+     * o no se puede evaluar sin el intérprete.
+     */
+    private static Probe build(Node node, Map<String, Integer> slotIndex, List<Group> groups, List<Integer> used) {
+        if (node instanceof AllCondition || node instanceof AnyCondition || node instanceof NoneCondition) {
+            List<Node> children = children(node);
+            Probe[] probes = new Probe[children.size()];
+            int cost = 0;
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = build(children.get(i), slotIndex, groups, used);
+                if (probes[i] == null) {
+                    return null;
+                }
+                cost += probes[i].cost;
+            }
+            Group group = new Group(node, children, probes, cost);
+            if (probes.length > 1) {
+                groups.add(group);
+            }
+            return group;
+        }
+        if (node instanceof NumericCondition) {
+            return numeric((NumericCondition) node, slotIndex, used);
+        }
+        if (node instanceof TemporalCondition) {
+            return numeric(((TemporalCondition) node).lowered(), slotIndex, used);
+        }
+        if (node instanceof RelativeCondition) {
+            return relative((RelativeCondition) node, slotIndex, used);
+        }
+        if (node instanceof ExpressionCondition) {
+            return expression((ExpressionCondition) node, slotIndex, used);
+        }
+        return null;
+    }
+
+    private static Probe numeric(NumericCondition condition, Map<String, Integer> slotIndex, List<Integer> used) {
+        String op = condition.getOp();
+        Object value = condition.getValue();
+        if (condition.getVar() == null || condition.getAgg() == null || op == null || value == null
+                || "in".equals(op)) {
+            return null;
+        }
+        Integer slot = slotIndex.get(RuleCompiler.slotKey(condition.getVar(), condition.getAgg()));
+        if (slot == null) {
+            return null;
+        }
+        used.add(slot);
+
+        if ("between".equals(op)) {
+            Double min = null;
+            Double max = null;
+            if (value instanceof List && ((List<?>) value).size() == 2) {
+                min = RuleCompiler.toDouble(((List<?>) value).get(0));
+                max = RuleCompiler.toDouble(((List<?>) value).get(1));
+            }
+            if (min == null || max == null) {
+                return Probe.constant(false);
+            }
+            double low = min;
+            double high = max;
+            return Probe.leaf(values -> values[slot] >= low && values[slot] <= high);
+        }
+        Double threshold = RuleCompiler.toDouble(value);
+        int kind = ColumnarRuleset.comparison(op);
+        if (threshold == null || kind < 0) {
+            return Probe.constant(false);
+        }
+        double constant = threshold;
+        return Probe.leaf(values -> ColumnarRuleset.compare(kind, values[slot], constant));
+    }
+
+    private static Probe relative(RelativeCondition condition, Map<String, Integer> slotIndex, List<Integer> used) {
+        RelativeCondition.VarRef left = condition.getLeft();
+        RelativeCondition.VarRef right = condition.getRight();
+        String op = condition.getOp();
+        if (left == null || right == null || op == null || left.getVar() == null || left.getAgg() == null
+                || right.getVar() == null || right.getAgg() == null) {
+            return null;
+        }
+        Integer leftSlot = slotIndex.get(RuleCompiler.slotKey(left.getVar(), left.getAgg()));
+        Integer rightSlot = slotIndex.get(RuleCompiler.slotKey(right.getVar(), right.getAgg()));
+        if (leftSlot == null || rightSlot == null) {
+            return null;
+        }
+        used.add(leftSlot);
+        used.add(rightSlot);
+
+        int kind = ColumnarRuleset.comparison(op);
+        if (kind < 0) {
+            return Probe.constant(false);
+        }
+        double leftScale = left.getScale() != null ? left.getScale() : 1.0;
+        double rightScale = right.getScale() != null ? right.getScale() : 1.0;
+        return Probe.leaf(values -> ColumnarRuleset.compare(kind,
+                left.getScale() != null ? values[leftSlot] * leftScale : values[leftSlot],
+                right.getScale() != null ? values[rightSlot] * rightScale : values[rightSlot]));
+    }
+
+    private static Probe expression(ExpressionCondition condition, Map<String, Integer> slotIndex, List<Integer> used) {
+        String op = condition.getOp();
+        Object value = condition.getValue();
+        if (condition.getExpr() == null || op == null || value == null) {
+            return Probe.constant(false);
+        }
+        Value expr = arithmetic(condition.getExpr(), slotIndex, used);
+        if (expr == null) {
+            return null;
+        }
+        if ("between".equals(op)) {
+            Double min = null;
+            Double max = null;
+            if (value instanceof List && ((List<?>) value).size() == 2) {
+                min = RuleCompiler.toDouble(((List<?>) value).get(0));
+                max = RuleCompiler.toDouble(((List<?>) value).get(1));
+            }
+            if (min == null || max == null) {
+                return Probe.constant(false);
+            }
+            double low = min;
+            double high = max;
+            return Probe.leaf(values -> {
+                double v = expr.apply(values);
+                return v >= low && v <= high;
+            });
+        }
+        Double threshold = RuleCompiler.toDouble(value);
+        int kind = ColumnarRuleset.comparison(op);
+        if (threshold == null || kind < 0) {
+            return Probe.constant(false);
+        }
+        double constant = threshold;
+        return Probe.leaf(values -> ColumnarRuleset.compare(kind, expr.apply(values), constant));
+    }
+
+    /**
+     * Expresión sobre los valores de los slots; null si no se puede evaluar sin el intérprete.
+     */
+    private static Value arithmetic(ArithmeticExpression expr, Map<String, Integer> slotIndex, List<Integer> used) {
+        String op = expr.getOp();
+        if (op == null) {
+            if (expr.getVar() == null) {
+                if (expr.getConstant() == null) {
+                    return null;
+                }
+                double constant = expr.getConstant();
+                return values -> constant;
+            }
+            Integer slot = slotIndex.get(RuleCompiler.slotKey(expr.getVar(), expr.getAgg()));
+            if (slot == null) {
+                return null;
+            }
+            used.add(slot);
+            return values -> values[slot];
+        }
+        ArithmeticExpression.Operator operator;
+        try {
+            operator = expr.operator();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        List<ArithmeticExpression> args = expr.getArgs();
+        Value[] operands = new Value[args.size()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = arithmetic(args.get(i), slotIndex, used);
+            if (operands[i] == null) {
+                return null;
+            }
+        }
+        if (operands.length == 1) {
+            return values -> operator.apply(operands[0].apply(values));
+        }
+        return values -> {
+            double result = operands[0].apply(values);
+            for (int i = 1; i < operands.length; i++) {
+                result = operator.apply(result, operands[i].apply(values));
+            }
+            return result;
+        };
+    }
+
+    private interface Value {
+        double apply(double[] values);
+    }
+
+    private interface LeafTest {
+        boolean test(double[] values);
+    }
+
+    /**
+     * Nodo de la réplica con todas las features presentes.
+     */
+    private abstract static class Probe {
+        final int cost;
+
+        Probe(int cost) {
+            this.cost = cost;
+        }
+
+        abstract boolean test(double[] values);
+
+        static Probe leaf(LeafTest test) {
+            return new Probe(1) {
+                @Override
+                boolean test(double[] values) {
+                    return test.test(values);
+                }
+            };
+        }
+
+        static Probe constant(boolean result) {
+            return leaf(values -> result);
+        }
+    }
+
+    /**
+     * Grupo all/any/none: evalúa todos los hijos para contar cuántas veces es cierto cada uno.
+     */
+    private static final class Group extends Probe {
+        private final Node node;
+        private final List<Node> children;
+        private final Probe[] probes;
+        private final long[] hits;
+        private long tests;
+        private int[] order;
+
+        Group(Node node, List<Node> children, Probe[] probes, int cost) {
+            super(cost);
+            this.node = node;
+            this.children = children;
+            this.probes = probes;
+            this.hits = new long[probes.length];
+            this.order = new int[probes.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+        }
+
+        @Override
+        boolean test(double[] values) {
+            tests++;
+            boolean all = true;
+            boolean any = false;
+            for (int i = 0; i < probes.length; i++) {
+                boolean result = probes[i].test(values);
+                if (result) {
+                    hits[i]++;
+                }
+                all &= result;
+                any |= result;
+            }
+            if (node instanceof AllCondition) {
+                return all;
+            }
+            return node instanceof AnyCondition ? any : !any;
+        }
+
+        /**
+         * Ordena los hijos por coste esperado hasta cortar (orden estable ante empates).
+         *
+         * @return si el orden ha cambiado
+         */
+        boolean reorder() {
+            if (tests == 0) {
+                return false;
+            }
+            boolean conjunction = node instanceof AllCondition;
+            double[] rank = new double[probes.length];
+            for (int i = 0; i < probes.length; i++) {
+                double pass = (double) hits[i] / tests;
+                double cut = conjunction ? 1 - pass : pass;
+                rank[i] = probes[i].cost / Math.max(MIN_PROBABILITY, cut);
+                // Las muestras antiguas pesan la mitad en cada ronda
+                hits[i] >>= 1;
+            }
+            tests >>= 1;
+            Integer[] sorted = new Integer[probes.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = order[i];
+            }
+            Arrays.sort(sorted, (a, b) -> Double.compare(rank[a], rank[b]));
+            int[] next = Arrays.stream(sorted).mapToInt(Integer::intValue).toArray();
+            if (Arrays.equals(next, order)) {
+                return false;
+            }
+            order = next;
+            return true;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import lombok.Builder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Condición que requiere que TODAS las condiciones hijas se cumplan (AND lógico).
@@ -49,4 +50,11 @@ public class AllCondition implements Node {
 
         return result;
     }
+
+    @Override
+    public void collectFeatures(Map<String, Set<String>> refs) {
+        for (Node child : all) {
+            child.collectFeatures(refs);
+        }
+    }
 }
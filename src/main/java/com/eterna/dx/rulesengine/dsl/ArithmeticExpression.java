@@ -0,0 +1,277 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Expresión aritmética sobre celdas de features de una {@link ExpressionCondition}.
+ *
+ * Cada nodo es una hoja (referencia {@code var}/{@code agg} o constante) o una
+ * operación sobre {@code args}: {@code + * min max} (dos o más operandos, de
+ * izquierda a derecha), {@code -} (resta de dos o cambio de signo de uno),
+ * {@code /} (dos) y {@code abs} (uno). Si falta algún operando la expresión es
+ * nula; el resto sigue la aritmética de double (una división por cero da
+ * infinito o NaN).
+ *
+ * La operación se resuelve a un {@link Operator} (y se comprueba el número de
+ * operandos) una sola vez; la evaluación trabaja con double sin cajas y marca
+ * la falta de un operando con {@link #MISSING}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ArithmeticExpression {
+
+    /**
+     * Resultado de {@link #eval} cuando falta un operando: un NaN con bits
+     * propios, distinto del NaN que puede tener una feature.
+     */
+    static final double MISSING = Double.longBitsToDouble(0x7ff80000_4d495353L);
+
+    /**
+     * Operación; null en las hojas.
+     */
+    private String op;
+
+    private List<ArithmeticExpression> args;
+
+    private String var;
+
+    @Builder.Default
+    private String agg = "current";
+
+    /**
+     * Valor de una hoja sin variable.
+     */
+    private Double constant;
+
+    // Operación resuelta en el primer uso (o al parsear)
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private transient Operator operator;
+
+    public static ArithmeticExpression ref(String var, String agg) {
+        return ArithmeticExpression.builder().var(var).agg(agg).build();
+    }
+
+    public static ArithmeticExpression constant(double value) {
+        return ArithmeticExpression.builder().constant(value).build();
+    }
+
+    public static ArithmeticExpression apply(String op, List<ArithmeticExpression> args) {
+        return ArithmeticExpression.builder().op(op).args(args).build();
+    }
+
+    /**
+     * Operación ya resuelta cuyo número de operandos se ha comprobado (al parsear).
+     */
+    static ArithmeticExpression apply(Operator operator, List<ArithmeticExpression> args) {
+        return ArithmeticExpression.builder().op(operator.symbol()).args(args).operator(operator).build();
+    }
+
+    public void setOp(String op) {
+        this.op = op;
+        this.operator = null;
+    }
+
+    public void setArgs(List<ArithmeticExpression> args) {
+        this.args = args;
+        this.operator = null;
+    }
+
+    /**
+     * Indica si un resultado de {@link #eval} es la falta de un operando.
+     */
+    public static boolean isMissing(double value) {
+        return Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(MISSING);
+    }
+
+    /**
+     * Operación del nodo con el número de operandos comprobado; null en las hojas.
+     *
+     * @throws IllegalArgumentException si la operación no existe o el número de operandos no es válido
+     */
+    Operator operator() {
+        Operator resolved = operator;
+        if (resolved == null && op != null) {
+            resolved = Operator.of(op);
+            resolved.checkArity(args != null ? args.size() : 0);
+            operator = resolved;
+        }
+        return resolved;
+    }
+
+    /**
+     * Valor de la expresión con las features indicadas; {@link #MISSING} si
+     * falta algún operando o no es numérico.
+     *
+     * @throws IllegalArgumentException si la expresión está mal formada
+     */
+    public double eval(Map<String, Map<String, Object>> features) {
+        Operator operation = operator();
+        if (operation == null) {
+            if (var == null) {
+                return constant != null ? constant : MISSING;
+            }
+            Map<String, Object> aggregates = features.get(var);
+            Object value = aggregates != null ? aggregates.get(agg) : null;
+            Double number = value != null ? RuleCompiler.toDouble(value) : null;
+            return number != null ? number : MISSING;
+        }
+        double result = args.get(0).eval(features);
+        if (isMissing(result)) {
+            return MISSING;
+        }
+        if (args.size() == 1) {
+            return operation.apply(result);
+        }
+        for (int i = 1; i < args.size(); i++) {
+            double operand = args.get(i).eval(features);
+            if (isMissing(operand)) {
+                return MISSING;
+            }
+            result = operation.apply(result, operand);
+        }
+        return result;
+    }
+
+    /**
+     * Añade las celdas de features que lee la expresión.
+     */
+    public void collectFeatures(Map<String, Set<String>> refs) {
+        if (op == null) {
+            Node.addFeatureRef(refs, var, agg);
+        } else if (args != null) {
+            for (ArithmeticExpression arg : args) {
+                arg.collectFeatures(refs);
+            }
+        }
+    }
+
+    /**
+     * Forma JSON del DSL (la que acepta {@link DSLParser}).
+     */
+    @JsonValue
+    public Object toJson() {
+        if (op == null) {
+            if (var == null) {
+                return constant;
+            }
+            Map<String, Object> ref = new LinkedHashMap<>();
+            ref.put("var", var);
+            ref.put("agg", agg);
+            return ref;
+        }
+        Map<String, Object> operation = new LinkedHashMap<>();
+        operation.put(op, args != null ? args.stream().map(ArithmeticExpression::toJson).collect(Collectors.toList()) : null);
+        return operation;
+    }
+
+    /**
+     * Forma legible para la traza, p. ej. {@code (hrv / resting_hr.mean_7d)}.
+     */
+    @Override
+    public String toString() {
+        if (op == null) {
+            if (var != null) {
+                return "current".equals(agg) ? var : var + "." + agg;
+            }
+            return constant == null || !Double.isFinite(constant) ? String.valueOf(constant)
+                    : BigDecimal.valueOf(constant).stripTrailingZeros().toPlainString();
+        }
+        if (args == null) {
+            return op + "()";
+        }
+        String operands = args.stream().map(ArithmeticExpression::toString)
+                .collect(Collectors.joining("abs".equals(op) || "min".equals(op) || "max".equals(op) ? ", " : " " + op + " "));
+        if ("abs".equals(op) || "min".equals(op) || "max".equals(op)) {
+            return op + "(" + operands + ")";
+        }
+        return args.size() == 1 ? op + operands : "(" + operands + ")";
+    }
+
+    /**
+     * Operaciones aritméticas con su número de operandos.
+     */
+    enum Operator {
+        ADD("+", 2, Integer.MAX_VALUE),
+        SUBTRACT("-", 1, 2),
+        MULTIPLY("*", 2, Integer.MAX_VALUE),
+        DIVIDE("/", 2, 2),
+        ABS("abs", 1, 1),
+        MIN("min", 2, Integer.MAX_VALUE),
+        MAX("max", 2, Integer.MAX_VALUE);
+
+        private final String symbol;
+        private final int minArgs;
+        private final int maxArgs;
+
+        Operator(String symbol, int minArgs, int maxArgs) {
+            this.symbol = symbol;
+            this.minArgs = minArgs;
+            this.maxArgs = maxArgs;
+        }
+
+        /**
+         * @throws IllegalArgumentException si la operación no existe
+         */
+        static Operator of(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException("Operación aritmética no soportada: " + symbol);
+        }
+
+        String symbol() {
+            return symbol;
+        }
+
+        /**
+         * @throws IllegalArgumentException si el número de operandos no es válido
+         */
+        void checkArity(int count) {
+            if (count < minArgs || count > maxArgs) {
+                throw new IllegalArgumentException("Número de operandos no válido para '" + symbol + "': " + count);
+            }
+        }
+
+        double apply(double x) {
+            return this == ABS ? Math.abs(x) : -x;
+        }
+
+        double apply(double x, double y) {
+            switch (this) {
+                case ADD:
+                    return x + y;
+                case SUBTRACT:
+                    return x - y;
+                case MULTIPLY:
+                    return x * y;
+                case DIVIDE:
+                    return x / y;
+                case MIN:
+                    return Math.min(x, y);
+                default:
+                    return Math.max(x, y);
+            }
+        }
+    }
+}
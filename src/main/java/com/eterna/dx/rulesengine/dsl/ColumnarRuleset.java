@@ -0,0 +1,631 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reglas de un tenant preparadas para evaluarse sobre muchos usuarios a la
+ * vez (una columna por celda de features).
+ *
+ * Las features de N usuarios se disponen como columnas de doubles con un mapa
+ * de bits de presencia por slot. Cada condición se evalúa con un bucle plano
+ * sobre la columna que produce un mapa de bits (un bit por usuario) y los
+ * combinadores operan con AND/OR sobre palabras de 64 usuarios. Junto al
+ * resultado se propaga el mapa de usuarios para los que el intérprete
+ * fallaría (condición alcanzada con valor nulo), con el mismo cortocircuito
+ * que {@link Node#eval}. Las reglas con nodos u operadores no soportados
+ * ({@code in}) no se incluyen y se evalúan con el intérprete. Las expresiones
+ * aritméticas se calculan también por columnas para todo el lote.
+ */
+public final class ColumnarRuleset {
+
+    /**
+     * Resultado de {@link #evaluate} para usuarios que se evalúan con el intérprete.
+     */
+    public static final int INTERPRETED = -2;
+
+    private final List<String[]> slots;
+    private final Map<String, Op> rules;
+
+    private ColumnarRuleset(List<String[]> slots, Map<String, Op> rules) {
+        this.slots = slots;
+        this.rules = Collections.unmodifiableMap(rules);
+    }
+
+    /**
+     * Prepara las reglas indicadas (id de regla -> lógica parseada).
+     */
+    public static ColumnarRuleset compile(Map<String, Node> rules) {
+        List<String[]> slots = new ArrayList<>();
+        Map<String, Integer> slotIndex = new HashMap<>();
+        Map<String, Op> compiled = new LinkedHashMap<>();
+        for (Map.Entry<String, Node> entry : rules.entrySet()) {
+            int slotsBefore = slots.size();
+            try {
+                compiled.put(entry.getKey(), build(entry.getValue(), slots, slotIndex));
+            } catch (UnsupportedOperationException e) {
+                while (slots.size() > slotsBefore) {
+                    String[] ref = slots.remove(slots.size() - 1);
+                    slotIndex.remove(ref[0] + '\u0000' + ref[1]);
+                }
+            }
+        }
+        return new ColumnarRuleset(slots, compiled);
+    }
+
+    /**
+     * Dispone las features de los usuarios (en el orden de la lista) por columnas.
+     * Los usuarios con algún valor no numérico en los slots quedan marcados para
+     * evaluarse con el intérprete.
+     */
+    public Batch bind(List<Map<String, Map<String, Object>>> features) {
+        int size = features.size();
+        int words = (size + 63) >>> 6;
+        double[][] values = new double[slots.size()][size];
+        long[][] present = new long[slots.size()][words];
+        long[] interpreted = new long[words];
+
+        for (int slot = 0; slot < values.length; slot++) {
+            String[] ref = slots.get(slot);
+            double[] column = values[slot];
+            long[] bits = present[slot];
+            for (int user = 0; user < size; user++) {
+                Map<String, Object> aggregates = features.get(user).get(ref[0]);
+                Object value = aggregates != null ? aggregates.get(ref[1]) : null;
+                if (value == null) {
+                    continue;
+                }
+                Double number = RuleCompiler.toDouble(value);
+                if (number == null) {
+                    interpreted[user >>> 6] |= 1L << user;
+                    continue;
+                }
+                column[user] = number;
+                bits[user >>> 6] |= 1L << user;
+            }
+        }
+
+        long[] all = new long[words];
+        Arrays.fill(all, -1L);
+        if ((size & 63) != 0) {
+            all[words - 1] = (1L << size) - 1;
+        }
+        return new Batch(size, values, present, all, interpreted);
+    }
+
+    /**
+     * Evalúa una regla para todos los usuarios del lote.
+     *
+     * @return por usuario {@link CompiledRule#TRUE}, {@link CompiledRule#FALSE},
+     * {@link CompiledRule#ERROR} o {@link #INTERPRETED} (evaluar con el
+     * intérprete); null si la regla no se ha preparado
+     */
+    public int[] evaluate(String ruleId, Batch batch) {
+        Op rule = rules.get(ruleId);
+        if (rule == null) {
+            return null;
+        }
+        int words = batch.all.length;
+        long[] result = new long[words];
+        long[] error = new long[words];
+        rule.eval(batch, batch.all, result, error);
+
+        int[] outcomes = new int[batch.size];
+        for (int user = 0; user < batch.size; user++) {
+            int word = user >>> 6;
+            long bit = 1L << user;
+            if ((batch.interpreted[word] & bit) != 0) {
+                outcomes[user] = INTERPRETED;
+            } else if ((error[word] & bit) != 0) {
+                outcomes[user] = CompiledRule.ERROR;
+            } else {
+                outcomes[user] = (result[word] & bit) != 0 ? CompiledRule.TRUE : CompiledRule.FALSE;
+            }
+        }
+        return outcomes;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Features de un lote de usuarios por columnas.
+     */
+    public static final class Batch {
+        private final int size;
+        private final double[][] values;
+        private final long[][] present;
+        private final long[] all;
+        private final long[] interpreted;
+
+        private Batch(int size, double[][] values, long[][] present, long[] all, long[] interpreted) {
+            this.size = size;
+            this.values = values;
+            this.present = present;
+            this.all = all;
+            this.interpreted = interpreted;
+        }
+    }
+
+    /**
+     * Nodo evaluado por columnas: para los usuarios de {@code active} escribe en
+     * {@code result} los que cumplen y en {@code error} aquellos para los que el
+     * intérprete fallaría. Los bits fuera de {@code active} quedan a cero.
+     */
+    private interface Op {
+        void eval(Batch batch, long[] active, long[] result, long[] error);
+    }
+
+    private static Op build(Node node, List<String[]> slots, Map<String, Integer> slotIndex) {
+        if (node instanceof AllCondition) {
+            return all(buildChildren(((AllCondition) node).getAll(), slots, slotIndex));
+        } else if (node instanceof AnyCondition) {
+            return any(buildChildren(((AnyCondition) node).getAny(), slots, slotIndex), false);
+        } else if (node instanceof NoneCondition) {
+            return any(buildChildren(((NoneCondition) node).getNone(), slots, slotIndex), true);
+        } else if (node instanceof NumericCondition) {
+            return numeric((NumericCondition) node, slots, slotIndex);
+        } else if (node instanceof TemporalCondition) {
+            return numeric(((TemporalCondition) node).lowered(), slots, slotIndex);
+        } else if (node instanceof RelativeCondition) {
+            return relative((RelativeCondition) node, slots, slotIndex);
+        } else if (node instanceof ExpressionCondition) {
+            return expression((ExpressionCondition) node, slots, slotIndex);
+        }
+        throw new UnsupportedOperationException("Nodo no soportado: " + node.getClass().getSimpleName());
+    }
+
+    private static Op[] buildChildren(List<Node> children, List<String[]> slots, Map<String, Integer> slotIndex) {
+        Op[] ops = new Op[children.size()];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = build(children.get(i), slots, slotIndex);
+        }
+        return ops;
+    }
+
+    /**
+     * AND con cortocircuito: cada hijo solo se evalúa para los usuarios que
+     * siguen activos (todos los anteriores ciertos y sin error).
+     */
+    private static Op all(Op[] children) {
+        return (batch, active, result, error) -> {
+            int words = active.length;
+            long[] remaining = active.clone();
+            long[] childResult = new long[words];
+            long[] childError = new long[words];
+            for (Op child : children) {
+                Arrays.fill(childResult, 0L);
+                Arrays.fill(childError, 0L);
+                child.eval(batch, remaining, childResult, childError);
+                long any = 0;
+                for (int w = 0; w < words; w++) {
+                    error[w] |= childError[w];
+                    remaining[w] &= childResult[w] & ~childError[w];
+                    any |= remaining[w];
+                }
+                if (any == 0) {
+                    break;
+                }
+            }
+            System.arraycopy(remaining, 0, result, 0, words);
+        };
+    }
+
+    /**
+     * OR (negado para none) evaluando todos los hijos para todos los usuarios activos.
+     */
+    private static Op any(Op[] children, boolean negate) {
+        return (batch, active, result, error) -> {
+            int words = active.length;
+            long[] childResult = new long[words];
+            long[] childError = new long[words];
+            long[] accumulated = new long[words];
+            for (Op child : children) {
+                Arrays.fill(childResult, 0L);
+                Arrays.fill(childError, 0L);
+                child.eval(batch, active, childResult, childError);
+                for (int w = 0; w < words; w++) {
+                    accumulated[w] |= childResult[w];
+                    error[w] |= childError[w];
+                }
+            }
+            for (int w = 0; w < words; w++) {
+                result[w] = (negate ? ~accumulated[w] : accumulated[w]) & active[w];
+            }
+        };
+    }
+
+    static final int LT = 0;
+    static final int LE = 1;
+    static final int GT = 2;
+    static final int GE = 3;
+    static final int EQ = 4;
+
+    static int comparison(String op) {
+        switch (op) {
+            case "<":
+                return LT;
+            case "<=":
+                return LE;
+            case ">":
+                return GT;
+            case ">=":
+                return GE;
+            case "==":
+                return EQ;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Condición que siempre falla en el intérprete (campos nulos).
+     */
+    private static Op failing() {
+        return (batch, active, result, error) -> {
+            for (int w = 0; w < active.length; w++) {
+                error[w] |= active[w];
+            }
+        };
+    }
+
+    private static Op numeric(NumericCondition condition, List<String[]> slots, Map<String, Integer> slotIndex) {
+        String op = condition.getOp();
+        Object value = condition.getValue();
+        if (condition.getVar() == null || condition.getAgg() == null || op == null || value == null) {
+            return failing();
+        }
+        if ("in".equals(op)) {
+            throw new UnsupportedOperationException("Operador 'in' no soportado");
+        }
+        int slot = slotFor(condition.getVar(), condition.getAgg(), slots, slotIndex);
+
+        double low;
+        double high;
+        int kind;
+        if ("between".equals(op)) {
+            Double min = null;
+            Double max = null;
+            if (value instanceof List && ((List<?>) value).size() == 2) {
+                min = RuleCompiler.toDouble(((List<?>) value).get(0));
+                max = RuleCompiler.toDouble(((List<?>) value).get(1));
+            }
+            kind = min != null && max != null ? GE : -1;
+            low = min != null ? min : 0;
+            high = max != null ? max : 0;
+            if (kind >= 0) {
+                return leaf(slot, (column, from, count) -> {
+                    long bits = 0;
+                    for (int j = 0; j < count; j++) {
+                        double v = column[from + j];
+                        bits |= (v >= low && v <= high ? 1L : 0L) << j;
+                    }
+                    return bits;
+                });
+            }
+        } else {
+            Double threshold = RuleCompiler.toDouble(value);
+            kind = threshold != null ? comparison(op) : -1;
+            low = threshold != null ? threshold : 0;
+        }
+        if (kind < 0) {
+            return leaf(slot, (column, from, count) -> 0L);
+        }
+        return leaf(slot, constantComparison(kind, low));
+    }
+
+    private static Op relative(RelativeCondition condition, List<String[]> slots, Map<String, Integer> slotIndex) {
+        RelativeCondition.VarRef left = condition.getLeft();
+        RelativeCondition.VarRef right = condition.getRight();
+        String op = condition.getOp();
+        if (left == null || right == null || op == null || left.getVar() == null || left.getAgg() == null
+                || right.getVar() == null || right.getAgg() == null) {
+            return failing();
+        }
+        int leftSlot = slotFor(left.getVar(), left.getAgg(), slots, slotIndex);
+        int rightSlot = slotFor(right.getVar(), right.getAgg(), slots, slotIndex);
+        int kind = comparison(op);
+        double leftScale = left.getScale() != null ? left.getScale() : 1.0;
+        double rightScale = right.getScale() != null ? right.getScale() : 1.0;
+        boolean scaled = left.getScale() != null || right.getScale() != null;
+
+        return (batch, active, result, error) -> {
+            double[] a = batch.values[leftSlot];
+            double[] b = batch.values[rightSlot];
+            long[] presentA = batch.present[leftSlot];
+            long[] presentB = batch.present[rightSlot];
+            for (int w = 0; w < active.length; w++) {
+                if (active[w] == 0) {
+                    continue;
+                }
+                long present = presentA[w] & presentB[w];
+                error[w] |= active[w] & ~present;
+                if (kind < 0) {
+                    continue;
+                }
+                int from = w << 6;
+                int count = Math.min(64, batch.size - from);
+                long bits = 0;
+                for (int j = 0; j < count; j++) {
+                    double x = scaled ? a[from + j] * leftScale : a[from + j];
+                    double y = scaled ? b[from + j] * rightScale : b[from + j];
+                    bits |= (compare(kind, x, y) ? 1L : 0L) << j;
+                }
+                result[w] = bits & present & active[w];
+            }
+        };
+    }
+
+    /**
+     * Condición con expresión: la expresión se calcula columna a columna para
+     * todo el lote y se compara como una condición numérica; falsa (no error)
+     * donde falta alguno de sus slots, como en el intérprete.
+     */
+    private static Op expression(ExpressionCondition condition, List<String[]> slots, Map<String, Integer> slotIndex) {
+        String op = condition.getOp();
+        Object value = condition.getValue();
+        if (condition.getExpr() == null || op == null || value == null) {
+            return (batch, active, result, error) -> Arrays.fill(result, 0L);
+        }
+        List<Integer> used = new ArrayList<>();
+        Column column = arithmetic(condition.getExpr(), slots, slotIndex, used);
+        int[] refs = used.stream().mapToInt(Integer::intValue).distinct().toArray();
+
+        WordTest test = (values, from, count) -> 0L;
+        if ("between".equals(op)) {
+            if (value instanceof List && ((List<?>) value).size() == 2) {
+                Double min = RuleCompiler.toDouble(((List<?>) value).get(0));
+                Double max = RuleCompiler.toDouble(((List<?>) value).get(1));
+                if (min != null && max != null) {
+                    double low = min;
+                    double high = max;
+                    test = (values, from, count) -> {
+                        long bits = 0;
+                        for (int j = 0; j < count; j++) {
+                            double v = values[from + j];
+                            bits |= (v >= low && v <= high ? 1L : 0L) << j;
+                        }
+                        return bits;
+                    };
+                }
+            }
+        } else {
+            Double threshold = RuleCompiler.toDouble(value);
+            int kind = comparison(op);
+            if (threshold != null && kind >= 0) {
+                test = constantComparison(kind, threshold);
+            }
+        }
+        WordTest comparison = test;
+
+        return (batch, active, result, error) -> {
+            double[] values = null;
+            for (int w = 0; w < active.length; w++) {
+                if (active[w] == 0) {
+                    continue;
+                }
+                if (values == null) {
+                    values = column.eval(batch);
+                }
+                long present = -1L;
+                for (int slot : refs) {
+                    present &= batch.present[slot][w];
+                }
+                int from = w << 6;
+                result[w] = comparison.test(values, from, Math.min(64, batch.size - from)) & present & active[w];
+            }
+        };
+    }
+
+    /**
+     * Valores de una expresión para todos los usuarios del lote (sin significado donde falta algún slot).
+     */
+    private interface Column {
+        double[] eval(Batch batch);
+    }
+
+    private static Column arithmetic(ArithmeticExpression expr, List<String[]> slots, Map<String, Integer> slotIndex,
+                                     List<Integer> used) {
+        String op = expr.getOp();
+        if (op == null) {
+            if (expr.getVar() != null && expr.getAgg() != null) {
+                int slot = slotFor(expr.getVar(), expr.getAgg(), slots, slotIndex);
+                used.add(slot);
+                return batch -> batch.values[slot];
+            }
+            if (expr.getVar() == null && expr.getConstant() != null) {
+                double constant = expr.getConstant();
+                return batch -> {
+                    double[] values = new double[batch.size];
+                    Arrays.fill(values, constant);
+                    return values;
+                };
+            }
+            throw new UnsupportedOperationException("Hoja no soportada en la expresión");
+        }
+        ArithmeticExpression.Operator operator;
+        try {
+            operator = expr.operator();
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedOperationException(e.getMessage());
+        }
+        List<ArithmeticExpression> args = expr.getArgs();
+        Column first = arithmetic(args.get(0), slots, slotIndex, used);
+        if (args.size() == 1) {
+            return batch -> {
+                double[] x = first.eval(batch);
+                double[] values = new double[batch.size];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = operator.apply(x[i]);
+                }
+                return values;
+            };
+        }
+        Column result = first;
+        for (int i = 1; i < args.size(); i++) {
+            result = binary(operator, result, arithmetic(args.get(i), slots, slotIndex, used));
+        }
+        return result;
+    }
+
+    /**
+     * Operación binaria elemento a elemento, un bucle por operador.
+     */
+    private static Column binary(ArithmeticExpression.Operator operator, Column left, Column right) {
+        switch (operator) {
+            case ADD:
+                return batch -> {
+                    double[] x = left.eval(batch);
+                    double[] y = right.eval(batch);
+                    double[] values = new double[batch.size];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = x[i] + y[i];
+                    }
+                    return values;
+                };
+            case SUBTRACT:
+                return batch -> {
+                    double[] x = left.eval(batch);
+                    double[] y = right.eval(batch);
+                    double[] values = new double[batch.size];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = x[i] - y[i];
+                    }
+                    return values;
+                };
+            case MULTIPLY:
+                return batch -> {
+                    double[] x = left.eval(batch);
+                    double[] y = right.eval(batch);
+                    double[] values = new double[batch.size];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = x[i] * y[i];
+                    }
+                    return values;
+                };
+            case DIVIDE:
+                return batch -> {
+                    double[] x = left.eval(batch);
+                    double[] y = right.eval(batch);
+                    double[] values = new double[batch.size];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = x[i] / y[i];
+                    }
+                    return values;
+                };
+            default:
+                boolean min = operator == ArithmeticExpression.Operator.MIN;
+                return batch -> {
+                    double[] x = left.eval(batch);
+                    double[] y = right.eval(batch);
+                    double[] values = new double[batch.size];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = min ? Math.min(x[i], y[i]) : Math.max(x[i], y[i]);
+                    }
+                    return values;
+                };
+        }
+    }
+
+    static boolean compare(int kind, double x, double y) {
+        switch (kind) {
+            case LT:
+                return x < y;
+            case LE:
+                return x <= y;
+            case GT:
+                return x > y;
+            case GE:
+                return x >= y;
+            default:
+                return Double.doubleToLongBits(x) == Double.doubleToLongBits(y);
+        }
+    }
+
+    /**
+     * Comparación de una columna con una constante, un bucle por operador.
+     */
+    private static WordTest constantComparison(int kind, double threshold) {
+        switch (kind) {
+            case LT:
+                return (column, from, count) -> {
+                    long bits = 0;
+                    for (int j = 0; j < count; j++) {
+                        bits |= (column[from + j] < threshold ? 1L : 0L) << j;
+                    }
+                    return bits;
+                };
+            case LE:
+                return (column, from, count) -> {
+                    long bits = 0;
+                    for (int j = 0; j < count; j++) {
+                        bits |= (column[from + j] <= threshold ? 1L : 0L) << j;
+                    }
+                    return bits;
+                };
+            case GT:
+                return (column, from, count) -> {
+                    long bits = 0;
+                    for (int j = 0; j < count; j++) {
+                        bits |= (column[from + j] > threshold ? 1L : 0L) << j;
+                    }
+                    return bits;
+                };
+            case GE:
+                return (column, from, count) -> {
+                    long bits = 0;
+                    for (int j = 0; j < count; j++) {
+                        bits |= (column[from + j] >= threshold ? 1L : 0L) << j;
+                    }
+                    return bits;
+                };
+            default:
+                long thresholdBits = Double.doubleToLongBits(threshold);
+                return (column, from, count) -> {
+                    long bits = 0;
+                    for (int j = 0; j < count; j++) {
+                        bits |= (Double.doubleToLongBits(column[from + j]) == thresholdBits ? 1L : 0L) << j;
+                    }
+                    return bits;
+                };
+        }
+    }
+
+    /**
+     * Condición sobre un slot: error donde falta el valor, resultado de la prueba donde está.
+     */
+    private static Op leaf(int slot, WordTest test) {
+        return (batch, active, result, error) -> {
+            double[] column = batch.values[slot];
+            long[] present = batch.present[slot];
+            for (int w = 0; w < active.length; w++) {
+                if (active[w] == 0) {
+                    continue;
+                }
+                error[w] |= active[w] & ~present[w];
+                int from = w << 6;
+                result[w] = test.test(column, from, Math.min(64, batch.size - from)) & present[w] & active[w];
+            }
+        };
+    }
+
+    /**
+     * Prueba de hasta 64 valores consecutivos de una columna; bit j = valor from + j.
+     */
+    private interface WordTest {
+        long test(double[] column, int from, int count);
+    }
+
+    private static int slotFor(String var, String agg, List<String[]> slots, Map<String, Integer> slotIndex) {
+        return slotIndex.computeIfAbsent(var + '\u0000' + agg, key -> {
+            slots.add(new String[]{var, agg});
+            return slots.size() - 1;
+        });
+    }
+}
@@ -0,0 +1,23 @@
+package com.eterna.dx.rulesengine.dsl;
+
+/**
+ * Regla compilada por {@link RuleCompiler} a una clase generada.
+ *
+ * Evalúa la lógica sobre las features ya resueltas a slots
+ * ({@link CompiledRuleset#bind}) sin construir traza. El resultado coincide
+ * con {@link Node#eval}: {@link #ERROR} indica que el intérprete fallaría al
+ * evaluar la regla (por ejemplo, una condición evaluada con valor nulo).
+ */
+public interface CompiledRule {
+
+    int FALSE = 0;
+    int TRUE = 1;
+    int ERROR = -1;
+
+    /**
+     * @param values  valor de cada slot
+     * @param present si el slot tiene valor (false = nulo o ausente)
+     * @return {@link #TRUE}, {@link #FALSE} o {@link #ERROR}
+     */
+    int evaluate(double[] values, boolean[] present);
+}
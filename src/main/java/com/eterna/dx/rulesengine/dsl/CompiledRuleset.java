@@ -0,0 +1,94 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reglas de un tenant compiladas por {@link RuleCompiler} con la tabla de
+ * slots que comparten: cada celda (variable, agregador) leída por alguna
+ * regla tiene un índice fijo en los arrays de valores.
+ */
+public final class CompiledRuleset {
+
+    private final List<String[]> slots;
+    private final Map<String, CompiledRule> rules;
+    private final RuleBdd diagram;
+
+    CompiledRuleset(List<String[]> slots, Map<String, CompiledRule> rules, RuleBdd diagram) {
+        this.slots = slots;
+        this.rules = Collections.unmodifiableMap(rules);
+        this.diagram = diagram;
+    }
+
+    /**
+     * Resuelve las features a los slots del conjunto.
+     *
+     * @return los valores por slot, o null si alguna celda tiene un valor no
+     * numérico (esas features se evalúan con el intérprete)
+     */
+    public Bound bind(Map<String, Map<String, Object>> features) {
+        double[] values = new double[slots.size()];
+        boolean[] present = new boolean[slots.size()];
+        for (int slot = 0; slot < values.length; slot++) {
+            String[] ref = slots.get(slot);
+            Map<String, Object> aggregates = features.get(ref[0]);
+            Object value = aggregates != null ? aggregates.get(ref[1]) : null;
+            if (value == null) {
+                continue;
+            }
+            Double number = RuleCompiler.toDouble(value);
+            if (number == null) {
+                return null;
+            }
+            values[slot] = number;
+            present[slot] = true;
+        }
+        return new Bound(values, present);
+    }
+
+    /**
+     * Evalúa una regla compilada.
+     *
+     * @return resultado de {@link CompiledRule}, o null si la regla no se ha compilado
+     */
+    public Integer evaluate(String ruleId, Bound bound) {
+        CompiledRule rule = rules.get(ruleId);
+        return rule != null ? rule.evaluate(bound.values, bound.present) : null;
+    }
+
+    /**
+     * Si la regla se ha compilado (si no, se evalúa con el intérprete).
+     */
+    public boolean contains(String ruleId) {
+        return rules.containsKey(ruleId);
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    public int slotCount() {
+        return slots.size();
+    }
+
+    /**
+     * Diagrama de decisión de las reglas, o null si no se ha construido.
+     */
+    public RuleBdd getDiagram() {
+        return diagram;
+    }
+
+    /**
+     * Features de un usuario resueltas a los slots del conjunto.
+     */
+    public static final class Bound {
+        private final double[] values;
+        private final boolean[] present;
+
+        private Bound(double[] values, boolean[] present) {
+            this.values = values;
+            this.present = present;
+        }
+    }
+}
@@ -1,22 +1,38 @@
 package com.eterna.dx.rulesengine.dsl;
 
+import com.eterna.dx.rulesengine.config.AppProperties;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Parser para convertir JSON de lógica de reglas a objetos Node del DSL.
  */
 @Component
+@RequiredArgsConstructor
 @Slf4j
 public class DSLParser {
 
+    private final AppProperties appProperties;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    /**
+     * Parsea la lógica de una regla para evaluarla: {@link #parseNode} seguido
+     * de la simplificación estática ({@link RuleSimplifier}) si está activa.
+     */
+    public Node parseRule(Object json) {
+        Node node = parseNode(json);
+        return appProperties.isSimplifyRulesEnabled() ? RuleSimplifier.simplify(node) : node;
+    }
+
     /**
      * Parsea un Map (JSON) a un Node del DSL.
      */
@@ -38,9 +54,13 @@ public class DSLParser {
             return parseAnyCondition(map);
         } else if (map.containsKey("none")) {
             return parseNoneCondition(map);
+        } else if (map.containsKey("expr")) {
+            return parseExpressionCondition(map);
         } else if (map.containsKey("var") && map.containsKey("op")) {
-            // Podría ser NumericCondition o RelativeCondition
-            if (map.containsKey("value")) {
+            // Podría ser TemporalCondition, NumericCondition o RelativeCondition
+            if (map.containsKey("for_days") || map.containsKey("of_last")) {
+                return parseTemporalCondition(map);
+            } else if (map.containsKey("value")) {
                 return parseNumericCondition(map);
             } else if (map.containsKey("left") && map.containsKey("right")) {
                 return parseRelativeCondition(map);
@@ -101,6 +121,121 @@ public class DSLParser {
                 .build();
     }
 
+    private TemporalCondition parseTemporalCondition(Map<String, Object> map) {
+        String var = (String) map.get("var");
+        String op = (String) map.get("op");
+        Object value = map.get("value");
+        boolean delta = (Boolean) map.getOrDefault("delta", false);
+        boolean required = (Boolean) map.getOrDefault("required", false);
+
+        TemporalCondition.comparison(op);
+        Double threshold = RuleCompiler.toDouble(value);
+        if (var == null || threshold == null || !Double.isFinite(threshold)) {
+            throw new IllegalArgumentException("Condición temporal requiere 'var' y un 'value' numérico");
+        }
+
+        int days;
+        Integer window = null;
+        if (map.containsKey("for_days")) {
+            days = dayCount(map.get("for_days"), "for_days");
+        } else {
+            window = dayCount(map.get("of_last"), "of_last");
+            days = dayCount(map.get("days"), "days");
+            if (days > window) {
+                throw new IllegalArgumentException("'days' no puede superar 'of_last'");
+            }
+        }
+
+        return TemporalCondition.builder()
+                .var(var)
+                .op(op)
+                .value(value)
+                .days(days)
+                .window(window)
+                .delta(delta)
+                .required(required)
+                .build();
+    }
+
+    private static int dayCount(Object raw, String key) {
+        if (!(raw instanceof Number) || ((Number) raw).intValue() < 1 || ((Number) raw).intValue() > 999) {
+            throw new IllegalArgumentException("'" + key + "' debe ser un número de días entre 1 y 999");
+        }
+        return ((Number) raw).intValue();
+    }
+
+    private ExpressionCondition parseExpressionCondition(Map<String, Object> map) {
+        String op = (String) map.get("op");
+        Object value = map.get("value");
+        boolean required = (Boolean) map.getOrDefault("required", false);
+
+        ArithmeticExpression expr = parseExpression(map.get("expr"));
+        Map<String, Set<String>> refs = new HashMap<>();
+        expr.collectFeatures(refs);
+        if (refs.isEmpty()) {
+            throw new IllegalArgumentException("La expresión debe usar al menos una variable");
+        }
+        if (op == null || (!"between".equals(op) && ColumnarRuleset.comparison(op) < 0)) {
+            throw new IllegalArgumentException("Operador no soportado en condición con expresión: " + op);
+        }
+        boolean numeric = "between".equals(op)
+                ? value instanceof List && ((List<?>) value).size() == 2
+                    && ((List<?>) value).stream().allMatch(Number.class::isInstance)
+                : value instanceof Number;
+        if (!numeric) {
+            throw new IllegalArgumentException("Condición con expresión requiere un 'value' numérico"
+                    + ("between".equals(op) ? " [min, max]" : ""));
+        }
+
+        return ExpressionCondition.builder()
+                .expr(expr)
+                .op(op)
+                .value(value)
+                .required(required)
+                .build();
+    }
+
+    /**
+     * Parsea una expresión aritmética: número, {@code {"var": ..., "agg": ...}}
+     * u operación {@code {"<op>": [operandos]}} (un solo operando puede ir sin lista).
+     */
+    private ArithmeticExpression parseExpression(Object json) {
+        if (json instanceof Number) {
+            double constant = ((Number) json).doubleValue();
+            if (!Double.isFinite(constant)) {
+                throw new IllegalArgumentException("Constante no finita en la expresión: " + json);
+            }
+            return ArithmeticExpression.constant(constant);
+        }
+        if (!(json instanceof Map)) {
+            throw new IllegalArgumentException("Operando no válido en la expresión: " + json);
+        }
+        Map<String, Object> map = (Map<String, Object>) json;
+        if (map.containsKey("var")) {
+            Object var = map.get("var");
+            Object agg = map.getOrDefault("agg", "current");
+            if (!(var instanceof String) || !(agg instanceof String)) {
+                throw new IllegalArgumentException("Referencia no válida en la expresión: " + map);
+            }
+            return ArithmeticExpression.ref((String) var, (String) agg);
+        }
+        if (map.size() != 1) {
+            throw new IllegalArgumentException("Operación no válida en la expresión: " + map.keySet());
+        }
+        Map.Entry<String, Object> entry = map.entrySet().iterator().next();
+        List<Object> operands = entry.getValue() instanceof List
+                ? (List<Object>) entry.getValue()
+                : Collections.singletonList(entry.getValue());
+        // La operación y su número de operandos se validan aquí, no en cada evaluación
+        ArithmeticExpression.Operator operator = ArithmeticExpression.Operator.of(entry.getKey());
+        operator.checkArity(operands.size());
+        List<ArithmeticExpression> args = new ArrayList<>();
+        for (Object operand : operands) {
+            args.add(parseExpression(operand));
+        }
+        return ArithmeticExpression.apply(operator, args);
+    }
+
     private RelativeCondition parseRelativeCondition(Map<String, Object> map) {
         String op = (String) map.get("op");
         boolean required = (Boolean) map.getOrDefault("required", false);
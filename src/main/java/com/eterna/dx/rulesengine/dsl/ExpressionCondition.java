@@ -0,0 +1,81 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Condición que compara una expresión aritmética sobre varias features con un umbral:
+ * {@code {"expr": {"/": [{"var": "hrv"}, {"var": "resting_hr", "agg": "mean_7d"}]}, "op": "<", "value": 0.8}}.
+ *
+ * Permite razones, diferencias o combinaciones sin definir una feature
+ * derivada. Con un operando nulo la expresión es nula y la condición no se
+ * cumple, sea o no {@code required}; la traza admite valores nulos.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ExpressionCondition implements Node {
+
+    private ArithmeticExpression expr;
+
+    private String op;
+
+    private Object value;
+
+    @Builder.Default
+    private boolean required = false;
+
+    @Override
+    public boolean eval(Map<String, Map<String, Object>> features, List<Map<String, Object>> trace) {
+        double observed = expr != null ? expr.eval(features) : ArithmeticExpression.MISSING;
+        boolean missing = ArithmeticExpression.isMissing(observed);
+
+        // Sin valor la condición no se cumple, también si es requerida
+        boolean result = !missing && op != null && compare(op, observed, value);
+
+        // Agregar información de debug (op, umbral y valor pueden ser nulos)
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("type", "expression");
+        entry.put("expr", String.valueOf(expr));
+        entry.put("op", op);
+        entry.put("threshold", value);
+        entry.put("observed", missing ? null : (Double) observed);
+        entry.put("result", result);
+        entry.put("required", required);
+        trace.add(entry);
+
+        return result;
+    }
+
+    @Override
+    public void collectFeatures(Map<String, Set<String>> refs) {
+        if (expr != null) {
+            expr.collectFeatures(refs);
+        }
+    }
+
+    /**
+     * Compara el valor de la expresión con el umbral como {@link NumericCondition}.
+     */
+    private static boolean compare(String op, double observed, Object value) {
+        if ("between".equals(op)) {
+            if (value instanceof List && ((List<?>) value).size() == 2) {
+                Double min = RuleCompiler.toDouble(((List<?>) value).get(0));
+                Double max = RuleCompiler.toDouble(((List<?>) value).get(1));
+                return min != null && max != null && observed >= min && observed <= max;
+            }
+            return false;
+        }
+        Double threshold = RuleCompiler.toDouble(value);
+        int kind = ColumnarRuleset.comparison(op);
+        return threshold != null && kind >= 0 && ColumnarRuleset.compare(kind, observed, threshold);
+    }
+}
@@ -1,7 +1,9 @@
 package com.eterna.dx.rulesengine.dsl;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Interfaz base para todos los nodos del DSL de reglas.
@@ -17,4 +19,20 @@ public interface Node {
      * @return true si la condición se cumple, false en caso contrario
      */
     boolean eval(Map<String, Map<String, Object>> features, List<Map<String, Object>> trace);
+
+    /**
+     * Añade las celdas de features que lee el nodo (y sus hijos).
+     *
+     * @param refs Mapa variable -> agregadores a completar
+     */
+    void collectFeatures(Map<String, Set<String>> refs);
+
+    /**
+     * Registra una referencia (variable, agregador) en el mapa de referencias.
+     */
+    static void addFeatureRef(Map<String, Set<String>> refs, String var, String agg) {
+        if (var != null) {
+            refs.computeIfAbsent(var, k -> new HashSet<>()).add(agg != null ? agg : "current");
+        }
+    }
 }
@@ -8,6 +8,7 @@ import lombok.Builder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Condición que requiere que NINGUNA de las condiciones hijas se cumpla (NOT-ANY lógico).
@@ -48,4 +49,11 @@ public class NoneCondition implements Node {
 
         return result;
     }
+
+    @Override
+    public void collectFeatures(Map<String, Set<String>> refs) {
+        for (Node child : none) {
+            child.collectFeatures(refs);
+        }
+    }
 }
@@ -7,6 +7,7 @@ import lombok.Builder;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Condición numérica que compara el valor de una variable con un umbral.
@@ -69,6 +70,11 @@ public class NumericCondition implements Node {
         return result;
     }
 
+    @Override
+    public void collectFeatures(Map<String, Set<String>> refs) {
+        Node.addFeatureRef(refs, var, agg);
+    }
+
     /**
      * Compara dos valores según el operador especificado.
      */
@@ -7,6 +7,7 @@ import lombok.Builder;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Condición que compara dos referencias de variables.
@@ -62,6 +63,16 @@ public class RelativeCondition implements Node {
         return result;
     }
 
+    @Override
+    public void collectFeatures(Map<String, Set<String>> refs) {
+        if (left != null) {
+            Node.addFeatureRef(refs, left.getVar(), left.getAgg());
+        }
+        if (right != null) {
+            Node.addFeatureRef(refs, right.getVar(), right.getAgg());
+        }
+    }
+
     /**
      * Obtiene el valor de una referencia de variable, aplicando escala si está definida.
      */
@@ -0,0 +1,552 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Diagrama de decisión binario reducido y ordenado (ROBDD) de las reglas de
+ * un tenant, con los nodos compartidos entre reglas.
+ *
+ * Las variables son los predicados hoja distintos (una columna comparada con
+ * una constante, o dos columnas entre sí); {@code between} se descompone en
+ * sus dos cotas. Evaluar una regla recorre un único camino y comprueba cada
+ * predicado como mucho una vez.
+ *
+ * El diagrama describe la regla con todas sus features presentes: sin
+ * features el resultado depende del orden escrito (el intérprete falla al
+ * llegar a un valor nulo) y debe evaluarse de otra forma. Como una regla que
+ * se dispara no ha llegado a ningún valor nulo, una regla cuyo diagrama es
+ * falso no se dispara nunca; dos reglas con el mismo nodo raíz dan el mismo
+ * resultado siempre que sus features estén presentes.
+ */
+public final class RuleBdd {
+
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+    private static final int MAX_NODES = 1 << 20;
+    private static final int MAX_PATH_STEPS = 100_000;
+
+    private final List<Predicate> predicates;
+    private final int[] var;
+    private final int[] low;
+    private final int[] high;
+    private final int size;
+    private final Map<String, Integer> roots;
+    private final Map<String, int[]> ruleSlots;
+
+    private RuleBdd(List<Predicate> predicates, int[] var, int[] low, int[] high, int size,
+                    Map<String, Integer> roots, Map<String, int[]> ruleSlots) {
+        this.predicates = predicates;
+        this.var = var;
+        this.low = low;
+        this.high = high;
+        this.size = size;
+        this.roots = roots;
+        this.ruleSlots = ruleSlots;
+    }
+
+    /**
+     * Construye el diagrama de las reglas con su propia tabla de slots (solo análisis).
+     */
+    public static RuleBdd build(Map<String, Node> rules) {
+        return build(rules, new ArrayList<>(), new HashMap<>());
+    }
+
+    /**
+     * Construye el diagrama de las reglas sobre una tabla de slots existente,
+     * añadiendo los que falten. Las reglas con nodos u operadores no soportados
+     * ({@code in}, expresiones aritméticas), o con condiciones que fallan
+     * siempre, se omiten.
+     */
+    static RuleBdd build(Map<String, Node> rules, List<String[]> slots, Map<String, Integer> slotIndex) {
+        // Primera pasada: predicados de cada regla, para fijar el orden de las variables
+        Map<Predicate, Predicate> distinct = new HashMap<>();
+        Map<String, List<Integer>> supported = new LinkedHashMap<>();
+        for (Map.Entry<String, Node> entry : rules.entrySet()) {
+            List<Predicate> found = new ArrayList<>();
+            List<Integer> used = new ArrayList<>();
+            if (collect(entry.getValue(), slots, slotIndex, found, used)) {
+                supported.put(entry.getKey(), used);
+                for (Predicate predicate : found) {
+                    distinct.putIfAbsent(predicate, predicate);
+                }
+            }
+        }
+        List<Predicate> ordered = new ArrayList<>(distinct.keySet());
+        ordered.sort(Predicate.ORDER);
+        for (int i = 0; i < ordered.size(); i++) {
+            ordered.get(i).index = i;
+        }
+
+        Builder builder = new Builder(ordered.size());
+        Map<String, Integer> roots = new LinkedHashMap<>();
+        Map<String, int[]> ruleSlots = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : supported.entrySet()) {
+            try {
+                roots.put(entry.getKey(), builder.build(rules.get(entry.getKey()), slots, slotIndex, distinct));
+                ruleSlots.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).distinct().toArray());
+            } catch (IllegalStateException e) {
+                // Diagrama demasiado grande: la regla queda fuera
+            }
+        }
+        return new RuleBdd(ordered, builder.var, builder.low, builder.high, builder.size, roots, ruleSlots);
+    }
+
+    /**
+     * Recoge los predicados de una regla y los slots que lee (también los de
+     * condiciones siempre falsas, que el intérprete evalúa igualmente).
+     *
+     * @return false si la regla no se puede representar en el diagrama
+     */
+    private static boolean collect(Node node, List<String[]> slots, Map<String, Integer> slotIndex,
+                                   List<Predicate> out, List<Integer> used) {
+        if (node instanceof AllCondition || node instanceof AnyCondition || node instanceof NoneCondition) {
+            List<Node> children = AdaptiveRule.children(node);
+            if (children == null) {
+                return false;
+            }
+            for (Node child : children) {
+                if (!collect(child, slots, slotIndex, out, used)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        List<Predicate> leaf = leaf(node, slots, slotIndex, used);
+        if (leaf == null) {
+            return false;
+        }
+        out.addAll(leaf);
+        return true;
+    }
+
+    /**
+     * Predicados de una condición hoja: ninguno si es siempre falsa, dos para
+     * {@code between}; null si no se puede representar.
+     */
+    private static List<Predicate> leaf(Node node, List<String[]> slots, Map<String, Integer> slotIndex,
+                                        List<Integer> used) {
+        if (node instanceof TemporalCondition) {
+            node = ((TemporalCondition) node).lowered();
+        }
+        if (node instanceof NumericCondition) {
+            NumericCondition condition = (NumericCondition) node;
+            String op = condition.getOp();
+            Object value = condition.getValue();
+            if (condition.getVar() == null || condition.getAgg() == null || op == null || value == null
+                    || "in".equals(op)) {
+                return null;
+            }
+            int slot = slotFor(condition.getVar(), condition.getAgg(), slots, slotIndex);
+            used.add(slot);
+            if ("between".equals(op)) {
+                Double min = null;
+                Double max = null;
+                if (value instanceof List && ((List<?>) value).size() == 2) {
+                    min = RuleCompiler.toDouble(((List<?>) value).get(0));
+                    max = RuleCompiler.toDouble(((List<?>) value).get(1));
+                }
+                if (min == null || max == null) {
+                    return Collections.emptyList();
+                }
+                return List.of(Predicate.constant(slot, ColumnarRuleset.GE, min),
+                        Predicate.constant(slot, ColumnarRuleset.LE, max));
+            }
+            Double threshold = RuleCompiler.toDouble(value);
+            int kind = ColumnarRuleset.comparison(op);
+            if (threshold == null || kind < 0) {
+                return Collections.emptyList();
+            }
+            return List.of(Predicate.constant(slot, kind, threshold));
+        }
+        if (node instanceof RelativeCondition) {
+            RelativeCondition condition = (RelativeCondition) node;
+            RelativeCondition.VarRef left = condition.getLeft();
+            RelativeCondition.VarRef right = condition.getRight();
+            String op = condition.getOp();
+            if (left == null || right == null || op == null || left.getVar() == null || left.getAgg() == null
+                    || right.getVar() == null || right.getAgg() == null) {
+                return null;
+            }
+            int leftSlot = slotFor(left.getVar(), left.getAgg(), slots, slotIndex);
+            int rightSlot = slotFor(right.getVar(), right.getAgg(), slots, slotIndex);
+            used.add(leftSlot);
+            used.add(rightSlot);
+            int kind = ColumnarRuleset.comparison(op);
+            if (kind < 0) {
+                return Collections.emptyList();
+            }
+            return List.of(new Predicate(kind, leftSlot, left.getScale(), rightSlot, right.getScale(), 0));
+        }
+        return null;
+    }
+
+    private static int slotFor(String var, String agg, List<String[]> slots, Map<String, Integer> slotIndex) {
+        String key = RuleCompiler.slotKey(var, agg);
+        Integer slot = slotIndex.get(key);
+        if (slot == null) {
+            slots.add(new String[]{var, agg});
+            slot = slots.size() - 1;
+            slotIndex.put(key, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Reglas representadas en el diagrama.
+     */
+    public List<String> ruleIds() {
+        return new ArrayList<>(roots.keySet());
+    }
+
+    public boolean contains(String ruleId) {
+        return roots.containsKey(ruleId);
+    }
+
+    /**
+     * Nodos internos del diagrama (compartidos entre reglas).
+     */
+    public int nodeCount() {
+        return size - 2;
+    }
+
+    public int predicateCount() {
+        return predicates.size();
+    }
+
+    /**
+     * Regla que recorre el diagrama cuando todas sus features están presentes
+     * y delega en la regla compilada en otro caso.
+     */
+    CompiledRule rule(String ruleId, CompiledRule fallback) {
+        int root = roots.get(ruleId);
+        int[] used = ruleSlots.get(ruleId);
+        return (values, present) -> {
+            for (int slot : used) {
+                if (!present[slot]) {
+                    return fallback.evaluate(values, present);
+                }
+            }
+            return evaluate(root, values) ? CompiledRule.TRUE : CompiledRule.FALSE;
+        };
+    }
+
+    /**
+     * Recorre el diagrama desde un nodo con todos los slots de la regla presentes.
+     */
+    private boolean evaluate(int node, double[] values) {
+        while (node > TRUE) {
+            node = predicates.get(var[node]).test(values) ? high[node] : low[node];
+        }
+        return node == TRUE;
+    }
+
+    /**
+     * Reglas que no se disparan con ningún valor de sus features.
+     *
+     * Además de las que el diagrama reduce a falso, detecta las que solo se
+     * cumplirían con comparaciones contradictorias de una misma columna con
+     * constantes ({@code steps > 10} y {@code steps < 5}). Con diagramas muy
+     * grandes la búsqueda se limita y la regla no se marca.
+     */
+    public List<String> neverFiring() {
+        List<String> result = new ArrayList<>();
+        Map<Integer, Boolean> memo = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : roots.entrySet()) {
+            boolean satisfiable = memo.computeIfAbsent(entry.getValue(),
+                    root -> root == TRUE || (root != FALSE && satisfiable(root)));
+            if (!satisfiable) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Grupos de reglas equivalentes (mismo diagrama), en orden de aparición.
+     */
+    public List<List<String>> duplicates() {
+        Map<Integer, List<String>> byRoot = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : roots.entrySet()) {
+            byRoot.computeIfAbsent(entry.getValue(), root -> new ArrayList<>()).add(entry.getKey());
+        }
+        List<List<String>> result = new ArrayList<>();
+        for (List<String> group : byRoot.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Busca un camino hasta el terminal cierto cuyos predicados constantes
+     * admitan un mismo valor en cada columna.
+     */
+    private boolean satisfiable(int root) {
+        int[] budget = {MAX_PATH_STEPS};
+        boolean found = search(root, new ArrayList<>(), new ArrayList<>(), budget);
+        // Sin presupuesto no se puede afirmar que sea insatisfacible
+        return found || budget[0] <= 0;
+    }
+
+    private boolean search(int node, List<Predicate> taken, List<Boolean> outcomes, int[] budget) {
+        if (--budget[0] <= 0) {
+            return false;
+        }
+        if (node == TRUE) {
+            return true;
+        }
+        if (node == FALSE) {
+            return false;
+        }
+        Predicate predicate = predicates.get(var[node]);
+        for (boolean outcome : new boolean[]{true, false}) {
+            taken.add(predicate);
+            outcomes.add(outcome);
+            boolean found = consistent(taken, outcomes)
+                    && search(outcome ? high[node] : low[node], taken, outcomes, budget);
+            taken.remove(taken.size() - 1);
+            outcomes.remove(outcomes.size() - 1);
+            if (found) {
+                return true;
+            }
+            if (budget[0] <= 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Si el último predicado del camino es compatible con los anteriores sobre
+     * la misma columna. El resultado de cada comparación con constantes solo
+     * cambia en los umbrales, así que basta con probar los umbrales, sus
+     * vecinos inmediatos, los infinitos, los ceros y NaN.
+     */
+    private static boolean consistent(List<Predicate> taken, List<Boolean> outcomes) {
+        Predicate last = taken.get(taken.size() - 1);
+        if (last.right >= 0) {
+            return true;
+        }
+        List<Double> candidates = new ArrayList<>(List.of(Double.NaN, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, 0.0, -0.0));
+        for (Predicate predicate : taken) {
+            if (predicate.right < 0 && predicate.left == last.left) {
+                candidates.add(predicate.constant);
+                candidates.add(Math.nextUp(predicate.constant));
+                candidates.add(Math.nextDown(predicate.constant));
+            }
+        }
+        for (double candidate : candidates) {
+            boolean all = true;
+            for (int i = 0; i < taken.size() && all; i++) {
+                Predicate predicate = taken.get(i);
+                if (predicate.right < 0 && predicate.left == last.left) {
+                    all = ColumnarRuleset.compare(predicate.kind, candidate, predicate.constant) == outcomes.get(i);
+                }
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tabla única y operaciones del diagrama.
+     */
+    private static final class Builder {
+        private final int variables;
+        private int[] var = new int[1024];
+        private int[] low = new int[1024];
+        private int[] high = new int[1024];
+        private int size = 2;
+        private final Map<Long, Integer> unique = new HashMap<>();
+        private final Map<Long, Integer> andMemo = new HashMap<>();
+        private final Map<Long, Integer> orMemo = new HashMap<>();
+        private final Map<Integer, Integer> notMemo = new HashMap<>();
+
+        private Builder(int variables) {
+            this.variables = variables;
+            // Los terminales van tras todas las variables
+            var[FALSE] = variables;
+            var[TRUE] = variables;
+        }
+
+        int build(Node node, List<String[]> slots, Map<String, Integer> slotIndex, Map<Predicate, Predicate> distinct) {
+            if (node instanceof AllCondition) {
+                int result = TRUE;
+                for (Node child : ((AllCondition) node).getAll()) {
+                    result = and(result, build(child, slots, slotIndex, distinct));
+                }
+                return result;
+            }
+            if (node instanceof AnyCondition || node instanceof NoneCondition) {
+                int result = FALSE;
+                for (Node child : AdaptiveRule.children(node)) {
+                    result = or(result, build(child, slots, slotIndex, distinct));
+                }
+                return node instanceof NoneCondition ? not(result) : result;
+            }
+            int result = TRUE;
+            List<Predicate> leaf = leaf(node, slots, slotIndex, new ArrayList<>());
+            if (leaf.isEmpty()) {
+                return FALSE;
+            }
+            for (Predicate predicate : leaf) {
+                result = and(result, mk(distinct.get(predicate).index, FALSE, TRUE));
+            }
+            return result;
+        }
+
+        private int mk(int v, int l, int h) {
+            if (l == h) {
+                return l;
+            }
+            long key = ((long) v << 42) | ((long) l << 21) | h;
+            Integer existing = unique.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            if (size >= MAX_NODES) {
+                throw new IllegalStateException("Diagrama demasiado grande");
+            }
+            if (size == var.length) {
+                var = Arrays.copyOf(var, size * 2);
+                low = Arrays.copyOf(low, size * 2);
+                high = Arrays.copyOf(high, size * 2);
+            }
+            var[size] = v;
+            low[size] = l;
+            high[size] = h;
+            unique.put(key, size);
+            return size++;
+        }
+
+        private int and(int a, int b) {
+            if (a == FALSE || b == FALSE) {
+                return FALSE;
+            }
+            if (a == TRUE) {
+                return b;
+            }
+            if (b == TRUE || a == b) {
+                return a;
+            }
+            long key = a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+            Integer cached = andMemo.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            int v = Math.min(var[a], var[b]);
+            int result = mk(v,
+                    and(var[a] == v ? low[a] : a, var[b] == v ? low[b] : b),
+                    and(var[a] == v ? high[a] : a, var[b] == v ? high[b] : b));
+            andMemo.put(key, result);
+            return result;
+        }
+
+        private int or(int a, int b) {
+            if (a == TRUE || b == TRUE) {
+                return TRUE;
+            }
+            if (a == FALSE) {
+                return b;
+            }
+            if (b == FALSE || a == b) {
+                return a;
+            }
+            long key = a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+            Integer cached = orMemo.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            int v = Math.min(var[a], var[b]);
+            int result = mk(v,
+                    or(var[a] == v ? low[a] : a, var[b] == v ? low[b] : b),
+                    or(var[a] == v ? high[a] : a, var[b] == v ? high[b] : b));
+            orMemo.put(key, result);
+            return result;
+        }
+
+        private int not(int a) {
+            if (a <= TRUE) {
+                return 1 - a;
+            }
+            Integer cached = notMemo.get(a);
+            if (cached != null) {
+                return cached;
+            }
+            int result = mk(var[a], not(low[a]), not(high[a]));
+            notMemo.put(a, result);
+            return result;
+        }
+    }
+
+    /**
+     * Predicado hoja: columna frente a constante ({@code right < 0}) o frente a otra columna.
+     */
+    private static final class Predicate {
+        static final Comparator<Predicate> ORDER = Comparator
+                .comparingInt((Predicate p) -> p.left)
+                .thenComparingInt(p -> p.right)
+                .thenComparingDouble(p -> p.constant)
+                .thenComparingInt(p -> p.kind)
+                .thenComparing(p -> p.leftScale, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(p -> p.rightScale, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+        final int kind;
+        final int left;
+        final Double leftScale;
+        final int right;
+        final Double rightScale;
+        final double constant;
+        int index;
+
+        Predicate(int kind, int left, Double leftScale, int right, Double rightScale, double constant) {
+            this.kind = kind;
+            this.left = left;
+            this.leftScale = leftScale;
+            this.right = right;
+            this.rightScale = rightScale;
+            this.constant = constant;
+        }
+
+        static Predicate constant(int slot, int kind, double constant) {
+            return new Predicate(kind, slot, null, -1, null, constant);
+        }
+
+        boolean test(double[] values) {
+            if (right < 0) {
+                return ColumnarRuleset.compare(kind, values[left], constant);
+            }
+            double x = leftScale != null ? values[left] * leftScale : values[left];
+            double y = rightScale != null ? values[right] * rightScale : values[right];
+            return ColumnarRuleset.compare(kind, x, y);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Predicate)) {
+                return false;
+            }
+            Predicate other = (Predicate) o;
+            return kind == other.kind && left == other.left && right == other.right
+                    && Double.doubleToLongBits(constant) == Double.doubleToLongBits(other.constant)
+                    && Objects.equals(leftScale, other.leftScale) && Objects.equals(rightScale, other.rightScale);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, left, right, constant, leftScale, rightScale);
+        }
+    }
+}
@@ -0,0 +1,674 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compila la lógica de las reglas a clases generadas (hidden classes).
+ *
+ * Cada regla se traduce a un único método {@link CompiledRule#evaluate} con
+ * las comparaciones en línea sobre los slots de features: sin despacho
+ * virtual por nodo, sin mapas ni boxing, de modo que el JIT puede optimizar
+ * la regla entera. Las semánticas replican las del intérprete
+ * ({@link Node#eval}), incluido el caso en que éste falla (valor nulo en una
+ * condición evaluada). Las reglas con nodos u operadores no soportados
+ * ({@code in}) no se compilan y se evalúan con el intérprete. Las
+ * expresiones aritméticas ({@link ExpressionCondition}) se traducen a
+ * operaciones de double sobre los slots.
+ *
+ * Cuando todas las features de la regla están presentes ninguna condición
+ * puede fallar, y el método generado toma una vía rápida: cortocircuito
+ * también en any/none y los hijos en el orden indicado (ver
+ * {@link AdaptiveRule}). Con alguna feature ausente se evalúa en el orden
+ * escrito, que es el que determina si el intérprete falla.
+ */
+@Component
+@Slf4j
+public class RuleCompiler {
+
+    private static final String GENERATED_NAME = Type.getInternalName(CompiledRule.class) + "$Generated";
+    private static final String INTERFACE_NAME = Type.getInternalName(CompiledRule.class);
+
+    // Locales del método generado: this, values, present
+    private static final int VALUES = 1;
+    private static final int PRESENT = 2;
+
+    /**
+     * Compila las reglas indicadas (id de regla -> lógica parseada).
+     */
+    public CompiledRuleset compile(Map<String, Node> rules) {
+        return compile(rules, false, false);
+    }
+
+    /**
+     * Compila las reglas indicadas.
+     *
+     * @param adaptive si se reordenan los hijos de all/any/none según la
+     *                 selectividad observada en la evaluación ({@link AdaptiveRule})
+     * @param diagram  si las reglas con todas sus features presentes se
+     *                 evalúan sobre el diagrama de decisión del tenant
+     *                 ({@link RuleBdd}); tiene prioridad sobre la reordenación
+     */
+    public CompiledRuleset compile(Map<String, Node> rules, boolean adaptive, boolean diagram) {
+        List<String[]> slots = new ArrayList<>();
+        Map<String, Integer> slotIndex = new HashMap<>();
+        Map<String, CompiledRule> compiled = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Node> entry : rules.entrySet()) {
+            int slotsBefore = slots.size();
+            try {
+                Node root = entry.getValue();
+                CompiledRule rule = define(new Generator(slots, slotIndex).generate(root, Collections.emptyMap()));
+                if (adaptive && !diagram) {
+                    // Al regenerar todos los slots de la regla ya existen: el generador solo los consulta
+                    rule = AdaptiveRule.wrap(entry.getKey(), root, rule, order -> {
+                        try {
+                            return define(new Generator(slots, slotIndex).generate(root, order));
+                        } catch (ReflectiveOperationException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }, slotIndex);
+                }
+                compiled.put(entry.getKey(), rule);
+            } catch (Exception | LinkageError e) {
+                // Se deshacen los slots que solo usaba esta regla
+                while (slots.size() > slotsBefore) {
+                    String[] ref = slots.remove(slots.size() - 1);
+                    slotIndex.remove(slotKey(ref[0], ref[1]));
+                }
+                log.debug("Regla {} no compilada, se evalúa con el intérprete: {}", entry.getKey(), e.getMessage());
+            }
+        }
+        if (diagram && !compiled.isEmpty()) {
+            Map<String, Node> logic = new LinkedHashMap<>();
+            compiled.keySet().forEach(ruleId -> logic.put(ruleId, rules.get(ruleId)));
+            RuleBdd bdd = RuleBdd.build(logic, slots, slotIndex);
+            for (String ruleId : bdd.ruleIds()) {
+                compiled.put(ruleId, bdd.rule(ruleId, compiled.get(ruleId)));
+            }
+            return new CompiledRuleset(slots, compiled, bdd);
+        }
+        return new CompiledRuleset(slots, compiled, null);
+    }
+
+    /**
+     * Si la regla se puede compilar. Genera el bytecode con una tabla de slots
+     * propia pero no define ninguna clase (análisis sin efectos).
+     */
+    public boolean isCompilable(Node rule) {
+        try {
+            new Generator(new ArrayList<>(), new HashMap<>()).generate(rule, Collections.emptyMap());
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Define la clase generada como hidden class (se descarga cuando deja de usarse) y la instancia.
+     */
+    private static CompiledRule define(byte[] bytes) throws ReflectiveOperationException {
+        MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        try {
+            return (CompiledRule) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (ReflectiveOperationException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String slotKey(String var, String agg) {
+        return var + '\u0000' + agg;
+    }
+
+    /**
+     * Convierte un valor a Double como el intérprete (número o texto numérico).
+     */
+    static Double toDouble(Object obj) {
+        if (obj instanceof Number) {
+            return ((Number) obj).doubleValue();
+        }
+        if (obj instanceof String) {
+            try {
+                return Double.parseDouble((String) obj);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Genera la clase de una regla. Cada nodo deja en la pila 1 o 0; las
+     * condiciones que harían fallar al intérprete saltan a la etiqueta de error.
+     */
+    private static final class Generator {
+        private final List<String[]> slots;
+        private final Map<String, Integer> slotIndex;
+        private final Label error = new Label();
+        private MethodVisitor mv;
+        private int nextLocal = PRESENT + 1;
+        // Orden de los hijos en la vía rápida; null mientras se genera la vía exacta
+        private Map<Node, List<Node>> order;
+
+        private Generator(List<String[]> slots, Map<String, Integer> slotIndex) {
+            this.slots = slots;
+            this.slotIndex = slotIndex;
+        }
+
+        /**
+         * @param order orden de los hijos de cada grupo en la vía rápida (por
+         *              identidad de nodo); los grupos ausentes mantienen el orden escrito
+         */
+        byte[] generate(Node root, Map<Node, List<Node>> order) {
+            ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+            cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, GENERATED_NAME,
+                    null, "java/lang/Object", new String[]{INTERFACE_NAME});
+
+            MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            init.visitCode();
+            init.visitVarInsn(Opcodes.ALOAD, 0);
+            init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            init.visitInsn(Opcodes.RETURN);
+            init.visitMaxs(0, 0);
+            init.visitEnd();
+
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, "evaluate", "([D[Z)I", null, null);
+            mv.visitCode();
+            Set<Integer> used = new TreeSet<>();
+            if (collectSlots(root, used)) {
+                // Vía rápida: con todos los slots presentes ninguna condición falla
+                Label authored = new Label();
+                for (int slot : used) {
+                    mv.visitVarInsn(Opcodes.ALOAD, PRESENT);
+                    mv.visitLdcInsn(slot);
+                    mv.visitInsn(Opcodes.BALOAD);
+                    mv.visitJumpInsn(Opcodes.IFEQ, authored);
+                }
+                this.order = order;
+                emit(root);
+                this.order = null;
+                mv.visitInsn(Opcodes.IRETURN);
+                mv.visitLabel(authored);
+            }
+            emit(root);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitLabel(error);
+            mv.visitInsn(Opcodes.ICONST_M1);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            cw.visitEnd();
+            return cw.toByteArray();
+        }
+
+        /**
+         * Slots que lee la regla.
+         *
+         * @return false si alguna condición falla siempre (campos nulos): la
+         * regla no tiene vía rápida
+         */
+        private boolean collectSlots(Node node, Set<Integer> used) {
+            if (node instanceof AllCondition || node instanceof AnyCondition || node instanceof NoneCondition) {
+                boolean complete = true;
+                for (Node child : AdaptiveRule.children(node)) {
+                    complete &= collectSlots(child, used);
+                }
+                return complete;
+            }
+            if (node instanceof TemporalCondition) {
+                return collectSlots(((TemporalCondition) node).lowered(), used);
+            }
+            if (node instanceof NumericCondition) {
+                NumericCondition condition = (NumericCondition) node;
+                if (condition.getVar() == null || condition.getAgg() == null || condition.getOp() == null
+                        || condition.getValue() == null) {
+                    return false;
+                }
+                used.add(slotFor(condition.getVar(), condition.getAgg()));
+                return true;
+            }
+            if (node instanceof ExpressionCondition) {
+                // Nunca falla: sin expresión, umbral o valores es falsa
+                ExpressionCondition condition = (ExpressionCondition) node;
+                if (condition.getExpr() != null && condition.getOp() != null && condition.getValue() != null) {
+                    collectSlots(condition.getExpr(), used);
+                }
+                return true;
+            }
+            if (node instanceof RelativeCondition) {
+                RelativeCondition condition = (RelativeCondition) node;
+                RelativeCondition.VarRef left = condition.getLeft();
+                RelativeCondition.VarRef right = condition.getRight();
+                if (left == null || right == null || condition.getOp() == null || left.getVar() == null
+                        || left.getAgg() == null || right.getVar() == null || right.getAgg() == null) {
+                    return false;
+                }
+                used.add(slotFor(left.getVar(), left.getAgg()));
+                used.add(slotFor(right.getVar(), right.getAgg()));
+                return true;
+            }
+            throw new UnsupportedOperationException("Nodo no compilable: " + node.getClass().getSimpleName());
+        }
+
+        private void collectSlots(ArithmeticExpression expr, Set<Integer> used) {
+            if (expr.getOp() != null) {
+                if (expr.getArgs() == null) {
+                    throw new UnsupportedOperationException("Expresión sin operandos: " + expr.getOp());
+                }
+                for (ArithmeticExpression arg : expr.getArgs()) {
+                    collectSlots(arg, used);
+                }
+            } else if (expr.getVar() != null) {
+                if (expr.getAgg() == null) {
+                    throw new UnsupportedOperationException("Referencia sin agregador en la expresión");
+                }
+                used.add(slotFor(expr.getVar(), expr.getAgg()));
+            }
+        }
+
+        private void emit(Node node) {
+            if (node instanceof AllCondition) {
+                emitAll(ordered(node, ((AllCondition) node).getAll()));
+            } else if (node instanceof AnyCondition) {
+                emitOr(ordered(node, ((AnyCondition) node).getAny()), false);
+            } else if (node instanceof NoneCondition) {
+                emitOr(ordered(node, ((NoneCondition) node).getNone()), true);
+            } else if (node instanceof NumericCondition) {
+                emitNumeric((NumericCondition) node);
+            } else if (node instanceof TemporalCondition) {
+                emitNumeric(((TemporalCondition) node).lowered());
+            } else if (node instanceof RelativeCondition) {
+                emitRelative((RelativeCondition) node);
+            } else if (node instanceof ExpressionCondition) {
+                emitExpression((ExpressionCondition) node);
+            } else {
+                throw new UnsupportedOperationException("Nodo no compilable: " + node.getClass().getSimpleName());
+            }
+        }
+
+        /**
+         * AND con cortocircuito, como el intérprete.
+         */
+        private void emitAll(List<Node> children) {
+            Label fail = new Label();
+            Label end = new Label();
+            for (Node child : children) {
+                emit(child);
+                mv.visitJumpInsn(Opcodes.IFEQ, fail);
+            }
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitJumpInsn(Opcodes.GOTO, end);
+            mv.visitLabel(fail);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitLabel(end);
+        }
+
+        private List<Node> ordered(Node group, List<Node> children) {
+            return order != null ? order.getOrDefault(group, children) : children;
+        }
+
+        /**
+         * OR (negado para none) evaluando todos los hijos, como el intérprete:
+         * un hijo posterior al primero cierto todavía puede fallar. En la vía
+         * rápida ningún hijo falla y se corta en el primero cierto.
+         */
+        private void emitOr(List<Node> children, boolean negate) {
+            if (order != null) {
+                Label hit = new Label();
+                Label end = new Label();
+                for (Node child : children) {
+                    emit(child);
+                    mv.visitJumpInsn(Opcodes.IFNE, hit);
+                }
+                mv.visitInsn(negate ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+                mv.visitJumpInsn(Opcodes.GOTO, end);
+                mv.visitLabel(hit);
+                mv.visitInsn(negate ? Opcodes.ICONST_0 : Opcodes.ICONST_1);
+                mv.visitLabel(end);
+                return;
+            }
+            int accumulator = nextLocal++;
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitVarInsn(Opcodes.ISTORE, accumulator);
+            for (Node child : children) {
+                emit(child);
+                mv.visitVarInsn(Opcodes.ILOAD, accumulator);
+                mv.visitInsn(Opcodes.IOR);
+                mv.visitVarInsn(Opcodes.ISTORE, accumulator);
+            }
+            mv.visitVarInsn(Opcodes.ILOAD, accumulator);
+            if (negate) {
+                mv.visitInsn(Opcodes.ICONST_1);
+                mv.visitInsn(Opcodes.IXOR);
+            }
+        }
+
+        private void emitNumeric(NumericCondition condition) {
+            String op = condition.getOp();
+            Object value = condition.getValue();
+            if (condition.getVar() == null || condition.getAgg() == null || op == null || value == null) {
+                // El intérprete falla al construir la traza
+                emitError();
+                return;
+            }
+            if ("in".equals(op)) {
+                throw new UnsupportedOperationException("Operador 'in' no compilable");
+            }
+
+            int slot = slotFor(condition.getVar(), condition.getAgg());
+            emitPresentCheck(slot);
+
+            if ("between".equals(op)) {
+                Double min = null;
+                Double max = null;
+                if (value instanceof List && ((List<?>) value).size() == 2) {
+                    min = toDouble(((List<?>) value).get(0));
+                    max = toDouble(((List<?>) value).get(1));
+                }
+                if (min == null || max == null) {
+                    mv.visitInsn(Opcodes.ICONST_0);
+                    return;
+                }
+                Label fail = new Label();
+                Label end = new Label();
+                emitLoad(slot, null);
+                mv.visitLdcInsn(min);
+                mv.visitInsn(Opcodes.DCMPL);
+                mv.visitJumpInsn(Opcodes.IFLT, fail);
+                emitLoad(slot, null);
+                mv.visitLdcInsn(max);
+                mv.visitInsn(Opcodes.DCMPG);
+                mv.visitJumpInsn(Opcodes.IFGT, fail);
+                emitBranchResult(fail, end);
+                return;
+            }
+
+            Double threshold = toDouble(value);
+            if (threshold == null || !isComparison(op)) {
+                mv.visitInsn(Opcodes.ICONST_0);
+                return;
+            }
+            emitComparison(op, () -> emitLoad(slot, null), () -> mv.visitLdcInsn(threshold));
+        }
+
+        private void emitRelative(RelativeCondition condition) {
+            RelativeCondition.VarRef left = condition.getLeft();
+            RelativeCondition.VarRef right = condition.getRight();
+            String op = condition.getOp();
+            if (left == null || right == null || op == null || left.getVar() == null || left.getAgg() == null
+                    || right.getVar() == null || right.getAgg() == null) {
+                emitError();
+                return;
+            }
+
+            int leftSlot = slotFor(left.getVar(), left.getAgg());
+            int rightSlot = slotFor(right.getVar(), right.getAgg());
+            emitPresentCheck(leftSlot);
+            emitPresentCheck(rightSlot);
+            if (!isComparison(op)) {
+                mv.visitInsn(Opcodes.ICONST_0);
+                return;
+            }
+            emitComparison(op, () -> emitLoad(leftSlot, left.getScale()), () -> emitLoad(rightSlot, right.getScale()));
+        }
+
+        /**
+         * Evalúa la expresión una vez sobre los slots (doubles en la pila, sin
+         * boxing), la guarda en un local y la compara con el umbral. Como en el
+         * intérprete, sin alguno de sus slots es falsa (no un error).
+         */
+        private void emitExpression(ExpressionCondition condition) {
+            ArithmeticExpression expr = condition.getExpr();
+            String op = condition.getOp();
+            Object value = condition.getValue();
+            if (expr == null || op == null || value == null) {
+                mv.visitInsn(Opcodes.ICONST_0);
+                return;
+            }
+            Set<Integer> slots = new TreeSet<>();
+            collectSlots(expr, slots);
+
+            Double min = null;
+            Double max = null;
+            if ("between".equals(op)) {
+                if (value instanceof List && ((List<?>) value).size() == 2) {
+                    min = toDouble(((List<?>) value).get(0));
+                    max = toDouble(((List<?>) value).get(1));
+                }
+            } else if (isComparison(op)) {
+                min = toDouble(value);
+                max = min;
+            }
+            if (min == null || max == null) {
+                mv.visitInsn(Opcodes.ICONST_0);
+                return;
+            }
+
+            Label absent = new Label();
+            Label done = new Label();
+            if (order == null) {
+                for (int slot : slots) {
+                    emitPresentCheck(slot, absent);
+                }
+            }
+            int local = nextLocal;
+            nextLocal += 2;
+            emitArithmetic(expr);
+            mv.visitVarInsn(Opcodes.DSTORE, local);
+            Runnable observed = () -> mv.visitVarInsn(Opcodes.DLOAD, local);
+            if (!"between".equals(op)) {
+                double threshold = min;
+                emitComparison(op, observed, () -> mv.visitLdcInsn(threshold));
+                emitAbsent(absent, done);
+                return;
+            }
+            Label fail = new Label();
+            Label end = new Label();
+            observed.run();
+            mv.visitLdcInsn(min);
+            mv.visitInsn(Opcodes.DCMPL);
+            mv.visitJumpInsn(Opcodes.IFLT, fail);
+            observed.run();
+            mv.visitLdcInsn(max);
+            mv.visitInsn(Opcodes.DCMPG);
+            mv.visitJumpInsn(Opcodes.IFGT, fail);
+            emitBranchResult(fail, end);
+            emitAbsent(absent, done);
+        }
+
+        /**
+         * Cierra una condición que deja 0 en la pila si se salta a {@code absent}
+         * (falta un slot); en la vía rápida no hay saltos y no se emite nada.
+         */
+        private void emitAbsent(Label absent, Label done) {
+            if (order != null) {
+                return;
+            }
+            mv.visitJumpInsn(Opcodes.GOTO, done);
+            mv.visitLabel(absent);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitLabel(done);
+        }
+
+        /**
+         * Deja en la pila el valor (double) de la expresión; los slots ya están comprobados.
+         */
+        private void emitArithmetic(ArithmeticExpression expr) {
+            String op = expr.getOp();
+            if (op == null) {
+                if (expr.getVar() != null) {
+                    emitLoad(slotFor(expr.getVar(), expr.getAgg()), null);
+                } else if (expr.getConstant() != null) {
+                    mv.visitLdcInsn(expr.getConstant());
+                } else {
+                    throw new UnsupportedOperationException("Hoja vacía en la expresión");
+                }
+                return;
+            }
+            ArithmeticExpression.Operator operator;
+            try {
+                operator = expr.operator();
+            } catch (IllegalArgumentException e) {
+                throw new UnsupportedOperationException(e.getMessage());
+            }
+            List<ArithmeticExpression> args = expr.getArgs();
+            emitArithmetic(args.get(0));
+            if (args.size() == 1) {
+                if (operator == ArithmeticExpression.Operator.ABS) {
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "abs", "(D)D", false);
+                } else {
+                    mv.visitInsn(Opcodes.DNEG);
+                }
+                return;
+            }
+            for (int i = 1; i < args.size(); i++) {
+                emitArithmetic(args.get(i));
+                switch (operator) {
+                    case ADD:
+                        mv.visitInsn(Opcodes.DADD);
+                        break;
+                    case SUBTRACT:
+                        mv.visitInsn(Opcodes.DSUB);
+                        break;
+                    case MULTIPLY:
+                        mv.visitInsn(Opcodes.DMUL);
+                        break;
+                    case DIVIDE:
+                        mv.visitInsn(Opcodes.DDIV);
+                        break;
+                    default:
+                        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", operator.symbol(), "(DD)D", false);
+                        break;
+                }
+            }
+        }
+
+        private static boolean isComparison(String op) {
+            switch (op) {
+                case "<":
+                case "<=":
+                case ">":
+                case ">=":
+                case "==":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Comparación de dos doubles; con NaN los operadores de orden son falsos
+         * y {@code ==} sigue a {@link Double#equals} (bits normalizados).
+         */
+        private void emitComparison(String op, Runnable left, Runnable right) {
+            Label fail = new Label();
+            Label end = new Label();
+            if ("==".equals(op)) {
+                left.run();
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J", false);
+                right.run();
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J", false);
+                mv.visitInsn(Opcodes.LCMP);
+                mv.visitJumpInsn(Opcodes.IFNE, fail);
+            } else {
+                left.run();
+                right.run();
+                switch (op) {
+                    case "<":
+                        mv.visitInsn(Opcodes.DCMPG);
+                        mv.visitJumpInsn(Opcodes.IFGE, fail);
+                        break;
+                    case "<=":
+                        mv.visitInsn(Opcodes.DCMPG);
+                        mv.visitJumpInsn(Opcodes.IFGT, fail);
+                        break;
+                    case ">":
+                        mv.visitInsn(Opcodes.DCMPL);
+                        mv.visitJumpInsn(Opcodes.IFLE, fail);
+                        break;
+                    default:
+                        mv.visitInsn(Opcodes.DCMPL);
+                        mv.visitJumpInsn(Opcodes.IFLT, fail);
+                        break;
+                }
+            }
+            emitBranchResult(fail, end);
+        }
+
+        private void emitBranchResult(Label fail, Label end) {
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitJumpInsn(Opcodes.GOTO, end);
+            mv.visitLabel(fail);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitLabel(end);
+        }
+
+        private void emitPresentCheck(int slot) {
+            if (order != null) {
+                // Vía rápida: presencia ya comprobada al entrar
+                return;
+            }
+            emitPresentCheck(slot, error);
+        }
+
+        /**
+         * Salta a {@code missing} si el slot no tiene valor.
+         */
+        private void emitPresentCheck(int slot, Label missing) {
+            mv.visitVarInsn(Opcodes.ALOAD, PRESENT);
+            mv.visitLdcInsn(slot);
+            mv.visitInsn(Opcodes.BALOAD);
+            mv.visitJumpInsn(Opcodes.IFEQ, missing);
+        }
+
+        private void emitLoad(int slot, Double scale) {
+            mv.visitVarInsn(Opcodes.ALOAD, VALUES);
+            mv.visitLdcInsn(slot);
+            mv.visitInsn(Opcodes.DALOAD);
+            if (scale != null) {
+                mv.visitLdcInsn(scale);
+                mv.visitInsn(Opcodes.DMUL);
+            }
+        }
+
+        /**
+         * Salta siempre a error; el 0 posterior mantiene la pila coherente para el verificador.
+         */
+        private void emitError() {
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitJumpInsn(Opcodes.IFNE, error);
+            mv.visitInsn(Opcodes.ICONST_0);
+        }
+
+        private int slotFor(String var, String agg) {
+            String key = slotKey(var, agg);
+            Integer slot = slotIndex.get(key);
+            if (slot == null) {
+                slots.add(new String[]{var, agg});
+                slot = slots.size() - 1;
+                slotIndex.put(key, slot);
+            }
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simplificación estática de la lógica parseada.
+ *
+ * Sobre el árbol de {@link DSLParser#parseNode}:
+ * <ul>
+ *   <li>aplana grupos anidados del mismo tipo y grupos de un solo hijo
+ *   (un any dentro de none también se aplana);</li>
+ *   <li>elimina hojas repetidas dentro de un grupo;</li>
+ *   <li>fusiona las cotas de una misma (variable, agregador) con umbral
+ *   constante: en all (hojas contiguas) se queda la más estricta y
+ *   {@code >=} con {@code <=} forman {@code between}; en any/none se queda
+ *   la más amplia;</li>
+ *   <li>en all, descarta los hijos posteriores a uno que nunca es cierto
+ *   (umbral no numérico, any vacío, rango contradictorio): el intérprete no
+ *   llega a evaluarlos.</li>
+ * </ul>
+ *
+ * La regla simplificada da el mismo resultado que la original con cualquier
+ * conjunto de features, incluidos los casos en que el intérprete falla por un
+ * valor nulo; solo cambia la traza.
+ */
+public final class RuleSimplifier {
+
+    private RuleSimplifier() {
+    }
+
+    /**
+     * @return el nodo simplificado, o el mismo nodo si no hay nada que simplificar
+     */
+    public static Node simplify(Node node) {
+        Node simplified = rewrite(node);
+        return simplified.equals(node) ? node : simplified;
+    }
+
+    /**
+     * Número de nodos del árbol (grupos y hojas).
+     */
+    public static int size(Node node) {
+        if (node instanceof AllCondition || node instanceof AnyCondition || node instanceof NoneCondition) {
+            int size = 1;
+            List<Node> children = AdaptiveRule.children(node);
+            if (children != null) {
+                for (Node child : children) {
+                    size += size(child);
+                }
+            }
+            return size;
+        }
+        return 1;
+    }
+
+    private static Node rewrite(Node node) {
+        if (node instanceof AllCondition) {
+            List<Node> children = ((AllCondition) node).getAll();
+            if (children == null) {
+                return node;
+            }
+            List<Node> flat = new ArrayList<>();
+            for (Node child : children) {
+                Node simplified = rewrite(child);
+                if (simplified instanceof AllCondition && ((AllCondition) simplified).getAll() != null) {
+                    flat.addAll(((AllCondition) simplified).getAll());
+                } else {
+                    flat.add(simplified);
+                }
+            }
+            List<Node> result = truncate(intersect(distinct(flat)));
+            return result.size() == 1 ? result.get(0) : AllCondition.builder().all(result).build();
+        }
+        if (node instanceof AnyCondition) {
+            List<Node> children = ((AnyCondition) node).getAny();
+            if (children == null) {
+                return node;
+            }
+            List<Node> result = union(distinct(flattenAny(children)));
+            return result.size() == 1 ? result.get(0) : AnyCondition.builder().any(result).build();
+        }
+        if (node instanceof NoneCondition) {
+            List<Node> children = ((NoneCondition) node).getNone();
+            if (children == null) {
+                return node;
+            }
+            List<Node> result = union(distinct(flattenAny(children)));
+            if (result.size() == 1 && result.get(0) instanceof NoneCondition
+                    && ((NoneCondition) result.get(0)).getNone() != null) {
+                // none(none(a, b)) = any(a, b)
+                List<Node> inner = ((NoneCondition) result.get(0)).getNone();
+                return inner.size() == 1 ? inner.get(0) : AnyCondition.builder().any(inner).build();
+            }
+            return NoneCondition.builder().none(result).build();
+        }
+        return node;
+    }
+
+    private static List<Node> flattenAny(List<Node> children) {
+        List<Node> flat = new ArrayList<>();
+        for (Node child : children) {
+            Node simplified = rewrite(child);
+            if (simplified instanceof AnyCondition && ((AnyCondition) simplified).getAny() != null) {
+                flat.addAll(((AnyCondition) simplified).getAny());
+            } else {
+                flat.add(simplified);
+            }
+        }
+        return flat;
+    }
+
+    private static List<Node> distinct(List<Node> children) {
+        List<Node> result = new ArrayList<>();
+        for (Node child : children) {
+            if (!result.contains(child)) {
+                result.add(child);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Corta un all tras el primer hijo que nunca es cierto.
+     */
+    private static List<Node> truncate(List<Node> children) {
+        for (int i = 0; i < children.size() - 1; i++) {
+            if (neverTrue(children.get(i))) {
+                return new ArrayList<>(children.subList(0, i + 1));
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Si una condición no puede ser cierta con ningún valor de sus features
+     * (campos nulos, umbral no numérico, operador desconocido, rango vacío).
+     */
+    public static boolean neverTrue(Node node) {
+        if (node instanceof AnyCondition) {
+            List<Node> children = ((AnyCondition) node).getAny();
+            return children == null || children.isEmpty();
+        }
+        if (node instanceof NumericCondition) {
+            NumericCondition condition = (NumericCondition) node;
+            String op = condition.getOp();
+            Object value = condition.getValue();
+            if (condition.getVar() == null || condition.getAgg() == null || op == null || value == null) {
+                // El intérprete falla al construir la traza
+                return true;
+            }
+            if ("between".equals(op)) {
+                Bound low = Bound.lower(condition);
+                Bound high = Bound.upper(condition);
+                return low == null || high == null || contradicts(low, high);
+            }
+            return !"in".equals(op) && (ColumnarRuleset.comparison(op) < 0 || RuleCompiler.toDouble(value) == null);
+        }
+        if (node instanceof ExpressionCondition) {
+            ExpressionCondition condition = (ExpressionCondition) node;
+            String op = condition.getOp();
+            if (condition.getExpr() == null || op == null || condition.getValue() == null) {
+                return true;
+            }
+            return !"between".equals(op)
+                    && (ColumnarRuleset.comparison(op) < 0 || RuleCompiler.toDouble(condition.getValue()) == null);
+        }
+        if (node instanceof RelativeCondition) {
+            RelativeCondition condition = (RelativeCondition) node;
+            RelativeCondition.VarRef left = condition.getLeft();
+            RelativeCondition.VarRef right = condition.getRight();
+            return left == null || right == null || condition.getOp() == null || left.getVar() == null
+                    || left.getAgg() == null || right.getVar() == null || right.getAgg() == null
+                    || ColumnarRuleset.comparison(condition.getOp()) < 0;
+        }
+        return false;
+    }
+
+    /**
+     * En all, la cota más estricta de cada tramo de hojas consecutivas sobre la
+     * misma celda; {@code >=} y {@code <=} juntas forman {@code between}. Solo
+     * se fusionan hojas contiguas: entre ellas no hay otra condición que
+     * pudiera fallar o cortar antes. Un rango vacío corta el all.
+     */
+    private static List<Node> intersect(List<Node> children) {
+        List<Node> result = new ArrayList<>();
+        int start = 0;
+        while (start < children.size()) {
+            List<Object> key = key(children.get(start), false);
+            int end = start + 1;
+            while (key != null && end < children.size() && key.equals(key(children.get(end), false))) {
+                end++;
+            }
+            List<Node> run = children.subList(start, end);
+            start = end;
+            if (run.size() < 2) {
+                result.addAll(run);
+                continue;
+            }
+
+            Bound low = null;
+            Bound high = null;
+            for (Node child : run) {
+                low = pick(low, Bound.lower((NumericCondition) child), true, true);
+                high = pick(high, Bound.upper((NumericCondition) child), false, true);
+            }
+            List<Node> merged = new ArrayList<>();
+            if (low != null && high != null && !low.strict && !high.strict && !contradicts(low, high)) {
+                merged.add(leaf(run.get(0), "between", List.of(low.value, high.value)));
+            } else {
+                if (low != null) {
+                    merged.add(leaf(run.get(0), low.strict ? ">" : ">=", low.value));
+                }
+                if (high != null) {
+                    merged.add(leaf(run.get(0), high.strict ? "<" : "<=", high.value));
+                }
+            }
+            result.addAll(merged.size() < run.size() ? merged : run);
+            if (low != null && high != null && contradicts(low, high)) {
+                // Rango vacío: el resto del all no se evalúa nunca
+                return result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * En any/none, la cota más amplia por celda y sentido.
+     */
+    private static List<Node> union(List<Node> children) {
+        Map<List<Object>, List<NumericCondition>> groups = groupBounds(children);
+        List<Node> result = new ArrayList<>();
+        for (Node child : children) {
+            List<NumericCondition> group = groups.get(key(child, true));
+            if (group == null || group.size() < 2) {
+                result.add(child);
+                continue;
+            }
+            if (group.get(0) != child) {
+                continue;
+            }
+            boolean lower = Bound.lower(group.get(0)) != null;
+            Bound bound = null;
+            for (NumericCondition condition : group) {
+                Bound next = lower ? Bound.lower(condition) : Bound.upper(condition);
+                bound = pick(bound, next, !lower, false);
+            }
+            String op = lower ? (bound.strict ? ">" : ">=") : (bound.strict ? "<" : "<=");
+            result.add(leaf(child, op, bound.value));
+        }
+        return result;
+    }
+
+    /**
+     * Hojas numéricas con cotas constantes agrupadas por celda y sentido.
+     */
+    private static Map<List<Object>, List<NumericCondition>> groupBounds(List<Node> children) {
+        Map<List<Object>, List<NumericCondition>> groups = new LinkedHashMap<>();
+        for (Node child : children) {
+            List<Object> key = key(child, true);
+            if (key != null) {
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add((NumericCondition) child);
+            }
+        }
+        groups.values().removeIf(group -> group.size() < 2);
+        return groups;
+    }
+
+    /**
+     * Clave de agrupación de una hoja con cota constante; null si no es fusionable.
+     *
+     * @param bySide si el sentido de la cota forma parte de la clave (any/none,
+     *               donde {@code between} no se fusiona)
+     */
+    private static List<Object> key(Node node, boolean bySide) {
+        if (!(node instanceof NumericCondition)) {
+            return null;
+        }
+        NumericCondition condition = (NumericCondition) node;
+        if (condition.getVar() == null || condition.getAgg() == null || condition.getOp() == null) {
+            return null;
+        }
+        Bound low = Bound.lower(condition);
+        Bound high = Bound.upper(condition);
+        if ("between".equals(condition.getOp())) {
+            if (bySide || low == null || high == null) {
+                return null;
+            }
+        } else if (low == null && high == null) {
+            return null;
+        }
+        if (!bySide) {
+            return List.of(condition.getVar(), condition.getAgg(), condition.isRequired());
+        }
+        return List.of(condition.getVar(), condition.getAgg(), condition.isRequired(), low != null);
+    }
+
+    private static NumericCondition leaf(Node template, String op, Object value) {
+        NumericCondition condition = (NumericCondition) template;
+        return NumericCondition.builder()
+                .var(condition.getVar())
+                .agg(condition.getAgg())
+                .op(op)
+                .value(value)
+                .required(condition.isRequired())
+                .build();
+    }
+
+    /**
+     * Elige entre dos cotas.
+     *
+     * @param larger     si se prefiere el umbral mayor
+     * @param strictWins con el mismo umbral, si se prefiere la estricta (la más restrictiva)
+     */
+    private static Bound pick(Bound current, Bound next, boolean larger, boolean strictWins) {
+        if (next == null) {
+            return current;
+        }
+        if (current == null) {
+            return next;
+        }
+        if (next.value == current.value) {
+            return next.strict != current.strict && next.strict == strictWins ? next : current;
+        }
+        return larger == (next.value > current.value) ? next : current;
+    }
+
+    private static boolean contradicts(Bound low, Bound high) {
+        return low.value > high.value || (low.value == high.value && (low.strict || high.strict));
+    }
+
+    /**
+     * Cota constante de una hoja: valor y si es estricta.
+     */
+    private static final class Bound {
+        final double value;
+        final boolean strict;
+
+        private Bound(double value, boolean strict) {
+            this.value = value;
+            this.strict = strict;
+        }
+
+        static Bound lower(NumericCondition condition) {
+            String op = condition.getOp();
+            if (">".equals(op) || ">=".equals(op)) {
+                return of(condition.getValue(), ">".equals(op));
+            }
+            if ("between".equals(op)) {
+                return of(rangeEnd(condition.getValue(), 0), false);
+            }
+            return null;
+        }
+
+        static Bound upper(NumericCondition condition) {
+            String op = condition.getOp();
+            if ("<".equals(op) || "<=".equals(op)) {
+                return of(condition.getValue(), "<".equals(op));
+            }
+            if ("between".equals(op)) {
+                return of(rangeEnd(condition.getValue(), 1), false);
+            }
+            return null;
+        }
+
+        private static Object rangeEnd(Object value, int index) {
+            return value instanceof List && ((List<?>) value).size() == 2 ? ((List<?>) value).get(index) : null;
+        }
+
+        private static Bound of(Object value, boolean strict) {
+            Double number = value != null ? RuleCompiler.toDouble(value) : null;
+            // NaN no ordena: esas hojas no se fusionan
+            return number != null && !number.isNaN() ? new Bound(number, strict) : null;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import com.eterna.dx.rulesengine.features.AggregatorCatalog;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Condición temporal sobre la serie diaria de una variable:
+ * <ul>
+ *   <li>racha: {@code {"var": "steps", "op": "<", "value": 5000, "for_days": 3}}
+ *   (por debajo de 5000 los 3 últimos días, incluido el de la evaluación);</li>
+ *   <li>recuento: {@code {"var": "hrv", "op": "<", "value": 0, "delta": true, "days": 4, "of_last": 7}}
+ *   (la HRV baja respecto al día anterior en 4 de los últimos 7 días).</li>
+ * </ul>
+ *
+ * Se resuelve con un agregador del {@link AggregatorCatalog}
+ * ({@code streak_...} o {@code count_...}), así que la regla lee una celda
+ * de features como cualquier otra condición numérica. El estado del agregador
+ * por usuario se mantiene entre evaluaciones y se actualiza con cada día
+ * ingerido, de modo que evaluar la fecha más reciente cuesta O(1).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TemporalCondition implements Node {
+
+    private String var;
+
+    private String op;
+
+    private Object value;
+
+    /**
+     * Días que deben cumplir la condición.
+     */
+    private int days;
+
+    /**
+     * Ventana en días; null = días consecutivos hasta la fecha de evaluación.
+     */
+    private Integer window;
+
+    /**
+     * Si se compara la variación respecto al día anterior en lugar del valor.
+     */
+    @Builder.Default
+    private boolean delta = false;
+
+    @Builder.Default
+    private boolean required = false;
+
+    /**
+     * Agregador del catálogo que calcula la racha o el recuento.
+     */
+    public String aggregator() {
+        return AggregatorCatalog.temporalName(window == null, comparison(op), RuleCompiler.toDouble(value), delta,
+                window != null ? window : days);
+    }
+
+    /**
+     * Condición numérica equivalente sobre la celda del agregador.
+     */
+    public NumericCondition lowered() {
+        return NumericCondition.builder()
+                .var(var)
+                .agg(aggregator())
+                .op(">=")
+                .value((double) days)
+                .required(required)
+                .build();
+    }
+
+    @Override
+    public boolean eval(Map<String, Map<String, Object>> features, List<Map<String, Object>> trace) {
+        List<Map<String, Object>> cellTrace = new ArrayList<>();
+        boolean result = lowered().eval(features, cellTrace);
+
+        trace.add(Map.of(
+            "type", "temporal",
+            "var", var,
+            "op", op,
+            "threshold", value,
+            "delta", delta,
+            "days", days,
+            "window", window != null ? window : days,
+            "observed", cellTrace.get(0).get("observed"),
+            "result", result
+        ));
+
+        return result;
+    }
+
+    @Override
+    public void collectFeatures(Map<String, Set<String>> refs) {
+        Node.addFeatureRef(refs, var, aggregator());
+    }
+
+    /**
+     * Operador del DSL a su nombre en el catálogo.
+     */
+    static String comparison(String op) {
+        if (op == null) {
+            throw new IllegalArgumentException("Condición temporal sin operador");
+        }
+        switch (op) {
+            case "<":
+                return "lt";
+            case "<=":
+                return "le";
+            case ">":
+                return "gt";
+            case ">=":
+                return "ge";
+            case "==":
+                return "eq";
+            default:
+                throw new IllegalArgumentException("Operador no soportado en condición temporal: " + op);
+        }
+    }
+}
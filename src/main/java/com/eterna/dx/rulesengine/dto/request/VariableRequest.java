@@ -44,6 +44,8 @@ public class VariableRequest {
 
     private String category;
 
+    private String derivedExpression;
+
     @Builder.Default
     private String tenantId = "default";
 
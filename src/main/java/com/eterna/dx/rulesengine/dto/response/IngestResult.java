@@ -0,0 +1,36 @@
+package com.eterna.dx.rulesengine.dto.response;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IngestResult {
+
+    private String source;
+
+    private Integer received;
+
+    private Integer accepted;
+
+    private Integer rejected;
+
+    private List<String> users;
+
+    private List<RecordError> errors;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class RecordError {
+        private Integer index;
+        private List<String> messages;
+    }
+}
@@ -58,6 +58,13 @@ public class Variable {
     @Column(name = "category")
     private String category;
 
+    /**
+     * Expresión de feature derivada sobre columnas del mismo día
+     * (p. ej. "heart_rate_variability_sdnn / resting_heart_rate"); null si es una columna base.
+     */
+    @Column(name = "derived_expression", length = 500)
+    private String derivedExpression;
+
     @Column(name = "tenant_id", length = 50)
     private String tenantId = "default";
 
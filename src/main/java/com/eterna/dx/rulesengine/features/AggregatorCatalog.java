@@ -0,0 +1,640 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Catálogo de agregadores configurables (además de los básicos de
+ * {@link FeatureService#AGGREGATORS}).
+ *
+ * Los nombres llevan la ventana en días naturales que terminan en la fecha
+ * objetivo, y se pueden declarar en {@code Variable.allowedAggregators} o
+ * usar directamente en reglas:
+ * <ul>
+ *   <li>{@code min_7d}, {@code max_7d}: mínimo/máximo de la ventana</li>
+ *   <li>{@code p90_28d}: percentil 90 (interpolación lineal)</li>
+ *   <li>{@code ewma_7d}: media móvil exponencial con span 7 (alpha = 2/(N+1)) sobre los últimos
+ *   valores válidos cuyo peso no es despreciable (ver {@link Spec#getWarmupValues()})</li>
+ *   <li>{@code slope_14d}: pendiente de la recta de mínimos cuadrados (unidades por día)</li>
+ *   <li>{@code delta_1d}: valor del día menos el de hace N días</li>
+ *   <li>{@code missing_7d}: días de la ventana sin valor</li>
+ *   <li>{@code streak_lt_5000_3d}: días consecutivos que terminan en la fecha
+ *   objetivo con valor {@code < 5000}, hasta 3</li>
+ *   <li>{@code count_ge_60_7d}: días de la ventana con valor {@code >= 60}</li>
+ * </ul>
+ * En rachas y recuentos el operador es {@code lt, le, gt, ge} o {@code eq} y
+ * el umbral admite signo y decimales; con el prefijo {@code delta_}
+ * ({@code count_delta_lt_0_7d}) se compara la variación respecto al día
+ * anterior, que debe tener valor.
+ * A diferencia de los básicos (últimos N valores válidos), las ventanas son
+ * de días naturales.
+ */
+public final class AggregatorCatalog {
+
+    private static final Pattern WINDOWED = Pattern.compile("(min|max|ewma|slope|delta|missing)_(\\d{1,3})d");
+    private static final Pattern PERCENTILE = Pattern.compile("p(\\d{1,3})_(\\d{1,3})d");
+    private static final Pattern TEMPORAL =
+            Pattern.compile("(streak|count)_(delta_)?(lt|le|gt|ge|eq)_(-?\\d+(?:\\.\\d+)?)_(\\d{1,3})d");
+
+    private static final Map<String, Spec> CACHE = new ConcurrentHashMap<>();
+    private static final Spec UNKNOWN = new Spec("", 0, null);
+
+    private AggregatorCatalog() {
+    }
+
+    /**
+     * Indica si el nombre es un agregador básico (calculado por {@link WindowAggregates}).
+     */
+    public static boolean isBuiltIn(String name) {
+        return FeatureService.AGGREGATORS.contains(name);
+    }
+
+    /**
+     * Indica si el nombre es un agregador del catálogo.
+     */
+    public static boolean isCatalogAggregator(String name) {
+        return spec(name) != null;
+    }
+
+    /**
+     * Especificación de un agregador del catálogo, o null si el nombre no es válido.
+     */
+    public static Spec spec(String name) {
+        if (name == null) {
+            return null;
+        }
+        Spec spec = CACHE.computeIfAbsent(name, AggregatorCatalog::parse);
+        return spec == UNKNOWN ? null : spec;
+    }
+
+    private static Spec parse(String name) {
+        Matcher matcher = WINDOWED.matcher(name);
+        if (matcher.matches()) {
+            int days = Integer.parseInt(matcher.group(2));
+            if (days < 1) {
+                return UNKNOWN;
+            }
+            switch (matcher.group(1)) {
+                case "min":
+                    return new Spec(name, days, () -> new SlidingExtreme(days, true));
+                case "max":
+                    return new Spec(name, days, () -> new SlidingExtreme(days, false));
+                case "ewma":
+                    return new Spec(name, 0, Ewma.warmupValues(days), () -> new Ewma(days));
+                case "slope":
+                    return new Spec(name, days, () -> new SlidingSlope(days));
+                case "delta":
+                    return new Spec(name, days + 1, () -> new DayDelta(days));
+                case "missing":
+                    return new Spec(name, days, () -> new MissingCount(days));
+                default:
+                    return UNKNOWN;
+            }
+        }
+
+        matcher = PERCENTILE.matcher(name);
+        if (matcher.matches()) {
+            int percentile = Integer.parseInt(matcher.group(1));
+            int days = Integer.parseInt(matcher.group(2));
+            if (days < 1 || percentile > 100) {
+                return UNKNOWN;
+            }
+            return new Spec(name, days, () -> new SlidingPercentile(days, percentile / 100.0));
+        }
+
+        matcher = TEMPORAL.matcher(name);
+        if (matcher.matches()) {
+            int days = Integer.parseInt(matcher.group(5));
+            if (days < 1) {
+                return UNKNOWN;
+            }
+            boolean change = matcher.group(2) != null;
+            String comparison = matcher.group(3);
+            double threshold = Double.parseDouble(matcher.group(4));
+            // La variación del primer día de la ventana necesita el día anterior
+            int window = change ? days + 1 : days;
+            if ("streak".equals(matcher.group(1))) {
+                return new Spec(name, window, 0, true,
+                        () -> new DayStreak(days, new DayPredicate(comparison, threshold, change)));
+            }
+            return new Spec(name, window, 0, true,
+                    () -> new DayCount(days, new DayPredicate(comparison, threshold, change)));
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Nombre canónico de un agregador de racha o recuento.
+     *
+     * @param consecutive racha ({@code streak}) o recuento en la ventana ({@code count})
+     * @param comparison  {@code lt, le, gt, ge} o {@code eq}
+     * @param change      si se compara la variación respecto al día anterior
+     */
+    public static String temporalName(boolean consecutive, String comparison, double threshold, boolean change,
+                                      int days) {
+        String number = BigDecimal.valueOf(threshold).stripTrailingZeros().toPlainString();
+        return (consecutive ? "streak_" : "count_") + (change ? "delta_" : "") + comparison + "_" + number
+                + "_" + days + "d";
+    }
+
+    /**
+     * Especificación de un agregador: nombre, ventana y fábrica de instancias.
+     */
+    public static final class Spec {
+        private final String name;
+        private final int windowDays;
+        private final int warmupValues;
+        private final boolean temporal;
+        private final Supplier<SlidingAggregator> factory;
+
+        private Spec(String name, int windowDays, Supplier<SlidingAggregator> factory) {
+            this(name, windowDays, 0, factory);
+        }
+
+        private Spec(String name, int windowDays, int warmupValues, Supplier<SlidingAggregator> factory) {
+            this(name, windowDays, warmupValues, false, factory);
+        }
+
+        private Spec(String name, int windowDays, int warmupValues, boolean temporal,
+                     Supplier<SlidingAggregator> factory) {
+            this.name = name;
+            this.windowDays = windowDays;
+            this.warmupValues = warmupValues;
+            this.temporal = temporal;
+            this.factory = factory;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Días de histórico necesarios antes de la fecha objetivo; 0 = todo el histórico.
+         */
+        public int getWindowDays() {
+            return windowDays;
+        }
+
+        /**
+         * Para los agregadores sin ventana, valores válidos previos que bastan
+         * para el resultado; 0 = todo el histórico.
+         */
+        public int getWarmupValues() {
+            return warmupValues;
+        }
+
+        /**
+         * Racha o recuento ({@code streak_*}, {@code count_*}): su estado por usuario
+         * se mantiene entre evaluaciones ({@link TemporalStates}).
+         */
+        public boolean isTemporal() {
+            return temporal;
+        }
+
+        public SlidingAggregator newInstance() {
+            return factory.get();
+        }
+
+        // El nombre determina la especificación (y el hash es estable entre ejecuciones)
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Spec && name.equals(((Spec) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+
+    /**
+     * Base de las ventanas: cola de (día, valor) válidos dentro de la ventana.
+     */
+    private abstract static class WindowedBase implements SlidingAggregator {
+        protected final int days;
+        protected final ArrayDeque<double[]> window = new ArrayDeque<>();
+        protected int end = Integer.MIN_VALUE;
+
+        WindowedBase(int days) {
+            this.days = days;
+        }
+
+        @Override
+        public void add(int epochDay, double value) {
+            if (Double.isFinite(value)) {
+                window.addLast(new double[]{epochDay, value});
+                onAdd(epochDay, value);
+            }
+        }
+
+        @Override
+        public void advanceTo(int epochDay) {
+            end = epochDay;
+            int cutoff = epochDay - days;
+            while (!window.isEmpty() && window.peekFirst()[0] <= cutoff) {
+                double[] evicted = window.pollFirst();
+                onEvict((int) evicted[0], evicted[1]);
+            }
+        }
+
+        @Override
+        public int windowDays() {
+            return days;
+        }
+
+        protected void onAdd(int epochDay, double value) {
+        }
+
+        protected void onEvict(int epochDay, double value) {
+        }
+    }
+
+    /**
+     * Mínimo o máximo con cola monótona (O(1) amortizado).
+     */
+    private static final class SlidingExtreme extends WindowedBase {
+        private final boolean min;
+        private final ArrayDeque<double[]> monotonic = new ArrayDeque<>();
+
+        SlidingExtreme(int days, boolean min) {
+            super(days);
+            this.min = min;
+        }
+
+        @Override
+        public void add(int epochDay, double value) {
+            if (!Double.isFinite(value)) {
+                return;
+            }
+            while (!monotonic.isEmpty() && (min ? monotonic.peekLast()[1] >= value : monotonic.peekLast()[1] <= value)) {
+                monotonic.pollLast();
+            }
+            monotonic.addLast(new double[]{epochDay, value});
+        }
+
+        @Override
+        public void advanceTo(int epochDay) {
+            int cutoff = epochDay - days;
+            while (!monotonic.isEmpty() && monotonic.peekFirst()[0] <= cutoff) {
+                monotonic.pollFirst();
+            }
+        }
+
+        @Override
+        public Double result() {
+            return monotonic.isEmpty() ? null : monotonic.peekFirst()[1];
+        }
+    }
+
+    /**
+     * Percentil con dos multiconjuntos ordenados (O(log w) por paso): el inferior
+     * contiene los floor(p·(n-1)) + 1 valores más pequeños.
+     */
+    private static final class SlidingPercentile extends WindowedBase {
+        private final double p;
+        private final TreeMap<Double, Integer> lower = new TreeMap<>();
+        private final TreeMap<Double, Integer> upper = new TreeMap<>();
+        private int lowerSize;
+        private int upperSize;
+
+        SlidingPercentile(int days, double p) {
+            super(days);
+            this.p = Math.max(0.0, Math.min(1.0, p));
+        }
+
+        @Override
+        protected void onAdd(int epochDay, double value) {
+            if (lowerSize > 0 && value <= lower.lastKey()) {
+                increment(lower, value);
+                lowerSize++;
+            } else {
+                increment(upper, value);
+                upperSize++;
+            }
+            rebalance();
+        }
+
+        @Override
+        protected void onEvict(int epochDay, double value) {
+            if (lower.containsKey(value)) {
+                decrement(lower, value);
+                lowerSize--;
+            } else {
+                decrement(upper, value);
+                upperSize--;
+            }
+            rebalance();
+        }
+
+        @Override
+        public Double result() {
+            int n = lowerSize + upperSize;
+            if (n == 0) {
+                return null;
+            }
+            double rank = p * (n - 1);
+            double fraction = rank - Math.floor(rank);
+            double low = lower.lastKey();
+            if (fraction == 0.0 || upperSize == 0) {
+                return low;
+            }
+            return low + (upper.firstKey() - low) * fraction;
+        }
+
+        private void rebalance() {
+            int n = lowerSize + upperSize;
+            int target = n == 0 ? 0 : (int) Math.floor(p * (n - 1)) + 1;
+            while (lowerSize > target) {
+                double moved = lower.lastKey();
+                decrement(lower, moved);
+                lowerSize--;
+                increment(upper, moved);
+                upperSize++;
+            }
+            while (lowerSize < target) {
+                double moved = upper.firstKey();
+                decrement(upper, moved);
+                upperSize--;
+                increment(lower, moved);
+                lowerSize++;
+            }
+        }
+
+        private static void increment(TreeMap<Double, Integer> set, double value) {
+            set.merge(value, 1, Integer::sum);
+        }
+
+        private static void decrement(TreeMap<Double, Integer> set, double value) {
+            set.computeIfPresent(value, (k, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Media móvil exponencial (O(1) por paso).
+     */
+    private static final class Ewma implements SlidingAggregator {
+        // Peso máximo que pueden tener en el resultado los valores anteriores a los de calentamiento
+        private static final double NEGLIGIBLE_WEIGHT = 1e-12;
+
+        private final double alpha;
+        private double value = Double.NaN;
+
+        Ewma(int span) {
+            this.alpha = alpha(span);
+        }
+
+        private static double alpha(int span) {
+            return 2.0 / (span + 1);
+        }
+
+        /**
+         * Valores válidos tras los que el peso de todo lo anterior, (1 - alpha)^n,
+         * es menor que {@link #NEGLIGIBLE_WEIGHT}: empezar ahí cambia el resultado
+         * en menos de esa fracción del rango de valores.
+         */
+        static int warmupValues(int span) {
+            double alpha = alpha(span);
+            return alpha >= 1 ? 1 : (int) Math.ceil(Math.log(NEGLIGIBLE_WEIGHT) / Math.log(1 - alpha));
+        }
+
+        @Override
+        public void add(int epochDay, double x) {
+            if (Double.isFinite(x)) {
+                value = Double.isNaN(value) ? x : alpha * x + (1 - alpha) * value;
+            }
+        }
+
+        @Override
+        public void advanceTo(int epochDay) {
+        }
+
+        @Override
+        public Double result() {
+            return Double.isNaN(value) ? null : value;
+        }
+
+        @Override
+        public int windowDays() {
+            return 0;
+        }
+    }
+
+    /**
+     * Pendiente por mínimos cuadrados con sumas acumuladas (O(1) por paso).
+     * Los días se expresan relativos al primero visto para acotar las sumas.
+     */
+    private static final class SlidingSlope extends WindowedBase {
+        private boolean anchored;
+        private int anchor;
+        private double sumX;
+        private double sumY;
+        private double sumXY;
+        private double sumXX;
+
+        SlidingSlope(int days) {
+            super(days);
+        }
+
+        @Override
+        protected void onAdd(int epochDay, double value) {
+            if (!anchored) {
+                anchor = epochDay;
+                anchored = true;
+            }
+            double x = epochDay - anchor;
+            sumX += x;
+            sumY += value;
+            sumXY += x * value;
+            sumXX += x * x;
+        }
+
+        @Override
+        protected void onEvict(int epochDay, double value) {
+            double x = epochDay - anchor;
+            sumX -= x;
+            sumY -= value;
+            sumXY -= x * value;
+            sumXX -= x * x;
+        }
+
+        @Override
+        public Double result() {
+            int n = window.size();
+            if (n < 2) {
+                return null;
+            }
+            double denominator = n * sumXX - sumX * sumX;
+            if (Math.abs(denominator) < 1e-9) {
+                return null;
+            }
+            return (n * sumXY - sumX * sumY) / denominator;
+        }
+    }
+
+    /**
+     * Diferencia entre el valor del día y el de hace N días (O(1) por paso).
+     */
+    private static final class DayDelta extends WindowedBase {
+        private final int lag;
+
+        DayDelta(int lag) {
+            super(lag + 1);
+            this.lag = lag;
+        }
+
+        @Override
+        public Double result() {
+            if (window.isEmpty()) {
+                return null;
+            }
+            double[] last = window.peekLast();
+            double[] first = window.peekFirst();
+            if ((int) last[0] != end || (int) first[0] != end - lag) {
+                return null;
+            }
+            return last[1] - first[1];
+        }
+    }
+
+    /**
+     * Condición de un día sobre su valor o sobre la variación respecto al día
+     * anterior. Guarda el día previo, así que cada agregador tiene la suya.
+     */
+    private static final class DayPredicate {
+        private final String comparison;
+        private final double threshold;
+        private final boolean change;
+        private int previousDay = Integer.MIN_VALUE;
+        private double previous = Double.NaN;
+
+        DayPredicate(String comparison, double threshold, boolean change) {
+            this.comparison = comparison;
+            this.threshold = threshold;
+            this.change = change;
+        }
+
+        boolean test(int epochDay, double value) {
+            double x = value;
+            if (change) {
+                x = previousDay == epochDay - 1 ? value - previous : Double.NaN;
+                previousDay = epochDay;
+                previous = value;
+            }
+            if (!Double.isFinite(x)) {
+                return false;
+            }
+            switch (comparison) {
+                case "lt":
+                    return x < threshold;
+                case "le":
+                    return x <= threshold;
+                case "gt":
+                    return x > threshold;
+                case "ge":
+                    return x >= threshold;
+                default:
+                    return x == threshold;
+            }
+        }
+    }
+
+    /**
+     * Días consecutivos que cumplen la condición y terminan en el final de la
+     * ventana, hasta N (O(1) por paso). Un día sin registro corta la racha.
+     */
+    private static final class DayStreak implements SlidingAggregator {
+        private final int days;
+        private final DayPredicate predicate;
+        private int run;
+        private int lastMatch = Integer.MIN_VALUE;
+        private int end = Integer.MIN_VALUE;
+
+        DayStreak(int days, DayPredicate predicate) {
+            this.days = days;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public void add(int epochDay, double value) {
+            if (predicate.test(epochDay, value)) {
+                run = lastMatch == epochDay - 1 ? run + 1 : 1;
+                lastMatch = epochDay;
+            }
+        }
+
+        @Override
+        public void advanceTo(int epochDay) {
+            end = epochDay;
+        }
+
+        @Override
+        public Double result() {
+            return lastMatch == end ? (double) Math.min(run, days) : 0.0;
+        }
+
+        @Override
+        public int windowDays() {
+            return days;
+        }
+    }
+
+    /**
+     * Días de la ventana que cumplen la condición (O(1) amortizado por paso).
+     */
+    private static final class DayCount implements SlidingAggregator {
+        private final int days;
+        private final DayPredicate predicate;
+        private final ArrayDeque<Integer> matches = new ArrayDeque<>();
+
+        DayCount(int days, DayPredicate predicate) {
+            this.days = days;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public void add(int epochDay, double value) {
+            if (predicate.test(epochDay, value)) {
+                matches.addLast(epochDay);
+            }
+        }
+
+        @Override
+        public void advanceTo(int epochDay) {
+            int cutoff = epochDay - days;
+            while (!matches.isEmpty() && matches.peekFirst() <= cutoff) {
+                matches.pollFirst();
+            }
+        }
+
+        @Override
+        public Double result() {
+            return (double) matches.size();
+        }
+
+        @Override
+        public int windowDays() {
+            return days;
+        }
+    }
+
+    /**
+     * Días de la ventana sin valor válido (O(1) por paso).
+     */
+    private static final class MissingCount extends WindowedBase {
+
+        MissingCount(int days) {
+            super(days);
+        }
+
+        @Override
+        public Double result() {
+            return (double) (days - window.size());
+        }
+    }
+}
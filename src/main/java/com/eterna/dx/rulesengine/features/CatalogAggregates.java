@@ -0,0 +1,149 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calcula los agregadores del {@link AggregatorCatalog} sobre la serie de un usuario.
+ *
+ * Mantiene, por columna, una instancia de {@link SlidingAggregator} por
+ * agregador y un cursor sobre la serie: al pedir fechas crecientes (job de
+ * materialización) solo se añaden los días nuevos y se desplaza la ventana,
+ * sin recorrer de nuevo la ventana completa. Todos los agregadores de una
+ * columna comparten el mismo recorrido de la serie. Con {@link TemporalStates},
+ * las rachas y recuentos se leen del estado del usuario.
+ */
+final class CatalogAggregates {
+
+    private final List<CombinedRecord> series;
+    private final String userId;
+    private final TemporalStates temporalStates;
+    private final Map<Integer, FieldState> fields = new HashMap<>();
+
+    /**
+     * @param series serie del usuario ordenada por fecha
+     */
+    CatalogAggregates(List<CombinedRecord> series) {
+        this(series, null, null);
+    }
+
+    /**
+     * @param series         serie del usuario ordenada por fecha
+     * @param temporalStates estado de las rachas y recuentos del usuario (null = se recorre la ventana)
+     */
+    CatalogAggregates(List<CombinedRecord> series, String userId, TemporalStates temporalStates) {
+        this.series = series;
+        this.userId = userId;
+        this.temporalStates = temporalStates;
+    }
+
+    /**
+     * Añade a {@code out} los agregadores indicados de la columna en la fecha.
+     */
+    void computeInto(int ordinal, List<AggregatorCatalog.Spec> specs, LocalDate date, Map<String, Object> out) {
+        if (temporalStates != null) {
+            specs = temporalStates.computeInto(userId, ordinal, specs, date, out);
+            if (specs.isEmpty()) {
+                return;
+            }
+        }
+        int day = (int) date.toEpochDay();
+        FieldState state = fields.get(ordinal);
+        if (state == null || !state.specs.equals(specs) || day < state.lastDay) {
+            state = new FieldState(specs, startIndex(ordinal, specs, day));
+            fields.put(ordinal, state);
+        }
+
+        while (state.cursor < series.size()) {
+            CombinedRecord record = series.get(state.cursor);
+            int recordDay = (int) record.getDate().toEpochDay();
+            if (recordDay > day) {
+                break;
+            }
+            double value = record.get(ordinal);
+            for (SlidingAggregator aggregator : state.aggregators) {
+                aggregator.add(recordDay, value);
+            }
+            state.cursor++;
+        }
+        state.lastDay = day;
+
+        for (int i = 0; i < specs.size(); i++) {
+            SlidingAggregator aggregator = state.aggregators[i];
+            aggregator.advanceTo(day);
+            out.put(specs.get(i).getName(), aggregator.result());
+        }
+    }
+
+    /**
+     * Primer registro necesario: el mínimo entre los de cada agregador (inicio
+     * de su ventana o, sin ventana, los valores de calentamiento de la columna
+     * antes de la fecha; el principio de la serie si usa todo el histórico).
+     */
+    private int startIndex(int ordinal, List<AggregatorCatalog.Spec> specs, int day) {
+        int end = lowerBound(day + 1);
+        int start = end;
+        for (AggregatorCatalog.Spec spec : specs) {
+            int from;
+            if (spec.getWindowDays() > 0) {
+                from = lowerBound(day - spec.getWindowDays() + 1);
+            } else if (spec.getWarmupValues() > 0) {
+                from = warmupStart(ordinal, end, spec.getWarmupValues());
+            } else {
+                return 0;
+            }
+            start = Math.min(start, from);
+        }
+        return start;
+    }
+
+    /**
+     * Índice desde el que hay {@code values} valores válidos de la columna antes de {@code end}.
+     */
+    private int warmupStart(int ordinal, int end, int values) {
+        int index = end;
+        int found = 0;
+        while (index > 0 && found < values) {
+            index--;
+            if (Double.isFinite(series.get(index).get(ordinal))) {
+                found++;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Primer índice con fecha >= epochDay.
+     */
+    private int lowerBound(int epochDay) {
+        int low = 0;
+        int high = series.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (series.get(mid).getDate().toEpochDay() < epochDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class FieldState {
+        private final List<AggregatorCatalog.Spec> specs;
+        private final SlidingAggregator[] aggregators;
+        private int cursor;
+        private int lastDay = Integer.MIN_VALUE;
+
+        private FieldState(List<AggregatorCatalog.Spec> specs, int cursor) {
+            this.specs = specs;
+            this.aggregators = new SlidingAggregator[specs.size()];
+            for (int i = 0; i < aggregators.length; i++) {
+                aggregators[i] = specs.get(i).newInstance();
+            }
+            this.cursor = cursor;
+        }
+    }
+}
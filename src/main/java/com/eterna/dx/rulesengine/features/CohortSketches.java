@@ -0,0 +1,310 @@
+package com.eterna.dx.rulesengine.features;
+
+import com.eterna.dx.rulesengine.config.DataProperties;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Distribución diaria de las variables por cohorte demográfica, para
+ * agregadores que comparan al usuario con otros usuarios el mismo día:
+ * <ul>
+ *   <li>{@code cohort_pct}: rango percentil (0-100) del valor del usuario entre
+ *   los usuarios de su cohorte (sexo y franja de edad, ver {@link PatientCohorts})</li>
+ *   <li>{@code population_pct}: lo mismo entre todos los usuarios</li>
+ *   <li>{@code cohort_p50}, {@code population_p90}: percentil N de la
+ *   distribución de ese día</li>
+ * </ul>
+ *
+ * Por cada fecha, columna seguida ({@code data.cohort-variables}) y cohorte se
+ * mantiene un {@link QuantileSketch}, actualizado desde el {@link FeatureStore}
+ * en la carga y en la ingesta: un día nuevo se añade al sketch; si cambia un
+ * registro ya contado, se retiran sus valores anteriores y se añaden los
+ * nuevos. Cuando lo retirado de un día supera la mitad de lo que queda, el día se
+ * reconstruye a partir del almacén. La población es la combinación de los
+ * sketches de las cohortes. Con menos de {@code data.cohort-min-size} valores
+ * el resultado es nulo.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CohortSketches implements FeatureStore.RecordListener {
+
+    private static final Pattern AGGREGATOR = Pattern.compile("(cohort|population)_(pct|p(\\d{1,3}))");
+
+    // Clave de cohorte de los usuarios sin datos demográficos (solo cuentan para la población)
+    private static final String NO_COHORT = "";
+
+    private final DataProperties dataProperties;
+    private final FeatureStore featureStore;
+
+    private final Map<Integer, DayBucket> days = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile PatientCohorts cohorts = PatientCohorts.EMPTY;
+    private volatile Map<String, Integer> tracked = Map.of();
+
+    @PostConstruct
+    public void register() {
+        featureStore.addRecordListener(this);
+    }
+
+    /**
+     * Indica si el nombre es un agregador de cohorte o población.
+     */
+    public static boolean isCohortAggregator(String name) {
+        return name != null && parse(name) != null;
+    }
+
+    /**
+     * Versión de las distribuciones; cambia con cualquier carga o alta que las afecte.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Columnas con distribución diaria.
+     */
+    public Set<String> getTrackedColumns() {
+        return tracked.keySet();
+    }
+
+    /**
+     * Valor del agregador para un usuario en una fecha, o null si la columna no
+     * se sigue, no hay valor del usuario ese día o el grupo es demasiado pequeño.
+     *
+     * @param value valor de la columna del usuario en la fecha (NaN si no tiene)
+     */
+    public Double value(String aggregator, String column, String userId, LocalDate date, double value) {
+        Matcher matcher = parse(aggregator);
+        Integer index = tracked.get(column);
+        if (matcher == null || index == null) {
+            return null;
+        }
+        boolean rank = "pct".equals(matcher.group(2));
+        if (rank && Double.isNaN(value)) {
+            return null;
+        }
+
+        DayBucket bucket = days.get((int) date.toEpochDay());
+        if (bucket == null) {
+            return null;
+        }
+
+        String cohort = null;
+        if ("cohort".equals(matcher.group(1))) {
+            cohort = cohorts.cohortOf(userId, date);
+            if (cohort == null) {
+                return null;
+            }
+        }
+
+        synchronized (bucket) {
+            QuantileSketch sketch = cohort != null ? bucket.cohort(cohort, index) : bucket.population(index);
+            if (sketch == null || sketch.count() < Math.max(1, dataProperties.getCohortMinSize())) {
+                return null;
+            }
+            double result = rank
+                    ? sketch.percentileRank(value)
+                    : sketch.quantile(Integer.parseInt(matcher.group(3)) / 100.0);
+            return Double.isNaN(result) ? null : result;
+        }
+    }
+
+    @Override
+    public void recordsReplaced(Iterable<CombinedRecord> records) {
+        cohorts = PatientCohorts.load(dataProperties.getPatientCsvPath(), dataProperties.getCohortAgeBandYears());
+        FeatureSchema schema = featureStore.getSchema();
+
+        Map<String, Integer> columns = new HashMap<>();
+        List<Integer> ordinals = new ArrayList<>();
+        for (String name : dataProperties.getCohortVariables()) {
+            String column = FeatureService.normalizeColumnName(name.trim());
+            int ordinal = schema.ordinal(column);
+            if (ordinal >= 0 && !columns.containsKey(column)) {
+                columns.put(column, ordinals.size());
+                ordinals.add(ordinal);
+            }
+        }
+        int[] tracking = ordinals.stream().mapToInt(Integer::intValue).toArray();
+
+        Map<Integer, DayBucket> rebuilt = new HashMap<>();
+        if (tracking.length > 0) {
+            for (CombinedRecord record : records) {
+                rebuilt.computeIfAbsent((int) record.getDate().toEpochDay(), day -> new DayBucket(tracking))
+                        .add(record, cohorts.cohortOf(record.getUserId(), record.getDate()), sketchK());
+            }
+        }
+
+        days.clear();
+        days.putAll(rebuilt);
+        tracked = Map.copyOf(columns);
+        version.incrementAndGet();
+        log.info("Distribuciones por cohorte: {} columnas, {} días, {} pacientes con cohorte",
+                columns.size(), rebuilt.size(), cohorts.size());
+    }
+
+    @Override
+    public void recordsUpserted(List<CombinedRecord> inserted, List<FeatureStore.RecordChange> changed) {
+        Map<String, Integer> columns = tracked;
+        if (columns.isEmpty()) {
+            return;
+        }
+        int[] tracking = trackedOrdinals(columns);
+
+        for (CombinedRecord record : inserted) {
+            DayBucket bucket = bucket(record.getDate(), tracking);
+            synchronized (bucket) {
+                bucket.add(record, cohorts.cohortOf(record.getUserId(), record.getDate()), sketchK());
+            }
+        }
+
+        // Solo los usuarios afectados: se retiran sus valores anteriores y se añaden los nuevos
+        Set<LocalDate> rebuild = new HashSet<>();
+        for (FeatureStore.RecordChange change : changed) {
+            CombinedRecord record = change.getCurrent();
+            String cohort = cohorts.cohortOf(record.getUserId(), record.getDate());
+            DayBucket bucket = bucket(record.getDate(), tracking);
+            synchronized (bucket) {
+                bucket.remove(change.getPrevious(), cohort, sketchK());
+                bucket.add(record, cohort, sketchK());
+                if (bucket.needsRebuild()) {
+                    rebuild.add(record.getDate());
+                }
+            }
+        }
+
+        // Con muchos valores retirados el error crece: se rehace el día desde el almacén
+        for (LocalDate date : rebuild) {
+            DayBucket bucket = new DayBucket(tracking);
+            for (String userId : featureStore.getUserIds()) {
+                CombinedRecord record = featureStore.getRecord(userId, date);
+                if (record != null) {
+                    bucket.add(record, cohorts.cohortOf(userId, date), sketchK());
+                }
+            }
+            days.put((int) date.toEpochDay(), bucket);
+        }
+
+        if (!inserted.isEmpty() || !changed.isEmpty()) {
+            version.incrementAndGet();
+        }
+    }
+
+    private DayBucket bucket(LocalDate date, int[] tracking) {
+        return days.computeIfAbsent((int) date.toEpochDay(), day -> new DayBucket(tracking));
+    }
+
+    private int[] trackedOrdinals(Map<String, Integer> columns) {
+        FeatureSchema schema = featureStore.getSchema();
+        int[] ordinals = new int[columns.size()];
+        columns.forEach((column, index) -> ordinals[index] = schema.ordinal(column));
+        return ordinals;
+    }
+
+    private int sketchK() {
+        return dataProperties.getCohortSketchK();
+    }
+
+    private static Matcher parse(String name) {
+        Matcher matcher = AGGREGATOR.matcher(name);
+        if (!matcher.matches()) {
+            return null;
+        }
+        if (matcher.group(3) != null && Integer.parseInt(matcher.group(3)) > 100) {
+            return null;
+        }
+        return matcher;
+    }
+
+    /**
+     * Sketches de un día: por cohorte, uno por columna seguida. El de la
+     * población se obtiene combinando los de las cohortes y se guarda hasta el
+     * siguiente cambio del día.
+     */
+    private static final class DayBucket {
+        private final int[] ordinals;
+        private final Map<String, QuantileSketch[]> byCohort = new HashMap<>();
+        private QuantileSketch[] population;
+
+        private DayBucket(int[] ordinals) {
+            this.ordinals = ordinals;
+        }
+
+        void add(CombinedRecord record, String cohort, int k) {
+            QuantileSketch[] sketches = byCohort.computeIfAbsent(cohort != null ? cohort : NO_COHORT,
+                    c -> newSketches(k));
+            for (int i = 0; i < ordinals.length; i++) {
+                sketches[i].update(record.get(ordinals[i]));
+            }
+            population = null;
+        }
+
+        void remove(CombinedRecord record, String cohort, int k) {
+            QuantileSketch[] sketches = byCohort.computeIfAbsent(cohort != null ? cohort : NO_COHORT,
+                    c -> newSketches(k));
+            for (int i = 0; i < ordinals.length; i++) {
+                sketches[i].remove(record.get(ordinals[i]));
+            }
+            population = null;
+        }
+
+        /**
+         * Indica si lo retirado de alguna columna supera la mitad de lo que queda.
+         */
+        boolean needsRebuild() {
+            for (QuantileSketch[] sketches : byCohort.values()) {
+                for (QuantileSketch sketch : sketches) {
+                    if (sketch.removedCount() > 0 && 2 * sketch.removedCount() > sketch.count()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        QuantileSketch cohort(String cohort, int index) {
+            QuantileSketch[] sketches = byCohort.get(cohort);
+            return sketches != null ? sketches[index] : null;
+        }
+
+        QuantileSketch population(int index) {
+            if (population == null) {
+                population = new QuantileSketch[ordinals.length];
+                for (int i = 0; i < ordinals.length; i++) {
+                    QuantileSketch merged = null;
+                    for (QuantileSketch[] sketches : byCohort.values()) {
+                        if (merged == null) {
+                            merged = new QuantileSketch(sketches[i].k());
+                        }
+                        merged.merge(sketches[i]);
+                    }
+                    population[i] = merged;
+                }
+            }
+            return population[index];
+        }
+
+        private QuantileSketch[] newSketches(int k) {
+            QuantileSketch[] sketches = new QuantileSketch[ordinals.length];
+            for (int i = 0; i < sketches.length; i++) {
+                sketches[i] = new QuantileSketch(k);
+            }
+            return sketches;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codificación compacta de columnas numéricas para {@link CompressedSeries}.
+ *
+ * <ul>
+ *   <li>Enteros: delta respecto al valor presente anterior, zigzag y varint
+ *   (pasos o minutos de sueño ocupan 1-2 bytes por día).</li>
+ *   <li>Decimales: XOR con el valor anterior al estilo Gorilla; si los bits
+ *   significativos caben en la ventana anterior solo se escriben esos bits.</li>
+ *   <li>Nulos: mapa de bits de presencia (se omite si no hay nulos).</li>
+ * </ul>
+ */
+final class ColumnCodec {
+
+    static final int MODE_ALL_NULL = 0;
+    static final int MODE_INT = 1;
+    static final int MODE_DOUBLE = 2;
+    static final int FLAG_HAS_NULLS = 0x80;
+
+    // Enteros exactos en double: |v| < 2^53
+    private static final double MAX_EXACT_INT = 9007199254740992.0;
+
+    private ColumnCodec() {
+    }
+
+    /**
+     * Indica si el valor se puede codificar como entero sin pérdida.
+     */
+    static boolean isExactInteger(double value) {
+        return Math.abs(value) < MAX_EXACT_INT && value == Math.rint(value)
+                && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Escritor de bytes con varints y bits (para Gorilla) sobre un array que crece.
+     */
+    static final class Writer {
+        private byte[] bytes = new byte[256];
+        private int size;
+        private long bitBuffer;
+        private int bitCount;
+
+        int size() {
+            return size;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeBits(long value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                bitBuffer = (bitBuffer << 1) | ((value >>> i) & 1L);
+                if (++bitCount == 8) {
+                    writeByte((int) bitBuffer);
+                    bitBuffer = 0;
+                    bitCount = 0;
+                }
+            }
+        }
+
+        /**
+         * Completa el último byte de bits con ceros.
+         */
+        void alignBits() {
+            if (bitCount > 0) {
+                writeByte((int) (bitBuffer << (8 - bitCount)));
+                bitBuffer = 0;
+                bitCount = 0;
+            }
+        }
+
+        /**
+         * Valores presentes de una columna con XOR al estilo Gorilla.
+         */
+        void writeGorilla(double[] values, int count) {
+            long previous = Double.doubleToRawLongBits(values[0]);
+            writeBits(previous, 64);
+            int previousLeading = Integer.MAX_VALUE;
+            int previousTrailing = 0;
+            for (int i = 1; i < count; i++) {
+                long bits = Double.doubleToRawLongBits(values[i]);
+                long xor = bits ^ previous;
+                previous = bits;
+                if (xor == 0) {
+                    writeBits(0, 1);
+                    continue;
+                }
+                writeBits(1, 1);
+                int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (previousLeading != Integer.MAX_VALUE && leading >= previousLeading
+                        && trailing >= previousTrailing) {
+                    // Cabe en la ventana anterior
+                    writeBits(0, 1);
+                    int meaningful = 64 - previousLeading - previousTrailing;
+                    writeBits(xor >>> previousTrailing, meaningful);
+                } else {
+                    writeBits(1, 1);
+                    int meaningful = 64 - leading - trailing;
+                    writeBits(leading, 5);
+                    writeBits(meaningful - 1, 6);
+                    writeBits(xor >>> trailing, meaningful);
+                    previousLeading = leading;
+                    previousTrailing = trailing;
+                }
+            }
+            alignBits();
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * Lector de la codificación de {@link Writer} sobre un buffer con posición propia.
+     */
+    static final class Reader {
+        private final ByteBuffer buffer;
+        private int pos;
+        private long bitBuffer;
+        private int bitCount;
+
+        Reader(ByteBuffer buffer, int pos) {
+            this.buffer = buffer;
+            this.pos = pos;
+        }
+
+        int position() {
+            return pos;
+        }
+
+        int readByte() {
+            return buffer.get(pos++) & 0xFF;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+        }
+
+        long readBits(int count) {
+            long result = 0;
+            for (int i = 0; i < count; i++) {
+                if (bitCount == 0) {
+                    bitBuffer = readByte();
+                    bitCount = 8;
+                }
+                bitCount--;
+                result = (result << 1) | ((bitBuffer >>> bitCount) & 1L);
+            }
+            return result;
+        }
+
+        void alignBits() {
+            bitCount = 0;
+        }
+
+        /**
+         * Decodifica {@code count} valores escritos con {@link Writer#writeGorilla}.
+         */
+        void readGorilla(double[] out, int count) {
+            long previous = readBits(64);
+            out[0] = Double.longBitsToDouble(previous);
+            int leading = 0;
+            int trailing = 0;
+            for (int i = 1; i < count; i++) {
+                if (readBits(1) != 0) {
+                    if (readBits(1) != 0) {
+                        leading = (int) readBits(5);
+                        int meaningful = (int) readBits(6) + 1;
+                        trailing = 64 - leading - meaningful;
+                    }
+                    int meaningful = 64 - leading - trailing;
+                    previous ^= readBits(meaningful) << trailing;
+                }
+                out[i] = Double.longBitsToDouble(previous);
+            }
+            alignBits();
+        }
+    }
+}
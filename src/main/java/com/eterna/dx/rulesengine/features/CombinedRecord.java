@@ -1,151 +1,141 @@
 package com.eterna.dx.rulesengine.features;
 
-import lombok.Data;
-import lombok.NoArgsConstructor;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 
 /**
  * Registro que combina datos de actividad diaria y sueño.
  * Equivalente a una fila del DataFrame combinado en Python.
+ *
+ * Los valores numéricos se guardan en un array primitivo indexado por el
+ * ordinal de la columna en el {@link FeatureSchema} (NaN = nulo).
  */
-@Data
-@NoArgsConstructor
-@AllArgsConstructor
-@Builder
+@Getter
+@ToString(exclude = "schema")
 public class CombinedRecord {
 
-    // Campos comunes
+    @Setter
     private String userId;
+
+    @Setter
     private LocalDate date;
 
-    // Campos de actividad diaria
-    private Integer steps;
-    private Integer minutesLight;
-    private Integer minutesModerate;
-    private Integer minutesVigorous;
-    private Double heartRateAverageBpm;
-    private Double maxHeartRateBpm;
-    private Double minHeartRateBpm;
-    private Double restingHeartRate;
-    private Double userMaxHeartRateBpm;
-    private Double heartRateVariabilitySdnn;
-
-    // Campos de sueño
-    private Integer remSleepMinutes;
-    private Integer asleepStateMinutes;
-    private Integer deepSleepStateMinutes;
-    private Integer lightSleepStateMinutes;
-    private Integer awakeStateMinutes;
-    private Double avgBreathsPerMin;
-
-    // Campos derivados (si están en el CSV procesado)
-    private Double acwr;
-    private Double trimp;
-    private Double readinessScore;
-    private Double hrv_rhr_ratio;
+    private final FeatureSchema schema;
+
+    private double[] values;
+
+    public CombinedRecord(FeatureSchema schema) {
+        this.schema = schema;
+        this.values = newValues(schema.size());
+    }
+
+    public CombinedRecord(FeatureSchema schema, String userId, LocalDate date) {
+        this(schema);
+        this.userId = userId;
+        this.date = date;
+    }
+
+    /**
+     * Registro sobre un array de valores ya construido (se usa sin copiar).
+     */
+    CombinedRecord(FeatureSchema schema, String userId, LocalDate date, double[] values) {
+        this.schema = schema;
+        this.userId = userId;
+        this.date = date;
+        this.values = values;
+    }
+
+    /**
+     * Valor primitivo de una columna; NaN si es nulo o la columna no existía
+     * cuando se creó el registro.
+     */
+    public double get(int ordinal) {
+        return ordinal >= 0 && ordinal < values.length ? values[ordinal] : Double.NaN;
+    }
+
+    /**
+     * Establece el valor primitivo de una columna (NaN = nulo).
+     */
+    public void set(int ordinal, double value) {
+        if (ordinal >= values.length) {
+            int oldLength = values.length;
+            values = Arrays.copyOf(values, Math.max(ordinal + 1, schema.size()));
+            Arrays.fill(values, oldLength, values.length, Double.NaN);
+        }
+        values[ordinal] = value;
+    }
+
+    /**
+     * Obtiene el valor de una columna por ordinal, como Integer o Double
+     * según el esquema, o null si no hay valor.
+     */
+    public Object getFieldValue(int ordinal) {
+        double value = get(ordinal);
+        if (Double.isNaN(value)) {
+            return null;
+        }
+        return schema.isIntegral(ordinal) ? (Object) (int) value : (Object) value;
+    }
 
     /**
      * Obtiene el valor de un campo por nombre.
      * Utilizado para el procesamiento genérico de columnas.
      */
     public Object getFieldValue(String fieldName) {
-        switch (fieldName.toLowerCase()) {
-            case "steps": return steps;
-            case "minutes_light": return minutesLight;
-            case "minutes_moderate": return minutesModerate;
-            case "minutes_vigorous": return minutesVigorous;
-            case "heart_rate_average_bpm": return heartRateAverageBpm;
-            case "max_heart_rate_bpm": return maxHeartRateBpm;
-            case "min_heart_rate_bpm": return minHeartRateBpm;
-            case "resting_heart_rate": return restingHeartRate;
-            case "user_max_heart_rate_bpm": return userMaxHeartRateBpm;
-            case "heart_rate_variability_sdnn": return heartRateVariabilitySdnn;
-            case "rem_sleep_minutes": return remSleepMinutes;
-            case "asleep_state_minutes": return asleepStateMinutes;
-            case "deep_sleep_state_minutes": return deepSleepStateMinutes;
-            case "light_sleep_state_minutes": return lightSleepStateMinutes;
-            case "awake_state_minutes": return awakeStateMinutes;
-            case "avg_breaths_per_min": return avgBreathsPerMin;
-            case "acwr": return acwr;
-            case "trimp": return trimp;
-            case "readiness_score": return readinessScore;
-            case "hrv_rhr_ratio": return hrv_rhr_ratio;
-            default: return null;
-        }
+        int ordinal = schema.ordinal(fieldName);
+        return ordinal >= 0 ? getFieldValue(ordinal) : null;
     }
 
     /**
      * Establece el valor de un campo por nombre.
      */
     public void setFieldValue(String fieldName, Object value) {
-        try {
-            switch (fieldName.toLowerCase()) {
-                case "steps": 
-                    steps = value != null ? Integer.valueOf(value.toString()) : null; 
-                    break;
-                case "minutes_light": 
-                    minutesLight = value != null ? Integer.valueOf(value.toString()) : null; 
-                    break;
-                case "minutes_moderate": 
-                    minutesModerate = value != null ? Integer.valueOf(value.toString()) : null; 
-                    break;
-                case "minutes_vigorous": 
-                    minutesVigorous = value != null ? Integer.valueOf(value.toString()) : null; 
-                    break;
-                case "heart_rate_average_bpm": 
-                    heartRateAverageBpm = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "max_heart_rate_bpm": 
-                    maxHeartRateBpm = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "min_heart_rate_bpm": 
-                    minHeartRateBpm = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "resting_heart_rate": 
-                    restingHeartRate = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "user_max_heart_rate_bpm": 
-                    userMaxHeartRateBpm = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "heart_rate_variability_sdnn": 
-                    heartRateVariabilitySdnn = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "rem_sleep_minutes": 
-                    remSleepMinutes = value != null ? Integer.valueOf(value.toString()) : null; 
-                    break;
-                case "asleep_state_minutes": 
-                    asleepStateMinutes = value != null ? Integer.valueOf(value.toString()) : null; 
-                    break;
-                case "deep_sleep_state_minutes": 
-                    deepSleepStateMinutes = value != null ? Integer.valueOf(value.toString()) : null; 
-                    break;
-                case "light_sleep_state_minutes": 
-                    lightSleepStateMinutes = value != null ? Integer.valueOf(value.toString()) : null; 
-                    break;
-                case "awake_state_minutes": 
-                    awakeStateMinutes = value != null ? Integer.valueOf(value.toString()) : null; 
-                    break;
-                case "avg_breaths_per_min": 
-                    avgBreathsPerMin = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "acwr": 
-                    acwr = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "trimp": 
-                    trimp = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "readiness_score": 
-                    readinessScore = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
-                case "hrv_rhr_ratio": 
-                    hrv_rhr_ratio = value != null ? Double.valueOf(value.toString()) : null; 
-                    break;
+        int ordinal = schema.ordinal(fieldName);
+        if (ordinal < 0) {
+            return;
+        }
+
+        if (value == null) {
+            set(ordinal, Double.NaN);
+        } else if (value instanceof Number) {
+            set(ordinal, ((Number) value).doubleValue());
+        } else {
+            try {
+                set(ordinal, Double.parseDouble(value.toString().trim()));
+            } catch (NumberFormatException e) {
+                // Ignorar errores de conversión
             }
-        } catch (Exception e) {
-            // Ignorar errores de conversión
         }
     }
+
+    /**
+     * Copia independiente del registro (mismo esquema).
+     */
+    public CombinedRecord copy() {
+        CombinedRecord copy = new CombinedRecord(schema, userId, date);
+        copy.values = values.clone();
+        return copy;
+    }
+
+    /**
+     * Sobrescribe con los valores no nulos de otro registro del mismo esquema.
+     */
+    public void mergeFrom(CombinedRecord other) {
+        double[] otherValues = other.values;
+        for (int i = 0; i < otherValues.length; i++) {
+            if (!Double.isNaN(otherValues[i])) {
+                set(i, otherValues[i]);
+            }
+        }
+    }
+
+    private static double[] newValues(int size) {
+        double[] values = new double[size];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
 }
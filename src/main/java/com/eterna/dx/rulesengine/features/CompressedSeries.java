@@ -0,0 +1,371 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Serie de un usuario comprimida por columnas con {@link ColumnCodec}.
+ *
+ * Los registros se agrupan en bloques de {@value #CHUNK_SIZE} días que se
+ * codifican de forma independiente: fechas en delta-varint y, por columna, un
+ * modo (todo nulo, entero o decimal), el mapa de nulos si hace falta y los
+ * valores presentes. En el heap quedan solo el offset y la primera fecha de
+ * cada bloque; los bytes están en un array o en un bloque de
+ * {@link OffHeapArena}.
+ *
+ * {@link #get(int)} decodifica el bloque completo y lo guarda como último
+ * bloque leído, así que recorrer una ventana final (los últimos 28 días, por
+ * ejemplo) decodifica uno o dos bloques.
+ */
+final class CompressedSeries extends AbstractList<CombinedRecord> implements RandomAccess, StoredSeries {
+
+    static final int CHUNK_SIZE = 64;
+
+    private final FeatureSchema schema;
+    private final String userId;
+    private final OffHeapArena arena;
+    private final OffHeapArena.Block block;
+    private final ByteBuffer buffer;
+    private final int base;
+    private final int length;
+    private final int size;
+    private final int[] chunkOffsets;
+    private final int[] chunkFirstDays;
+
+    // Último bloque decodificado (inmutable; se puede compartir entre hilos)
+    private volatile Chunk lastChunk;
+
+    private CompressedSeries(FeatureSchema schema, String userId, OffHeapArena arena, OffHeapArena.Block block,
+                             ByteBuffer buffer, int base, int length, int size, int[] chunkOffsets,
+                             int[] chunkFirstDays) {
+        this.schema = schema;
+        this.userId = userId;
+        this.arena = arena;
+        this.block = block;
+        this.buffer = buffer;
+        this.base = base;
+        this.length = length;
+        this.size = size;
+        this.chunkOffsets = chunkOffsets;
+        this.chunkFirstDays = chunkFirstDays;
+    }
+
+    /**
+     * Comprime los registros (ordenados por fecha) en un array del heap o, si se
+     * indica arena, en un bloque fuera del heap.
+     */
+    static CompressedSeries encode(FeatureSchema schema, String userId, List<CombinedRecord> records,
+                                   OffHeapArena arena) {
+        int chunks = (records.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int[] offsets = new int[chunks];
+        int[] firstDays = new int[chunks];
+        ColumnCodec.Writer writer = new ColumnCodec.Writer();
+        for (int c = 0; c < chunks; c++) {
+            int from = c * CHUNK_SIZE;
+            offsets[c] = writer.size();
+            firstDays[c] = (int) records.get(from).getDate().toEpochDay();
+            encodeChunk(writer, records, from, Math.min(records.size(), from + CHUNK_SIZE));
+        }
+
+        int length = writer.size();
+        if (arena == null) {
+            ByteBuffer heap = ByteBuffer.wrap(Arrays.copyOf(writer.bytes(), length));
+            return new CompressedSeries(schema, userId, null, null, heap, 0, length, records.size(), offsets, firstDays);
+        }
+        OffHeapArena.Block block = arena.allocate(length);
+        block.buffer.put(block.offset, writer.bytes(), 0, length);
+        return new CompressedSeries(schema, userId, arena, block, block.buffer, block.offset, length, records.size(),
+                offsets, firstDays);
+    }
+
+    private static void encodeChunk(ColumnCodec.Writer writer, List<CombinedRecord> records, int from, int to) {
+        int count = to - from;
+        int width = 0;
+        for (int i = from; i < to; i++) {
+            width = Math.max(width, records.get(i).getValues().length);
+        }
+        writer.writeVarLong(count);
+        writer.writeVarLong(width);
+
+        int previousDay = (int) records.get(from).getDate().toEpochDay();
+        writer.writeVarLong(ColumnCodec.zigzag(previousDay));
+        for (int i = from + 1; i < to; i++) {
+            int day = (int) records.get(i).getDate().toEpochDay();
+            writer.writeVarLong(day - previousDay);
+            previousDay = day;
+        }
+
+        double[] present = new double[count];
+        byte[] bitmap = new byte[(count + 7) / 8];
+        for (int ordinal = 0; ordinal < width; ordinal++) {
+            int presentCount = 0;
+            boolean integers = true;
+            Arrays.fill(bitmap, (byte) 0);
+            for (int i = 0; i < count; i++) {
+                double value = records.get(from + i).get(ordinal);
+                if (!Double.isNaN(value)) {
+                    present[presentCount++] = value;
+                    bitmap[i >> 3] |= (byte) (1 << (i & 7));
+                    integers &= ColumnCodec.isExactInteger(value);
+                }
+            }
+
+            if (presentCount == 0) {
+                writer.writeByte(ColumnCodec.MODE_ALL_NULL);
+                continue;
+            }
+            int mode = integers ? ColumnCodec.MODE_INT : ColumnCodec.MODE_DOUBLE;
+            boolean hasNulls = presentCount < count;
+            writer.writeByte(mode | (hasNulls ? ColumnCodec.FLAG_HAS_NULLS : 0));
+            if (hasNulls) {
+                for (byte b : bitmap) {
+                    writer.writeByte(b);
+                }
+            }
+
+            if (integers) {
+                long previous = 0;
+                for (int i = 0; i < presentCount; i++) {
+                    long value = (long) present[i];
+                    writer.writeVarLong(ColumnCodec.zigzag(value - previous));
+                    previous = value;
+                }
+            } else {
+                writer.writeGorilla(present, presentCount);
+            }
+        }
+    }
+
+    /**
+     * Segmento autocontenido (índice de bloques + bytes) para guardar la serie en disco.
+     */
+    byte[] toSegment() {
+        ByteBuffer segment = ByteBuffer.allocate(3 * Integer.BYTES + 2 * chunkOffsets.length * Integer.BYTES + length);
+        segment.putInt(size);
+        segment.putInt(chunkOffsets.length);
+        for (int offset : chunkOffsets) {
+            segment.putInt(offset);
+        }
+        for (int firstDay : chunkFirstDays) {
+            segment.putInt(firstDay);
+        }
+        segment.putInt(length);
+        segment.put(segment.position(), buffer, base, length);
+        return segment.array();
+    }
+
+    /**
+     * Reconstruye una serie a partir de un segmento de {@link #toSegment()}; los
+     * bytes se copian a un bloque de la arena o se usan en el heap (arena null).
+     */
+    static CompressedSeries fromSegment(FeatureSchema schema, String userId, ByteBuffer segment, OffHeapArena arena) {
+        int size = segment.getInt();
+        int chunks = segment.getInt();
+        int[] offsets = new int[chunks];
+        int[] firstDays = new int[chunks];
+        for (int c = 0; c < chunks; c++) {
+            offsets[c] = segment.getInt();
+        }
+        for (int c = 0; c < chunks; c++) {
+            firstDays[c] = segment.getInt();
+        }
+        int length = segment.getInt();
+        int base = segment.position();
+        if (arena == null) {
+            return new CompressedSeries(schema, userId, null, null, segment, base, length, size, offsets, firstDays);
+        }
+        OffHeapArena.Block block = arena.allocate(length);
+        block.buffer.put(block.offset, segment, base, length);
+        return new CompressedSeries(schema, userId, arena, block, block.buffer, block.offset, length, size,
+                offsets, firstDays);
+    }
+
+    @Override
+    public CombinedRecord get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Índice " + index + " fuera de la serie de tamaño " + size);
+        }
+        Chunk chunk = chunk(index / CHUNK_SIZE);
+        int row = index % CHUNK_SIZE;
+        return new CombinedRecord(schema, userId, LocalDate.ofEpochDay(chunk.days[row]), chunk.rows[row].clone());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Bytes de la serie comprimida.
+     */
+    int byteSize() {
+        return length;
+    }
+
+    @Override
+    public int lowerBound(int epochDay) {
+        int c = lastChunkStartingBefore(epochDay, false);
+        if (c < 0) {
+            return 0;
+        }
+        int[] days = days(c);
+        for (int i = 0; i < days.length; i++) {
+            if (days[i] >= epochDay) {
+                return c * CHUNK_SIZE + i;
+            }
+        }
+        return c * CHUNK_SIZE + days.length;
+    }
+
+    @Override
+    public int upperBound(int epochDay) {
+        int c = lastChunkStartingBefore(epochDay, true);
+        if (c < 0) {
+            return 0;
+        }
+        int[] days = days(c);
+        for (int i = 0; i < days.length; i++) {
+            if (days[i] > epochDay) {
+                return c * CHUNK_SIZE + i;
+            }
+        }
+        return c * CHUNK_SIZE + days.length;
+    }
+
+    /**
+     * Último bloque cuya primera fecha es menor (o menor o igual) que el día; -1 si no hay.
+     */
+    private int lastChunkStartingBefore(int epochDay, boolean inclusive) {
+        int low = 0;
+        int high = chunkFirstDays.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int first = chunkFirstDays[mid];
+            if (first < epochDay || (inclusive && first == epochDay)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    @Override
+    public OffHeapArena arena() {
+        return arena;
+    }
+
+    @Override
+    public void release() {
+        if (arena != null) {
+            arena.release(block);
+        }
+    }
+
+    @Override
+    public List<CombinedRecord> relocate(OffHeapArena target) {
+        OffHeapArena.Block moved = target.allocate(length);
+        moved.buffer.put(moved.offset, buffer, base, length);
+        return new CompressedSeries(schema, userId, target, moved, moved.buffer, moved.offset, length, size,
+                chunkOffsets, chunkFirstDays);
+    }
+
+    /**
+     * Fechas de un bloque (del bloque cacheado o decodificando solo la cabecera).
+     */
+    private int[] days(int c) {
+        Chunk cached = lastChunk;
+        if (cached != null && cached.index == c) {
+            return cached.days;
+        }
+        ColumnCodec.Reader reader = new ColumnCodec.Reader(buffer, base + chunkOffsets[c]);
+        int count = (int) reader.readVarLong();
+        reader.readVarLong();
+        return readDays(reader, count);
+    }
+
+    private static int[] readDays(ColumnCodec.Reader reader, int count) {
+        int[] days = new int[count];
+        days[0] = (int) ColumnCodec.unzigzag(reader.readVarLong());
+        for (int i = 1; i < count; i++) {
+            days[i] = days[i - 1] + (int) reader.readVarLong();
+        }
+        return days;
+    }
+
+    private Chunk chunk(int c) {
+        Chunk cached = lastChunk;
+        if (cached != null && cached.index == c) {
+            return cached;
+        }
+        Chunk decoded = decode(c);
+        lastChunk = decoded;
+        return decoded;
+    }
+
+    private Chunk decode(int c) {
+        ColumnCodec.Reader reader = new ColumnCodec.Reader(buffer, base + chunkOffsets[c]);
+        int count = (int) reader.readVarLong();
+        int width = (int) reader.readVarLong();
+        int[] days = readDays(reader, count);
+
+        double[][] rows = new double[count][width];
+        for (double[] row : rows) {
+            Arrays.fill(row, Double.NaN);
+        }
+
+        double[] present = new double[count];
+        byte[] bitmap = new byte[(count + 7) / 8];
+        for (int ordinal = 0; ordinal < width; ordinal++) {
+            int header = reader.readByte();
+            int mode = header & ~ColumnCodec.FLAG_HAS_NULLS;
+            if (mode == ColumnCodec.MODE_ALL_NULL) {
+                continue;
+            }
+
+            boolean hasNulls = (header & ColumnCodec.FLAG_HAS_NULLS) != 0;
+            int presentCount = count;
+            if (hasNulls) {
+                presentCount = 0;
+                for (int b = 0; b < bitmap.length; b++) {
+                    bitmap[b] = (byte) reader.readByte();
+                    presentCount += Integer.bitCount(bitmap[b] & 0xFF);
+                }
+            }
+
+            if (mode == ColumnCodec.MODE_INT) {
+                long previous = 0;
+                for (int i = 0; i < presentCount; i++) {
+                    previous += ColumnCodec.unzigzag(reader.readVarLong());
+                    present[i] = previous;
+                }
+            } else {
+                reader.readGorilla(present, presentCount);
+            }
+
+            int next = 0;
+            for (int i = 0; i < count; i++) {
+                if (!hasNulls || (bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+                    rows[i][ordinal] = present[next++];
+                }
+            }
+        }
+        return new Chunk(c, days, rows);
+    }
+
+    private static final class Chunk {
+        private final int index;
+        private final int[] days;
+        private final double[][] rows;
+
+        private Chunk(int index, int[] days, double[][] rows) {
+            this.index = index;
+            this.days = days;
+            this.rows = rows;
+        }
+    }
+}
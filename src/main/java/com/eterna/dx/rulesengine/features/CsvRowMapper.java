@@ -0,0 +1,114 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.time.LocalDate;
+
+/**
+ * Traduce filas de un CSV de datos a {@link CombinedRecord} según su cabecera.
+ *
+ * La cabecera se resuelve una vez: columnas clave (user_id, date) y ordinal
+ * del esquema para cada columna numérica; las columnas nuevas se registran
+ * en el esquema. No es thread-safe (mantiene el parser de fechas de la columna).
+ */
+final class CsvRowMapper {
+
+    private final FeatureSchema schema;
+    private final DateColumnParser dateParser = new DateColumnParser();
+    private final int[] ordinals;
+    private int userCol = -1;
+    private int dateCol = -1;
+
+    /**
+     * @param header     cabecera del CSV
+     * @param mapColumns si se aplica el mapeo de nombres de columnas de los CSV originales
+     * @param schema     esquema donde resolver (y registrar) las columnas
+     */
+    CsvRowMapper(String[] header, boolean mapColumns, FeatureSchema schema) {
+        this.schema = schema;
+        this.ordinals = new int[header.length];
+
+        for (int i = 0; i < header.length; i++) {
+            String columnName = header[i].trim();
+            if (mapColumns) {
+                columnName = FeatureService.normalizeColumnName(columnName);
+            }
+
+            ordinals[i] = -1;
+            if ("user_id".equals(columnName)) {
+                userCol = i;
+            } else if ("date".equals(columnName)) {
+                dateCol = i;
+            } else if (!columnName.isEmpty() && !FeatureService.isExcludedColumn(columnName)) {
+                ordinals[i] = schema.register(columnName, false);
+            }
+        }
+    }
+
+    /**
+     * Indica si la cabecera tiene las columnas user_id y date.
+     */
+    boolean hasKeyColumns() {
+        return userCol >= 0 && dateCol >= 0;
+    }
+
+    /**
+     * user_id de la fila, o null si falta.
+     */
+    String userId(String[] row) {
+        if (userCol >= row.length) {
+            return null;
+        }
+        String userId = row[userCol].trim();
+        return userId.isEmpty() ? null : userId;
+    }
+
+    /**
+     * Fecha de la fila, o null si falta o no se reconoce.
+     */
+    LocalDate date(String[] row) {
+        return dateCol < row.length ? dateParser.parse(row[dateCol]) : null;
+    }
+
+    /**
+     * Pasa la fecha de una fila de la muestra al parser para fijar el orden día/mes.
+     */
+    void sampleDate(String[] row) {
+        if (dateCol < row.length) {
+            dateParser.sample(row[dateCol]);
+        }
+    }
+
+    /**
+     * Copia los valores numéricos de la fila al registro (los vacíos o no numéricos se ignoran).
+     */
+    void applyValues(String[] row, CombinedRecord record) {
+        for (int i = 0; i < Math.min(ordinals.length, row.length); i++) {
+            if (ordinals[i] < 0) {
+                continue;
+            }
+            String value = row[i].trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            try {
+                record.set(ordinals[i], Double.parseDouble(value));
+            } catch (NumberFormatException e) {
+                // Valor no numérico: se ignora
+            }
+        }
+    }
+
+    /**
+     * Crea un registro nuevo a partir de la fila, o null si no tiene user_id y fecha.
+     */
+    CombinedRecord toRecord(String[] row) {
+        String userId = userId(row);
+        LocalDate date = userId != null ? date(row) : null;
+        if (date == null) {
+            return null;
+        }
+
+        CombinedRecord record = new CombinedRecord(schema, userId, date);
+        applyValues(row, record);
+        return record;
+    }
+}
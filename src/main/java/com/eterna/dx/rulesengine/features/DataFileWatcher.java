@@ -0,0 +1,331 @@
+package com.eterna.dx.rulesengine.features;
+
+import com.eterna.dx.rulesengine.config.DataProperties;
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingesta incremental de los CSV de datos.
+ *
+ * Vigila los directorios de los CSV diario y de sueño y, cuando crecen, lee
+ * solo los bytes añadidos desde el último offset (líneas completas), los
+ * convierte en registros y los combina en el {@link FeatureStore}. Solo cambian
+ * las series de los usuarios afectados. Si un fichero se trunca o se reescribe,
+ * o si cambia el CSV procesado, se hace una recarga completa.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DataFileWatcher {
+
+    private static final int READ_CHUNK_BYTES = 1 << 16;
+
+    private final DataProperties dataProperties;
+    private final FeatureService featureService;
+    private final FeatureStore featureStore;
+
+    private final Map<Path, TailState> tails = new LinkedHashMap<>();
+    private volatile WatchService watchService;
+    private volatile Thread thread;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!dataProperties.isWatchEnabled()) {
+            log.info("Vigilancia de CSV de datos desactivada");
+            return;
+        }
+
+        try {
+            featureService.ensureLoaded();
+            watchService = FileSystems.getDefault().newWatchService();
+
+            Set<Path> directories = new HashSet<>();
+            for (String source : List.of(dataProperties.getProcessedCsvPath(),
+                    dataProperties.getDailyCsvPath(), dataProperties.getSleepCsvPath())) {
+                Path directory = Paths.get(source).toAbsolutePath().getParent();
+                if (directory == null || !Files.isDirectory(directory)) {
+                    // Sin el directorio no llegarían eventos de ese CSV: mejor no vigilar ninguno
+                    log.error("No existe el directorio de {}: vigilancia de CSV desactivada, "
+                            + "se recargará al cambiar la fecha de modificación", source);
+                    closeWatchService();
+                    return;
+                }
+                if (directories.add(directory)) {
+                    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+            resetTails();
+
+            thread = new Thread(this::run, "data-file-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            featureService.setWatcherRunning(true);
+            log.info("Vigilando CSV de datos en {}", directories);
+        } catch (Exception e) {
+            log.error("No se pudo iniciar la vigilancia de CSV de datos: {}", e.getMessage(), e);
+            closeWatchService();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        featureService.setWatcherRunning(false);
+        closeWatchService();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void closeWatchService() {
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                log.debug("Error cerrando WatchService: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            poll();
+        } finally {
+            // Sin hilo de vigilancia, FeatureService vuelve a comprobar la fecha de modificación
+            featureService.setWatcherRunning(false);
+        }
+    }
+
+    private void poll() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                WatchKey key = watchService.poll(dataProperties.getWatchPollMs(), TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                // Agrupar ráfagas de eventos: procesar tras un breve respiro
+                Thread.sleep(Math.min(dataProperties.getWatchPollMs(), 100));
+                key.pollEvents();
+                key.reset();
+                WatchKey more;
+                while ((more = watchService.poll()) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+
+                checkSources();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Error en la ingesta incremental de CSV: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Compara el estado de los CSV con el último leído y aplica los cambios.
+     */
+    synchronized void checkSources() throws IOException {
+        Path processed = Paths.get(dataProperties.getProcessedCsvPath());
+        if (featureService.isUsingProcessedCsv() || Files.exists(processed)) {
+            // El CSV procesado no es de solo-añadir: cualquier cambio fuerza recarga
+            long loadedSize = featureService.getLoadedSourceSizes()
+                    .getOrDefault(dataProperties.getProcessedCsvPath(), -1L);
+            long currentSize = Files.exists(processed) ? Files.size(processed) : -1L;
+            if (currentSize != loadedSize || featureService.isUsingProcessedCsv() != Files.exists(processed)) {
+                log.info("CSV procesado modificado, recargando dataset completo");
+                reloadAll();
+            }
+            return;
+        }
+
+        List<CombinedRecord> appended = new ArrayList<>();
+        for (TailState tail : tails.values()) {
+            long size = Files.exists(tail.path) ? Files.size(tail.path) : 0L;
+            if (size < tail.offset) {
+                log.info("CSV {} truncado o reescrito, recargando dataset completo", tail.path);
+                reloadAll();
+                return;
+            }
+            if (size > tail.offset && !readAppended(tail, size, appended)) {
+                reloadAll();
+                return;
+            }
+        }
+
+        if (!appended.isEmpty()) {
+            Set<String> users = featureStore.upsert(appended);
+            log.info("Ingesta incremental: {} filas nuevas, usuarios afectados {}", appended.size(), users);
+        }
+    }
+
+    private void reloadAll() throws IOException {
+        featureService.reload();
+        resetTails();
+    }
+
+    /**
+     * Sitúa los offsets de lectura en el tamaño de los ficheros de la última carga completa.
+     */
+    private void resetTails() throws IOException {
+        tails.clear();
+        Map<String, Long> loadedSizes = featureService.getLoadedSourceSizes();
+        for (String source : List.of(dataProperties.getDailyCsvPath(), dataProperties.getSleepCsvPath())) {
+            Path path = Paths.get(source);
+            TailState tail = new TailState(path, ';');
+            tail.offset = loadedSizes.getOrDefault(source, 0L);
+            if (tail.offset > 0) {
+                // Cabecera y primeras filas, que fijan el orden día/mes de la columna de fecha
+                List<String> head = readHeadLines(path, DateColumnParser.SAMPLE_ROWS + 1);
+                if (!head.isEmpty()) {
+                    tail.initMapper(head.get(0), featureStore.getSchema());
+                    tail.sample(head.subList(1, head.size()));
+                }
+            }
+            tails.put(path, tail);
+        }
+    }
+
+    /**
+     * Lee las líneas completas añadidas desde el offset y las convierte en registros.
+     *
+     * @return false si el fichero no tiene cabecera con user_id y fecha; el
+     *         offset no avanza y hay que recargar el dataset completo
+     */
+    private boolean readAppended(TailState tail, long size, List<CombinedRecord> out) throws IOException {
+        byte[] bytes = readRange(tail.path, tail.offset, size);
+        int lastNewline = -1;
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                lastNewline = i;
+                break;
+            }
+        }
+        if (lastNewline < 0) {
+            return true; // Línea aún incompleta
+        }
+
+        String text = new String(bytes, 0, lastNewline + 1, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split("\r?\n")) {
+            if (!line.isBlank()) {
+                lines.add(line);
+            }
+        }
+
+        if (tail.mapper == null) {
+            // Solo la primera línea de un fichero nuevo (offset 0) es la cabecera
+            if (tail.offset == 0 && !lines.isEmpty()) {
+                tail.initMapper(lines.remove(0), featureStore.getSchema());
+            }
+            if (tail.mapper == null) {
+                log.error("CSV {} sin cabecera con user_id y fecha, recargando dataset completo", tail.path);
+                return false;
+            }
+        }
+        tail.offset += lastNewline + 1;
+
+        // Todo el bloque se muestrea antes de parsear fechas para no cambiar de orden a mitad
+        tail.sample(lines);
+        for (String line : lines) {
+            CombinedRecord record = tail.mapper.toRecord(tail.parser.parseLine(line));
+            if (record != null) {
+                out.add(record);
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readRange(Path path, long from, long to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(to - from, Integer.MAX_VALUE));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK_BYTES);
+            long position = from;
+            while (position < to) {
+                buffer.clear();
+                buffer.limit((int) Math.min(READ_CHUNK_BYTES, to - position));
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                out.write(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static List<String> readHeadLines(Path path, int max) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while (lines.size() < max && (line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Estado de lectura incremental de un CSV.
+     */
+    private static final class TailState {
+        private final Path path;
+        private final CSVParser parser;
+        private long offset;
+        private CsvRowMapper mapper;
+
+        private TailState(Path path, char separator) {
+            this.path = path;
+            this.parser = new CSVParserBuilder().withSeparator(separator).build();
+        }
+
+        private void initMapper(String headerLine, FeatureSchema schema) throws IOException {
+            if (headerLine == null) {
+                return;
+            }
+            CsvRowMapper candidate = new CsvRowMapper(parser.parseLine(headerLine), true, schema);
+            mapper = candidate.hasKeyColumns() ? candidate : null;
+        }
+
+        private void sample(List<String> lines) throws IOException {
+            if (mapper == null) {
+                return;
+            }
+            for (String line : lines) {
+                if (!line.isBlank()) {
+                    mapper.sampleDate(parser.parseLine(line));
+                }
+            }
+        }
+    }
+}
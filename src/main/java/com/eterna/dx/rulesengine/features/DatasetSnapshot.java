@@ -0,0 +1,256 @@
+package com.eterna.dx.rulesengine.features;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Snapshot binario del dataset combinado para arranques y recargas rápidas.
+ *
+ * Formato (big-endian):
+ * <pre>
+ * int     MAGIC, int VERSION, byte flags (bit 0 = payload comprimido con GZIP)
+ * long    sourceStamp (mtime máximo de los CSV origen)
+ * -- payload --
+ * int     nFields; por columna del esquema: string nombre, byte tipo ('I' entero, 'D' decimal)
+ * int     nUsers;  por usuario: string userId, int offset de su primera fila
+ * int     nRows
+ * int[]   epochDay por fila
+ * por columna: double[] (NaN = nulo)
+ * </pre>
+ * Las filas se escriben ordenadas por usuario y fecha, de modo que cada usuario
+ * ocupa el rango [offset, offsetSiguiente) de cada columna. La cabecera va
+ * siempre sin comprimir, así que el sello se lee sin tocar el payload.
+ */
+@Slf4j
+public final class DatasetSnapshot {
+
+    private static final int MAGIC = 0x45444E53; // "EDNS"
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 17;
+    private static final byte FLAG_COMPRESSED = 1;
+
+    private static final byte KIND_INT = 'I';
+    private static final byte KIND_DOUBLE = 'D';
+
+    private DatasetSnapshot() {
+    }
+
+    /**
+     * Escribe el snapshot de forma atómica (fichero temporal + move).
+     * Los registros deben venir ordenados por user_id y fecha.
+     */
+    public static void write(List<CombinedRecord> records, Path path, long sourceStamp,
+                             boolean compressed) throws IOException {
+        FeatureSchema schema = records.get(0).getSchema();
+        int nFields = schema.size();
+        int rows = records.size();
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (OutputStream file = Files.newOutputStream(tmp)) {
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeByte(compressed ? FLAG_COMPRESSED : 0);
+            header.writeLong(sourceStamp);
+            header.flush();
+
+            OutputStream payloadStream = compressed
+                    ? new GZIPOutputStream(file, 1 << 16)
+                    : file;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(payloadStream, 1 << 16));
+
+            // Diccionario de columnas del esquema
+            out.writeInt(nFields);
+            for (int f = 0; f < nFields; f++) {
+                writeString(out, schema.name(f));
+                out.writeByte(schema.isIntegral(f) ? KIND_INT : KIND_DOUBLE);
+            }
+
+            // Diccionario de usuarios con offsets
+            List<String> userIds = new ArrayList<>();
+            List<Integer> offsets = new ArrayList<>();
+            String previous = null;
+            for (int i = 0; i < rows; i++) {
+                String userId = records.get(i).getUserId();
+                if (!userId.equals(previous)) {
+                    userIds.add(userId);
+                    offsets.add(i);
+                    previous = userId;
+                }
+            }
+            out.writeInt(userIds.size());
+            for (int u = 0; u < userIds.size(); u++) {
+                writeString(out, userIds.get(u));
+                out.writeInt(offsets.get(u));
+            }
+
+            // Columnas primitivas
+            out.writeInt(rows);
+            for (CombinedRecord record : records) {
+                out.writeInt((int) record.getDate().toEpochDay());
+            }
+            for (int f = 0; f < nFields; f++) {
+                for (CombinedRecord record : records) {
+                    out.writeDouble(record.get(f));
+                }
+            }
+            out.flush();
+            if (payloadStream instanceof GZIPOutputStream gzip) {
+                gzip.finish();
+            }
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Snapshot escrito en {}: {} registros, {} bytes", path, rows, Files.size(path));
+    }
+
+    /**
+     * Lee el sello de origen de la cabecera del snapshot (sin leer el payload).
+     *
+     * @return el sello almacenado, o -1 si el fichero no existe o no es un snapshot válido
+     */
+    public static long readSourceStamp(Path path) {
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            return header != null ? header.getLong(HEADER_BYTES - Long.BYTES) : -1;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Snapshot ilegible {}: {}", path, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Carga el snapshot. Sin compresión el fichero se mapea en memoria y las
+     * columnas se leen en bloque; con compresión se descomprime a un buffer.
+     */
+    public static List<CombinedRecord> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buf = openPayload(channel);
+            if (buf == null) {
+                throw new IOException("Formato de snapshot no reconocido: " + path);
+            }
+
+            int nFields = buf.getInt();
+            FeatureSchema schema = new FeatureSchema();
+            for (int f = 0; f < nFields; f++) {
+                String name = readString(buf);
+                schema.register(name, buf.get() == KIND_INT);
+            }
+
+            int nUsers = buf.getInt();
+            String[] userIds = new String[nUsers];
+            int[] offsets = new int[nUsers];
+            for (int u = 0; u < nUsers; u++) {
+                userIds[u] = readString(buf);
+                offsets[u] = buf.getInt();
+            }
+
+            int rows = buf.getInt();
+            int[] epochDays = new int[rows];
+            buf.asIntBuffer().get(epochDays);
+            buf.position(buf.position() + rows * Integer.BYTES);
+
+            List<CombinedRecord> records = new ArrayList<>(rows);
+            for (int u = 0; u < nUsers; u++) {
+                int end = u + 1 < nUsers ? offsets[u + 1] : rows;
+                for (int i = offsets[u]; i < end; i++) {
+                    records.add(new CombinedRecord(schema, userIds[u], LocalDate.ofEpochDay(epochDays[i])));
+                }
+            }
+
+            // Transponer columnas a filas leyendo cada columna en bloque
+            double[] column = new double[rows];
+            for (int f = 0; f < nFields; f++) {
+                buf.asDoubleBuffer().get(column);
+                buf.position(buf.position() + rows * Double.BYTES);
+                for (int i = 0; i < rows; i++) {
+                    records.get(i).set(f, column[i]);
+                }
+            }
+
+            log.info("Snapshot cargado desde {}: {} registros de {} usuarios", path, rows, nUsers);
+            return records;
+        }
+    }
+
+    /**
+     * Lee la cabecera fija con una lectura posicional; null si el fichero es
+     * más corto o no es un snapshot de esta versión.
+     */
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return null;
+            }
+        }
+        header.flip();
+        if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != VERSION) {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Valida la cabecera y devuelve el payload posicionado al inicio,
+     * o null si el fichero no es un snapshot de esta versión.
+     */
+    private static ByteBuffer openPayload(FileChannel channel) throws IOException {
+        ByteBuffer header = readHeader(channel);
+        if (header == null) {
+            return null;
+        }
+        byte flags = header.get(2 * Integer.BYTES);
+
+        long payloadBytes = channel.size() - HEADER_BYTES;
+        if ((flags & FLAG_COMPRESSED) == 0) {
+            if (payloadBytes > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot demasiado grande para mapearlo: " + channel.size() + " bytes");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, payloadBytes);
+        }
+
+        channel.position(HEADER_BYTES);
+        try (InputStream in = new GZIPInputStream(Channels.newInputStream(channel), 1 << 16)) {
+            return ByteBuffer.wrap(in.readAllBytes());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,197 @@
+package com.eterna.dx.rulesengine.features;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parser de fechas para una columna de CSV.
+ *
+ * Parsea con un lector de dígitos a mano directamente a epoch-day, sin crear
+ * formatters ni usar excepciones como control de flujo. Las filas que no
+ * encajan con el formato detectado caen a formatters cacheados.
+ *
+ * El orden dd/MM frente a MM/dd se fija una sola vez por columna: con las
+ * filas pasadas a {@link #sample} antes de parsear (las primeras
+ * {@value #SAMPLE_ROWS}) o, si ninguna lo delata, con la primera fecha con
+ * barras que se parsea (dd/MM si es ambigua, como el parser original). Así
+ * todas las filas ambiguas de la columna se leen con el mismo orden.
+ *
+ * No es thread-safe: usar una instancia por columna y carga.
+ */
+@Slf4j
+public class DateColumnParser {
+
+    /** Valor devuelto por {@link #parseEpochDay(String)} cuando la fecha no es válida. */
+    public static final int INVALID = Integer.MIN_VALUE;
+
+    /** Filas que conviene pasar a {@link #sample} antes de empezar a parsear. */
+    public static final int SAMPLE_ROWS = 1000;
+
+    // Formatters de respaldo, en el mismo orden de preferencia que el parser original
+    private static final DateTimeFormatter[] FALLBACK_FORMATTERS = {
+            DateTimeFormatter.ofPattern("yyyy-MM-dd"),
+            DateTimeFormatter.ofPattern("dd/MM/yyyy"),
+            DateTimeFormatter.ofPattern("MM/dd/yyyy")
+    };
+
+    private enum Order { UNKNOWN, DAY_MONTH, MONTH_DAY }
+
+    private Order order = Order.UNKNOWN;
+    private boolean contradictionLogged;
+
+    /**
+     * Examina una fecha de la muestra de la columna sin parsearla: si delata
+     * el orden día/mes, lo fija para toda la columna.
+     */
+    public void sample(String value) {
+        if (order != Order.UNKNOWN || value == null) {
+            return;
+        }
+        String s = value.trim();
+        if (isSlashShape(s)) {
+            order = evidence(digits(s, 0, 2), digits(s, 3, 2));
+        }
+    }
+
+    /**
+     * Parsea una fecha a LocalDate, o null si no se reconoce.
+     */
+    public LocalDate parse(String value) {
+        int epochDay = parseEpochDay(value);
+        return epochDay != INVALID ? LocalDate.ofEpochDay(epochDay) : null;
+    }
+
+    /**
+     * Parsea una fecha a epoch-day, o {@link #INVALID} si no se reconoce.
+     */
+    public int parseEpochDay(String value) {
+        if (value == null) {
+            return INVALID;
+        }
+        String s = value.trim();
+        if (s.isEmpty()) {
+            return INVALID;
+        }
+
+        int result = INVALID;
+        if (isIsoShape(s)) {
+            // yyyy-MM-dd con sufijo opcional de hora: solo cuenta la fecha
+            result = toEpochDay(digits(s, 0, 4), digits(s, 5, 2), digits(s, 8, 2));
+        } else if (isSlashShape(s)) {
+            int first = digits(s, 0, 2);
+            int second = digits(s, 3, 2);
+            int year = digits(s, 6, 4);
+            if (order == Order.UNKNOWN) {
+                Order found = evidence(first, second);
+                order = found != Order.UNKNOWN ? found : Order.DAY_MONTH;
+            }
+
+            result = order == Order.MONTH_DAY ? toEpochDay(year, first, second) : toEpochDay(year, second, first);
+            if (result == INVALID && !contradictionLogged && evidence(first, second) != Order.UNKNOWN) {
+                contradictionLogged = true;
+                log.warn("La fecha {} no encaja con el orden {} fijado para la columna", s,
+                        order == Order.MONTH_DAY ? "MM/dd" : "dd/MM");
+            }
+        }
+
+        return result != INVALID ? result : parseWithFallback(s);
+    }
+
+    /**
+     * Orden que delata una fecha con barras (un campo mayor que 12), o UNKNOWN si es ambigua.
+     */
+    private static Order evidence(int first, int second) {
+        if (first > 12 && second <= 12) {
+            return Order.DAY_MONTH;
+        }
+        if (second > 12 && first <= 12) {
+            return Order.MONTH_DAY;
+        }
+        return Order.UNKNOWN;
+    }
+
+    private static boolean isIsoShape(String s) {
+        return s.length() >= 10 && s.charAt(4) == '-' && s.charAt(7) == '-'
+                && allDigits(s, 0, 4) && allDigits(s, 5, 2) && allDigits(s, 8, 2);
+    }
+
+    private static boolean isSlashShape(String s) {
+        return s.length() == 10 && s.charAt(2) == '/' && s.charAt(5) == '/'
+                && allDigits(s, 0, 2) && allDigits(s, 3, 2) && allDigits(s, 6, 4);
+    }
+
+    private static boolean allDigits(String s, int from, int len) {
+        for (int i = from; i < from + len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digits(String s, int from, int len) {
+        int n = 0;
+        for (int i = from; i < from + len; i++) {
+            n = n * 10 + (s.charAt(i) - '0');
+        }
+        return n;
+    }
+
+    /**
+     * Convierte año/mes/día a epoch-day (algoritmo days_from_civil),
+     * validando rangos sin crear objetos.
+     */
+    private static int toEpochDay(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            return INVALID;
+        }
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Respaldo para filas atípicas con los formatters cacheados.
+     */
+    private int parseWithFallback(String s) {
+        for (DateTimeFormatter formatter : FALLBACK_FORMATTERS) {
+            try {
+                return (int) LocalDate.parse(s, formatter).toEpochDay();
+            } catch (DateTimeParseException e) {
+                // Intentar siguiente formato
+            }
+        }
+        if (s.length() > 10) {
+            try {
+                return (int) LocalDate.parse(s.substring(0, 10), FALLBACK_FORMATTERS[0]).toEpochDay();
+            } catch (DateTimeParseException e) {
+                // Sin más formatos
+            }
+        }
+
+        log.warn("No se pudo parsear fecha: {}", s);
+        return INVALID;
+    }
+}
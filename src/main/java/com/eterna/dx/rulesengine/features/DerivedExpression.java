@@ -0,0 +1,294 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Expresión aritmética de una feature derivada sobre columnas del mismo día.
+ *
+ * Gramática: números, nombres de columna, {@code + - * /}, paréntesis y las
+ * funciones {@code abs, sqrt, ln, exp, min, max}. Se compila a un programa
+ * postfijo que se evalúa columna a columna sobre un lote de registros
+ * (cualquier mezcla de usuarios). Un operando nulo, una división por cero o
+ * un resultado no finito dan nulo.
+ *
+ * Ejemplo: {@code heart_rate_variability_sdnn / resting_heart_rate}.
+ */
+public final class DerivedExpression {
+
+    static final int LOAD = 0;
+    static final int CONST = 1;
+    static final int ADD = 2;
+    static final int SUB = 3;
+    static final int MUL = 4;
+    static final int DIV = 5;
+    static final int NEG = 6;
+    static final int ABS = 7;
+    static final int SQRT = 8;
+    static final int LN = 9;
+    static final int EXP = 10;
+    static final int MIN = 11;
+    static final int MAX = 12;
+
+    private final String source;
+    private final int[] opcodes;
+    private final String[] columns;
+    private final double[] constants;
+    private final int maxDepth;
+    private final Set<String> references;
+
+    private DerivedExpression(String source, List<Instruction> program, int maxDepth) {
+        this.source = source;
+        this.opcodes = new int[program.size()];
+        this.columns = new String[program.size()];
+        this.constants = new double[program.size()];
+        Set<String> refs = new LinkedHashSet<>();
+        for (int i = 0; i < program.size(); i++) {
+            Instruction instruction = program.get(i);
+            opcodes[i] = instruction.opcode;
+            columns[i] = instruction.column;
+            constants[i] = instruction.constant;
+            if (instruction.column != null) {
+                refs.add(instruction.column);
+            }
+        }
+        this.maxDepth = maxDepth;
+        this.references = Collections.unmodifiableSet(refs);
+    }
+
+    /**
+     * Parsea una expresión.
+     *
+     * @throws IllegalArgumentException si la expresión no es válida
+     */
+    public static DerivedExpression parse(String source) {
+        if (source == null || source.isBlank()) {
+            throw new IllegalArgumentException("La expresión derivada está vacía");
+        }
+        Parser parser = new Parser(source);
+        parser.parseExpression();
+        if (parser.pos < source.length()) {
+            throw new IllegalArgumentException("Carácter inesperado en la posición " + parser.pos
+                    + " de la expresión: " + source);
+        }
+        return new DerivedExpression(source, parser.program, parser.maxDepth);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Columnas que lee la expresión (nombres normalizados).
+     */
+    public Set<String> getReferences() {
+        return references;
+    }
+
+    int length() {
+        return opcodes.length;
+    }
+
+    int opcode(int index) {
+        return opcodes[index];
+    }
+
+    String column(int index) {
+        return columns[index];
+    }
+
+    double constant(int index) {
+        return constants[index];
+    }
+
+    int maxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static final class Instruction {
+        private final int opcode;
+        private final String column;
+        private final double constant;
+
+        private Instruction(int opcode, String column, double constant) {
+            this.opcode = opcode;
+            this.column = column;
+            this.constant = constant;
+        }
+    }
+
+    /**
+     * Parser descendente recursivo que emite el programa postfijo y calcula
+     * la profundidad máxima de pila.
+     */
+    private static final class Parser {
+        private final String source;
+        private final List<Instruction> program = new ArrayList<>();
+        private int pos;
+        private int depth;
+        private int maxDepth;
+
+        private Parser(String source) {
+            this.source = source;
+        }
+
+        void parseExpression() {
+            parseTerm();
+            while (true) {
+                if (accept('+')) {
+                    parseTerm();
+                    emit(ADD, null, 0, -1);
+                } else if (accept('-')) {
+                    parseTerm();
+                    emit(SUB, null, 0, -1);
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void parseTerm() {
+            parseUnary();
+            while (true) {
+                if (accept('*')) {
+                    parseUnary();
+                    emit(MUL, null, 0, -1);
+                } else if (accept('/')) {
+                    parseUnary();
+                    emit(DIV, null, 0, -1);
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void parseUnary() {
+            if (accept('-')) {
+                parseUnary();
+                emit(NEG, null, 0, 0);
+            } else if (accept('+')) {
+                parseUnary();
+            } else {
+                parsePrimary();
+            }
+        }
+
+        private void parsePrimary() {
+            skipSpaces();
+            if (pos >= source.length()) {
+                throw error("Fin inesperado de la expresión");
+            }
+
+            char c = source.charAt(pos);
+            if (accept('(')) {
+                parseExpression();
+                expect(')');
+                return;
+            }
+            if (Character.isDigit(c) || c == '.') {
+                int start = pos;
+                while (pos < source.length() && (Character.isDigit(source.charAt(pos)) || source.charAt(pos) == '.')) {
+                    pos++;
+                }
+                try {
+                    emit(CONST, null, Double.parseDouble(source.substring(start, pos)), 1);
+                } catch (NumberFormatException e) {
+                    throw error("Número no válido");
+                }
+                return;
+            }
+            if (Character.isLetter(c) || c == '_') {
+                int start = pos;
+                while (pos < source.length()
+                        && (Character.isLetterOrDigit(source.charAt(pos)) || source.charAt(pos) == '_')) {
+                    pos++;
+                }
+                String name = source.substring(start, pos);
+                if (peek('(')) {
+                    parseFunction(name.toLowerCase(Locale.ROOT));
+                } else {
+                    emit(LOAD, FeatureService.normalizeColumnName(name), 0, 1);
+                }
+                return;
+            }
+            throw error("Carácter inesperado '" + c + "'");
+        }
+
+        private void parseFunction(String name) {
+            expect('(');
+            switch (name) {
+                case "abs":
+                    parseExpression();
+                    emit(ABS, null, 0, 0);
+                    break;
+                case "sqrt":
+                    parseExpression();
+                    emit(SQRT, null, 0, 0);
+                    break;
+                case "ln":
+                    parseExpression();
+                    emit(LN, null, 0, 0);
+                    break;
+                case "exp":
+                    parseExpression();
+                    emit(EXP, null, 0, 0);
+                    break;
+                case "min":
+                case "max":
+                    parseExpression();
+                    expect(',');
+                    parseExpression();
+                    emit("min".equals(name) ? MIN : MAX, null, 0, -1);
+                    break;
+                default:
+                    throw error("Función desconocida '" + name + "'");
+            }
+            expect(')');
+        }
+
+        private void emit(int opcode, String column, double constant, int stackDelta) {
+            program.add(new Instruction(opcode, column, constant));
+            depth += stackDelta;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private boolean accept(char expected) {
+            skipSpaces();
+            if (pos < source.length() && source.charAt(pos) == expected) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean peek(char expected) {
+            skipSpaces();
+            return pos < source.length() && source.charAt(pos) == expected;
+        }
+
+        private void expect(char expected) {
+            if (!accept(expected)) {
+                throw error("Se esperaba '" + expected + "'");
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " en la posición " + pos + " de la expresión: " + source);
+        }
+    }
+}
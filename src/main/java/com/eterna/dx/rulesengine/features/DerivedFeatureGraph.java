@@ -0,0 +1,287 @@
+package com.eterna.dx.rulesengine.features;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Grafo de features derivadas compilado contra un esquema.
+ *
+ * Cada feature derivada es una {@link DerivedExpression} sobre columnas del
+ * mismo día (base u otras derivadas). Al compilar se registra la columna de
+ * cada derivada en el esquema, se resuelven los ordinales y se ordenan las
+ * derivadas topológicamente; las que forman ciclos o leen columnas
+ * inexistentes se descartan con un aviso. {@link #apply(List)} evalúa el grafo
+ * una vez por registro (usuario-día), columna a columna sobre lotes de
+ * registros de cualquier usuario.
+ */
+@Slf4j
+public final class DerivedFeatureGraph {
+
+    /**
+     * Grafo sin derivadas.
+     */
+    public static final DerivedFeatureGraph EMPTY = new DerivedFeatureGraph(List.of(), Map.of());
+
+    private static final int BATCH_SIZE = 1024;
+
+    private final List<Node> nodes;
+    private final Map<String, String> definitions;
+
+    private DerivedFeatureGraph(List<Node> nodes, Map<String, String> definitions) {
+        this.nodes = nodes;
+        this.definitions = definitions;
+    }
+
+    /**
+     * Compila las definiciones nombre -> expresión contra el esquema.
+     */
+    public static DerivedFeatureGraph compile(Map<String, String> definitions, FeatureSchema schema) {
+        if (definitions.isEmpty()) {
+            return EMPTY;
+        }
+
+        Map<String, DerivedExpression> parsed = new TreeMap<>();
+        definitions.forEach((name, source) -> {
+            try {
+                parsed.put(FeatureService.normalizeColumnName(name), DerivedExpression.parse(source));
+            } catch (IllegalArgumentException e) {
+                log.warn("Feature derivada {} descartada: {}", name, e.getMessage());
+            }
+        });
+
+        // Descartar derivadas que leen columnas que no existen (ni base ni derivadas)
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<String, DerivedExpression> entry : new ArrayList<>(parsed.entrySet())) {
+                for (String reference : entry.getValue().getReferences()) {
+                    if (!parsed.containsKey(reference) && schema.ordinal(reference) < 0) {
+                        log.warn("Feature derivada {} descartada: la columna {} no existe", entry.getKey(), reference);
+                        parsed.remove(entry.getKey());
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        List<String> order = topologicalOrder(parsed);
+        List<Node> nodes = new ArrayList<>();
+        Map<String, String> compiled = new LinkedHashMap<>();
+        for (String name : order) {
+            DerivedExpression expression = parsed.get(name);
+            int target = schema.register(name, false);
+            int[] ordinals = new int[expression.length()];
+            for (int i = 0; i < ordinals.length; i++) {
+                ordinals[i] = expression.column(i) != null ? schema.ordinal(expression.column(i)) : -1;
+            }
+            nodes.add(new Node(name, target, expression, ordinals));
+            compiled.put(name, expression.getSource());
+        }
+
+        log.info("Features derivadas compiladas: {}", compiled.keySet());
+        return new DerivedFeatureGraph(Collections.unmodifiableList(nodes), Collections.unmodifiableMap(compiled));
+    }
+
+    /**
+     * Orden de Kahn sobre las dependencias entre derivadas; los nodos en ciclo se descartan.
+     */
+    private static List<String> topologicalOrder(Map<String, DerivedExpression> parsed) {
+        Map<String, Integer> pending = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        parsed.forEach((name, expression) -> {
+            int count = 0;
+            for (String reference : expression.getReferences()) {
+                if (parsed.containsKey(reference)) {
+                    dependents.computeIfAbsent(reference, k -> new ArrayList<>()).add(name);
+                    count++;
+                }
+            }
+            pending.put(name, count);
+        });
+
+        Deque<String> ready = new ArrayDeque<>();
+        parsed.keySet().stream().filter(name -> pending.get(name) == 0).forEach(ready::add);
+
+        List<String> order = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            order.add(name);
+            for (String dependent : dependents.getOrDefault(name, List.of())) {
+                if (pending.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (order.size() < parsed.size()) {
+            List<String> cyclic = new ArrayList<>(parsed.keySet());
+            cyclic.removeAll(order);
+            log.warn("Features derivadas descartadas por dependencias cíclicas: {}", cyclic);
+        }
+        return order;
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * Derivadas compiladas (nombre -> expresión) en orden de evaluación.
+     */
+    public Map<String, String> getDefinitions() {
+        return definitions;
+    }
+
+    /**
+     * Calcula las derivadas de los registros. Un resultado nulo no sobrescribe
+     * un valor existente (por ejemplo, el del CSV procesado).
+     */
+    public void apply(List<CombinedRecord> records) {
+        if (nodes.isEmpty() || records.isEmpty()) {
+            return;
+        }
+
+        int maxDepth = nodes.stream().mapToInt(node -> node.expression.maxDepth()).max().orElse(1);
+        double[][] stack = new double[Math.max(1, maxDepth)][BATCH_SIZE];
+
+        for (int from = 0; from < records.size(); from += BATCH_SIZE) {
+            int size = Math.min(BATCH_SIZE, records.size() - from);
+            List<CombinedRecord> batch = records.subList(from, from + size);
+            for (Node node : nodes) {
+                double[] result = node.evaluate(batch, size, stack);
+                for (int i = 0; i < size; i++) {
+                    double value = result[i];
+                    if (Double.isFinite(value)) {
+                        batch.get(i).set(node.target, value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Derivada compilada: columna destino y ordinales de las columnas leídas.
+     */
+    private static final class Node {
+        private final String name;
+        private final int target;
+        private final DerivedExpression expression;
+        private final int[] ordinals;
+
+        private Node(String name, int target, DerivedExpression expression, int[] ordinals) {
+            this.name = name;
+            this.target = target;
+            this.expression = expression;
+            this.ordinals = ordinals;
+        }
+
+        /**
+         * Ejecuta el programa postfijo sobre el lote; cada nivel de la pila es un vector.
+         */
+        double[] evaluate(List<CombinedRecord> batch, int size, double[][] stack) {
+            int top = -1;
+            for (int pc = 0; pc < expression.length(); pc++) {
+                int opcode = expression.opcode(pc);
+                switch (opcode) {
+                    case DerivedExpression.LOAD: {
+                        double[] out = stack[++top];
+                        int ordinal = ordinals[pc];
+                        for (int i = 0; i < size; i++) {
+                            out[i] = batch.get(i).get(ordinal);
+                        }
+                        break;
+                    }
+                    case DerivedExpression.CONST:
+                        Arrays.fill(stack[++top], 0, size, expression.constant(pc));
+                        break;
+                    case DerivedExpression.NEG:
+                    case DerivedExpression.ABS:
+                    case DerivedExpression.SQRT:
+                    case DerivedExpression.LN:
+                    case DerivedExpression.EXP:
+                        unary(opcode, stack[top], size);
+                        break;
+                    default:
+                        binary(opcode, stack[top - 1], stack[top], size);
+                        top--;
+                        break;
+                }
+            }
+            return stack[top];
+        }
+
+        private static void unary(int opcode, double[] a, int size) {
+            for (int i = 0; i < size; i++) {
+                double x = a[i];
+                switch (opcode) {
+                    case DerivedExpression.NEG:
+                        a[i] = -x;
+                        break;
+                    case DerivedExpression.ABS:
+                        a[i] = Math.abs(x);
+                        break;
+                    case DerivedExpression.SQRT:
+                        a[i] = Math.sqrt(x);
+                        break;
+                    case DerivedExpression.LN:
+                        a[i] = Math.log(x);
+                        break;
+                    default:
+                        a[i] = Math.exp(x);
+                        break;
+                }
+            }
+        }
+
+        private static void binary(int opcode, double[] a, double[] b, int size) {
+            switch (opcode) {
+                case DerivedExpression.ADD:
+                    for (int i = 0; i < size; i++) {
+                        a[i] += b[i];
+                    }
+                    break;
+                case DerivedExpression.SUB:
+                    for (int i = 0; i < size; i++) {
+                        a[i] -= b[i];
+                    }
+                    break;
+                case DerivedExpression.MUL:
+                    for (int i = 0; i < size; i++) {
+                        a[i] *= b[i];
+                    }
+                    break;
+                case DerivedExpression.DIV:
+                    for (int i = 0; i < size; i++) {
+                        a[i] = b[i] == 0.0 ? Double.NaN : a[i] / b[i];
+                    }
+                    break;
+                case DerivedExpression.MIN:
+                    for (int i = 0; i < size; i++) {
+                        a[i] = Math.min(a[i], b[i]);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < size; i++) {
+                        a[i] = Math.max(a[i], b[i]);
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + " = " + expression;
+        }
+    }
+}
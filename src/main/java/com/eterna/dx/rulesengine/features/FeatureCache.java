@@ -0,0 +1,258 @@
+package com.eterna.dx.rulesengine.features;
+
+import com.eterna.dx.rulesengine.config.DataProperties;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caché acotada de features por (usuario, fecha, versión de datos del usuario, demanda).
+ * Si la demanda incluye percentiles de cohorte, la versión de
+ * {@link CohortSketches} también forma parte de la clave.
+ *
+ * LRU por número de entradas con expiración por TTL. La versión de la serie
+ * del usuario forma parte de la clave, así que un cambio en sus datos nunca
+ * sirve features antiguas; además, las entradas del usuario se eliminan
+ * explícitamente cuando el {@link FeatureStore} notifica que su serie cambió,
+ * a través de un índice de claves por usuario (sin recorrer la caché).
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class FeatureCache {
+
+    private final DataProperties dataProperties;
+    private final FeatureStore featureStore;
+    private final CohortSketches cohortSketches;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // Claves de cada usuario presentes en entries (mismo monitor que entries)
+    private final Map<String, Set<Key>> keysByUser = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @PostConstruct
+    public void registerInvalidation() {
+        featureStore.addChangeListener(userIds -> {
+            if (userIds == null) {
+                invalidateAll();
+            } else {
+                invalidateUsers(userIds);
+            }
+        });
+    }
+
+    /**
+     * Devuelve las features en caché o las calcula con el supplier y las guarda.
+     * Los resultados vacíos (usuario sin datos) no se guardan.
+     */
+    public Map<String, Map<String, Object>> getOrCompute(String userId, LocalDate date, FeatureDemand demand,
+                                                         Supplier<Map<String, Map<String, Object>>> compute) {
+        if (dataProperties.getFeatureCacheMaxEntries() <= 0) {
+            return compute.get();
+        }
+
+        // La versión se lee antes de calcular: si los datos cambian mientras tanto, la entrada nace obsoleta
+        Key key = new Key(userId, date, featureStore.getUserVersion(userId), cohortVersion(demand), demand);
+        long now = System.currentTimeMillis();
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.incrementAndGet();
+                    return entry.features;
+                }
+                remove(key);
+                expirations.incrementAndGet();
+            }
+        }
+
+        misses.incrementAndGet();
+        Map<String, Map<String, Object>> features = compute.get();
+        if (features.isEmpty()) {
+            return features;
+        }
+
+        Map<String, Map<String, Object>> frozen = freeze(features);
+        long expiresAt = now + dataProperties.getFeatureCacheTtlSeconds() * 1000L;
+        synchronized (entries) {
+            if (entries.put(key, new Entry(frozen, expiresAt)) == null) {
+                keysByUser.computeIfAbsent(userId, k -> new HashSet<>()).add(key);
+            }
+            evictOverflow();
+        }
+        return frozen;
+    }
+
+    /**
+     * Versión de las distribuciones por cohorte si la demanda las usa (sus
+     * valores cambian con los datos de otros usuarios), o 0.
+     */
+    private long cohortVersion(FeatureDemand demand) {
+        for (Set<String> aggregators : demand.getAggregatorsByVariable().values()) {
+            for (String aggregator : aggregators) {
+                if (CohortSketches.isCohortAggregator(aggregator)) {
+                    return cohortSketches.version();
+                }
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Elimina las entradas de un usuario.
+     */
+    public void invalidateUser(String userId) {
+        invalidateUsers(List.of(userId));
+    }
+
+    /**
+     * Elimina las entradas de varios usuarios (O(entradas de esos usuarios)).
+     */
+    public void invalidateUsers(Collection<String> userIds) {
+        synchronized (entries) {
+            for (String userId : userIds) {
+                Set<Key> keys = keysByUser.remove(userId);
+                if (keys == null) {
+                    continue;
+                }
+                for (Key key : keys) {
+                    entries.remove(key);
+                }
+                invalidations.addAndGet(keys.size());
+            }
+        }
+    }
+
+    /**
+     * Vacía la caché.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+            keysByUser.clear();
+        }
+    }
+
+    /**
+     * Métricas de la caché: tamaño, aciertos, fallos, expulsiones por tamaño,
+     * expiraciones por TTL e invalidaciones.
+     */
+    public Map<String, Object> stats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("max_entries", dataProperties.getFeatureCacheMaxEntries());
+        stats.put("ttl_seconds", dataProperties.getFeatureCacheTtlSeconds());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hit_ratio", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    private void evictOverflow() {
+        int max = dataProperties.getFeatureCacheMaxEntries();
+        Iterator<Key> it = entries.keySet().iterator();
+        while (entries.size() > max && it.hasNext()) {
+            Key key = it.next();
+            it.remove();
+            unindex(key);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(Key key) {
+        entries.remove(key);
+        unindex(key);
+    }
+
+    private void unindex(Key key) {
+        Set<Key> keys = keysByUser.get(key.userId);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            keysByUser.remove(key.userId);
+        }
+    }
+
+    /**
+     * Copia inmutable: las entradas se comparten entre peticiones.
+     */
+    private static Map<String, Map<String, Object>> freeze(Map<String, Map<String, Object>> features) {
+        Map<String, Map<String, Object>> frozen = new HashMap<>();
+        features.forEach((variable, aggregates) ->
+                frozen.put(variable, Collections.unmodifiableMap(new HashMap<>(aggregates))));
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    private static final class Key {
+        private final String userId;
+        private final LocalDate date;
+        private final long userVersion;
+        private final long cohortVersion;
+        private final FeatureDemand demand;
+        private final int hash;
+
+        private Key(String userId, LocalDate date, long userVersion, long cohortVersion, FeatureDemand demand) {
+            this.userId = userId;
+            this.date = date;
+            this.userVersion = userVersion;
+            this.cohortVersion = cohortVersion;
+            this.demand = demand;
+            this.hash = Objects.hash(userId, date, userVersion, cohortVersion, demand);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return userVersion == other.userVersion && cohortVersion == other.cohortVersion && userId.equals(other.userId)
+                    && date.equals(other.date) && demand.equals(other.demand);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final Map<String, Map<String, Object>> features;
+        private final long expiresAt;
+
+        private Entry(Map<String, Map<String, Object>> features, long expiresAt) {
+            this.features = features;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
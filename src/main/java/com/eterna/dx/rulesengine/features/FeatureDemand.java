@@ -0,0 +1,118 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conjunto de celdas de features (variable, agregador) que se deben calcular.
+ *
+ * Se deriva de la lógica y los placeholders de mensajes de un conjunto de
+ * reglas, de modo que solo se calcula lo que alguna regla puede leer.
+ * {@link #ALL} representa el conjunto completo (endpoint de debug /features).
+ */
+public final class FeatureDemand {
+
+    /**
+     * Todas las variables con todos los agregadores.
+     */
+    public static final FeatureDemand ALL = new FeatureDemand(Map.of(), true);
+
+    private final Map<String, Set<String>> aggregatorsByVariable;
+    private final boolean all;
+    private final int hash;
+
+    private FeatureDemand(Map<String, Set<String>> aggregatorsByVariable, boolean all) {
+        this.aggregatorsByVariable = aggregatorsByVariable;
+        this.all = all;
+        this.hash = all ? 1 : aggregatorsByVariable.hashCode();
+    }
+
+    /**
+     * Crea una demanda a partir de variable -> agregadores (se copia).
+     */
+    public static FeatureDemand of(Map<String, Set<String>> aggregatorsByVariable) {
+        Map<String, Set<String>> copy = new HashMap<>();
+        aggregatorsByVariable.forEach((variable, aggregators) ->
+                copy.put(variable, Collections.unmodifiableSet(new HashSet<>(aggregators))));
+        return new FeatureDemand(Collections.unmodifiableMap(copy), false);
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * Indica si se necesita algún agregador de la variable.
+     */
+    public boolean wantsVariable(String variable) {
+        return all || aggregatorsByVariable.containsKey(variable);
+    }
+
+    /**
+     * Indica si se necesita la celda (variable, agregador).
+     */
+    public boolean wants(String variable, String aggregator) {
+        if (all) {
+            return true;
+        }
+        Set<String> aggregators = aggregatorsByVariable.get(variable);
+        return aggregators != null && aggregators.contains(aggregator);
+    }
+
+    /**
+     * Devuelve una demanda que además incluye la celda indicada.
+     */
+    public FeatureDemand with(String variable, String aggregator) {
+        if (wants(variable, aggregator)) {
+            return this;
+        }
+        Map<String, Set<String>> extended = new HashMap<>(aggregatorsByVariable);
+        Set<String> aggregators = new HashSet<>(extended.getOrDefault(variable, Set.of()));
+        aggregators.add(aggregator);
+        extended.put(variable, aggregators);
+        return of(extended);
+    }
+
+    /**
+     * Variable -> agregadores demandados (vacío si {@link #isAll()}).
+     */
+    public Map<String, Set<String>> getAggregatorsByVariable() {
+        return aggregatorsByVariable;
+    }
+
+    /**
+     * Número de celdas demandadas (-1 si {@link #isAll()}).
+     */
+    public int size() {
+        if (all) {
+            return -1;
+        }
+        return aggregatorsByVariable.values().stream().mapToInt(Set::size).sum();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FeatureDemand)) {
+            return false;
+        }
+        FeatureDemand other = (FeatureDemand) o;
+        return all == other.all && hash == other.hash
+                && aggregatorsByVariable.equals(other.aggregatorsByVariable);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return all ? "FeatureDemand(ALL)" : "FeatureDemand" + aggregatorsByVariable;
+    }
+}
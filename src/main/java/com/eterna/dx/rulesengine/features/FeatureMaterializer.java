@@ -0,0 +1,472 @@
+package com.eterna.dx.rulesengine.features;
+
+import com.eterna.dx.rulesengine.config.DataProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tabla materializada de features diarias por (usuario, fecha).
+ *
+ * Un job calcula en paralelo el conjunto completo de features para todos los
+ * usuarios en una fecha o rango de fechas y las guarda como vectores
+ * primitivos con un layout de celdas (variable, agregador) común. Cada fila
+ * guarda la versión de la serie del usuario con la que se calculó, y la tabla
+ * la versión de las definiciones de agregadores: una fila solo se sirve si
+ * ambas siguen vigentes. La tabla se persiste en un fichero binario que se
+ * reutiliza tras reiniciar si el dataset (sello de CSV y log de ingesta) no ha
+ * cambiado.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class FeatureMaterializer {
+
+    private static final int MAGIC = 0x45444D46; // "EDMF"
+    private static final int VERSION = 2;
+
+    private final DataProperties dataProperties;
+    private final FeatureService featureService;
+    private final FeatureStore featureStore;
+    private final IngestLog ingestLog;
+
+    private volatile Table table;
+    private volatile boolean fileChecked;
+
+    /**
+     * Materializa las features de todos los usuarios para cada fecha de [start, end].
+     *
+     * @return resumen del job (usuarios, filas, duración, versión de definiciones)
+     */
+    public Map<String, Object> materialize(LocalDate start, LocalDate end) {
+        if (end.isBefore(start)) {
+            throw new IllegalArgumentException("La fecha final no puede ser anterior a la inicial");
+        }
+
+        featureService.ensureLoaded();
+        long startTime = System.currentTimeMillis();
+        long datasetStamp = featureService.getDatasetStamp();
+        long ingestLogSize = ingestLog.size();
+
+        // Se calcula antes que las filas: si las definiciones cambian durante el job, la tabla queda obsoleta
+        long definitionsVersion = featureService.aggregatorDefinitionsVersion();
+        Table target = currentTable();
+        Layout layout = Layout.of(featureStore.getSchema(), featureService);
+        if (target == null || !target.layout.equals(layout) || target.definitionsVersion != definitionsVersion) {
+            // Las filas de otras definiciones no se mezclan con las nuevas
+            target = new Table(layout, definitionsVersion);
+        }
+        target.datasetStamp = datasetStamp;
+        target.ingestLogSize = ingestLogSize;
+
+        List<String> userIds = new ArrayList<>(featureStore.getUserIds());
+        AtomicInteger rows = new AtomicInteger();
+        Table destination = target;
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, dataProperties.getMaterializeThreads()));
+        try {
+            pool.submit(() -> userIds.parallelStream().forEach(userId -> {
+                long userVersion = featureStore.getUserVersion(userId);
+                featureService.buildFeatureRange(userId, start, end).forEach((date, features) -> {
+                    destination.put(userId, date, new Row(userVersion, layout.encode(features)));
+                    rows.incrementAndGet();
+                });
+            })).get();
+        } catch (Exception e) {
+            throw new RuntimeException("Error materializando features: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+
+        table = destination;
+        if (dataProperties.isMaterializedPersist()) {
+            save(destination);
+        }
+
+        long millis = System.currentTimeMillis() - startTime;
+        log.info("Features materializadas de {} a {}: {} filas de {} usuarios en {} ms",
+                start, end, rows.get(), userIds.size(), millis);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("start", start.toString());
+        summary.put("end", end.toString());
+        summary.put("users", userIds.size());
+        summary.put("rows", rows.get());
+        summary.put("cells", layout.size());
+        summary.put("millis", millis);
+        summary.put("definitions_version", destination.definitionsVersion);
+        return summary;
+    }
+
+    /**
+     * Features materializadas y vigentes para (usuario, fecha) restringidas a la
+     * demanda, o null si no hay fila o está obsoleta.
+     */
+    public Map<String, Map<String, Object>> lookup(String userId, LocalDate date, FeatureDemand demand) {
+        Table current = currentTable();
+        if (current == null || current.definitionsVersion != featureService.aggregatorDefinitionsVersion()
+                || current.layout.schemaSize != featureStore.getSchema().size()) {
+            return null;
+        }
+
+        // Agregadores del catálogo pedidos por reglas pero no declarados en la variable,
+        // o de cohorte (no se materializan: dependen de los datos de otros usuarios)
+        if (!current.layout.covers(demand)) {
+            return null;
+        }
+
+        Row row = current.get(userId, date);
+        if (row == null || row.userVersion != featureStore.getUserVersion(userId)) {
+            return null;
+        }
+        return current.layout.decode(row.cells, demand);
+    }
+
+    /**
+     * Descarta la tabla en memoria (el fichero se ignora hasta el próximo job).
+     */
+    public void clear() {
+        table = null;
+        fileChecked = true;
+    }
+
+    /**
+     * Número de filas materializadas en memoria.
+     */
+    public int size() {
+        Table current = table;
+        return current != null ? current.size() : 0;
+    }
+
+    private Table currentTable() {
+        if (!fileChecked && dataProperties.isMaterializedPersist()) {
+            synchronized (this) {
+                if (!fileChecked) {
+                    table = loadFromFile();
+                    fileChecked = true;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Carga el fichero si corresponde al dataset residente y a las definiciones actuales.
+     */
+    private Table loadFromFile() {
+        Path path = Paths.get(dataProperties.getMaterializedPath());
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        featureService.ensureLoaded();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Fichero de features materializadas no reconocido: {}", path);
+                return null;
+            }
+            long definitionsVersion = in.readLong();
+            long datasetStamp = in.readLong();
+            long ingestLogSize = in.readLong();
+            if (definitionsVersion != featureService.aggregatorDefinitionsVersion()
+                    || datasetStamp != featureService.getDatasetStamp()
+                    || ingestLogSize != ingestLog.size()) {
+                log.info("Features materializadas en {} obsoletas, se ignoran", path);
+                return null;
+            }
+
+            Layout layout = Layout.read(in);
+            if (layout.schemaSize != featureStore.getSchema().size()) {
+                log.info("Features materializadas en {} con esquema distinto, se ignoran", path);
+                return null;
+            }
+
+            Table loaded = new Table(layout, definitionsVersion);
+            loaded.datasetStamp = datasetStamp;
+            loaded.ingestLogSize = ingestLogSize;
+            int rows = in.readInt();
+            for (int r = 0; r < rows; r++) {
+                String userId = in.readUTF();
+                LocalDate date = LocalDate.ofEpochDay(in.readInt());
+                double[] cells = new double[layout.size()];
+                for (int c = 0; c < cells.length; c++) {
+                    cells[c] = in.readDouble();
+                }
+                loaded.put(userId, date, new Row(featureStore.getUserVersion(userId), cells));
+            }
+
+            log.info("Features materializadas cargadas desde {}: {} filas", path, rows);
+            return loaded;
+        } catch (IOException e) {
+            log.warn("No se pudieron leer las features materializadas {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Escribe la tabla de forma atómica (fichero temporal + move).
+     */
+    private void save(Table source) {
+        Path path = Paths.get(dataProperties.getMaterializedPath());
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(source.definitionsVersion);
+                out.writeLong(source.datasetStamp);
+                out.writeLong(source.ingestLogSize);
+                source.layout.write(out);
+
+                // Solo filas vigentes: al recargar se asocian a la versión actual de cada serie
+                Map<String, Map<Long, Row>> current = new HashMap<>();
+                int count = 0;
+                for (Map.Entry<String, Map<Long, Row>> user : source.rows.entrySet()) {
+                    long userVersion = featureStore.getUserVersion(user.getKey());
+                    for (Map.Entry<Long, Row> entry : user.getValue().entrySet()) {
+                        if (entry.getValue().userVersion == userVersion) {
+                            current.computeIfAbsent(user.getKey(), k -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+                            count++;
+                        }
+                    }
+                }
+
+                out.writeInt(count);
+                for (Map.Entry<String, Map<Long, Row>> user : current.entrySet()) {
+                    for (Map.Entry<Long, Row> entry : user.getValue().entrySet()) {
+                        out.writeUTF(user.getKey());
+                        out.writeInt(entry.getKey().intValue());
+                        for (double cell : entry.getValue().cells) {
+                            out.writeDouble(cell);
+                        }
+                    }
+                }
+            }
+
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Features materializadas escritas en {} ({} bytes)", path, Files.size(path));
+        } catch (IOException e) {
+            log.warn("No se pudieron escribir las features materializadas en {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Layout de celdas (variable, agregador) de los vectores materializados.
+     */
+    private static final class Layout {
+        private final String[] variables;
+        private final String[] aggregators;
+        private final boolean[] integral;
+        private final int schemaSize;
+        private final Set<String> catalogCells = new HashSet<>();
+
+        private Layout(String[] variables, String[] aggregators, boolean[] integral, int schemaSize) {
+            this.variables = variables;
+            this.aggregators = aggregators;
+            this.integral = integral;
+            this.schemaSize = schemaSize;
+            for (int i = 0; i < variables.length; i++) {
+                if (!AggregatorCatalog.isBuiltIn(aggregators[i])) {
+                    catalogCells.add(cellKey(variables[i], aggregators[i]));
+                }
+            }
+        }
+
+        static Layout of(FeatureSchema schema, FeatureService featureService) {
+            List<String> variables = new ArrayList<>();
+            List<String> aggregators = new ArrayList<>();
+            List<Boolean> integral = new ArrayList<>();
+
+            for (int ordinal = 0; ordinal < schema.size(); ordinal++) {
+                String field = schema.name(ordinal);
+                if (FeatureService.isExcludedColumn(field)) {
+                    continue;
+                }
+                List<String> fieldAggregators = new ArrayList<>(FeatureService.AGGREGATORS);
+                fieldAggregators.addAll(featureService.getCatalogAggregators(field));
+                for (String aggregator : fieldAggregators) {
+                    variables.add(field);
+                    aggregators.add(aggregator);
+                    integral.add("current".equals(aggregator) && schema.isIntegral(ordinal));
+                }
+            }
+
+            int size = variables.size();
+            boolean[] integralFlags = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                integralFlags[i] = integral.get(i);
+            }
+            return new Layout(variables.toArray(new String[0]), aggregators.toArray(new String[0]),
+                    integralFlags, schema.size());
+        }
+
+        int size() {
+            return variables.length;
+        }
+
+        /**
+         * Indica si todas las celdas demandadas están en el layout.
+         */
+        boolean covers(FeatureDemand demand) {
+            if (demand.isAll()) {
+                return true;
+            }
+            for (Map.Entry<String, Set<String>> entry : demand.getAggregatorsByVariable().entrySet()) {
+                for (String aggregator : entry.getValue()) {
+                    if (CohortSketches.isCohortAggregator(aggregator)) {
+                        return false;
+                    }
+                    if (AggregatorCatalog.isCatalogAggregator(aggregator)
+                            && !catalogCells.contains(cellKey(entry.getKey(), aggregator))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static String cellKey(String variable, String aggregator) {
+            return variable + '|' + aggregator;
+        }
+
+        double[] encode(Map<String, Map<String, Object>> features) {
+            double[] cells = new double[variables.length];
+            for (int i = 0; i < cells.length; i++) {
+                Map<String, Object> fieldFeatures = features.get(variables[i]);
+                Double value = fieldFeatures != null
+                        ? StatisticsCalculator.toDouble(fieldFeatures.get(aggregators[i]))
+                        : null;
+                cells[i] = value != null ? value : Double.NaN;
+            }
+            return cells;
+        }
+
+        Map<String, Map<String, Object>> decode(double[] cells, FeatureDemand demand) {
+            Map<String, Map<String, Object>> features = new HashMap<>();
+            for (int i = 0; i < cells.length; i++) {
+                String variable = variables[i];
+                double value = cells[i];
+                if (!demand.wantsVariable(variable)) {
+                    continue;
+                }
+                Map<String, Object> fieldFeatures = features.computeIfAbsent(variable, k -> new HashMap<>());
+                if (demand.wants(variable, aggregators[i])) {
+                    Object boxed = Double.isNaN(value) ? null
+                            : integral[i] ? (Object) (int) value : (Object) value;
+                    fieldFeatures.put(aggregators[i], boxed);
+                }
+            }
+            return features;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(schemaSize);
+            out.writeInt(variables.length);
+            for (int i = 0; i < variables.length; i++) {
+                out.writeUTF(variables[i]);
+                out.writeUTF(aggregators[i]);
+                out.writeBoolean(integral[i]);
+            }
+        }
+
+        static Layout read(DataInputStream in) throws IOException {
+            int schemaSize = in.readInt();
+            int size = in.readInt();
+            String[] variables = new String[size];
+            String[] aggregators = new String[size];
+            boolean[] integral = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                variables[i] = in.readUTF();
+                aggregators[i] = in.readUTF();
+                integral[i] = in.readBoolean();
+            }
+            return new Layout(variables, aggregators, integral, schemaSize);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Layout)) {
+                return false;
+            }
+            Layout other = (Layout) o;
+            return schemaSize == other.schemaSize
+                    && Arrays.equals(variables, other.variables)
+                    && Arrays.equals(aggregators, other.aggregators);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(variables) + Arrays.hashCode(aggregators);
+        }
+    }
+
+    /**
+     * Filas materializadas: usuario -> epochDay -> vector.
+     */
+    private static final class Table {
+        private final Layout layout;
+        private final long definitionsVersion;
+        private final Map<String, Map<Long, Row>> rows = new ConcurrentHashMap<>();
+        private volatile long datasetStamp;
+        private volatile long ingestLogSize;
+
+        private Table(Layout layout, long definitionsVersion) {
+            this.layout = layout;
+            this.definitionsVersion = definitionsVersion;
+        }
+
+        void put(String userId, LocalDate date, Row row) {
+            rows.computeIfAbsent(userId, k -> new ConcurrentHashMap<>()).put(date.toEpochDay(), row);
+        }
+
+        Row get(String userId, LocalDate date) {
+            Map<Long, Row> userRows = rows.get(userId);
+            return userRows != null ? userRows.get(date.toEpochDay()) : null;
+        }
+
+        int size() {
+            return rows.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    /**
+     * Vector de features de un (usuario, fecha) con la versión de la serie usada.
+     */
+    private static final class Row {
+        private final long userVersion;
+        private final double[] cells;
+
+        private Row(long userVersion, double[] cells) {
+            this.userVersion = userVersion;
+            this.cells = cells;
+        }
+    }
+}
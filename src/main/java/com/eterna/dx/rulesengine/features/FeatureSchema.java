@@ -0,0 +1,125 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Esquema de columnas numéricas del dataset: nombre de columna -> ordinal.
+ *
+ * Se construye en tiempo de ejecución a partir de la tabla de variables y de
+ * las cabeceras de los CSV. Es de solo-añadir: registrar una columna nueva
+ * nunca cambia los ordinales existentes, así que los registros creados antes
+ * siguen siendo válidos (las posiciones que no tienen se leen como nulas).
+ * Las lecturas no bloquean; los registros se publican copiando las tablas.
+ */
+public final class FeatureSchema {
+
+    /**
+     * Columnas base, siempre presentes y en este orden.
+     */
+    public static final List<String> BASE_COLUMNS = List.of(
+            "steps", "minutes_light", "minutes_moderate", "minutes_vigorous",
+            "heart_rate_average_bpm", "max_heart_rate_bpm", "min_heart_rate_bpm",
+            "resting_heart_rate", "user_max_heart_rate_bpm", "heart_rate_variability_sdnn",
+            "rem_sleep_minutes", "asleep_state_minutes", "deep_sleep_state_minutes",
+            "light_sleep_state_minutes", "awake_state_minutes", "avg_breaths_per_min",
+            "acwr", "trimp", "readiness_score", "hrv_rhr_ratio"
+    );
+
+    // Columnas base que se exponen como enteros (equivalente a los Integer del registro original)
+    private static final Set<String> BASE_INTEGRAL_COLUMNS = Set.of(
+            "steps", "minutes_light", "minutes_moderate", "minutes_vigorous",
+            "rem_sleep_minutes", "asleep_state_minutes", "deep_sleep_state_minutes",
+            "light_sleep_state_minutes", "awake_state_minutes"
+    );
+
+    private volatile Columns columns = new Columns(new String[0], new boolean[0], Map.of());
+
+    /**
+     * Crea un esquema con las columnas base registradas.
+     */
+    public static FeatureSchema withBaseColumns() {
+        FeatureSchema schema = new FeatureSchema();
+        for (String column : BASE_COLUMNS) {
+            schema.register(column, BASE_INTEGRAL_COLUMNS.contains(column));
+        }
+        return schema;
+    }
+
+    /**
+     * Registra una columna si no existe.
+     *
+     * @return el ordinal de la columna (existente o nuevo)
+     */
+    public synchronized int register(String name, boolean integral) {
+        Columns current = columns;
+        Integer existing = current.ordinals.get(name);
+        if (existing != null) {
+            return existing;
+        }
+
+        int ordinal = current.names.length;
+        String[] names = Arrays.copyOf(current.names, ordinal + 1);
+        boolean[] integralFlags = Arrays.copyOf(current.integral, ordinal + 1);
+        names[ordinal] = name;
+        integralFlags[ordinal] = integral;
+
+        Map<String, Integer> ordinals = new HashMap<>(current.ordinals);
+        ordinals.put(name, ordinal);
+        ordinals.putIfAbsent(name.toLowerCase(), ordinal);
+
+        columns = new Columns(names, integralFlags, ordinals);
+        return ordinal;
+    }
+
+    /**
+     * Devuelve el ordinal de una columna, o -1 si no está registrada.
+     * Solo se pasa a minúsculas cuando la búsqueda exacta falla.
+     */
+    public int ordinal(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Map<String, Integer> ordinals = columns.ordinals;
+        Integer ordinal = ordinals.get(name);
+        if (ordinal == null) {
+            ordinal = ordinals.get(name.toLowerCase());
+        }
+        return ordinal != null ? ordinal : -1;
+    }
+
+    public int size() {
+        return columns.names.length;
+    }
+
+    public String name(int ordinal) {
+        return columns.names[ordinal];
+    }
+
+    public boolean isIntegral(int ordinal) {
+        return columns.integral[ordinal];
+    }
+
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(columns.names));
+    }
+
+    /**
+     * Tablas inmutables publicadas en bloque.
+     */
+    private static final class Columns {
+        private final String[] names;
+        private final boolean[] integral;
+        private final Map<String, Integer> ordinals;
+
+        private Columns(String[] names, boolean[] integral, Map<String, Integer> ordinals) {
+            this.names = names;
+            this.integral = integral;
+            this.ordinals = ordinals;
+        }
+    }
+}
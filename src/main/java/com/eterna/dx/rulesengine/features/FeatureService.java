@@ -1,6 +1,8 @@
 package com.eterna.dx.rulesengine.features;
 
 import com.eterna.dx.rulesengine.config.DataProperties;
+import com.eterna.dx.rulesengine.entity.Variable;
+import com.eterna.dx.rulesengine.repository.VariableRepository;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
 import com.opencsv.CSVParserBuilder;
@@ -10,10 +12,9 @@ import org.springframework.stereotype.Service;
 
 import java.io.FileReader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -27,6 +28,11 @@ import java.util.stream.Collectors;
 public class FeatureService {
 
     private final DataProperties dataProperties;
+    private final VariableRepository variableRepository;
+    private final FeatureStore featureStore;
+    private final IngestLog ingestLog;
+    private final CohortSketches cohortSketches;
+    private final TemporalStates temporalStates;
 
     // Campos que deben excluirse del procesamiento numérico
     private static final Set<String> EXCLUDE_COLS = Set.of(
@@ -45,16 +51,260 @@ public class FeatureService {
             "calculation_date", "date"
     );
 
+    /**
+     * Agregadores calculados para cada columna. Cambiar la lista o la semántica
+     * de alguno obliga a subir AGGREGATOR_REVISION (invalida lo materializado).
+     */
+    public static final List<String> AGGREGATORS = List.of(
+            "current", "mean_3d", "mean_7d", "mean_14d", "median_14d", "delta_pct_3v14", "zscore_28d"
+    );
+
+    /**
+     * Features derivadas predefinidas (nombre -> expresión). Las variables con
+     * expresión derivada añaden otras o sustituyen estas.
+     */
+    public static final Map<String, String> DEFAULT_DERIVED_FEATURES = Map.of(
+            "max_hr_pct_user_max", "max_heart_rate_bpm / user_max_heart_rate_bpm"
+    );
+
+    private static final int AGGREGATOR_REVISION = 5;
+
+    /**
+     * Versión de las definiciones de agregadores y features derivadas, incluidos
+     * los agregadores del catálogo, las expresiones declarados en las variables
+     * y el cálculo de carga de entrenamiento.
+     */
+    public long aggregatorDefinitionsVersion() {
+        long version = 31L * (31L * AGGREGATORS.hashCode() + AGGREGATOR_REVISION) + catalogAggregators.hashCode();
+        version = 31L * version + featureStore.getDerivedFeatures().getDefinitions().hashCode();
+        return 31L * version + (dataProperties.isWorkloadEnabled() ? 1 : 0);
+    }
+
+    /**
+     * Normaliza el nombre de una columna de los CSV originales (COLUMN_MAPPING).
+     */
+    public static String normalizeColumnName(String columnName) {
+        return COLUMN_MAPPING.getOrDefault(columnName, columnName);
+    }
+
+    /**
+     * Indica si una columna se excluye del procesamiento numérico.
+     */
+    public static boolean isExcludedColumn(String columnName) {
+        return EXCLUDE_COLS.contains(columnName);
+    }
+
+    // Sello de los CSV con los que se construyó el dataset residente
+    private volatile long residentStamp = -1;
+
+    // Tamaño de cada CSV origen en el momento de la última carga completa
+    private volatile Map<String, Long> loadedSourceSizes = Map.of();
+
+    // Si la última carga completa se hizo desde el CSV procesado
+    private volatile boolean usingProcessedCsv;
+
+    // Si DataFileWatcher está vigilando los CSV (si no, se comprueba la fecha de modificación)
+    private volatile boolean watcherRunning;
+
+    // Agregadores del catálogo declarados en Variable.allowedAggregators, por columna
+    private volatile Map<String, List<AggregatorCatalog.Spec>> catalogAggregators = Map.of();
+
+    // Expresiones de features derivadas (predefinidas + Variable.derivedExpression)
+    private volatile Map<String, String> derivedDefinitions = DEFAULT_DERIVED_FEATURES;
+
     /**
      * Carga el DataFrame base combinado.
      * Equivalente a load_base_dataframe() en Python.
+     *
+     * Devuelve el contenido del almacén residente ordenado por usuario y fecha.
      */
     public List<CombinedRecord> loadBaseDataframe() {
+        ensureLoaded();
+        return featureStore.allRecords();
+    }
+
+    /**
+     * Garantiza que el almacén residente está cargado.
+     *
+     * Mientras {@link DataFileWatcher} está en marcha mantiene el almacén al día;
+     * si no (vigilancia desactivada, sin arrancar o detenida) el dataset se
+     * recarga entero cuando cambia la fecha de modificación de algún CSV.
+     */
+    public void ensureLoaded() {
+        if (isResidentCurrent()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!isResidentCurrent()) {
+                reload();
+            }
+        }
+    }
+
+    /**
+     * Recarga el dataset completo en el almacén residente.
+     * Al arrancar se intenta primero el snapshot binario si está al día.
+     */
+    public synchronized void reload() {
+        long stamp = currentSourceStamp();
+        Map<String, Long> sizes = currentSourceSizes();
+
+        FeatureSchema schema;
+        SeriesPartitions partitions = openPartitions(stamp);
+        if (partitions != null) {
+            // Las series ya están en disco con las derivadas y la carga calculadas
+            schema = partitions.schema();
+            configureStore(schema);
+            featureStore.attachPartitions(partitions, dataProperties.getPartitionMaxResidentUsers());
+        } else {
+            List<CombinedRecord> records = loadFromSnapshot(stamp);
+            if (records == null) {
+                records = loadFromCsvSources();
+                writeSnapshot(records, stamp);
+            }
+
+            schema = records.isEmpty() ? newSchema() : records.get(0).getSchema();
+            configureStore(schema);
+            featureStore.setPartitions(createPartitions(schema, stamp), dataProperties.getPartitionMaxResidentUsers());
+            featureStore.replaceAll(schema, records);
+        }
+
+        // Mediciones recibidas por la API de ingesta, que no están en los CSV
+        List<CombinedRecord> ingested = ingestLog.replay(schema);
+        if (!ingested.isEmpty()) {
+            featureStore.upsert(ingested);
+        }
+
+        residentStamp = stamp;
+        loadedSourceSizes = sizes;
+    }
+
+    /**
+     * Carga de entrenamiento, derivadas (se calculan al cargar, no forman parte
+     * del snapshot) y formato de las series del almacén.
+     */
+    private void configureStore(FeatureSchema schema) {
+        featureStore.setWorkloadCalculator(dataProperties.isWorkloadEnabled() ? WorkloadCalculator.forSchema(schema) : null);
+        featureStore.setDerivedFeatures(DerivedFeatureGraph.compile(derivedDefinitions, schema));
+        featureStore.setOffHeapArena(newOffHeapArena());
+        featureStore.setCompressed(dataProperties.isStoreCompressed());
+    }
+
+    /**
+     * Particiones en disco generadas con los CSV actuales y las mismas
+     * definiciones, o null si están desactivadas o hay que regenerarlas.
+     */
+    private SeriesPartitions openPartitions(long stamp) {
+        if (!dataProperties.isPartitionedEnabled()) {
+            return null;
+        }
+        SeriesPartitions partitions = SeriesPartitions.open(Paths.get(dataProperties.getPartitionDir()), stamp);
+        if (partitions == null) {
+            return null;
+        }
+
+        registerVariableColumns(partitions.schema());
+        if (partitions.definitionsVersion() != storedDefinitionsVersion()) {
+            log.info("Definiciones de derivadas o carga modificadas, se regeneran las particiones");
+            partitions.close();
+            return null;
+        }
+        usingProcessedCsv = Files.exists(Paths.get(dataProperties.getProcessedCsvPath()));
+        return partitions;
+    }
+
+    /**
+     * Particiones nuevas (vacías) para el dataset recién cargado, o null si
+     * están desactivadas o no se pueden crear (las series quedan residentes).
+     */
+    private SeriesPartitions createPartitions(FeatureSchema schema, long stamp) {
+        if (!dataProperties.isPartitionedEnabled()) {
+            return null;
+        }
+        try {
+            return SeriesPartitions.create(Paths.get(dataProperties.getPartitionDir()),
+                    dataProperties.getPartitionBuckets(), schema, stamp, storedDefinitionsVersion());
+        } catch (Exception e) {
+            log.warn("No se pudieron crear las particiones en {}: {}, series residentes",
+                    dataProperties.getPartitionDir(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Versión de lo que se guarda calculado en las particiones: expresiones
+     * derivadas y cálculo de carga.
+     */
+    private long storedDefinitionsVersion() {
+        return 31L * derivedDefinitions.hashCode() + (dataProperties.isWorkloadEnabled() ? 1 : 0);
+    }
+
+    /**
+     * Arena para guardar las series fuera del heap, o null si está desactivado.
+     */
+    private OffHeapArena newOffHeapArena() {
+        if (!dataProperties.isOffHeapEnabled()) {
+            return null;
+        }
+        String dir = dataProperties.getOffHeapDir();
+        return new OffHeapArena(dataProperties.getOffHeapSlabMb() << 20,
+                dir == null || dir.isBlank() ? null : Paths.get(dir));
+    }
+
+    /**
+     * Usuarios con datos en el almacén de features.
+     */
+    public Set<String> getUserIds() {
+        ensureLoaded();
+        return featureStore.getUserIds();
+    }
+
+    /**
+     * Tamaño de cada CSV origen (por ruta configurada) al hacer la última carga completa.
+     * Es el punto desde el que se deben leer las filas añadidas después.
+     */
+    public Map<String, Long> getLoadedSourceSizes() {
+        return loadedSourceSizes;
+    }
+
+    /**
+     * Sello (mtime de los CSV) de la última carga completa, o -1 si no se ha cargado.
+     */
+    public long getDatasetStamp() {
+        return residentStamp;
+    }
+
+    /**
+     * Indica si el dataset residente proviene del CSV procesado (en lugar de diarios + sueño).
+     */
+    public boolean isUsingProcessedCsv() {
+        return usingProcessedCsv;
+    }
+
+    /**
+     * Lo llama {@link DataFileWatcher} al arrancar y al detenerse su hilo de vigilancia.
+     */
+    void setWatcherRunning(boolean running) {
+        watcherRunning = running;
+    }
+
+    private boolean isResidentCurrent() {
+        return featureStore.isLoaded()
+                && (watcherRunning || currentSourceStamp() == residentStamp);
+    }
+
+    /**
+     * Carga el dataset parseando los CSV de texto.
+     */
+    private List<CombinedRecord> loadFromCsvSources() {
         // Intentar cargar el CSV procesado primero
         if (Files.exists(Paths.get(dataProperties.getProcessedCsvPath()))) {
             try {
                 log.info("Cargando CSV procesado: {}", dataProperties.getProcessedCsvPath());
-                return loadProcessedCsv();
+                List<CombinedRecord> records = loadProcessedCsv();
+                usingProcessedCsv = true;
+                return records;
             } catch (Exception e) {
                 log.warn("Error cargando CSV procesado: {}, fallback a CSV originales", e.getMessage());
             }
@@ -62,83 +312,127 @@ public class FeatureService {
 
         // Fallback: cargar y combinar CSV originales
         log.info("Cargando y combinando CSV originales");
+        usingProcessedCsv = false;
         return loadAndCombineOriginalCsvs();
     }
 
     /**
-     * Carga el CSV ya procesado con variables derivadas.
+     * Intenta cargar el snapshot binario si existe y se generó con los CSV actuales.
+     *
+     * @return los registros del snapshot, o null si no es utilizable
      */
-    private List<CombinedRecord> loadProcessedCsv() throws Exception {
-        List<CombinedRecord> records = new ArrayList<>();
-
-        try (CSVReader reader = new CSVReaderBuilder(new FileReader(dataProperties.getProcessedCsvPath()))
-                .withSkipLines(1) // Saltar header
-                .build()) {
+    private List<CombinedRecord> loadFromSnapshot(long stamp) {
+        if (!dataProperties.isSnapshotEnabled()) {
+            return null;
+        }
 
-            String[] header = null;
-            
-            // Leer header primero
-            try (CSVReader headerReader = new CSVReader(new FileReader(dataProperties.getProcessedCsvPath()))) {
-                header = headerReader.readNext();
+        Path snapshotPath = Paths.get(dataProperties.getSnapshotPath());
+        long snapshotStamp = DatasetSnapshot.readSourceStamp(snapshotPath);
+        if (snapshotStamp < 0 || snapshotStamp != stamp) {
+            if (snapshotStamp >= 0) {
+                log.info("Snapshot {} desactualizado respecto a los CSV, se regenerará", snapshotPath);
             }
+            return null;
+        }
 
-            if (header == null) {
-                throw new Exception("No se pudo leer el header del CSV");
+        try {
+            List<CombinedRecord> records = DatasetSnapshot.read(snapshotPath);
+            if (!records.isEmpty()) {
+                registerVariableColumns(records.get(0).getSchema());
             }
+            usingProcessedCsv = Files.exists(Paths.get(dataProperties.getProcessedCsvPath()));
+            return records;
+        } catch (Exception e) {
+            log.warn("Error leyendo snapshot {}: {}, fallback a CSV", snapshotPath, e.getMessage());
+            return null;
+        }
+    }
 
-            String[] nextLine;
-            while ((nextLine = reader.readNext()) != null) {
-                CombinedRecord record = new CombinedRecord();
-                
-                for (int i = 0; i < Math.min(header.length, nextLine.length); i++) {
-                    String columnName = header[i].trim();
-                    String value = nextLine[i].trim();
-                    
-                    if (value.isEmpty()) {
-                        continue;
-                    }
+    /**
+     * Escribe el snapshot binario tras una carga correcta de los CSV.
+     */
+    private void writeSnapshot(List<CombinedRecord> records, long stamp) {
+        if (!dataProperties.isSnapshotEnabled() || records.isEmpty()) {
+            return;
+        }
 
-                    // Procesar campos especiales
-                    if ("date".equals(columnName)) {
-                        record.setDate(parseDate(value));
-                    } else if ("user_id".equals(columnName)) {
-                        record.setUserId(value);
-                    } else {
-                        // Usar el método genérico para otros campos
-                        record.setFieldValue(columnName, value);
-                    }
+        try {
+            DatasetSnapshot.write(records, Paths.get(dataProperties.getSnapshotPath()), stamp,
+                    dataProperties.isSnapshotCompressed());
+        } catch (Exception e) {
+            log.warn("No se pudo escribir el snapshot {}: {}", dataProperties.getSnapshotPath(), e.getMessage());
+        }
+    }
+
+    /**
+     * Tamaño actual de cada CSV origen existente.
+     */
+    private Map<String, Long> currentSourceSizes() {
+        Map<String, Long> sizes = new HashMap<>();
+        for (String source : sourcePaths()) {
+            try {
+                Path path = Paths.get(source);
+                if (Files.exists(path)) {
+                    sizes.put(source, Files.size(path));
                 }
+            } catch (Exception e) {
+                log.debug("No se pudo leer el tamaño de {}: {}", source, e.getMessage());
+            }
+        }
+        return Collections.unmodifiableMap(sizes);
+    }
+
+    private List<String> sourcePaths() {
+        return List.of(dataProperties.getProcessedCsvPath(),
+                dataProperties.getDailyCsvPath(), dataProperties.getSleepCsvPath());
+    }
 
-                if (record.getUserId() != null && record.getDate() != null) {
-                    records.add(record);
+    /**
+     * Sello de los CSV origen: fecha de modificación más reciente entre los existentes.
+     */
+    private long currentSourceStamp() {
+        long stamp = 0;
+        for (String source : sourcePaths()) {
+            try {
+                Path path = Paths.get(source);
+                if (Files.exists(path)) {
+                    stamp = Math.max(stamp, Files.getLastModifiedTime(path).toMillis());
                 }
+            } catch (Exception e) {
+                log.debug("No se pudo leer la fecha de modificación de {}: {}", source, e.getMessage());
             }
         }
+        return stamp;
+    }
 
-        log.info("Cargados {} registros del CSV procesado", records.size());
-        return records.stream()
-                .sorted(Comparator.comparing(CombinedRecord::getUserId)
-                        .thenComparing(CombinedRecord::getDate))
-                .collect(Collectors.toList());
+    /**
+     * Carga el CSV ya procesado con variables derivadas.
+     */
+    private List<CombinedRecord> loadProcessedCsv() throws Exception {
+        FeatureSchema schema = newSchema();
+        Map<String, CombinedRecord> recordMap = new HashMap<>();
+
+        loadCsvInto(dataProperties.getProcessedCsvPath(), ',', false, schema, recordMap);
+
+        log.info("Cargados {} registros del CSV procesado", recordMap.size());
+        return sortRecords(recordMap.values());
     }
 
     /**
      * Carga y combina los CSV originales de actividad y sueño.
      */
     private List<CombinedRecord> loadAndCombineOriginalCsvs() {
+        FeatureSchema schema = newSchema();
         Map<String, CombinedRecord> recordMap = new HashMap<>();
 
         // Cargar datos de actividad diaria
-        loadDailyCsv(recordMap);
+        loadDailyCsv(schema, recordMap);
         
         // Cargar datos de sueño
-        loadSleepCsv(recordMap);
+        loadSleepCsv(schema, recordMap);
 
-        List<CombinedRecord> records = new ArrayList<>(recordMap.values());
-        
         // Ordenar por user_id y fecha
-        records.sort(Comparator.comparing(CombinedRecord::getUserId)
-                .thenComparing(CombinedRecord::getDate));
+        List<CombinedRecord> records = sortRecords(recordMap.values());
 
         log.info("Combinados {} registros de CSV originales", records.size());
         return records;
@@ -147,59 +441,15 @@ public class FeatureService {
     /**
      * Carga datos del CSV de actividad diaria.
      */
-    private void loadDailyCsv(Map<String, CombinedRecord> recordMap) {
+    private void loadDailyCsv(FeatureSchema schema, Map<String, CombinedRecord> recordMap) {
         String dailyPath = dataProperties.getDailyCsvPath();
         if (!Files.exists(Paths.get(dailyPath))) {
             log.warn("Archivo de datos diarios no encontrado: {}", dailyPath);
             return;
         }
 
-        try (CSVReader reader = new CSVReaderBuilder(new FileReader(dailyPath))
-                .withCSVParser(new CSVParserBuilder().withSeparator(';').build()) // CSV usa separador ;
-                .withSkipLines(1)
-                .build()) {
-
-            String[] header = null;
-            
-            // Leer header
-            try (CSVReader headerReader = new CSVReaderBuilder(new FileReader(dailyPath))
-                    .withCSVParser(new CSVParserBuilder().withSeparator(';').build())
-                    .build()) {
-                header = headerReader.readNext();
-            }
-
-            if (header == null) return;
-
-            // Aplicar mapeo de columnas
-            for (int i = 0; i < header.length; i++) {
-                header[i] = COLUMN_MAPPING.getOrDefault(header[i].trim(), header[i].trim());
-            }
-
-            String[] nextLine;
-            while ((nextLine = reader.readNext()) != null) {
-                CombinedRecord record = new CombinedRecord();
-                
-                for (int i = 0; i < Math.min(header.length, nextLine.length); i++) {
-                    String columnName = header[i];
-                    String value = nextLine[i].trim();
-                    
-                    if (value.isEmpty()) continue;
-
-                    if ("date".equals(columnName)) {
-                        record.setDate(parseDate(value));
-                    } else if ("user_id".equals(columnName)) {
-                        record.setUserId(value);
-                    } else {
-                        record.setFieldValue(columnName, value);
-                    }
-                }
-
-                if (record.getUserId() != null && record.getDate() != null) {
-                    String key = record.getUserId() + "|" + record.getDate().toString();
-                    recordMap.put(key, record);
-                }
-            }
-
+        try {
+            loadCsvInto(dailyPath, ';', true, schema, recordMap); // CSV usa separador ;
             log.info("Cargados {} registros de datos diarios", recordMap.size());
         } catch (Exception e) {
             log.error("Error cargando CSV de datos diarios: {}", e.getMessage());
@@ -209,77 +459,221 @@ public class FeatureService {
     /**
      * Carga datos del CSV de sueño.
      */
-    private void loadSleepCsv(Map<String, CombinedRecord> recordMap) {
+    private void loadSleepCsv(FeatureSchema schema, Map<String, CombinedRecord> recordMap) {
         String sleepPath = dataProperties.getSleepCsvPath();
         if (!Files.exists(Paths.get(sleepPath))) {
             log.warn("Archivo de datos de sueño no encontrado: {}", sleepPath);
             return;
         }
 
-        try (CSVReader reader = new CSVReaderBuilder(new FileReader(sleepPath))
-                .withCSVParser(new CSVParserBuilder().withSeparator(';').build())
-                .withSkipLines(1)
+        try {
+            loadCsvInto(sleepPath, ';', true, schema, recordMap);
+            log.info("Combinados datos de sueño en {} registros totales", recordMap.size());
+        } catch (Exception e) {
+            log.error("Error cargando CSV de sueño: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Lee un CSV y combina sus filas en el mapa user_id|fecha -> registro.
+     * Las cabeceras se resuelven a ordinales del esquema una sola vez;
+     * las columnas nuevas se registran en el esquema.
+     */
+    private void loadCsvInto(String path, char separator, boolean mapColumns, FeatureSchema schema,
+                             Map<String, CombinedRecord> recordMap) throws Exception {
+        try (CSVReader reader = new CSVReaderBuilder(new FileReader(path))
+                .withCSVParser(new CSVParserBuilder().withSeparator(separator).build())
                 .build()) {
 
-            String[] header = null;
-            
-            // Leer header
-            try (CSVReader headerReader = new CSVReaderBuilder(new FileReader(sleepPath))
-                    .withCSVParser(new CSVParserBuilder().withSeparator(';').build())
-                    .build()) {
-                header = headerReader.readNext();
+            String[] header = reader.readNext();
+            if (header == null) {
+                throw new Exception("No se pudo leer el header del CSV");
             }
 
-            if (header == null) return;
-
-            // Aplicar mapeo de columnas
-            for (int i = 0; i < header.length; i++) {
-                header[i] = COLUMN_MAPPING.getOrDefault(header[i].trim(), header[i].trim());
+            CsvRowMapper mapper = new CsvRowMapper(header, mapColumns, schema);
+            if (!mapper.hasKeyColumns()) {
+                throw new Exception("El CSV no tiene columnas user_id y date: " + path);
             }
 
+            // Muestra de filas para fijar el orden día/mes de la columna antes de parsear fechas
+            List<String[]> sample = new ArrayList<>();
             String[] nextLine;
+            while (sample.size() < DateColumnParser.SAMPLE_ROWS && (nextLine = reader.readNext()) != null) {
+                sample.add(nextLine);
+                mapper.sampleDate(nextLine);
+            }
+            for (String[] row : sample) {
+                mergeRow(mapper, row, schema, recordMap);
+            }
             while ((nextLine = reader.readNext()) != null) {
-                String userId = null;
-                LocalDate date = null;
-                Map<String, String> sleepData = new HashMap<>();
-                
-                for (int i = 0; i < Math.min(header.length, nextLine.length); i++) {
-                    String columnName = header[i];
-                    String value = nextLine[i].trim();
-                    
-                    if (value.isEmpty()) continue;
-
-                    if ("date".equals(columnName)) {
-                        date = parseDate(value);
-                    } else if ("user_id".equals(columnName)) {
-                        userId = value;
-                    } else {
-                        sleepData.put(columnName, value);
-                    }
-                }
+                mergeRow(mapper, nextLine, schema, recordMap);
+            }
+        }
+    }
 
-                if (userId != null && date != null) {
-                    String key = userId + "|" + date.toString();
-                    final String finalUserId = userId;
-                    final LocalDate finalDate = date;
-                    CombinedRecord record = recordMap.computeIfAbsent(key, k -> {
-                        CombinedRecord newRecord = new CombinedRecord();
-                        newRecord.setUserId(finalUserId);
-                        newRecord.setDate(finalDate);
-                        return newRecord;
-                    });
-
-                    // Agregar datos de sueño al registro
-                    for (Map.Entry<String, String> entry : sleepData.entrySet()) {
-                        record.setFieldValue(entry.getKey(), entry.getValue());
-                    }
+    private static void mergeRow(CsvRowMapper mapper, String[] row, FeatureSchema schema,
+                                 Map<String, CombinedRecord> recordMap) {
+        String userId = mapper.userId(row);
+        LocalDate date = userId != null ? mapper.date(row) : null;
+        if (date == null) {
+            return;
+        }
+
+        String key = userId + "|" + date;
+        CombinedRecord record = recordMap.computeIfAbsent(key, k -> new CombinedRecord(schema, userId, date));
+        mapper.applyValues(row, record);
+    }
+
+    /**
+     * Crea el esquema del dataset: columnas base más las variables numéricas registradas.
+     * Las columnas que aparezcan en las cabeceras de los CSV se añaden al leerlos.
+     */
+    private FeatureSchema newSchema() {
+        FeatureSchema schema = FeatureSchema.withBaseColumns();
+        registerVariableColumns(schema);
+        return schema;
+    }
+
+    /**
+     * Registra en el esquema las variables numéricas de la tabla Variable.
+     * Una variable con decimals = 0 se expone como entero.
+     */
+    private void registerVariableColumns(FeatureSchema schema) {
+        try {
+            List<Variable> variables = variableRepository.findAll();
+            for (Variable variable : variables) {
+                String key = variable.getKey();
+                if (key == null || !"number".equals(variable.getType())) {
+                    continue;
                 }
+                String column = normalizeColumnName(key);
+                if (EXCLUDE_COLS.contains(column) || schema.ordinal(column) >= 0) {
+                    continue;
+                }
+                schema.register(column, Integer.valueOf(0).equals(variable.getDecimals()));
             }
+            catalogAggregators = catalogAggregatorsOf(variables);
+            derivedDefinitions = derivedDefinitionsOf(variables);
+        } catch (Exception e) {
+            log.warn("No se pudieron leer las variables para el esquema: {}", e.getMessage());
+        }
+    }
 
-            log.info("Combinados datos de sueño en {} registros totales", recordMap.size());
+    /**
+     * Vuelve a leer los agregadores del catálogo y las expresiones derivadas
+     * declarados en las variables (tras crear o modificar una variable). Si las
+     * expresiones cambian se recarga el dataset para recalcular las derivadas.
+     * Cambia la versión de definiciones, por lo que la tabla materializada deja
+     * de servirse hasta el próximo job.
+     */
+    public void refreshVariableDefinitions() {
+        List<Variable> variables;
+        try {
+            variables = variableRepository.findAll();
         } catch (Exception e) {
-            log.error("Error cargando CSV de sueño: {}", e.getMessage());
+            log.warn("No se pudieron leer las definiciones de las variables: {}", e.getMessage());
+            return;
+        }
+
+        catalogAggregators = catalogAggregatorsOf(variables);
+        Map<String, String> derived = derivedDefinitionsOf(variables);
+        if (!derived.equals(derivedDefinitions)) {
+            derivedDefinitions = derived;
+            if (featureStore.isLoaded()) {
+                log.info("Expresiones derivadas modificadas, recargando el dataset");
+                reload();
+            }
+        }
+    }
+
+    private static Map<String, String> derivedDefinitionsOf(List<Variable> variables) {
+        Map<String, String> derived = new TreeMap<>(DEFAULT_DERIVED_FEATURES);
+        for (Variable variable : variables) {
+            String expression = variable.getDerivedExpression();
+            if (variable.getKey() != null && expression != null && !expression.isBlank()) {
+                derived.put(normalizeColumnName(variable.getKey()), expression.trim());
+            }
         }
+        return Collections.unmodifiableMap(derived);
+    }
+
+    private static Map<String, List<AggregatorCatalog.Spec>> catalogAggregatorsOf(List<Variable> variables) {
+        Map<String, List<AggregatorCatalog.Spec>> catalog = new TreeMap<>();
+        for (Variable variable : variables) {
+            if (variable.getKey() == null || !"number".equals(variable.getType())) {
+                continue;
+            }
+            String column = normalizeColumnName(variable.getKey());
+            List<AggregatorCatalog.Spec> specs = catalogSpecs(variable.getAllowedAggregators());
+            if (!EXCLUDE_COLS.contains(column) && !specs.isEmpty()) {
+                catalog.put(column, specs);
+            }
+        }
+        return Collections.unmodifiableMap(catalog);
+    }
+
+    /**
+     * Agregadores del catálogo (sin repetidos ni básicos) de una lista de nombres.
+     */
+    private static List<AggregatorCatalog.Spec> catalogSpecs(Collection<String> names) {
+        if (names == null) {
+            return List.of();
+        }
+        Map<String, AggregatorCatalog.Spec> specs = new TreeMap<>();
+        for (String name : names) {
+            AggregatorCatalog.Spec spec = AggregatorCatalog.isBuiltIn(name) ? null : AggregatorCatalog.spec(name);
+            if (spec != null) {
+                specs.put(name, spec);
+            }
+        }
+        return List.copyOf(specs.values());
+    }
+
+    /**
+     * Agregadores del catálogo que se calculan siempre para la columna
+     * (declarados en su Variable), en orden alfabético.
+     */
+    public List<String> getCatalogAggregators(String field) {
+        return catalogAggregators.getOrDefault(field, List.of()).stream()
+                .map(AggregatorCatalog.Spec::getName)
+                .collect(Collectors.toList());
+    }
+
+    private List<CombinedRecord> sortRecords(Collection<CombinedRecord> records) {
+        List<CombinedRecord> sorted = new ArrayList<>(records);
+        sorted.sort(Comparator.comparing(CombinedRecord::getUserId)
+                .thenComparing(CombinedRecord::getDate));
+        return sorted;
+    }
+
+    /**
+     * Construye features para un usuario en una fecha específica a partir
+     * del almacén residente.
+     */
+    public Map<String, Map<String, Object>> buildFeatures(String userId, LocalDate targetDate) {
+        return buildFeatures(userId, targetDate, FeatureDemand.ALL);
+    }
+
+    /**
+     * Construye solo las features demandadas para un usuario en una fecha específica.
+     */
+    public Map<String, Map<String, Object>> buildFeatures(String userId, LocalDate targetDate,
+                                                          FeatureDemand demand) {
+        ensureLoaded();
+        List<CombinedRecord> userRecords = featureStore.getSeriesUntil(userId, targetDate);
+
+        if (userRecords.isEmpty()) {
+            log.debug("No hay datos para usuario {} hasta fecha {}", userId, targetDate);
+            return new HashMap<>();
+        }
+
+        Map<String, Map<String, Object>> features = computeFeatures(userRecords, targetDate, demand,
+                new CatalogAggregates(userRecords, userId, temporalStates));
+
+        log.debug("Construidas features para usuario {} en fecha {}: {} variables", 
+                 userId, targetDate, features.size());
+
+        return features;
     }
 
     /**
@@ -297,64 +691,13 @@ public class FeatureService {
                 .sorted(Comparator.comparing(CombinedRecord::getDate))
                 .collect(Collectors.toList());
 
-        Map<String, Map<String, Object>> features = new HashMap<>();
-
         if (userRecords.isEmpty()) {
             log.debug("No hay datos para usuario {} hasta fecha {}", userId, targetDate);
-            return features;
-        }
-
-        // Obtener el último registro (valores actuales)
-        CombinedRecord lastRecord = userRecords.get(userRecords.size() - 1);
-
-        // Lista de campos a procesar
-        List<String> fieldsToProcess = Arrays.asList(
-                "steps", "minutes_light", "minutes_moderate", "minutes_vigorous",
-                "heart_rate_average_bpm", "max_heart_rate_bpm", "min_heart_rate_bpm",
-                "resting_heart_rate", "user_max_heart_rate_bpm", "heart_rate_variability_sdnn",
-                "rem_sleep_minutes", "asleep_state_minutes", "deep_sleep_state_minutes",
-                "light_sleep_state_minutes", "awake_state_minutes", "avg_breaths_per_min",
-                "acwr", "trimp", "readiness_score", "hrv_rhr_ratio"
-        );
-
-        // Procesar cada campo
-        for (String field : fieldsToProcess) {
-            if (EXCLUDE_COLS.contains(field)) {
-                continue;
-            }
-
-            Map<String, Object> fieldFeatures = new HashMap<>();
-
-            // Valor actual
-            Object currentValue = lastRecord.getFieldValue(field);
-            fieldFeatures.put("current", currentValue);
-
-            // Extraer serie de valores numéricos
-            List<Double> values = StatisticsCalculator.extractNumericValues(userRecords, field);
-
-            // Calcular estadísticas móviles
-            fieldFeatures.put("mean_3d", StatisticsCalculator.rollingMean(values, 3));
-            fieldFeatures.put("mean_7d", StatisticsCalculator.rollingMean(values, 7));
-            fieldFeatures.put("mean_14d", StatisticsCalculator.rollingMean(values, 14));
-            fieldFeatures.put("median_14d", StatisticsCalculator.rollingMedian(values, 14));
-
-            // Calcular delta_pct_3v14 = (mean_3d/mean_14d) - 1
-            Double mean3d = (Double) fieldFeatures.get("mean_3d");
-            Double mean14d = (Double) fieldFeatures.get("mean_14d");
-            if (mean3d != null && mean14d != null && mean14d != 0.0) {
-                fieldFeatures.put("delta_pct_3v14", (mean3d / mean14d) - 1);
-            } else {
-                fieldFeatures.put("delta_pct_3v14", null);
-            }
-
-            // Z-score
-            fieldFeatures.put("zscore_28d", StatisticsCalculator.zscore(values, 28));
-
-            features.put(field, fieldFeatures);
+            return new HashMap<>();
         }
 
-        // Calcular feature derivada: max_hr_pct_user_max
-        calculateDerivedFeatures(features);
+        Map<String, Map<String, Object>> features = computeFeatures(userRecords, targetDate,
+                FeatureDemand.ALL, new CatalogAggregates(userRecords));
 
         log.debug("Construidas features para usuario {} en fecha {}: {} variables", 
                  userId, targetDate, features.size());
@@ -363,57 +706,114 @@ public class FeatureService {
     }
 
     /**
-     * Calcula features derivadas adicionales.
+     * Construye el conjunto completo de features de un usuario para cada fecha de
+     * [start, end] (fechas sin datos previos se omiten). Los agregadores del
+     * catálogo avanzan su ventana día a día en lugar de recalcularla.
      */
-    private void calculateDerivedFeatures(Map<String, Map<String, Object>> features) {
-        // max_hr_pct_user_max = max_heart_rate_bpm.current / user_max_heart_rate_bpm.current
-        Object maxHr = features.getOrDefault("max_heart_rate_bpm", Map.of()).get("current");
-        Object userMaxHr = features.getOrDefault("user_max_heart_rate_bpm", Map.of()).get("current");
-
-        if (maxHr != null && userMaxHr != null) {
-            Double maxHrDouble = StatisticsCalculator.toDouble(maxHr);
-            Double userMaxHrDouble = StatisticsCalculator.toDouble(userMaxHr);
+    public Map<LocalDate, Map<String, Map<String, Object>>> buildFeatureRange(String userId, LocalDate start,
+                                                                              LocalDate end) {
+        ensureLoaded();
+        List<CombinedRecord> series = featureStore.getSeries(userId);
+        Map<LocalDate, Map<String, Map<String, Object>>> range = new LinkedHashMap<>();
+        if (series.isEmpty()) {
+            return range;
+        }
 
-            if (maxHrDouble != null && userMaxHrDouble != null && userMaxHrDouble != 0.0) {
-                Map<String, Object> derivedFeature = new HashMap<>();
-                derivedFeature.put("current", maxHrDouble / userMaxHrDouble);
-                features.put("max_hr_pct_user_max", derivedFeature);
+        CatalogAggregates catalog = new CatalogAggregates(series);
+        int endIndex = 0;
+        for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+            while (endIndex < series.size() && !series.get(endIndex).getDate().isAfter(date)) {
+                endIndex++;
+            }
+            if (endIndex == 0) {
+                continue;
             }
+            range.put(date, computeFeatures(series.subList(0, endIndex), date, FeatureDemand.ALL, catalog));
         }
+        return range;
     }
 
     /**
-     * Parsea una fecha de string a LocalDate de forma robusta.
+     * Calcula las features demandadas sobre la serie de un usuario ordenada por
+     * fecha hasta el día objetivo (el último registro aporta los valores actuales).
      */
-    private LocalDate parseDate(String dateStr) {
-        if (dateStr == null || dateStr.trim().isEmpty()) {
-            return null;
-        }
+    private Map<String, Map<String, Object>> computeFeatures(List<CombinedRecord> userRecords, LocalDate targetDate,
+                                                             FeatureDemand demand, CatalogAggregates catalog) {
+        Map<String, Map<String, Object>> features = new HashMap<>();
 
-        // Intentar varios formatos de fecha
-        String[] patterns = {
-                "yyyy-MM-dd",
-                "dd/MM/yyyy",
-                "MM/dd/yyyy",
-                "yyyy-MM-dd HH:mm:ss",
-                "yyyy-MM-dd'T'HH:mm:ss"
-        };
+        // Obtener el último registro (valores actuales)
+        CombinedRecord lastRecord = userRecords.get(userRecords.size() - 1);
 
-        for (String pattern : patterns) {
-            try {
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern);
-                if (pattern.contains("HH:mm:ss")) {
-                    // Para fechas con tiempo, extraer solo la fecha
-                    return LocalDate.parse(dateStr.substring(0, 10), DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-                } else {
-                    return LocalDate.parse(dateStr.trim(), formatter);
+        // Procesar cada columna del esquema
+        FeatureSchema schema = lastRecord.getSchema();
+        WindowAggregates aggregates = new WindowAggregates();
+        for (int ordinal = 0; ordinal < schema.size(); ordinal++) {
+            String field = schema.name(ordinal);
+            if (EXCLUDE_COLS.contains(field) || !demand.wantsVariable(field)) {
+                continue;
+            }
+
+            Map<String, Object> fieldFeatures = new HashMap<>();
+
+            // Valor actual
+            if (demand.wants(field, "current")) {
+                fieldFeatures.put("current", lastRecord.getFieldValue(ordinal));
+            }
+
+            boolean wantsDelta = demand.wants(field, "delta_pct_3v14");
+            boolean wantsMean3d = demand.wants(field, "mean_3d");
+            boolean wantsMean7d = demand.wants(field, "mean_7d");
+            boolean wantsMean14d = demand.wants(field, "mean_14d");
+            boolean wantsMedian14d = demand.wants(field, "median_14d");
+            boolean wantsZscore = demand.wants(field, "zscore_28d");
+
+            if (wantsMean3d || wantsMean7d || wantsMean14d || wantsMedian14d || wantsDelta || wantsZscore) {
+                // Un único recorrido de la ventana de 28 valores válidos
+                aggregates.load(userRecords, ordinal);
+
+                if (wantsMean3d) {
+                    fieldFeatures.put("mean_3d", aggregates.mean(3));
+                }
+                if (wantsMean7d) {
+                    fieldFeatures.put("mean_7d", aggregates.mean(7));
+                }
+                if (wantsMean14d) {
+                    fieldFeatures.put("mean_14d", aggregates.mean(14));
+                }
+                if (wantsMedian14d) {
+                    fieldFeatures.put("median_14d", aggregates.median14());
+                }
+                // delta_pct_3v14 = (mean_3d/mean_14d) - 1
+                if (wantsDelta) {
+                    fieldFeatures.put("delta_pct_3v14", aggregates.deltaPct3v14());
+                }
+                if (wantsZscore) {
+                    fieldFeatures.put("zscore_28d", aggregates.zscore28());
                 }
-            } catch (DateTimeParseException e) {
-                // Intentar siguiente formato
             }
+
+            // Agregadores del catálogo: los declarados en la variable o los que pida la demanda
+            List<AggregatorCatalog.Spec> catalogSpecs = demand.isAll()
+                    ? catalogAggregators.getOrDefault(field, List.of())
+                    : catalogSpecs(demand.getAggregatorsByVariable().get(field));
+            if (!catalogSpecs.isEmpty()) {
+                catalog.computeInto(ordinal, catalogSpecs, targetDate, fieldFeatures);
+            }
+
+            // Percentiles de cohorte y población: solo si la demanda los pide (dependen de otros usuarios)
+            if (!demand.isAll()) {
+                for (String aggregator : demand.getAggregatorsByVariable().get(field)) {
+                    if (CohortSketches.isCohortAggregator(aggregator)) {
+                        double value = lastRecord.getDate().equals(targetDate) ? lastRecord.get(ordinal) : Double.NaN;
+                        fieldFeatures.put(aggregator, cohortSketches.value(aggregator, field,
+                                lastRecord.getUserId(), targetDate, value));
+                    }
+                }
+            }
+
+            features.put(field, fieldFeatures);
         }
 
-        log.warn("No se pudo parsear fecha: {}", dateStr);
-        return null;
+        return features;
     }
 }
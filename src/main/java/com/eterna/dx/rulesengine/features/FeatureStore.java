@@ -0,0 +1,626 @@
+package com.eterna.dx.rulesengine.features;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Almacén residente de series por usuario.
+ *
+ * Cada usuario tiene su serie de registros ordenada por fecha. Las lecturas no
+ * bloquean: las series se publican como listas inmutables y las altas se
+ * aplican copiando la serie del usuario afectado (copy-on-write). Con una
+ * {@link OffHeapArena} las series se guardan fuera del heap
+ * ({@link OffHeapSeries}) y el heap solo contiene el índice por usuario; con
+ * compresión se guardan por columnas ({@link CompressedSeries}). Con
+ * particiones en disco ({@link SeriesPartitions}) solo se mantienen residentes
+ * las series usadas recientemente: el resto se lee de disco bajo demanda y
+ * cada alta se escribe también en su partición.
+ * Cada cambio incrementa la versión del usuario y la versión global de datos,
+ * que sirven para invalidar lo que se haya calculado a partir de esa serie.
+ */
+@Component
+@Slf4j
+public class FeatureStore {
+
+    private final Map<String, UserSeries> series = new ConcurrentHashMap<>();
+    private final AtomicLong dataVersion = new AtomicLong();
+
+    private final List<Consumer<Set<String>>> changeListeners = new CopyOnWriteArrayList<>();
+    private final List<RecordListener> recordListeners = new CopyOnWriteArrayList<>();
+
+    private volatile FeatureSchema schema = FeatureSchema.withBaseColumns();
+    private volatile boolean loaded;
+    private volatile DerivedFeatureGraph derivedFeatures = DerivedFeatureGraph.EMPTY;
+    private volatile WorkloadCalculator workload;
+    private volatile OffHeapArena offHeap;
+    private volatile boolean compressed;
+    private final Object compactionLock = new Object();
+
+    private volatile SeriesPartitions partitions;
+    private volatile int maxResidentUsers = Integer.MAX_VALUE;
+    // Orden de uso de las series residentes (solo con particiones)
+    private final Map<String, Boolean> recency = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true));
+
+    /**
+     * Registra un listener de cambios. Recibe los usuarios cuyas series han
+     * cambiado, o null cuando se ha sustituido todo el contenido.
+     */
+    public void addChangeListener(Consumer<Set<String>> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Registra un listener de registros (índices que se mantienen en la carga y la ingesta).
+     */
+    public void addRecordListener(RecordListener listener) {
+        recordListeners.add(listener);
+    }
+
+    /**
+     * Establece las features derivadas que se calculan en cada carga y alta.
+     * No recalcula los registros ya residentes.
+     */
+    public void setDerivedFeatures(DerivedFeatureGraph derivedFeatures) {
+        this.derivedFeatures = derivedFeatures;
+    }
+
+    public DerivedFeatureGraph getDerivedFeatures() {
+        return derivedFeatures;
+    }
+
+    /**
+     * Activa (o desactiva con null) el cálculo incremental de TRIMP y ACWR.
+     */
+    void setWorkloadCalculator(WorkloadCalculator workload) {
+        this.workload = workload;
+    }
+
+    /**
+     * Guarda las series fuera del heap en la arena indicada (null = en el heap).
+     * Se aplica a las series que se publiquen a partir de ahora.
+     */
+    void setOffHeapArena(OffHeapArena arena) {
+        this.offHeap = arena;
+    }
+
+    /**
+     * Guarda las series comprimidas por columnas ({@link CompressedSeries}).
+     * Se aplica a las series que se publiquen a partir de ahora.
+     */
+    void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Guarda las series en las particiones indicadas (null = todas residentes),
+     * con como mucho {@code maxResidentUsers} series en memoria. Las series en
+     * disco se guardan siempre comprimidas. Se aplica a la próxima carga.
+     */
+    void setPartitions(SeriesPartitions partitions, int maxResidentUsers) {
+        SeriesPartitions previous = this.partitions;
+        if (previous != null && previous != partitions) {
+            previous.close();
+        }
+        this.partitions = partitions;
+        this.maxResidentUsers = Math.max(1, maxResidentUsers);
+    }
+
+    /**
+     * Sustituye el contenido por las series ya guardadas en las particiones, sin
+     * cargarlas: se leen de disco cuando se piden. Los listeners de registros
+     * reciben todos los registros leyendo usuario a usuario.
+     */
+    synchronized void attachPartitions(SeriesPartitions partitions, int maxResidentUsers) {
+        setPartitions(partitions, maxResidentUsers);
+        clearResident();
+        dataVersion.updateAndGet(current -> Math.max(current + 1, partitions.maxVersion()));
+
+        this.schema = partitions.schema();
+        this.loaded = true;
+        log.info("Almacén de features sobre particiones: {} usuarios, hasta {} residentes",
+                partitions.userIds().size(), this.maxResidentUsers);
+        Iterable<CombinedRecord> records = this::streamRecords;
+        for (RecordListener listener : recordListeners) {
+            listener.recordsReplaced(records);
+        }
+        notifyChange(null);
+    }
+
+    /**
+     * Sustituye todo el contenido por un dataset recién cargado.
+     * La carga de entrenamiento y las features derivadas se calculan sobre
+     * todos los registros. Con particiones, las series se escriben en disco y
+     * no quedan residentes.
+     *
+     * @param schema  esquema compartido por los registros
+     * @param records registros ordenados por user_id y fecha
+     */
+    public synchronized void replaceAll(FeatureSchema schema, List<CombinedRecord> records) {
+        Map<String, List<CombinedRecord>> byUser = new LinkedHashMap<>();
+        for (CombinedRecord record : records) {
+            byUser.computeIfAbsent(record.getUserId(), k -> new ArrayList<>()).add(record);
+        }
+
+        WorkloadCalculator calculator = workload;
+        Map<String, WorkloadCalculator.State> states = new HashMap<>();
+        if (calculator != null) {
+            byUser.forEach((userId, userRecords) -> states.put(userId, calculator.process(null, userRecords, 0)));
+        }
+        derivedFeatures.apply(records);
+
+        long version = dataVersion.incrementAndGet();
+        clearResident();
+        SeriesPartitions disk = partitions;
+        if (disk != null) {
+            byUser.forEach((userId, userRecords) -> disk.write(userId,
+                    CompressedSeries.encode(schema, userId, userRecords, null), version, states.get(userId)));
+        } else {
+            byUser.forEach((userId, userRecords) -> series.put(userId,
+                    new UserSeries(seal(userId, userRecords), version, states.get(userId))));
+        }
+
+        this.schema = schema;
+        this.loaded = true;
+        log.info("Almacén de features cargado: {} registros de {} usuarios", records.size(), byUser.size());
+        for (RecordListener listener : recordListeners) {
+            listener.recordsReplaced(records);
+        }
+        notifyChange(null);
+    }
+
+    /**
+     * Inserta o combina registros (por usuario y fecha) en las series residentes.
+     * Los valores no nulos del registro nuevo sobrescriben a los existentes.
+     * La carga de entrenamiento se actualiza de forma incremental si solo se
+     * añaden días posteriores al último (si no, se recalcula la serie del
+     * usuario) y las features derivadas de los días afectados se recalculan.
+     *
+     * @return los usuarios cuyas series han cambiado
+     */
+    public Set<String> upsert(Collection<CombinedRecord> records) {
+        Map<String, List<CombinedRecord>> byUser = new HashMap<>();
+        for (CombinedRecord record : records) {
+            byUser.computeIfAbsent(record.getUserId(), k -> new ArrayList<>()).add(record);
+        }
+
+        List<CombinedRecord> inserted = new ArrayList<>();
+        List<RecordChange> changed = new ArrayList<>();
+        for (Map.Entry<String, List<CombinedRecord>> entry : byUser.entrySet()) {
+            series.compute(entry.getKey(), (userId, resident) -> {
+                UserSeries current = resident != null ? resident : readPartition(userId, offHeap);
+                List<CombinedRecord> merged = new ArrayList<>(current != null ? current.records : List.of());
+                List<CombinedRecord> touched = new ArrayList<>();
+                // Registro anterior de cada fecha tocada (null si el día no existía)
+                Map<LocalDate, CombinedRecord> previous = new LinkedHashMap<>();
+                for (CombinedRecord incoming : entry.getValue()) {
+                    if (!previous.containsKey(incoming.getDate())) {
+                        previous.put(incoming.getDate(), recordAt(merged, incoming.getDate()));
+                    }
+                    touched.add(mergeInto(merged, incoming));
+                }
+
+                WorkloadCalculator.State state = current != null ? current.workload : null;
+                WorkloadCalculator calculator = workload;
+                if (calculator != null) {
+                    LocalDate firstTouched = touched.stream().map(CombinedRecord::getDate)
+                            .min(LocalDate::compareTo).orElseThrow();
+                    if (state != null && firstTouched.toEpochDay() > state.lastDay()) {
+                        // Solo días nuevos al final de la serie: se continúa desde el estado guardado
+                        state = calculator.process(state, merged, lowerBound(merged, firstTouched));
+                    } else {
+                        // Cambia un día ya procesado: los registros posteriores se copian antes de recalcular
+                        int from = lowerBound(merged, firstTouched);
+                        Set<CombinedRecord> own = Collections.newSetFromMap(new IdentityHashMap<>());
+                        own.addAll(touched);
+                        for (int i = from; i < merged.size(); i++) {
+                            if (!own.contains(merged.get(i))) {
+                                CombinedRecord copy = merged.get(i).copy();
+                                previous.putIfAbsent(copy.getDate(), merged.get(i));
+                                merged.set(i, copy);
+                                touched.add(copy);
+                            }
+                        }
+                        state = calculator.process(calculator.accumulate(merged, from), merged, from);
+                    }
+                }
+
+                derivedFeatures.apply(touched);
+                previous.forEach((date, before) -> {
+                    CombinedRecord after = recordAt(merged, date);
+                    if (before == null) {
+                        inserted.add(after);
+                    } else {
+                        changed.add(new RecordChange(before, after));
+                    }
+                });
+                if (current != null && current.records instanceof StoredSeries) {
+                    ((StoredSeries) current.records).release();
+                }
+                UserSeries updated = new UserSeries(seal(userId, merged), dataVersion.incrementAndGet(), state);
+                SeriesPartitions disk = partitions;
+                if (disk != null) {
+                    disk.write(userId, (CompressedSeries) updated.records, updated.version, updated.workload);
+                }
+                return updated;
+            });
+            touch(entry.getKey());
+        }
+        evictIfNeeded();
+        compactOffHeapIfNeeded();
+
+        for (RecordListener listener : recordListeners) {
+            listener.recordsUpserted(inserted, changed);
+        }
+        notifyChange(byUser.keySet());
+        return byUser.keySet();
+    }
+
+    /**
+     * Serie completa de un usuario ordenada por fecha (vacía si no hay datos).
+     */
+    public List<CombinedRecord> getSeries(String userId) {
+        UserSeries userSeries = lookup(userId, true);
+        return userSeries != null ? userSeries.records : List.of();
+    }
+
+    /**
+     * Registro de un usuario en una fecha, o null si no existe.
+     */
+    public CombinedRecord getRecord(String userId, LocalDate date) {
+        // Sin cachear: se usa al recorrer todos los usuarios para una fecha
+        UserSeries userSeries = lookup(userId, false);
+        List<CombinedRecord> records = userSeries != null ? userSeries.records : List.of();
+        int pos = lowerBound(records, date);
+        return pos < records.size() && records.get(pos).getDate().equals(date) ? records.get(pos) : null;
+    }
+
+    /**
+     * Registros de un usuario con fecha menor o igual a la indicada.
+     */
+    public List<CombinedRecord> getSeriesUntil(String userId, LocalDate date) {
+        List<CombinedRecord> records = getSeries(userId);
+        int end = upperBound(records, date);
+        return end == records.size() ? records : records.subList(0, end);
+    }
+
+    /**
+     * Versión de la serie de un usuario; cambia cada vez que su serie cambia.
+     */
+    public long getUserVersion(String userId) {
+        UserSeries userSeries = series.get(userId);
+        if (userSeries != null) {
+            return userSeries.version;
+        }
+        SeriesPartitions disk = partitions;
+        return disk != null ? disk.version(userId) : 0L;
+    }
+
+    /**
+     * Versión global de los datos; cambia con cualquier carga o alta.
+     */
+    public long getDataVersion() {
+        return dataVersion.get();
+    }
+
+    public Set<String> getUserIds() {
+        SeriesPartitions disk = partitions;
+        return disk != null ? disk.userIds() : Collections.unmodifiableSet(series.keySet());
+    }
+
+    /**
+     * Todos los registros ordenados por usuario y fecha. Con particiones se
+     * leen de disco sin quedar residentes.
+     */
+    public List<CombinedRecord> allRecords() {
+        List<CombinedRecord> records = new ArrayList<>();
+        streamRecords().forEachRemaining(records::add);
+        return records;
+    }
+
+    /**
+     * Recorre los registros por usuario y fecha leyendo una serie cada vez.
+     */
+    private Iterator<CombinedRecord> streamRecords() {
+        List<String> userIds = new ArrayList<>(getUserIds());
+        Collections.sort(userIds);
+        Iterator<String> users = userIds.iterator();
+        return new Iterator<>() {
+            private Iterator<CombinedRecord> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && users.hasNext()) {
+                    UserSeries userSeries = lookup(users.next(), false);
+                    current = userSeries != null ? userSeries.records.iterator() : Collections.emptyIterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public CombinedRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    public FeatureSchema getSchema() {
+        return schema;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Serie de un usuario: la residente o, con particiones, la de disco. Si
+     * {@code cache} la serie leída queda residente (desalojando la menos usada).
+     */
+    private UserSeries lookup(String userId, boolean cache) {
+        UserSeries userSeries = series.get(userId);
+        if (userSeries == null && partitions != null) {
+            // Se lee dentro de computeIfAbsent para no pisar un alta concurrente del mismo usuario
+            userSeries = cache
+                    ? series.computeIfAbsent(userId, id -> readPartition(id, offHeap))
+                    : readPartition(userId, null);
+            if (cache && userSeries != null) {
+                touch(userId);
+                evictIfNeeded();
+            }
+        } else if (userSeries != null && partitions != null) {
+            touch(userId);
+        }
+        return userSeries;
+    }
+
+    /**
+     * Lee la serie de disco; sin arena queda en el heap (lecturas que no se cachean).
+     */
+    private UserSeries readPartition(String userId, OffHeapArena arena) {
+        SeriesPartitions disk = partitions;
+        if (disk == null) {
+            return null;
+        }
+        SeriesPartitions.Stored stored = disk.read(userId, arena);
+        return stored != null ? new UserSeries(stored.series(), disk.version(userId), stored.workload()) : null;
+    }
+
+    private void touch(String userId) {
+        if (partitions != null) {
+            recency.put(userId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Desaloja las series residentes menos usadas por encima del límite; siguen
+     * en disco con la misma versión.
+     */
+    private void evictIfNeeded() {
+        if (partitions == null) {
+            return;
+        }
+        while (series.size() > maxResidentUsers) {
+            String eldest;
+            synchronized (recency) {
+                Iterator<String> iterator = recency.keySet().iterator();
+                if (!iterator.hasNext()) {
+                    return;
+                }
+                eldest = iterator.next();
+                iterator.remove();
+            }
+            UserSeries evicted = series.remove(eldest);
+            if (evicted != null && evicted.records instanceof StoredSeries) {
+                ((StoredSeries) evicted.records).release();
+            }
+        }
+    }
+
+    private void clearResident() {
+        for (UserSeries userSeries : series.values()) {
+            if (userSeries.records instanceof StoredSeries) {
+                ((StoredSeries) userSeries.records).release();
+            }
+        }
+        series.clear();
+        recency.clear();
+    }
+
+    /**
+     * Lista inmutable que se publica para la serie: en el heap, comprimida y/o
+     * copiada a la arena. Con particiones siempre comprimida.
+     */
+    private List<CombinedRecord> seal(String userId, List<CombinedRecord> records) {
+        OffHeapArena arena = offHeap;
+        boolean columnar = compressed || partitions != null;
+        if (records.isEmpty() || (arena == null && !columnar)) {
+            return Collections.unmodifiableList(records);
+        }
+        FeatureSchema recordSchema = records.get(0).getSchema();
+        return columnar
+                ? CompressedSeries.encode(recordSchema, userId, records, arena)
+                : OffHeapSeries.encode(recordSchema, userId, records, arena);
+    }
+
+    /**
+     * Si la arena acumula demasiado espacio muerto, copia las series vivas a
+     * una arena nueva (sin cambiar su versión). Las lecturas en curso siguen
+     * usando los slabs antiguos hasta que dejan de referenciarlos.
+     */
+    private void compactOffHeapIfNeeded() {
+        OffHeapArena current = offHeap;
+        if (current == null || !current.shouldCompact()) {
+            return;
+        }
+        synchronized (compactionLock) {
+            if (offHeap != current) {
+                return;
+            }
+            OffHeapArena target = current.fresh();
+            offHeap = target;
+            for (String userId : series.keySet()) {
+                series.computeIfPresent(userId, (id, userSeries) -> {
+                    if (!(userSeries.records instanceof StoredSeries)) {
+                        return userSeries;
+                    }
+                    StoredSeries stored = (StoredSeries) userSeries.records;
+                    if (stored.arena() == null || stored.arena() == target) {
+                        return userSeries;
+                    }
+                    return new UserSeries(stored.relocate(target), userSeries.version, userSeries.workload);
+                });
+            }
+            log.info("Series fuera del heap compactadas: {} -> {}", current, target);
+        }
+    }
+
+    private void notifyChange(Set<String> userIds) {
+        for (Consumer<Set<String>> listener : changeListeners) {
+            try {
+                listener.accept(userIds);
+            } catch (Exception e) {
+                log.warn("Error notificando cambio del almacén de features: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Inserta un registro en su posición por fecha o lo combina con el del mismo día.
+     * El registro existente no se modifica: se sustituye por una copia combinada.
+     *
+     * @return el registro que queda en la serie
+     */
+    private static CombinedRecord mergeInto(List<CombinedRecord> records, CombinedRecord incoming) {
+        int pos = lowerBound(records, incoming.getDate());
+        if (pos < records.size() && records.get(pos).getDate().equals(incoming.getDate())) {
+            CombinedRecord merged = records.get(pos).copy();
+            merged.mergeFrom(incoming);
+            records.set(pos, merged);
+            return merged;
+        }
+        records.add(pos, incoming);
+        return incoming;
+    }
+
+    /**
+     * Registro de la fecha en la lista ordenada, o null si no hay.
+     */
+    private static CombinedRecord recordAt(List<CombinedRecord> records, LocalDate date) {
+        int pos = lowerBound(records, date);
+        return pos < records.size() && records.get(pos).getDate().equals(date) ? records.get(pos) : null;
+    }
+
+    /**
+     * Primer índice con fecha >= date.
+     */
+    private static int lowerBound(List<CombinedRecord> records, LocalDate date) {
+        if (records instanceof StoredSeries) {
+            return ((StoredSeries) records).lowerBound((int) date.toEpochDay());
+        }
+        int lo = 0;
+        int hi = records.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (records.get(mid).getDate().isBefore(date)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Primer índice con fecha > date.
+     */
+    private static int upperBound(List<CombinedRecord> records, LocalDate date) {
+        if (records instanceof StoredSeries) {
+            return ((StoredSeries) records).upperBound((int) date.toEpochDay());
+        }
+        int lo = 0;
+        int hi = records.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (records.get(mid).getDate().isAfter(date)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Observador de los registros que entran en el almacén. Se invoca después de
+     * publicar las series, desde el hilo que hace la carga o el alta.
+     */
+    public interface RecordListener {
+
+        /**
+         * Se ha sustituido todo el contenido por estos registros (con particiones
+         * se leen de disco al recorrerlos: conviene hacerlo una sola vez).
+         */
+        void recordsReplaced(Iterable<CombinedRecord> records);
+
+        /**
+         * Tras un alta: registros de días que no existían y registros ya
+         * existentes que han cambiado (combinados o recalculados).
+         */
+        void recordsUpserted(List<CombinedRecord> inserted, List<RecordChange> changed);
+    }
+
+    /**
+     * Registro existente que ha cambiado en un alta: el anterior y el que lo sustituye.
+     */
+    public static final class RecordChange {
+        private final CombinedRecord previous;
+        private final CombinedRecord current;
+
+        RecordChange(CombinedRecord previous, CombinedRecord current) {
+            this.previous = previous;
+            this.current = current;
+        }
+
+        public CombinedRecord getPrevious() {
+            return previous;
+        }
+
+        public CombinedRecord getCurrent() {
+            return current;
+        }
+    }
+
+    /**
+     * Serie inmutable de un usuario con su versión y el estado de carga tras su último día.
+     */
+    private static final class UserSeries {
+        private final List<CombinedRecord> records;
+        private final long version;
+        private final WorkloadCalculator.State workload;
+
+        private UserSeries(List<CombinedRecord> records, long version, WorkloadCalculator.State workload) {
+            this.records = records;
+            this.version = version;
+            this.workload = workload;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.eterna.dx.rulesengine.features;
+
+import com.eterna.dx.rulesengine.config.DataProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Log durable de solo-añadir con las mediciones recibidas por la API de ingesta.
+ *
+ * Cada línea es un objeto JSON {@code {"user_id","date","values"}}.
+ * Las mediciones se escriben aquí antes de publicarse en el {@link FeatureStore}
+ * y se vuelven a aplicar tras cada carga completa del dataset, de modo que
+ * sobreviven a reinicios y recargas de los CSV. Al reaplicarlo se compacta a
+ * una línea por usuario y fecha, así que crece con los días ingeridos y no con
+ * el número de lotes.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class IngestLog {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final DataProperties dataProperties;
+
+    private FileChannel channel;
+
+    /**
+     * Añade un lote de registros al log (una línea por registro).
+     * Con {@code data.ingest-log-fsync=true} no vuelve hasta que el lote está en disco.
+     */
+    public synchronized void append(List<CombinedRecord> records) throws IOException {
+        StringBuilder batch = new StringBuilder();
+        for (CombinedRecord record : records) {
+            batch.append(toLine(record)).append('\n');
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+        FileChannel out = channel();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        if (dataProperties.isIngestLogFsync()) {
+            out.force(false);
+        }
+    }
+
+    /**
+     * Lee el log completo y reconstruye los registros sobre el esquema dado
+     * (registrando las columnas que falten), combinando las mediciones de un
+     * mismo usuario y fecha como lo hace {@link FeatureStore#upsert}. Las
+     * líneas ilegibles, como una última línea cortada por una caída, se
+     * descartan con un aviso.
+     *
+     * Si el log tenía más líneas que registros combinados, se reescribe con
+     * uno por usuario y fecha.
+     */
+    public synchronized List<CombinedRecord> replay(FeatureSchema schema) {
+        Path path = Paths.get(dataProperties.getIngestLogPath());
+        if (!Files.exists(path)) {
+            return new ArrayList<>();
+        }
+
+        Map<String, CombinedRecord> merged = new LinkedHashMap<>();
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    CombinedRecord record = fromLine(objectMapper.readTree(line), schema);
+                    CombinedRecord previous = merged.putIfAbsent(record.getUserId() + "|" + record.getDate(), record);
+                    if (previous != null) {
+                        previous.mergeFrom(record);
+                    }
+                } catch (Exception e) {
+                    log.warn("Línea {} del log de ingesta descartada: {}", lineNumber, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error leyendo log de ingesta {}: {}", path, e.getMessage());
+            return new ArrayList<>(merged.values());
+        }
+
+        List<CombinedRecord> records = new ArrayList<>(merged.values());
+        if (lineNumber > records.size()) {
+            compact(path, records, lineNumber);
+        }
+        log.info("Log de ingesta reaplicado: {} registros", records.size());
+        return records;
+    }
+
+    /**
+     * Tamaño actual del log en bytes (0 si no existe).
+     */
+    public synchronized long size() {
+        try {
+            Path path = Paths.get(dataProperties.getIngestLogPath());
+            return Files.exists(path) ? Files.size(path) : 0L;
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Error cerrando log de ingesta: {}", e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Reescribe el log con los registros combinados: fichero temporal en disco
+     * y renombrado atómico, de modo que una caída deja el log anterior o el nuevo.
+     */
+    private void compact(Path path, List<CombinedRecord> records, int lines) {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            close();
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                StringBuilder content = new StringBuilder();
+                for (CombinedRecord record : records) {
+                    content.append(toLine(record)).append('\n');
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(false);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Log de ingesta compactado: {} líneas -> {}", lines, records.size());
+        } catch (IOException e) {
+            log.warn("No se pudo compactar el log de ingesta {}: {}", path, e.getMessage());
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            Path path = Paths.get(dataProperties.getIngestLogPath());
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    private static String toLine(CombinedRecord record) throws JsonProcessingException {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("user_id", record.getUserId());
+        node.put("date", record.getDate().toString());
+
+        ObjectNode values = node.putObject("values");
+        FeatureSchema schema = record.getSchema();
+        for (int i = 0; i < schema.size(); i++) {
+            double value = record.get(i);
+            if (!Double.isNaN(value)) {
+                values.put(schema.name(i), value);
+            }
+        }
+        return objectMapper.writeValueAsString(node);
+    }
+
+    private static CombinedRecord fromLine(JsonNode node, FeatureSchema schema) {
+        CombinedRecord record = new CombinedRecord(schema, node.get("user_id").asText(),
+                LocalDate.parse(node.get("date").asText()));
+
+        Iterator<Map.Entry<String, JsonNode>> fields = node.path("values").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            int ordinal = schema.ordinal(field.getKey());
+            if (ordinal < 0) {
+                ordinal = schema.register(field.getKey(), false);
+            }
+            record.set(ordinal, field.getValue().asDouble());
+        }
+        return record;
+    }
+}
@@ -0,0 +1,143 @@
+package com.eterna.dx.rulesengine.features;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoria fuera del heap para las series del {@link FeatureStore}.
+ *
+ * Reserva bloques contiguos en slabs de tamaño fijo: {@link ByteBuffer}
+ * directos o, si se indica un directorio, ficheros mapeados en memoria
+ * (el fichero se borra tras mapearlo; las páginas las gestiona el sistema
+ * operativo y no cuentan para el heap). La asignación es un puntero que
+ * avanza: un bloque sustituido no se reutiliza, solo se contabiliza como
+ * espacio muerto hasta que el almacén compacta copiando las series vivas a
+ * una arena nueva. Los slabs antiguos se liberan cuando ninguna serie publicada
+ * los referencia, así que las lecturas en curso nunca ven memoria reutilizada.
+ */
+@Slf4j
+final class OffHeapArena {
+
+    private final int slabBytes;
+    private final Path directory;
+
+    private ByteBuffer slab;
+    private int slabOffset;
+    private int slabCount;
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong liveBytes = new AtomicLong();
+
+    /**
+     * @param slabBytes tamaño de cada slab
+     * @param directory directorio para slabs mapeados, o null para memoria directa
+     */
+    OffHeapArena(int slabBytes, Path directory) {
+        this.slabBytes = Math.max(1 << 16, slabBytes);
+        this.directory = directory;
+    }
+
+    /**
+     * Arena vacía con la misma configuración (destino de una compactación).
+     */
+    OffHeapArena fresh() {
+        return new OffHeapArena(slabBytes, directory);
+    }
+
+    /**
+     * Reserva un bloque de {@code bytes}. El buffer devuelto es un duplicado del
+     * slab; se escribe y lee con posiciones absolutas a partir del offset.
+     */
+    synchronized Block allocate(int bytes) {
+        if (bytes > slabBytes) {
+            // Serie mayor que un slab: slab propio
+            reservedBytes.addAndGet(bytes);
+            liveBytes.addAndGet(bytes);
+            return new Block(newSlab(bytes), 0, bytes);
+        }
+        if (slab == null || slabOffset + bytes > slab.capacity()) {
+            slab = newSlab(slabBytes);
+            slabOffset = 0;
+            reservedBytes.addAndGet(slabBytes);
+        }
+        Block block = new Block(slab.duplicate(), slabOffset, bytes);
+        slabOffset += bytes;
+        liveBytes.addAndGet(bytes);
+        return block;
+    }
+
+    /**
+     * Marca un bloque como muerto (su serie se ha sustituido).
+     */
+    void release(Block block) {
+        liveBytes.addAndGet(-block.length);
+    }
+
+    long liveBytes() {
+        return liveBytes.get();
+    }
+
+    long reservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * Indica si conviene compactar: el espacio muerto supera al vivo y a un slab.
+     */
+    boolean shouldCompact() {
+        long dead = reservedBytes.get() - liveBytes.get();
+        return dead > liveBytes.get() && dead > slabBytes;
+    }
+
+    private ByteBuffer newSlab(int bytes) {
+        slabCount++;
+        if (directory == null) {
+            return ByteBuffer.allocateDirect(bytes);
+        }
+        try {
+            Files.createDirectories(directory);
+            Path file = Files.createTempFile(directory, "series-", ".slab");
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(bytes);
+                ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+                return mapped;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo mapear un slab en " + directory, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapArena{slabs=" + slabCount + ", reserved=" + reservedBytes.get()
+                + ", live=" + liveBytes.get() + (directory != null ? ", dir=" + directory : "") + "}";
+    }
+
+    /**
+     * Bloque reservado: buffer del slab, offset y longitud.
+     */
+    static final class Block {
+        final ByteBuffer buffer;
+        final int offset;
+        final int length;
+
+        private Block(ByteBuffer buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Serie de un usuario guardada fuera del heap en un bloque de {@link OffHeapArena}.
+ *
+ * Formato por filas: por registro, el epoch-day (int) seguido de los valores
+ * de las {@code width} primeras columnas del esquema (double, NaN = nulo).
+ * Es una lista inmutable: cada {@link #get(int)} decodifica un
+ * {@link CombinedRecord} nuevo y de vida corta, de modo que el heap solo
+ * contiene este índice y lo que esté leyendo la petición en curso.
+ */
+final class OffHeapSeries extends AbstractList<CombinedRecord> implements RandomAccess, StoredSeries {
+
+    private final FeatureSchema schema;
+    private final String userId;
+    private final OffHeapArena arena;
+    private final OffHeapArena.Block block;
+    private final int size;
+    private final int width;
+
+    private OffHeapSeries(FeatureSchema schema, String userId, OffHeapArena arena, OffHeapArena.Block block,
+                          int size, int width) {
+        this.schema = schema;
+        this.userId = userId;
+        this.arena = arena;
+        this.block = block;
+        this.size = size;
+        this.width = width;
+    }
+
+    /**
+     * Copia los registros (ordenados por fecha) a un bloque nuevo de la arena.
+     */
+    static OffHeapSeries encode(FeatureSchema schema, String userId, List<CombinedRecord> records,
+                                OffHeapArena arena) {
+        int width = 0;
+        for (CombinedRecord record : records) {
+            width = Math.max(width, record.getValues().length);
+        }
+        long bytes = (long) records.size() * rowBytes(width);
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Serie demasiado grande para un bloque fuera del heap: " + userId);
+        }
+
+        OffHeapArena.Block block = arena.allocate((int) bytes);
+        ByteBuffer buffer = block.buffer;
+        int pos = block.offset;
+        for (CombinedRecord record : records) {
+            buffer.putInt(pos, (int) record.getDate().toEpochDay());
+            pos += Integer.BYTES;
+            for (int ordinal = 0; ordinal < width; ordinal++) {
+                buffer.putDouble(pos, record.get(ordinal));
+                pos += Double.BYTES;
+            }
+        }
+        return new OffHeapSeries(schema, userId, arena, block, records.size(), width);
+    }
+
+    private static int rowBytes(int width) {
+        return Integer.BYTES + width * Double.BYTES;
+    }
+
+    @Override
+    public CombinedRecord get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Índice " + index + " fuera de la serie de tamaño " + size);
+        }
+        ByteBuffer buffer = block.buffer;
+        int pos = block.offset + index * rowBytes(width);
+        LocalDate date = LocalDate.ofEpochDay(buffer.getInt(pos));
+        pos += Integer.BYTES;
+        double[] values = new double[width];
+        for (int ordinal = 0; ordinal < width; ordinal++) {
+            values[ordinal] = buffer.getDouble(pos);
+            pos += Double.BYTES;
+        }
+        return new CombinedRecord(schema, userId, date, values);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int lowerBound(int epochDay) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dayAt(mid) < epochDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int upperBound(int epochDay) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dayAt(mid) > epochDay) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private int dayAt(int index) {
+        return block.buffer.getInt(block.offset + index * rowBytes(width));
+    }
+
+    @Override
+    public OffHeapArena arena() {
+        return arena;
+    }
+
+    @Override
+    public void release() {
+        arena.release(block);
+    }
+
+    @Override
+    public List<CombinedRecord> relocate(OffHeapArena target) {
+        OffHeapArena.Block moved = target.allocate(block.length);
+        moved.buffer.put(moved.offset, block.buffer, block.offset, block.length);
+        return new OffHeapSeries(schema, userId, target, moved, size, width);
+    }
+}
@@ -0,0 +1,196 @@
+package com.eterna.dx.rulesengine.features;
+
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cohorte demográfica (sexo y franja de edad) de cada paciente, leída del CSV
+ * de pacientes ({@code data.patient-csv-path}).
+ *
+ * Columnas reconocidas (separador {@code ;} o {@code ,}): identificador
+ * ({@code patient_id} o {@code user_id}), sexo ({@code sex} o {@code gender})
+ * y fecha de nacimiento ({@code birth_date}, {@code date_of_birth}) o edad
+ * ({@code age}). Con fecha de nacimiento la edad se calcula en la fecha del
+ * dato. La cohorte es p. ej. {@code F_30-39}; los pacientes sin sexo o edad
+ * no tienen cohorte (solo cuentan para la población).
+ */
+@Slf4j
+final class PatientCohorts {
+
+    static final PatientCohorts EMPTY = new PatientCohorts(Map.of(), 10);
+
+    private static final Set<String> ID_COLUMNS = Set.of("patient_id", "user_id");
+    private static final Set<String> SEX_COLUMNS = Set.of("sex", "gender");
+    private static final Set<String> BIRTH_COLUMNS = Set.of("birth_date", "date_of_birth", "birthdate");
+    private static final Set<String> AGE_COLUMNS = Set.of("age");
+
+    private final Map<String, Patient> patients;
+    private final int bandYears;
+
+    private PatientCohorts(Map<String, Patient> patients, int bandYears) {
+        this.patients = patients;
+        this.bandYears = Math.max(1, bandYears);
+    }
+
+    /**
+     * Lee el CSV de pacientes; si no existe o no se puede leer devuelve {@link #EMPTY}.
+     */
+    static PatientCohorts load(String path, int bandYears) {
+        Path file = Paths.get(path);
+        if (!Files.exists(file)) {
+            log.info("CSV de pacientes no encontrado ({}): percentiles solo por población", path);
+            return EMPTY;
+        }
+
+        try {
+            char separator = detectSeparator(file);
+            try (CSVReader reader = new CSVReaderBuilder(new FileReader(path))
+                    .withCSVParser(new CSVParserBuilder().withSeparator(separator).build())
+                    .build()) {
+
+                String[] header = reader.readNext();
+                if (header == null) {
+                    return EMPTY;
+                }
+                int idCol = -1;
+                int sexCol = -1;
+                int birthCol = -1;
+                int ageCol = -1;
+                for (int i = 0; i < header.length; i++) {
+                    String column = header[i].trim().toLowerCase(Locale.ROOT);
+                    if (ID_COLUMNS.contains(column)) {
+                        idCol = i;
+                    } else if (SEX_COLUMNS.contains(column)) {
+                        sexCol = i;
+                    } else if (BIRTH_COLUMNS.contains(column)) {
+                        birthCol = i;
+                    } else if (AGE_COLUMNS.contains(column)) {
+                        ageCol = i;
+                    }
+                }
+                if (idCol < 0) {
+                    log.warn("El CSV de pacientes no tiene columna patient_id: {}", path);
+                    return EMPTY;
+                }
+
+                DateColumnParser dateParser = new DateColumnParser();
+                Map<String, Patient> patients = new HashMap<>();
+                // Se lee el fichero entero antes de parsear para fijar el orden día/mes con todas las fechas
+                List<String[]> rows = reader.readAll();
+                for (String[] row : rows) {
+                    dateParser.sample(cell(row, birthCol));
+                }
+                for (String[] row : rows) {
+                    String userId = cell(row, idCol);
+                    if (userId == null) {
+                        continue;
+                    }
+                    String sex = normalizeSex(cell(row, sexCol));
+                    String birth = cell(row, birthCol);
+                    LocalDate birthDate = birth != null ? dateParser.parse(birth) : null;
+                    int age = parseAge(cell(row, ageCol));
+                    patients.put(userId, new Patient(sex, birthDate, age));
+                }
+                log.info("Cargadas cohortes de {} pacientes", patients.size());
+                return new PatientCohorts(patients, bandYears);
+            }
+        } catch (Exception e) {
+            log.warn("No se pudo leer el CSV de pacientes {}: {}", path, e.getMessage());
+            return EMPTY;
+        }
+    }
+
+    /**
+     * Cohorte del paciente en la fecha, o null si no se conoce su sexo o edad.
+     */
+    String cohortOf(String userId, LocalDate date) {
+        Patient patient = patients.get(userId);
+        if (patient == null || patient.sex == null) {
+            return null;
+        }
+        int age = patient.birthDate != null ? Period.between(patient.birthDate, date).getYears() : patient.age;
+        if (age < 0) {
+            return null;
+        }
+        int from = age / bandYears * bandYears;
+        return patient.sex + "_" + from + "-" + (from + bandYears - 1);
+    }
+
+    int size() {
+        return patients.size();
+    }
+
+    private static char detectSeparator(Path file) throws Exception {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String header = reader.readLine();
+            return header != null && header.indexOf(';') >= 0 ? ';' : ',';
+        }
+    }
+
+    private static String cell(String[] row, int col) {
+        if (col < 0 || col >= row.length) {
+            return null;
+        }
+        String value = row[col].trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String normalizeSex(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "m":
+            case "male":
+            case "h":
+            case "hombre":
+            case "masculino":
+                return "M";
+            case "f":
+            case "female":
+            case "mujer":
+            case "femenino":
+                return "F";
+            default:
+                return "O";
+        }
+    }
+
+    private static int parseAge(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return (int) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class Patient {
+        private final String sex;
+        private final LocalDate birthDate;
+        private final int age;
+
+        private Patient(String sex, LocalDate birthDate, int age) {
+            this.sex = sex;
+            this.birthDate = birthDate;
+            this.age = age;
+        }
+    }
+}
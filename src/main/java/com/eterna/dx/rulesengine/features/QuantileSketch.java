@@ -0,0 +1,375 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.util.Arrays;
+
+/**
+ * Sketch de cuantiles en streaming y combinable (tipo KLL).
+ *
+ * Los valores se guardan en niveles; un elemento del nivel h representa 2^h
+ * valores. Cuando un nivel se llena se ordena y se promociona uno de cada dos
+ * elementos al nivel siguiente (alternando el desplazamiento), de modo que la
+ * memoria queda acotada a unos 3·k elementos y el error de rango es
+ * O(1/k). Mientras no se compacta (hasta k valores, la capacidad del primer
+ * nivel) el resultado es exacto.
+ *
+ * Los valores retirados con {@link #remove(double)} se llevan en un segundo
+ * sketch cuyo peso se descuenta en las consultas; el error crece con lo
+ * retirado, así que conviene reconstruir el sketch si llega a ser una parte
+ * grande del total ({@link #removedCount()}).
+ *
+ * Dos sketches con el mismo k se combinan con {@link #merge(QuantileSketch)}
+ * (p. ej. la población como unión de las cohortes). Las consultas usan una
+ * vista ordenada con pesos acumulados que se construye al primer uso tras un
+ * cambio y se resuelven por búsqueda binaria. No es thread-safe.
+ */
+final class QuantileSketch {
+
+    private static final int MIN_LEVEL_CAPACITY = 8;
+    private static final double LEVEL_DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private boolean[] oddOffset = new boolean[1];
+    private long count;
+    private QuantileSketch removed;
+
+    // Vista ordenada (valores y peso acumulado hasta cada valor inclusive)
+    private double[] viewValues;
+    private long[] viewCumulative;
+
+    QuantileSketch(int k) {
+        this.k = Math.max(MIN_LEVEL_CAPACITY, k);
+        this.levels[0] = new double[MIN_LEVEL_CAPACITY];
+    }
+
+    int k() {
+        return k;
+    }
+
+    /**
+     * Número de valores añadidos (incluidos los de sketches combinados) menos los retirados.
+     */
+    long count() {
+        return count - removedCount();
+    }
+
+    /**
+     * Número de valores retirados.
+     */
+    long removedCount() {
+        return removed != null ? removed.count : 0;
+    }
+
+    boolean isEmpty() {
+        return count() == 0;
+    }
+
+    /**
+     * Añade un valor; los no finitos se ignoran.
+     */
+    void update(double value) {
+        if (!Double.isFinite(value)) {
+            return;
+        }
+        append(0, value);
+        count++;
+        viewValues = null;
+        compressIfNeeded();
+    }
+
+    /**
+     * Retira un valor añadido antes; los no finitos se ignoran.
+     */
+    void remove(double value) {
+        if (!Double.isFinite(value)) {
+            return;
+        }
+        if (removed == null) {
+            removed = new QuantileSketch(k);
+        }
+        removed.update(value);
+    }
+
+    /**
+     * Añade a este sketch todos los valores representados por otro (y retira los que otro retiró).
+     */
+    void merge(QuantileSketch other) {
+        if (other.removed != null && other.removed.count > 0) {
+            if (removed == null) {
+                removed = new QuantileSketch(k);
+            }
+            removed.merge(other.removed);
+        }
+        if (other.count == 0) {
+            return;
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        viewValues = null;
+        compressIfNeeded();
+    }
+
+    /**
+     * Rango percentil (0-100) de un valor: porcentaje de valores menores más la
+     * mitad de los iguales. NaN si el sketch está vacío.
+     */
+    double percentileRank(double value) {
+        long total = count();
+        if (total <= 0 || Double.isNaN(value)) {
+            return Double.NaN;
+        }
+        long below = Math.max(0, weightBelow(value) - (removed != null ? removed.weightBelow(value) : 0));
+        long atMost = Math.min(total, weightAtMost(value) - (removed != null ? removed.weightAtMost(value) : 0));
+        return 100.0 * (below + Math.max(0, atMost - below) / 2.0) / total;
+    }
+
+    /**
+     * Cuantil q (0-1): interpolación lineal mientras el sketch es exacto y el
+     * elemento que cubre la posición q·(n-1) cuando ya se ha compactado.
+     */
+    double quantile(double q) {
+        long total = count();
+        if (total <= 0) {
+            return Double.NaN;
+        }
+        ensureView();
+        double position = Math.max(0.0, Math.min(1.0, q)) * (total - 1);
+        if (removedCount() > 0) {
+            return levels.length == 1 && removed.levels.length == 1
+                    ? interpolate(remainingExact(), position)
+                    : quantileAfterRemovals(position);
+        }
+
+        int low = 0;
+        int high = viewValues.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (viewCumulative[mid] > position) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        double fraction = position - Math.floor(position);
+        if (levels.length == 1 && fraction > 0.0 && low + 1 < viewValues.length) {
+            return viewValues[low] + (viewValues[low + 1] - viewValues[low]) * fraction;
+        }
+        return viewValues[low];
+    }
+
+    /**
+     * Valores que quedan al quitar los retirados, ordenados (sin compactar, todos pesan 1).
+     */
+    private double[] remainingExact() {
+        removed.ensureView();
+        double[] gone = removed.viewValues;
+        double[] remaining = new double[viewValues.length];
+        int size = 0;
+        int j = 0;
+        for (double value : viewValues) {
+            while (j < gone.length && gone[j] < value) {
+                j++;
+            }
+            if (j < gone.length && gone[j] == value) {
+                j++;
+            } else {
+                remaining[size++] = value;
+            }
+        }
+        return Arrays.copyOf(remaining, size);
+    }
+
+    private static double interpolate(double[] sorted, double position) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int low = Math.min((int) position, sorted.length - 1);
+        double fraction = position - low;
+        return fraction > 0.0 && low + 1 < sorted.length
+                ? sorted[low] + (sorted[low + 1] - sorted[low]) * fraction
+                : sorted[low];
+    }
+
+    /**
+     * Primer valor de la vista cuyo peso acumulado, descontando lo retirado, supera la posición.
+     */
+    private double quantileAfterRemovals(double position) {
+        int low = 0;
+        int high = viewValues.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (viewCumulative[mid] - removed.weightAtMost(viewValues[mid]) > position) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return viewValues[low];
+    }
+
+    private long weightBelow(double value) {
+        if (count == 0) {
+            return 0;
+        }
+        ensureView();
+        return weightBefore(lowerBound(value));
+    }
+
+    private long weightAtMost(double value) {
+        if (count == 0) {
+            return 0;
+        }
+        ensureView();
+        return weightBefore(upperBound(value));
+    }
+
+    private void append(int level, double value) {
+        while (level >= levels.length) {
+            addLevel();
+        }
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][sizes[level]++] = value;
+    }
+
+    private void addLevel() {
+        int height = levels.length + 1;
+        levels = Arrays.copyOf(levels, height);
+        levels[height - 1] = new double[MIN_LEVEL_CAPACITY];
+        sizes = Arrays.copyOf(sizes, height);
+        oddOffset = Arrays.copyOf(oddOffset, height);
+    }
+
+    /**
+     * Capacidad del nivel: k en el más alto, decreciendo ×2/3 hacia abajo.
+     */
+    private int capacity(int level) {
+        int depth = levels.length - 1 - level;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(LEVEL_DECAY, depth)));
+    }
+
+    private void compressIfNeeded() {
+        while (true) {
+            int total = 0;
+            int totalCapacity = 0;
+            for (int h = 0; h < levels.length; h++) {
+                total += sizes[h];
+                totalCapacity += capacity(h);
+            }
+            if (total <= totalCapacity) {
+                return;
+            }
+            for (int h = 0; h < levels.length; h++) {
+                if (sizes[h] >= capacity(h)) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ordena el nivel y promociona uno de cada dos elementos; con un número impar
+     * de elementos el último se queda en el nivel.
+     */
+    private void compact(int level) {
+        if (level + 1 >= levels.length) {
+            addLevel();
+        }
+        double[] items = levels[level];
+        int size = sizes[level];
+        Arrays.sort(items, 0, size);
+
+        int pairs = size / 2;
+        int offset = oddOffset[level] ? 1 : 0;
+        oddOffset[level] = !oddOffset[level];
+        for (int i = 0; i < pairs; i++) {
+            append(level + 1, items[2 * i + offset]);
+        }
+
+        if (size % 2 == 1) {
+            items[0] = items[size - 1];
+            sizes[level] = 1;
+        } else {
+            sizes[level] = 0;
+        }
+    }
+
+    private void ensureView() {
+        if (viewValues != null) {
+            return;
+        }
+        int total = 0;
+        for (int h = 0; h < levels.length; h++) {
+            total += sizes[h];
+        }
+
+        // Se ordenan índices para conservar el nivel (peso 2^h) de cada valor
+        double[] values = new double[total];
+        int[] levelOf = new int[total];
+        Integer[] order = new Integer[total];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                levelOf[n] = h;
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        double[] sortedValues = new double[total];
+        long[] cumulative = new long[total];
+        long running = 0;
+        for (int i = 0; i < total; i++) {
+            sortedValues[i] = values[order[i]];
+            running += 1L << levelOf[order[i]];
+            cumulative[i] = running;
+        }
+        viewValues = sortedValues;
+        viewCumulative = cumulative;
+    }
+
+    /**
+     * Peso de los elementos en [0, index) de la vista.
+     */
+    private long weightBefore(int index) {
+        return index == 0 ? 0 : viewCumulative[index - 1];
+    }
+
+    private int lowerBound(double value) {
+        int low = 0;
+        int high = viewValues.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (viewValues[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int upperBound(double value) {
+        int low = 0;
+        int high = viewValues.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (viewValues[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,552 @@
+package com.eterna.dx.rulesengine.features;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Series de usuario particionadas en disco.
+ *
+ * Cada usuario se asigna a un bucket por hash de su user_id; el fichero del
+ * bucket ({@code bucket-NNN.G.seg}, G = generación) guarda segmentos añadidos
+ * al final con el estado de carga de entrenamiento y la {@link CompressedSeries}
+ * del usuario. El índice ({@code index.log}) es un log de entradas (columna del
+ * esquema o segmento de usuario: bucket, generación, offset, longitud y
+ * versión) que se lee entero al abrir; para un usuario vale su última entrada.
+ * La cabecera guarda el sello de los CSV y la versión de definiciones con que
+ * se generó: si no coinciden, la partición se regenera desde los CSV.
+ *
+ * Las escrituras solo añaden. Cuando los segmentos sustituidos de un bucket
+ * superan a los vivos (y {@value #COMPACT_MIN_DEAD_BYTES} bytes), los vivos se
+ * copian a un fichero de la generación siguiente, el índice se reescribe con
+ * un renombrado atómico y se borra el fichero anterior; al abrir se borran los
+ * ficheros que ya no referencia el índice. Es un derivado de los CSV y del log
+ * de ingesta, así que no se sincroniza a disco en cada escritura.
+ */
+@Slf4j
+final class SeriesPartitions {
+
+    private static final int MAGIC = 0x53455250; // "SERP"
+    private static final int FORMAT_VERSION = 2;
+    private static final String INDEX_FILE = "index.log";
+    private static final Pattern BUCKET_FILE = Pattern.compile("bucket-(\\d+)\\.(\\d+)\\.seg");
+
+    // Bytes muertos mínimos de un bucket para compactarlo
+    private static final long COMPACT_MIN_DEAD_BYTES = 1L << 20;
+
+    private static final byte ENTRY_COLUMN = 'C';
+    private static final byte ENTRY_SEGMENT = 'S';
+
+    private final Path directory;
+    private final int buckets;
+    private final long sourceStamp;
+    private final long definitionsVersion;
+    private final FeatureSchema schema;
+    private final Map<String, Location> index;
+    private final Map<Long, FileChannel> channels = new ConcurrentHashMap<>();
+    // Por bucket: generación en la que se escribe, bytes de segmentos vigentes y bytes de sus ficheros
+    private final int[] generations;
+    private final long[] liveBytes;
+    private final long[] fileBytes;
+    private DataOutputStream indexOut;
+    private int persistedColumns;
+    private long maxVersion;
+
+    private SeriesPartitions(Path directory, int buckets, long sourceStamp, long definitionsVersion,
+                             FeatureSchema schema, Map<String, Location> index, int persistedColumns,
+                             long maxVersion) throws IOException {
+        this.directory = directory;
+        this.buckets = buckets;
+        this.sourceStamp = sourceStamp;
+        this.definitionsVersion = definitionsVersion;
+        this.schema = schema;
+        this.index = index;
+        this.generations = new int[buckets];
+        this.liveBytes = new long[buckets];
+        this.fileBytes = new long[buckets];
+        this.persistedColumns = persistedColumns;
+        this.maxVersion = maxVersion;
+        this.indexOut = openIndexOut(directory);
+    }
+
+    /**
+     * Crea una partición vacía (borra la anterior del directorio).
+     */
+    static SeriesPartitions create(Path directory, int buckets, FeatureSchema schema, long sourceStamp,
+                                   long definitionsVersion) throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.equals(INDEX_FILE) || name.startsWith("bucket-")) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        int bucketCount = Math.max(1, buckets);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(directory.resolve(INDEX_FILE))))) {
+            writeHeader(out, sourceStamp, definitionsVersion, bucketCount);
+        }
+        SeriesPartitions partitions = new SeriesPartitions(directory, bucketCount, sourceStamp, definitionsVersion,
+                schema, new ConcurrentHashMap<>(), 0, 0L);
+        partitions.persistSchema();
+        return partitions;
+    }
+
+    /**
+     * Abre la partición del directorio si se generó con el mismo sello de CSV;
+     * null si no existe, no coincide o no se puede leer. La versión de
+     * definiciones la comprueba quien la abre ({@link #definitionsVersion()}).
+     */
+    static SeriesPartitions open(Path directory, long sourceStamp) {
+        Path indexPath = directory.resolve(INDEX_FILE);
+        if (!Files.exists(indexPath)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                log.warn("Índice de particiones con formato no reconocido: {}", indexPath);
+                return null;
+            }
+            long stamp = in.readLong();
+            long definitions = in.readLong();
+            int buckets = in.readInt();
+            if (stamp != sourceStamp) {
+                log.info("Particiones de {} desactualizadas, se regenerarán", directory);
+                return null;
+            }
+
+            FeatureSchema schema = new FeatureSchema();
+            Map<String, Location> index = new ConcurrentHashMap<>();
+            int columns = 0;
+            long maxVersion = 0;
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    if (type == ENTRY_COLUMN) {
+                        String name = in.readUTF();
+                        boolean integral = in.readBoolean();
+                        if (schema.register(name, integral) != columns) {
+                            log.warn("Índice de particiones con columnas inconsistentes: {}", indexPath);
+                            return null;
+                        }
+                        columns++;
+                    } else if (type == ENTRY_SEGMENT) {
+                        String userId = in.readUTF();
+                        Location location = new Location(in.readInt(), in.readInt(), in.readLong(), in.readInt(),
+                                in.readLong());
+                        index.put(userId, location);
+                        maxVersion = Math.max(maxVersion, location.version);
+                    } else {
+                        log.warn("Entrada desconocida en el índice de particiones {}, se ignora el resto", indexPath);
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // Última entrada cortada por una caída: su segmento no se usa
+                    break;
+                }
+            }
+
+            SeriesPartitions partitions = new SeriesPartitions(directory, buckets, stamp, definitions, schema, index,
+                    columns, maxVersion);
+            partitions.recoverFiles();
+            log.info("Particiones abiertas: {} usuarios en {} buckets ({})", index.size(), buckets, directory);
+            return partitions;
+        } catch (IOException e) {
+            log.warn("No se pudo leer el índice de particiones {}: {}", indexPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Versión de las definiciones (derivadas, carga) con que se calcularon las series guardadas.
+     */
+    long definitionsVersion() {
+        return definitionsVersion;
+    }
+
+    FeatureSchema schema() {
+        return schema;
+    }
+
+    Set<String> userIds() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    boolean contains(String userId) {
+        return index.containsKey(userId);
+    }
+
+    /**
+     * Versión de la serie guardada del usuario (0 si no existe).
+     */
+    long version(String userId) {
+        Location location = index.get(userId);
+        return location != null ? location.version : 0L;
+    }
+
+    /**
+     * Mayor versión guardada; el almacén continúa la numeración a partir de ella.
+     */
+    synchronized long maxVersion() {
+        return maxVersion;
+    }
+
+    /**
+     * Lee la serie de un usuario y su estado de carga (null si no existe) con
+     * los bytes en el heap o en la arena.
+     */
+    Stored read(String userId, OffHeapArena arena) {
+        Location location = index.get(userId);
+        while (location != null) {
+            ByteBuffer segment;
+            try {
+                segment = readSegment(location, false);
+            } catch (IOException e) {
+                Location current = index.get(userId);
+                if (current != location) {
+                    // El bucket se ha compactado durante la lectura: se lee de su nueva posición
+                    location = current;
+                    continue;
+                }
+                throw new UncheckedIOException("No se pudo leer la serie de " + userId + " de las particiones", e);
+            }
+            WorkloadCalculator.State workload = segment.get() != 0 ? WorkloadCalculator.State.readFrom(segment) : null;
+            return new Stored(CompressedSeries.fromSegment(schema, userId, segment, arena), workload);
+        }
+        return null;
+    }
+
+    /**
+     * Añade la serie del usuario y su estado de carga (null si no se calcula)
+     * a su bucket, la registra en el índice y compacta el bucket si hace falta.
+     */
+    synchronized void write(String userId, CompressedSeries series, long version, WorkloadCalculator.State workload) {
+        byte[] segment = segment(series, workload);
+        int bucket = bucketOf(userId);
+        try {
+            persistSchema();
+            int generation = generations[bucket];
+            FileChannel channel = channel(bucket, generation, true);
+            long offset = channel.size();
+            writeFully(channel, ByteBuffer.wrap(segment), offset);
+
+            Location location = new Location(bucket, generation, offset, segment.length, version);
+            writeEntry(indexOut, userId, location);
+            indexOut.flush();
+
+            Location previous = index.put(userId, location);
+            if (previous != null) {
+                liveBytes[previous.bucket] -= previous.length;
+            }
+            liveBytes[bucket] += segment.length;
+            fileBytes[bucket] += segment.length;
+            maxVersion = Math.max(maxVersion, version);
+
+            long dead = fileBytes[bucket] - liveBytes[bucket];
+            if (dead > COMPACT_MIN_DEAD_BYTES && dead > liveBytes[bucket]) {
+                compact(bucket);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo escribir la serie de " + userId + " en las particiones", e);
+        }
+    }
+
+    /**
+     * Cierra los ficheros abiertos.
+     */
+    synchronized void close() {
+        try {
+            indexOut.close();
+        } catch (IOException e) {
+            log.debug("Error cerrando el índice de particiones: {}", e.getMessage());
+        }
+        for (Long key : channels.keySet()) {
+            closeChannel(key);
+        }
+    }
+
+    /**
+     * Copia los segmentos vigentes del bucket a un fichero de la generación
+     * siguiente, reescribe el índice y borra los ficheros anteriores.
+     */
+    private void compact(int bucket) throws IOException {
+        int generation = generations[bucket] + 1;
+        Set<Integer> previousGenerations = new HashSet<>();
+        previousGenerations.add(generations[bucket]);
+        Map<String, Location> moved = new HashMap<>();
+        long written = 0;
+        try (FileChannel out = FileChannel.open(bucketPath(bucket, generation), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                if (location.bucket != bucket) {
+                    continue;
+                }
+                previousGenerations.add(location.generation);
+                writeFully(out, readSegment(location, true), written);
+                moved.put(entry.getKey(), new Location(bucket, generation, written, location.length, location.version));
+                written += location.length;
+            }
+            out.force(false);
+        }
+
+        index.putAll(moved);
+        rewriteIndex();
+        long before = fileBytes[bucket];
+        generations[bucket] = generation;
+        liveBytes[bucket] = written;
+        fileBytes[bucket] = written;
+        for (int previous : previousGenerations) {
+            closeChannel(channelKey(bucket, previous));
+            Files.deleteIfExists(bucketPath(bucket, previous));
+        }
+        log.info("Bucket {} de particiones compactado: {} -> {} bytes", bucket, before, written);
+    }
+
+    /**
+     * Escribe el índice completo (cabecera, columnas y una entrada por usuario)
+     * en un temporal y lo sustituye con un renombrado atómico.
+     */
+    private void rewriteIndex() throws IOException {
+        Path path = directory.resolve(INDEX_FILE);
+        Path tmp = directory.resolve(INDEX_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            writeHeader(out, sourceStamp, definitionsVersion, buckets);
+            for (int ordinal = 0; ordinal < persistedColumns; ordinal++) {
+                writeColumn(out, ordinal);
+            }
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                writeEntry(out, entry.getKey(), entry.getValue());
+            }
+            out.flush();
+            channel.force(false);
+        }
+
+        indexOut.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexOut = openIndexOut(directory);
+    }
+
+    /**
+     * Tras abrir: generación de escritura y bytes de cada bucket, y borrado de
+     * los ficheros que no referencia el índice (compactaciones interrumpidas).
+     */
+    private void recoverFiles() throws IOException {
+        Set<Long> referenced = new HashSet<>();
+        for (Location location : index.values()) {
+            referenced.add(channelKey(location.bucket, location.generation));
+            generations[location.bucket] = Math.max(generations[location.bucket], location.generation);
+            liveBytes[location.bucket] += location.length;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = BUCKET_FILE.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                int bucket = Integer.parseInt(matcher.group(1));
+                int generation = Integer.parseInt(matcher.group(2));
+                if (bucket < buckets && referenced.contains(channelKey(bucket, generation))) {
+                    fileBytes[bucket] += Files.size(file);
+                } else {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registra en el índice las columnas añadidas al esquema desde la última escritura.
+     */
+    private void persistSchema() throws IOException {
+        int size = schema.size();
+        for (int ordinal = persistedColumns; ordinal < size; ordinal++) {
+            writeColumn(indexOut, ordinal);
+        }
+        persistedColumns = size;
+        indexOut.flush();
+    }
+
+    private void writeColumn(DataOutputStream out, int ordinal) throws IOException {
+        out.writeByte(ENTRY_COLUMN);
+        out.writeUTF(schema.name(ordinal));
+        out.writeBoolean(schema.isIntegral(ordinal));
+    }
+
+    private static void writeHeader(DataOutputStream out, long sourceStamp, long definitionsVersion, int buckets)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(sourceStamp);
+        out.writeLong(definitionsVersion);
+        out.writeInt(buckets);
+    }
+
+    private static void writeEntry(DataOutputStream out, String userId, Location location) throws IOException {
+        out.writeByte(ENTRY_SEGMENT);
+        out.writeUTF(userId);
+        out.writeInt(location.bucket);
+        out.writeInt(location.generation);
+        out.writeLong(location.offset);
+        out.writeInt(location.length);
+        out.writeLong(location.version);
+    }
+
+    private static DataOutputStream openIndexOut(Path directory) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                directory.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    /**
+     * Segmento de un usuario: indicador y estado de carga, seguidos de la serie.
+     */
+    private static byte[] segment(CompressedSeries series, WorkloadCalculator.State workload) {
+        byte[] seriesBytes = series.toSegment();
+        ByteBuffer segment = ByteBuffer.allocate(1 + (workload != null ? WorkloadCalculator.State.BYTES : 0)
+                + seriesBytes.length);
+        segment.put((byte) (workload != null ? 1 : 0));
+        if (workload != null) {
+            workload.writeTo(segment);
+        }
+        segment.put(seriesBytes);
+        return segment.array();
+    }
+
+    private ByteBuffer readSegment(Location location, boolean create) throws IOException {
+        ByteBuffer segment = ByteBuffer.allocate(location.length);
+        FileChannel channel = channel(location.bucket, location.generation, create);
+        long position = location.offset;
+        while (segment.hasRemaining()) {
+            int read = channel.read(segment, position);
+            if (read < 0) {
+                throw new EOFException("Segmento incompleto en el bucket " + location.bucket);
+            }
+            position += read;
+        }
+        segment.flip();
+        return segment;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private int bucketOf(String userId) {
+        return Math.floorMod(userId.hashCode(), buckets);
+    }
+
+    private Path bucketPath(int bucket, int generation) {
+        return directory.resolve(String.format("bucket-%03d.%d.seg", bucket, generation));
+    }
+
+    private static long channelKey(int bucket, int generation) {
+        return ((long) bucket << 32) | (generation & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Canal del fichero de un bucket y generación; sin {@code create} (lecturas)
+     * falla si el fichero ya no existe en lugar de crear uno vacío.
+     */
+    private FileChannel channel(int bucket, int generation, boolean create) throws IOException {
+        long key = channelKey(bucket, generation);
+        FileChannel channel = channels.get(key);
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+        synchronized (channels) {
+            channel = channels.get(key);
+            if (channel == null || !channel.isOpen()) {
+                channel = create
+                        ? FileChannel.open(bucketPath(bucket, generation), StandardOpenOption.CREATE,
+                                StandardOpenOption.READ, StandardOpenOption.WRITE)
+                        : FileChannel.open(bucketPath(bucket, generation), StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+                channels.put(key, channel);
+            }
+            return channel;
+        }
+    }
+
+    private void closeChannel(long key) {
+        FileChannel channel = channels.remove(key);
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Error cerrando el bucket {}: {}", key >>> 32, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serie leída de disco con el estado de carga tras su último día (null si no se guardó).
+     */
+    static final class Stored {
+        private final CompressedSeries series;
+        private final WorkloadCalculator.State workload;
+
+        private Stored(CompressedSeries series, WorkloadCalculator.State workload) {
+            this.series = series;
+            this.workload = workload;
+        }
+
+        CompressedSeries series() {
+            return series;
+        }
+
+        WorkloadCalculator.State workload() {
+            return workload;
+        }
+    }
+
+    private static final class Location {
+        private final int bucket;
+        private final int generation;
+        private final long offset;
+        private final int length;
+        private final long version;
+
+        private Location(int bucket, int generation, long offset, int length, long version) {
+            this.bucket = bucket;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.eterna.dx.rulesengine.features;
+
+/**
+ * Agregador incremental sobre una ventana deslizante de días naturales.
+ *
+ * Los valores se añaden en orden de fecha (un valor por día; NaN = día con
+ * registro pero sin valor) y la ventana se desplaza con {@link #advanceTo(int)}.
+ * Las implementaciones mantienen su estado en O(1) u O(log w) por paso, de
+ * modo que recorrer una serie día a día no recalcula la ventana entera.
+ */
+public interface SlidingAggregator {
+
+    /**
+     * Añade el valor de un día (días estrictamente crecientes).
+     */
+    void add(int epochDay, double value);
+
+    /**
+     * Sitúa el final de la ventana en el día indicado, descartando lo que queda fuera.
+     */
+    void advanceTo(int epochDay);
+
+    /**
+     * Resultado para la ventana que termina en el último día de {@link #advanceTo(int)},
+     * o null si no hay datos suficientes.
+     */
+    Double result();
+
+    /**
+     * Tamaño de la ventana en días; 0 si el agregador usa todo el histórico.
+     */
+    int windowDays();
+}
@@ -54,9 +54,9 @@ public class StatisticsCalculator {
         }
 
         try {
+            // Ordenar solo la ventana: ordenar antes tomaría los N mayores, no los N últimos
             List<Double> nonNullValues = values.stream()
                     .filter(v -> v != null && !Double.isNaN(v) && Double.isFinite(v))
-                    .sorted()
                     .collect(Collectors.toList());
 
             if (nonNullValues.isEmpty()) {
@@ -71,7 +71,7 @@ public class StatisticsCalculator {
                 return null;
             }
 
-            windowValues.sort(Double::compareTo);
+            windowValues = windowValues.stream().sorted().collect(Collectors.toList());
             int size = windowValues.size();
             
             if (size % 2 == 0) {
@@ -176,4 +176,16 @@ public class StatisticsCalculator {
                 })
                 .collect(Collectors.toList());
     }
+
+    /**
+     * Extrae valores numéricos de una columna del esquema por ordinal (NaN -> null).
+     */
+    public static List<Double> extractNumericValues(List<CombinedRecord> records, int ordinal) {
+        return records.stream()
+                .map(record -> {
+                    double value = record.get(ordinal);
+                    return Double.isFinite(value) ? value : null;
+                })
+                .collect(Collectors.toList());
+    }
 }
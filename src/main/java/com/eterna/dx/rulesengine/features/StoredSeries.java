@@ -0,0 +1,36 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.util.List;
+
+/**
+ * Serie de usuario con una representación compacta propia (fuera del heap o
+ * comprimida) en lugar de una lista de {@link CombinedRecord} residentes.
+ * Permite buscar por fecha sin decodificar registros.
+ */
+interface StoredSeries {
+
+    /**
+     * Primer índice con epoch-day >= {@code epochDay}.
+     */
+    int lowerBound(int epochDay);
+
+    /**
+     * Primer índice con epoch-day > {@code epochDay}.
+     */
+    int upperBound(int epochDay);
+
+    /**
+     * Arena donde está el bloque, o null si está en el heap.
+     */
+    OffHeapArena arena();
+
+    /**
+     * Libera el bloque en su arena (la serie ha sido sustituida).
+     */
+    void release();
+
+    /**
+     * Copia la serie, sin decodificarla, a un bloque de otra arena.
+     */
+    List<CombinedRecord> relocate(OffHeapArena target);
+}
@@ -0,0 +1,243 @@
+package com.eterna.dx.rulesengine.features;
+
+import com.eterna.dx.rulesengine.config.DataProperties;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estado por usuario de los agregadores de racha y recuento ({@code streak_*},
+ * {@code count_*}) que piden las reglas, para que evaluar una fecha no recorra
+ * su ventana.
+ *
+ * El primer uso de un agregador para un usuario recorre los N días de la
+ * ventana que termina en su último registro; después, los días nuevos que
+ * llegan al final de la serie se añaden desde el {@link FeatureStore} en O(1)
+ * y la evaluación en la fecha del último registro o posterior lee el
+ * resultado en O(1). Un cambio en un día ya contado, un día anterior al
+ * último o una carga completa descartan el estado del usuario; una fecha
+ * anterior a lo ya avanzado se calcula recorriendo la ventana
+ * ({@link CatalogAggregates}). Se guarda el estado de como mucho
+ * {@code data.temporal-state-max-users} usuarios.
+ */
+@Component
+@RequiredArgsConstructor
+public class TemporalStates implements FeatureStore.RecordListener {
+
+    private final DataProperties dataProperties;
+    private final FeatureStore featureStore;
+
+    private final Map<String, UserState> users = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void register() {
+        featureStore.addRecordListener(this);
+    }
+
+    /**
+     * Añade a {@code out} los agregadores temporales de la lista que se pueden
+     * servir desde el estado del usuario.
+     *
+     * @return los agregadores que quedan por calcular
+     */
+    List<AggregatorCatalog.Spec> computeInto(String userId, int ordinal, List<AggregatorCatalog.Spec> specs,
+                                             LocalDate date, Map<String, Object> out) {
+        int max = dataProperties.getTemporalStateMaxUsers();
+        if (max <= 0 || specs.stream().noneMatch(AggregatorCatalog.Spec::isTemporal)) {
+            return specs;
+        }
+
+        int day = (int) date.toEpochDay();
+        long version = featureStore.getUserVersion(userId);
+        List<CombinedRecord> series = null;
+        UserState state = users.get(userId);
+        if (state == null || state.version != version) {
+            series = featureStore.getSeries(userId);
+            if (series.isEmpty()) {
+                return specs;
+            }
+            state = new UserState(version, lastDay(series));
+            evictIfNeeded(max);
+            users.put(userId, state);
+        }
+
+        List<AggregatorCatalog.Spec> remaining = new ArrayList<>();
+        synchronized (state) {
+            for (AggregatorCatalog.Spec spec : specs) {
+                Cursor cursor = null;
+                if (spec.isTemporal() && day >= state.lastDay) {
+                    String key = ordinal + ":" + spec.getName();
+                    cursor = state.cursors.get(key);
+                    if (cursor == null) {
+                        if (series == null) {
+                            series = featureStore.getSeries(userId);
+                        }
+                        cursor = createCursor(state, series, ordinal, spec, userId);
+                        if (cursor != null) {
+                            state.cursors.put(key, cursor);
+                        }
+                    }
+                }
+                if (cursor == null || day < cursor.end) {
+                    remaining.add(spec);
+                    continue;
+                }
+                cursor.end = day;
+                cursor.aggregator.advanceTo(day);
+                out.put(spec.getName(), cursor.aggregator.result());
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Agregador creado recorriendo su ventana hasta el último registro, o null si
+     * la serie ya no es la del estado (ha llegado un alta que aún no se ha añadido).
+     */
+    private Cursor createCursor(UserState state, List<CombinedRecord> series, int ordinal,
+                                AggregatorCatalog.Spec spec, String userId) {
+        if (series.isEmpty() || lastDay(series) != state.lastDay
+                || featureStore.getUserVersion(userId) != state.version) {
+            return null;
+        }
+        Cursor cursor = new Cursor(ordinal, spec.newInstance());
+        int from = state.lastDay - spec.getWindowDays() + 1;
+        for (int i = lowerBound(series, from); i < series.size(); i++) {
+            CombinedRecord record = series.get(i);
+            cursor.aggregator.add((int) record.getDate().toEpochDay(), record.get(ordinal));
+        }
+        return cursor;
+    }
+
+    /**
+     * Usuarios con estado guardado.
+     */
+    int size() {
+        return users.size();
+    }
+
+    @Override
+    public void recordsReplaced(Iterable<CombinedRecord> records) {
+        users.clear();
+    }
+
+    @Override
+    public void recordsUpserted(List<CombinedRecord> inserted, List<FeatureStore.RecordChange> changed) {
+        if (users.isEmpty()) {
+            return;
+        }
+
+        // Un día ya contado cambia: se descarta el estado y se rehace al siguiente uso
+        Set<String> stale = new HashSet<>();
+        for (FeatureStore.RecordChange change : changed) {
+            stale.add(change.getCurrent().getUserId());
+        }
+        stale.forEach(users::remove);
+
+        Map<String, List<CombinedRecord>> byUser = new HashMap<>();
+        for (CombinedRecord record : inserted) {
+            if (users.containsKey(record.getUserId())) {
+                byUser.computeIfAbsent(record.getUserId(), k -> new ArrayList<>()).add(record);
+            }
+        }
+        byUser.forEach((userId, records) -> {
+            UserState state = users.get(userId);
+            if (state == null) {
+                return;
+            }
+            records.sort(Comparator.comparing(CombinedRecord::getDate));
+            synchronized (state) {
+                if (state.append(records)) {
+                    state.version = featureStore.getUserVersion(userId);
+                } else {
+                    users.remove(userId, state);
+                }
+            }
+        });
+    }
+
+    private void evictIfNeeded(int max) {
+        Iterator<String> iterator = users.keySet().iterator();
+        while (users.size() >= max && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static int lastDay(List<CombinedRecord> series) {
+        return (int) series.get(series.size() - 1).getDate().toEpochDay();
+    }
+
+    private static int lowerBound(List<CombinedRecord> series, int day) {
+        int low = 0;
+        int high = series.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (series.get(mid).getDate().toEpochDay() < day) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Agregadores de un usuario por columna y nombre, todos con los registros
+     * hasta el mismo último día.
+     */
+    private static final class UserState {
+        private volatile long version;
+        private final Map<String, Cursor> cursors = new HashMap<>();
+        private int lastDay;
+
+        private UserState(long version, int lastDay) {
+            this.version = version;
+            this.lastDay = lastDay;
+        }
+
+        /**
+         * Añade días nuevos (ordenados) a todos los agregadores.
+         *
+         * @return false si alguno no va después de lo ya contado
+         */
+        private boolean append(List<CombinedRecord> records) {
+            for (CombinedRecord record : records) {
+                int day = (int) record.getDate().toEpochDay();
+                if (day <= lastDay) {
+                    return false;
+                }
+                for (Cursor cursor : cursors.values()) {
+                    if (day <= cursor.end) {
+                        return false;
+                    }
+                    cursor.aggregator.add(day, record.get(cursor.ordinal));
+                }
+                lastDay = day;
+            }
+            return true;
+        }
+    }
+
+    private static final class Cursor {
+        private final int ordinal;
+        private final SlidingAggregator aggregator;
+        private int end = Integer.MIN_VALUE;
+
+        private Cursor(int ordinal, SlidingAggregator aggregator) {
+            this.ordinal = ordinal;
+            this.aggregator = aggregator;
+        }
+    }
+}
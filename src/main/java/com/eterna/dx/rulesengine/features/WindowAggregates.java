@@ -0,0 +1,172 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.util.List;
+
+/**
+ * Kernel fusionado de agregados móviles de una columna.
+ *
+ * Recorre la serie una sola vez hacia atrás recogiendo los últimos
+ * {@link #WINDOW} valores válidos (no nulos y finitos) en un buffer primitivo
+ * fijo, y sobre él calcula medias de 3/7/14, mediana de 14 (selección en un
+ * array de tamaño fijo), delta_pct_3v14 y z-score de 28, sin colecciones
+ * intermedias. Las ventanas son, como en {@link StatisticsCalculator}, sobre
+ * los últimos N valores válidos.
+ *
+ * No es thread-safe: se reutiliza una instancia para todas las columnas de una
+ * misma construcción de features.
+ */
+public final class WindowAggregates {
+
+    /**
+     * Ventana máxima (z-score de 28).
+     */
+    public static final int WINDOW = 28;
+
+    private static final int MEDIAN_WINDOW = 14;
+
+    // Valores válidos más recientes, del más antiguo [0] al más reciente [count - 1]
+    private final double[] window = new double[WINDOW];
+    private final double[] scratch = new double[MEDIAN_WINDOW];
+    private int count;
+
+    /**
+     * Carga la ventana desde una columna de los registros (ordenados por fecha).
+     */
+    public WindowAggregates load(List<CombinedRecord> records, int ordinal) {
+        count = 0;
+        for (int i = records.size() - 1; i >= 0 && count < WINDOW; i--) {
+            double value = records.get(i).get(ordinal);
+            if (Double.isFinite(value)) {
+                window[WINDOW - 1 - count++] = value;
+            }
+        }
+        compact();
+        return this;
+    }
+
+    /**
+     * Carga la ventana desde una serie primitiva (NaN = nulo) de longitud length.
+     */
+    public WindowAggregates load(double[] series, int length) {
+        count = 0;
+        for (int i = length - 1; i >= 0 && count < WINDOW; i--) {
+            double value = series[i];
+            if (Double.isFinite(value)) {
+                window[WINDOW - 1 - count++] = value;
+            }
+        }
+        compact();
+        return this;
+    }
+
+    /**
+     * Número de valores válidos en la ventana (como máximo {@link #WINDOW}).
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Media de los últimos n valores válidos, o null si no hay ninguno.
+     */
+    public Double mean(int n) {
+        int size = Math.min(n, count);
+        if (size == 0) {
+            return null;
+        }
+        return sum(count - size, count) / size;
+    }
+
+    /**
+     * Mediana de los últimos 14 valores válidos, o null si no hay ninguno.
+     */
+    public Double median14() {
+        int size = Math.min(MEDIAN_WINDOW, count);
+        if (size == 0) {
+            return null;
+        }
+
+        // Ordenación por inserción sobre el array fijo (como máximo 14 elementos)
+        System.arraycopy(window, count - size, scratch, 0, size);
+        for (int i = 1; i < size; i++) {
+            double value = scratch[i];
+            int j = i - 1;
+            while (j >= 0 && scratch[j] > value) {
+                scratch[j + 1] = scratch[j];
+                j--;
+            }
+            scratch[j + 1] = value;
+        }
+
+        if (size % 2 == 0) {
+            return (scratch[size / 2 - 1] + scratch[size / 2]) / 2.0;
+        }
+        return scratch[size / 2];
+    }
+
+    /**
+     * (media 3 / media 14) - 1, o null si alguna falta o la media 14 es 0.
+     */
+    public Double deltaPct3v14() {
+        Double mean3d = mean(3);
+        Double mean14d = mean(14);
+        if (mean3d == null || mean14d == null || mean14d == 0.0) {
+            return null;
+        }
+        return (mean3d / mean14d) - 1;
+    }
+
+    /**
+     * Z-score del último valor válido respecto a los últimos 28 (desviación
+     * poblacional). Null con menos de 2 valores; 0 si no hay variación.
+     */
+    public Double zscore28() {
+        if (count < 2) {
+            return null;
+        }
+
+        double mean = sum(0, count) / count;
+
+        double variance = 0.0;
+        double compensation = 0.0;
+        for (int i = 0; i < count; i++) {
+            double deviation = window[i] - mean;
+            double term = deviation * deviation - compensation;
+            double next = variance + term;
+            compensation = (next - variance) - term;
+            variance = next;
+        }
+        double stdDev = Math.sqrt(variance / count);
+
+        if (stdDev == 0.0) {
+            return 0.0;
+        }
+
+        double zScore = (window[count - 1] - mean) / stdDev;
+        return Double.isFinite(zScore) ? zScore : null;
+    }
+
+    /**
+     * Mueve los valores cargados al principio del buffer.
+     */
+    private void compact() {
+        if (count < WINDOW) {
+            System.arraycopy(window, WINDOW - count, window, 0, count);
+        }
+    }
+
+    /**
+     * Suma compensada (Kahan) de window[from, to), del más antiguo al más reciente.
+     */
+    private double sum(int from, int to) {
+        double sum = 0.0;
+        double compensation = 0.0;
+        for (int i = from; i < to; i++) {
+            double term = window[i] - compensation;
+            double next = sum + term;
+            compensation = (next - sum) - term;
+            sum = next;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,271 @@
+package com.eterna.dx.rulesengine.features;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cálculo incremental de carga de entrenamiento por usuario: TRIMP diario y
+ * ratio agudo:crónico (ACWR) en sus variantes de medias móviles y EWMA.
+ *
+ * <ul>
+ *   <li>{@code trimp}: TRIMP de Banister = minutos activos (ligeros + moderados
+ *   + vigorosos) · HRr · 0.64 · e^(1.92 · HRr), con HRr = (FC media − FC reposo)
+ *   / (FC máx. del usuario − FC reposo) acotado a [0, 1].</li>
+ *   <li>{@code acwr}: carga media de 7 días / carga media de 28 días.</li>
+ *   <li>{@code acwr_ewma}: EWMA aguda (span 7) / EWMA crónica (span 28).</li>
+ * </ul>
+ * Los días sin TRIMP cuentan como carga 0. Los ratios requieren 28 días de
+ * histórico desde el primer registro del usuario.
+ *
+ * El estado por usuario ({@link State}) permite añadir días nuevos en O(1)
+ * sin recorrer el histórico; un cambio en un día ya procesado obliga a
+ * recalcular la serie desde el principio.
+ */
+final class WorkloadCalculator {
+
+    static final String TRIMP = "trimp";
+    static final String ACWR = "acwr";
+    static final String ACWR_EWMA = "acwr_ewma";
+
+    static final int ACUTE_DAYS = 7;
+    static final int CHRONIC_DAYS = 28;
+
+    private static final double ACUTE_LAMBDA = 2.0 / (ACUTE_DAYS + 1);
+    private static final double CHRONIC_LAMBDA = 2.0 / (CHRONIC_DAYS + 1);
+
+    private final int light;
+    private final int moderate;
+    private final int vigorous;
+    private final int averageHr;
+    private final int restingHr;
+    private final int maxHr;
+    private final int trimp;
+    private final int acwr;
+    private final int acwrEwma;
+
+    private WorkloadCalculator(FeatureSchema schema) {
+        this.light = schema.ordinal("minutes_light");
+        this.moderate = schema.ordinal("minutes_moderate");
+        this.vigorous = schema.ordinal("minutes_vigorous");
+        this.averageHr = schema.ordinal("heart_rate_average_bpm");
+        this.restingHr = schema.ordinal("resting_heart_rate");
+        this.maxHr = schema.ordinal("user_max_heart_rate_bpm");
+        this.trimp = schema.register(TRIMP, false);
+        this.acwr = schema.register(ACWR, false);
+        this.acwrEwma = schema.register(ACWR_EWMA, false);
+    }
+
+    /**
+     * Crea el calculador para el esquema, registrando las columnas de salida.
+     */
+    static WorkloadCalculator forSchema(FeatureSchema schema) {
+        return new WorkloadCalculator(schema);
+    }
+
+    /**
+     * Calcula las columnas de carga de {@code series[from..]}, partiendo del estado
+     * acumulado hasta el registro anterior a {@code from} (null = serie desde el principio).
+     * Los registros se modifican en sitio; un resultado nulo no sobrescribe un valor existente.
+     *
+     * @return el estado tras el último registro
+     */
+    State process(State previous, List<CombinedRecord> series, int from) {
+        State state = previous != null ? previous.copy() : new State();
+        for (int i = from; i < series.size(); i++) {
+            CombinedRecord record = series.get(i);
+            int day = (int) record.getDate().toEpochDay();
+
+            setIfFinite(record, trimp, trimp(record));
+            state.advance(day, load(record));
+
+            setIfFinite(record, acwr, state.rollingRatio());
+            setIfFinite(record, acwrEwma, state.ewmaRatio());
+        }
+        return state;
+    }
+
+    /**
+     * Estado acumulado tras {@code series[0..to)} sin modificar los registros
+     * (null si {@code to} es 0).
+     */
+    State accumulate(List<CombinedRecord> series, int to) {
+        if (to == 0) {
+            return null;
+        }
+        State state = new State();
+        for (int i = 0; i < to; i++) {
+            CombinedRecord record = series.get(i);
+            state.advance((int) record.getDate().toEpochDay(), load(record));
+        }
+        return state;
+    }
+
+    /**
+     * TRIMP de Banister del día, o NaN si faltan datos.
+     */
+    double trimp(CombinedRecord record) {
+        double minutes = sumOfPresent(record, light, moderate, vigorous);
+        double average = record.get(averageHr);
+        double resting = record.get(restingHr);
+        double max = record.get(maxHr);
+        if (Double.isNaN(minutes) || Double.isNaN(average) || Double.isNaN(resting) || Double.isNaN(max)
+                || max <= resting) {
+            return Double.NaN;
+        }
+        double reserve = Math.max(0.0, Math.min(1.0, (average - resting) / (max - resting)));
+        return minutes * reserve * 0.64 * Math.exp(1.92 * reserve);
+    }
+
+    /**
+     * Carga del día: TRIMP calculado o, si no se pudo calcular, el que traiga
+     * el registro (p. ej. del CSV procesado); 0 si no hay ninguno.
+     */
+    private double load(CombinedRecord record) {
+        double dailyTrimp = trimp(record);
+        if (Double.isNaN(dailyTrimp)) {
+            dailyTrimp = record.get(trimp);
+        }
+        return Double.isFinite(dailyTrimp) ? dailyTrimp : 0.0;
+    }
+
+    private static double sumOfPresent(CombinedRecord record, int... ordinals) {
+        double sum = 0.0;
+        boolean any = false;
+        for (int ordinal : ordinals) {
+            double value = record.get(ordinal);
+            if (!Double.isNaN(value)) {
+                sum += value;
+                any = true;
+            }
+        }
+        return any ? sum : Double.NaN;
+    }
+
+    private static void setIfFinite(CombinedRecord record, int ordinal, double value) {
+        if (Double.isFinite(value)) {
+            record.set(ordinal, value);
+        }
+    }
+
+    /**
+     * Estado acumulado de un usuario hasta su último día procesado: cargas de
+     * los últimos 28 días (buffer circular), sumas de 7 y 28 días y EWMAs.
+     */
+    static final class State {
+        /**
+         * Tamaño serializado ({@link #writeTo}).
+         */
+        static final int BYTES = CHRONIC_DAYS * Double.BYTES + 2 * Integer.BYTES + 4 * Double.BYTES;
+
+        private final double[] loads = new double[CHRONIC_DAYS];
+        private int firstDay = Integer.MIN_VALUE;
+        private int lastDay = Integer.MIN_VALUE;
+        private double sumAcute;
+        private double sumChronic;
+        private double ewmaAcute;
+        private double ewmaChronic;
+
+        /**
+         * Último día incluido en el estado.
+         */
+        int lastDay() {
+            return lastDay;
+        }
+
+        State copy() {
+            State copy = new State();
+            System.arraycopy(loads, 0, copy.loads, 0, loads.length);
+            copy.firstDay = firstDay;
+            copy.lastDay = lastDay;
+            copy.sumAcute = sumAcute;
+            copy.sumChronic = sumChronic;
+            copy.ewmaAcute = ewmaAcute;
+            copy.ewmaChronic = ewmaChronic;
+            return copy;
+        }
+
+        /**
+         * Escribe el estado en {@link #BYTES} bytes (particiones en disco).
+         */
+        void writeTo(ByteBuffer out) {
+            for (double load : loads) {
+                out.putDouble(load);
+            }
+            out.putInt(firstDay);
+            out.putInt(lastDay);
+            out.putDouble(sumAcute);
+            out.putDouble(sumChronic);
+            out.putDouble(ewmaAcute);
+            out.putDouble(ewmaChronic);
+        }
+
+        static State readFrom(ByteBuffer in) {
+            State state = new State();
+            for (int i = 0; i < CHRONIC_DAYS; i++) {
+                state.loads[i] = in.getDouble();
+            }
+            state.firstDay = in.getInt();
+            state.lastDay = in.getInt();
+            state.sumAcute = in.getDouble();
+            state.sumChronic = in.getDouble();
+            state.ewmaAcute = in.getDouble();
+            state.ewmaChronic = in.getDouble();
+            return state;
+        }
+
+        /**
+         * Avanza hasta {@code day} (los días intermedios tienen carga 0) y añade su carga.
+         */
+        void advance(int day, double load) {
+            if (firstDay == Integer.MIN_VALUE) {
+                firstDay = day;
+                lastDay = day - 1;
+            }
+
+            int gap = day - lastDay - 1;
+            if (gap >= CHRONIC_DAYS) {
+                // Toda la ventana queda a cero; las EWMA decaen de golpe
+                Arrays.fill(loads, 0.0);
+                sumAcute = 0.0;
+                sumChronic = 0.0;
+                ewmaAcute *= Math.pow(1 - ACUTE_LAMBDA, gap);
+                ewmaChronic *= Math.pow(1 - CHRONIC_LAMBDA, gap);
+                lastDay = day - 1;
+            } else {
+                for (int empty = lastDay + 1; empty < day; empty++) {
+                    push(empty, 0.0);
+                }
+            }
+            push(day, load);
+        }
+
+        private void push(int day, double load) {
+            int slot = Math.floorMod(day, CHRONIC_DAYS);
+            sumChronic += load - loads[slot];
+            sumAcute += load - loads[Math.floorMod(day - ACUTE_DAYS, CHRONIC_DAYS)];
+            loads[slot] = load;
+            ewmaAcute = ACUTE_LAMBDA * load + (1 - ACUTE_LAMBDA) * ewmaAcute;
+            ewmaChronic = CHRONIC_LAMBDA * load + (1 - CHRONIC_LAMBDA) * ewmaChronic;
+            lastDay = day;
+        }
+
+        private boolean hasChronicHistory() {
+            return lastDay - firstDay + 1 >= CHRONIC_DAYS;
+        }
+
+        double rollingRatio() {
+            if (!hasChronicHistory() || sumChronic <= 1e-9) {
+                return Double.NaN;
+            }
+            return (sumAcute / ACUTE_DAYS) / (sumChronic / CHRONIC_DAYS);
+        }
+
+        double ewmaRatio() {
+            if (!hasChronicHistory() || ewmaChronic <= 1e-9) {
+                return Double.NaN;
+            }
+            return ewmaAcute / ewmaChronic;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.eterna.dx.rulesengine.service;
+
+import com.eterna.dx.rulesengine.dsl.DSLParser;
+import com.eterna.dx.rulesengine.entity.Rule;
+import com.eterna.dx.rulesengine.entity.RuleMessage;
+import com.eterna.dx.rulesengine.features.FeatureDemand;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deriva, por tenant, las celdas de features (variable, agregador) que usan
+ * sus reglas activas: condiciones de la lógica y placeholders de los mensajes.
+ *
+ * El resultado se cachea por tenant junto con una huella del conjunto de
+ * reglas, así que solo se recalcula cuando cambian las reglas o sus mensajes.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FeatureDemandService {
+
+    private final DSLParser dslParser;
+    private final MessageService messageService;
+
+    private final Map<String, CachedDemand> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Demanda de features para el conjunto de reglas activas de un tenant.
+     */
+    public FeatureDemand forRules(String tenantId, List<Rule> rules) {
+        long fingerprint = fingerprint(rules);
+        CachedDemand cached = cache.get(tenantId);
+        if (cached != null && cached.fingerprint == fingerprint) {
+            return cached.demand;
+        }
+
+        FeatureDemand demand = FeatureDemand.of(collect(rules));
+        cache.put(tenantId, new CachedDemand(fingerprint, demand));
+        log.info("Demanda de features para tenant {}: {} celdas de {} reglas", tenantId, demand.size(), rules.size());
+        return demand;
+    }
+
+    private Map<String, Set<String>> collect(List<Rule> rules) {
+        Map<String, Set<String>> refs = new HashMap<>();
+        for (Rule rule : rules) {
+            try {
+                dslParser.parseRule(rule.getLogic()).collectFeatures(refs);
+            } catch (Exception e) {
+                // La regla fallará igualmente al evaluarse; no aporta demanda
+                log.debug("Lógica de regla {} no analizable: {}", rule.getId(), e.getMessage());
+            }
+            for (RuleMessage message : rule.getMessages()) {
+                if (Boolean.TRUE.equals(message.getActive())) {
+                    messageService.collectPlaceholderFeatures(message.getText(), refs);
+                }
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * Huella del conjunto de reglas: lógica y mensajes activos de cada una.
+     */
+    private static long fingerprint(List<Rule> rules) {
+        long hash = 17;
+        for (Rule rule : rules) {
+            hash = 31 * hash + Objects.hashCode(rule.getId());
+            hash = 31 * hash + Objects.hashCode(rule.getLogicJson());
+            for (RuleMessage message : rule.getMessages()) {
+                if (Boolean.TRUE.equals(message.getActive())) {
+                    hash = 31 * hash + Objects.hashCode(message.getText());
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static final class CachedDemand {
+        private final long fingerprint;
+        private final FeatureDemand demand;
+
+        private CachedDemand(long fingerprint, FeatureDemand demand) {
+            this.fingerprint = fingerprint;
+            this.demand = demand;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.eterna.dx.rulesengine.service;
+
+import com.eterna.dx.rulesengine.dto.response.IngestResult;
+import com.eterna.dx.rulesengine.entity.Variable;
+import com.eterna.dx.rulesengine.features.CombinedRecord;
+import com.eterna.dx.rulesengine.features.DateColumnParser;
+import com.eterna.dx.rulesengine.features.FeatureSchema;
+import com.eterna.dx.rulesengine.features.FeatureService;
+import com.eterna.dx.rulesengine.features.FeatureStore;
+import com.eterna.dx.rulesengine.features.IngestLog;
+import com.eterna.dx.rulesengine.repository.VariableRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Servicio de ingesta de mediciones por API.
+ *
+ * Valida cada registro contra el registro de variables, lo escribe en el
+ * {@link IngestLog} y lo publica en el {@link FeatureStore}, de modo que es
+ * evaluable inmediatamente. Los nombres de campo siguen el mismo mapeo que
+ * las columnas de los CSV originales (patient_id, calculation_date,
+ * low_intensity_minutes, ...), aunque también se aceptan los nombres internos.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class IngestionService {
+
+    public static final String SOURCE_DAILY = "daily";
+    public static final String SOURCE_SLEEP = "sleep";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final FeatureService featureService;
+    private final FeatureStore featureStore;
+    private final IngestLog ingestLog;
+    private final VariableRepository variableRepository;
+
+    /**
+     * Procesa un lote en JSON (objeto o array de objetos) o NDJSON.
+     * Los registros inválidos se rechazan individualmente; el resto se aplica.
+     */
+    public IngestResult ingest(String source, String body) {
+        List<Map<String, Object>> rows = parseBatch(body);
+
+        featureService.ensureLoaded();
+        FeatureSchema schema = featureStore.getSchema();
+        Map<String, Variable> variables = loadVariables();
+        DateColumnParser dateParser = new DateColumnParser();
+        sampleDates(rows, dateParser);
+
+        List<CombinedRecord> accepted = new ArrayList<>();
+        List<IngestResult.RecordError> errors = new ArrayList<>();
+
+        for (int i = 0; i < rows.size(); i++) {
+            List<String> messages = new ArrayList<>();
+            CombinedRecord record = toRecord(rows.get(i), schema, variables, dateParser, messages);
+            if (messages.isEmpty()) {
+                accepted.add(record);
+            } else {
+                errors.add(IngestResult.RecordError.builder().index(i).messages(messages).build());
+            }
+        }
+
+        Set<String> users = new TreeSet<>();
+        if (!accepted.isEmpty()) {
+            try {
+                ingestLog.append(accepted);
+            } catch (Exception e) {
+                log.error("Error escribiendo log de ingesta: {}", e.getMessage(), e);
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "No se pudo persistir el lote: " + e.getMessage());
+            }
+            users.addAll(featureStore.upsert(accepted));
+        }
+
+        log.info("Ingesta {}: {} recibidos, {} aceptados, {} rechazados",
+                source, rows.size(), accepted.size(), errors.size());
+
+        return IngestResult.builder()
+                .source(source)
+                .received(rows.size())
+                .accepted(accepted.size())
+                .rejected(errors.size())
+                .users(new ArrayList<>(users))
+                .errors(errors)
+                .build();
+    }
+
+    /**
+     * Interpreta el cuerpo como array JSON o como secuencia de objetos (NDJSON o un único objeto).
+     */
+    private List<Map<String, Object>> parseBatch(String body) {
+        if (body == null || body.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Lote vacío");
+        }
+
+        try {
+            if (body.stripLeading().startsWith("[")) {
+                return objectMapper.readValue(body, new TypeReference<List<Map<String, Object>>>() {});
+            }
+
+            List<Map<String, Object>> rows = new ArrayList<>();
+            try (MappingIterator<Map<String, Object>> it = objectMapper
+                    .readerFor(new TypeReference<Map<String, Object>>() {})
+                    .readValues(body)) {
+                while (it.hasNextValue()) {
+                    rows.add(it.nextValue());
+                }
+            }
+            return rows;
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Formato de lote inválido (se espera JSON o NDJSON): " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pasa todas las fechas del lote al parser para fijar el orden día/mes antes de convertir.
+     */
+    private static void sampleDates(List<Map<String, Object>> rows, DateColumnParser dateParser) {
+        for (Map<String, Object> row : rows) {
+            for (Map.Entry<String, Object> entry : row.entrySet()) {
+                if (entry.getValue() != null && "date".equals(FeatureService.normalizeColumnName(entry.getKey().trim()))) {
+                    dateParser.sample(entry.getValue().toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Convierte y valida un registro. Los errores se acumulan en messages.
+     */
+    private CombinedRecord toRecord(Map<String, Object> row, FeatureSchema schema, Map<String, Variable> variables,
+                                    DateColumnParser dateParser, List<String> messages) {
+        String userId = null;
+        LocalDate date = null;
+        Map<String, Double> values = new HashMap<>();
+
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            String field = FeatureService.normalizeColumnName(entry.getKey().trim());
+            Object raw = entry.getValue();
+
+            if ("user_id".equals(field)) {
+                userId = raw != null && !raw.toString().isBlank() ? raw.toString().trim() : null;
+                continue;
+            }
+            if ("date".equals(field)) {
+                date = raw != null ? dateParser.parse(raw.toString()) : null;
+                if (date == null) {
+                    messages.add("Fecha inválida: " + raw);
+                }
+                continue;
+            }
+            if (FeatureService.isExcludedColumn(field) || raw == null) {
+                continue;
+            }
+
+            Variable variable = variables.get(field);
+            if (variable == null && schema.ordinal(field) < 0) {
+                messages.add("Variable desconocida: " + entry.getKey());
+                continue;
+            }
+            if (variable != null && variable.getType() != null && !"number".equals(variable.getType())) {
+                messages.add("Variable no numérica: " + entry.getKey());
+                continue;
+            }
+
+            Double value = toDouble(raw);
+            if (value == null) {
+                messages.add("Valor no numérico para " + entry.getKey() + ": " + raw);
+                continue;
+            }
+            if (variable != null && variable.getValidMin() != null && value < variable.getValidMin()) {
+                messages.add(String.format("%s=%s por debajo del mínimo %s", entry.getKey(), raw, variable.getValidMin()));
+                continue;
+            }
+            if (variable != null && variable.getValidMax() != null && value > variable.getValidMax()) {
+                messages.add(String.format("%s=%s por encima del máximo %s", entry.getKey(), raw, variable.getValidMax()));
+                continue;
+            }
+            values.put(field, value);
+        }
+
+        if (userId == null) {
+            messages.add("Falta user_id (patient_id)");
+        }
+        if (date == null && !row.containsKey("date") && !row.containsKey("calculation_date")) {
+            messages.add("Falta date (calculation_date)");
+        }
+        if (!messages.isEmpty()) {
+            return null;
+        }
+
+        CombinedRecord record = new CombinedRecord(schema, userId, date);
+        values.forEach((field, value) -> {
+            int ordinal = schema.ordinal(field);
+            if (ordinal < 0) {
+                Variable variable = variables.get(field);
+                ordinal = schema.register(field, variable != null && Integer.valueOf(0).equals(variable.getDecimals()));
+            }
+            record.set(ordinal, value);
+        });
+        return record;
+    }
+
+    /**
+     * Variables numéricas indexadas por nombre de columna (con el mapeo de los CSV aplicado).
+     */
+    private Map<String, Variable> loadVariables() {
+        Map<String, Variable> variables = new HashMap<>();
+        for (Variable variable : variableRepository.findAll()) {
+            if (variable.getKey() != null) {
+                variables.put(FeatureService.normalizeColumnName(variable.getKey()), variable);
+            }
+        }
+        return variables;
+    }
+
+    private static Double toDouble(Object raw) {
+        if (raw instanceof Number) {
+            return ((Number) raw).doubleValue();
+        }
+        if (raw instanceof String) {
+            try {
+                return Double.parseDouble(((String) raw).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
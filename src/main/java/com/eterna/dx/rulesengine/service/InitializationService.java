@@ -93,6 +93,7 @@ public class InitializationService implements CommandLineRunner {
                                 .missingPolicy((String) varData.getOrDefault("missing_policy", "skip"))
                                 .decimals(getIntegerValue(varData, "decimals"))
                                 .category((String) varData.get("category"))
+                                .derivedExpression((String) varData.get("derived_expression"))
                                 .tenantId((String) varData.getOrDefault("tenant_id", "default"))
                                 .build();
 
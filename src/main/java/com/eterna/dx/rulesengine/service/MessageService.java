@@ -11,9 +11,11 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -177,6 +179,21 @@ public class MessageService {
         return new MessageRenderResult(result, warnings);
     }
 
+    /**
+     * Añade a refs las celdas de features (variable -> agregadores) que usan los placeholders del template.
+     */
+    public void collectPlaceholderFeatures(String template, Map<String, Set<String>> refs) {
+        if (template == null || template.isEmpty()) {
+            return;
+        }
+
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(template);
+        while (matcher.find()) {
+            String aggregator = matcher.group(2) != null ? matcher.group(2) : "current";
+            refs.computeIfAbsent(matcher.group(1), k -> new HashSet<>()).add(aggregator);
+        }
+    }
+
     /**
      * Formatea un valor según el formato especificado.
      */
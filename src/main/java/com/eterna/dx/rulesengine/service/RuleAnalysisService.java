@@ -0,0 +1,278 @@
+package com.eterna.dx.rulesengine.service;
+
+import com.eterna.dx.rulesengine.dsl.AllCondition;
+import com.eterna.dx.rulesengine.dsl.AnyCondition;
+import com.eterna.dx.rulesengine.dsl.ArithmeticExpression;
+import com.eterna.dx.rulesengine.dsl.DSLParser;
+import com.eterna.dx.rulesengine.dsl.ExpressionCondition;
+import com.eterna.dx.rulesengine.dsl.Node;
+import com.eterna.dx.rulesengine.dsl.NoneCondition;
+import com.eterna.dx.rulesengine.dsl.RuleBdd;
+import com.eterna.dx.rulesengine.dsl.RuleCompiler;
+import com.eterna.dx.rulesengine.dsl.RuleSimplifier;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Análisis estático de la lógica de un conjunto de reglas, sin evaluarlas:
+ * tamaño, features y celdas que necesitan, coste estimado, hojas compartidas
+ * con otras reglas y condiciones que no se pueden cumplir.
+ *
+ * Sirve tanto para las reglas de un tenant como para una importación
+ * propuesta, que se compara con las reglas que ya tiene el tenant.
+ *
+ * El tamaño, las hojas y las condiciones imposibles se cuentan sobre la lógica
+ * tal como está escrita ({@link DSLParser#parseNode}); el coste, la
+ * compilación, el diagrama y las celdas, sobre la regla que se evalúa
+ * ({@link DSLParser#parseRule}, simplificada).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RuleAnalysisService {
+
+    private static final int MAX_OVERLAPS = 5;
+
+    private final DSLParser dslParser;
+    private final RuleCompiler ruleCompiler;
+
+    /**
+     * Analiza un conjunto de reglas.
+     *
+     * @param rules    id de regla -> lógica (JSON) de las reglas a analizar
+     * @param existing reglas con las que se comparan pero que no se analizan
+     *                 (las del tenant en una importación; vacío para el propio tenant)
+     */
+    public Map<String, Object> analyze(Map<String, Object> rules, Map<String, Object> existing) {
+        Map<String, Node> parsed = new LinkedHashMap<>();
+        Map<String, Node> written = new HashMap<>();
+        List<Map<String, Object>> invalid = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : rules.entrySet()) {
+            if (entry.getKey() == null) {
+                Map<String, Object> error = new LinkedHashMap<>();
+                error.put("rule_id", null);
+                error.put("error", "Regla sin id");
+                invalid.add(error);
+                continue;
+            }
+            try {
+                Node node = dslParser.parseNode(entry.getValue());
+                parsed.put(entry.getKey(), dslParser.parseRule(entry.getValue()));
+                written.put(entry.getKey(), node);
+            } catch (Exception e) {
+                invalid.add(Map.of("rule_id", entry.getKey(), "error", String.valueOf(e.getMessage())));
+            }
+        }
+        Map<String, Node> others = new LinkedHashMap<>();
+        Map<String, Node> othersWritten = new HashMap<>();
+        for (Map.Entry<String, Object> entry : existing.entrySet()) {
+            if (entry.getKey() == null) {
+                continue;
+            }
+            try {
+                Node node = dslParser.parseNode(entry.getValue());
+                others.put(entry.getKey(), dslParser.parseRule(entry.getValue()));
+                othersWritten.put(entry.getKey(), node);
+            } catch (Exception e) {
+                log.debug("Lógica de regla {} no analizable: {}", entry.getKey(), e.getMessage());
+            }
+        }
+
+        // Reglas que leen cada hoja (de la lógica escrita), para medir el solapamiento
+        Map<Node, Set<String>> leafRules = new HashMap<>();
+        Map<String, Set<Node>> ruleLeaves = new HashMap<>();
+        for (Map<String, Node> set : List.of(othersWritten, written)) {
+            for (Map.Entry<String, Node> entry : set.entrySet()) {
+                Set<Node> leaves = new LinkedHashSet<>();
+                collectLeaves(entry.getValue(), leaves);
+                ruleLeaves.put(entry.getKey(), leaves);
+                for (Node leaf : leaves) {
+                    leafRules.computeIfAbsent(leaf, k -> new TreeSet<>()).add(entry.getKey());
+                }
+            }
+        }
+
+        Map<String, Node> all = new LinkedHashMap<>(others);
+        all.putAll(parsed);
+        RuleBdd diagram = RuleBdd.build(all);
+        Set<String> neverFiring = new TreeSet<>(diagram.neverFiring());
+
+        Set<String> existingCells = new TreeSet<>();
+        for (Node node : others.values()) {
+            existingCells.addAll(cells(node));
+        }
+
+        List<Map<String, Object>> reports = new ArrayList<>();
+        Set<String> features = new TreeSet<>();
+        Set<String> allCells = new TreeSet<>();
+        int nodes = 0;
+        int cost = 0;
+        int compiled = 0;
+        for (Map.Entry<String, Node> entry : parsed.entrySet()) {
+            String ruleId = entry.getKey();
+            Node node = entry.getValue();
+            Map<String, Set<String>> refs = new TreeMap<>();
+            node.collectFeatures(refs);
+            Set<String> ruleCells = cells(node);
+            features.addAll(refs.keySet());
+            allCells.addAll(ruleCells);
+            int ruleNodes = RuleSimplifier.size(written.get(ruleId));
+            int ruleCost = cost(node);
+            nodes += ruleNodes;
+            cost += ruleCost;
+            boolean compilable = ruleCompiler.isCompilable(node);
+            if (compilable) {
+                compiled++;
+            }
+
+            Map<String, Integer> overlaps = new HashMap<>();
+            int shared = 0;
+            List<Node> unsatisfiable = new ArrayList<>();
+            for (Node leaf : ruleLeaves.get(ruleId)) {
+                Set<String> readers = leafRules.get(leaf);
+                if (readers.size() > 1) {
+                    shared++;
+                    for (String other : readers) {
+                        if (!other.equals(ruleId)) {
+                            overlaps.merge(other, 1, Integer::sum);
+                        }
+                    }
+                }
+                if (RuleSimplifier.neverTrue(leaf)) {
+                    unsatisfiable.add(leaf);
+                }
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("rule_id", ruleId);
+            report.put("nodes", ruleNodes);
+            report.put("cost", ruleCost);
+            report.put("compiled", compilable);
+            report.put("features", refs.keySet());
+            report.put("aggregates", ruleCells);
+            report.put("leaves", ruleLeaves.get(ruleId).size());
+            report.put("shared_leaves", shared);
+            report.put("overlaps", topOverlaps(overlaps));
+            report.put("never_fires", diagram.contains(ruleId) ? neverFiring.contains(ruleId) : null);
+            report.put("unsatisfiable_conditions", unsatisfiable);
+            reports.add(report);
+        }
+
+        Set<String> newCells = new TreeSet<>(allCells);
+        newCells.removeAll(existingCells);
+        List<List<String>> equivalent = new ArrayList<>();
+        for (List<String> group : diagram.duplicates()) {
+            if (group.stream().anyMatch(parsed::containsKey)) {
+                equivalent.add(group);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rules", parsed.size());
+        result.put("nodes", nodes);
+        result.put("cost", cost);
+        result.put("compiled", compiled);
+        result.put("features", features);
+        result.put("aggregates", allCells.size());
+        result.put("new_aggregates", newCells);
+        result.put("never_fire", neverFiring.stream().filter(parsed::containsKey).collect(Collectors.toList()));
+        result.put("equivalent", equivalent);
+        result.put("invalid", invalid);
+        result.put("rule_reports", reports);
+        return result;
+    }
+
+    /**
+     * Coste de evaluar la regla en el peor caso (todas las condiciones
+     * alcanzadas): una unidad por comparación y por operación aritmética.
+     */
+    private static int cost(Node node) {
+        List<Node> children = children(node);
+        if (children != null) {
+            int cost = 0;
+            for (Node child : children) {
+                cost += cost(child);
+            }
+            return cost;
+        }
+        if (node instanceof ExpressionCondition && ((ExpressionCondition) node).getExpr() != null) {
+            return 1 + operations(((ExpressionCondition) node).getExpr());
+        }
+        return 1;
+    }
+
+    private static int operations(ArithmeticExpression expr) {
+        if (expr.getOp() == null || expr.getArgs() == null) {
+            return 0;
+        }
+        int count = Math.max(1, expr.getArgs().size() - 1);
+        for (ArithmeticExpression arg : expr.getArgs()) {
+            count += operations(arg);
+        }
+        return count;
+    }
+
+    private static void collectLeaves(Node node, Set<Node> leaves) {
+        List<Node> children = children(node);
+        if (children == null) {
+            if (!(node instanceof AllCondition || node instanceof AnyCondition || node instanceof NoneCondition)) {
+                leaves.add(node);
+            }
+            return;
+        }
+        for (Node child : children) {
+            collectLeaves(child, leaves);
+        }
+    }
+
+    /**
+     * Hijos de un grupo all/any/none; null para las hojas.
+     */
+    private static List<Node> children(Node node) {
+        if (node instanceof AllCondition) {
+            return ((AllCondition) node).getAll();
+        }
+        if (node instanceof AnyCondition) {
+            return ((AnyCondition) node).getAny();
+        }
+        if (node instanceof NoneCondition) {
+            return ((NoneCondition) node).getNone();
+        }
+        return null;
+    }
+
+    /**
+     * Celdas de features de una regla como {@code variable.agregador}.
+     */
+    private static Set<String> cells(Node node) {
+        Map<String, Set<String>> refs = new HashMap<>();
+        node.collectFeatures(refs);
+        Set<String> cells = new TreeSet<>();
+        refs.forEach((var, aggs) -> aggs.forEach(agg -> cells.add(var + "." + agg)));
+        return cells;
+    }
+
+    private static List<Map<String, Object>> topOverlaps(Map<String, Integer> overlaps) {
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(overlaps.entrySet());
+        sorted.sort(Map.Entry.<String, Integer>comparingByValue(Collections.reverseOrder())
+                .thenComparing(Map.Entry.comparingByKey()));
+        List<Map<String, Object>> top = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : sorted.subList(0, Math.min(MAX_OVERLAPS, sorted.size()))) {
+            top.add(Map.of("rule_id", entry.getKey(), "shared_leaves", entry.getValue()));
+        }
+        return top;
+    }
+}
@@ -0,0 +1,119 @@
+package com.eterna.dx.rulesengine.service;
+
+import com.eterna.dx.rulesengine.config.AppProperties;
+import com.eterna.dx.rulesengine.dsl.ColumnarRuleset;
+import com.eterna.dx.rulesengine.dsl.CompiledRuleset;
+import com.eterna.dx.rulesengine.dsl.DSLParser;
+import com.eterna.dx.rulesengine.dsl.Node;
+import com.eterna.dx.rulesengine.dsl.RuleBdd;
+import com.eterna.dx.rulesengine.dsl.RuleCompiler;
+import com.eterna.dx.rulesengine.entity.Rule;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reglas activas de cada tenant compiladas con {@link RuleCompiler} (evaluación
+ * por usuario) o preparadas como {@link ColumnarRuleset} (lotes de usuarios).
+ *
+ * Se cachean por tenant junto con el id y la lógica (JSON) de cada regla, que
+ * se comparan enteros, así que solo se recompilan cuando cambian.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RuleCompilationService {
+
+    private final DSLParser dslParser;
+    private final RuleCompiler ruleCompiler;
+    private final AppProperties appProperties;
+
+    private final Map<String, Cached<CompiledRuleset>> cache = new ConcurrentHashMap<>();
+    private final Map<String, Cached<ColumnarRuleset>> columnarCache = new ConcurrentHashMap<>();
+
+    /**
+     * Conjunto compilado para las reglas activas de un tenant.
+     */
+    public CompiledRuleset forRules(String tenantId, List<Rule> rules) {
+        List<String> logic = logicKey(rules);
+        Cached<CompiledRuleset> cached = cache.get(tenantId);
+        if (cached != null && cached.logic.equals(logic)) {
+            return cached.ruleset;
+        }
+
+        CompiledRuleset ruleset = ruleCompiler.compile(parse(rules), appProperties.isCompiledRulesAdaptive(),
+                appProperties.isCompiledRulesDiagram());
+        cache.put(tenantId, new Cached<>(logic, ruleset));
+        log.info("Reglas compiladas para tenant {}: {} de {} ({} slots de features)",
+                tenantId, ruleset.size(), rules.size(), ruleset.slotCount());
+        RuleBdd diagram = ruleset.getDiagram();
+        if (diagram != null) {
+            log.info("Diagrama de decisión para tenant {}: {} reglas, {} predicados, {} nodos",
+                    tenantId, diagram.ruleIds().size(), diagram.predicateCount(), diagram.nodeCount());
+            for (String ruleId : diagram.neverFiring()) {
+                log.warn("Regla {} del tenant {} no se dispara con ningún valor de sus features", ruleId, tenantId);
+            }
+            for (List<String> group : diagram.duplicates()) {
+                log.warn("Reglas equivalentes en el tenant {}: {}", tenantId, group);
+            }
+        }
+        return ruleset;
+    }
+
+    /**
+     * Conjunto por columnas para evaluar las reglas activas de un tenant sobre lotes de usuarios.
+     */
+    public ColumnarRuleset columnarForRules(String tenantId, List<Rule> rules) {
+        List<String> logic = logicKey(rules);
+        Cached<ColumnarRuleset> cached = columnarCache.get(tenantId);
+        if (cached != null && cached.logic.equals(logic)) {
+            return cached.ruleset;
+        }
+
+        ColumnarRuleset ruleset = ColumnarRuleset.compile(parse(rules));
+        columnarCache.put(tenantId, new Cached<>(logic, ruleset));
+        log.info("Reglas por columnas para tenant {}: {} de {}", tenantId, ruleset.size(), rules.size());
+        return ruleset;
+    }
+
+    private Map<String, Node> parse(List<Rule> rules) {
+        Map<String, Node> logic = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            try {
+                logic.put(rule.getId(), dslParser.parseRule(rule.getLogic()));
+            } catch (Exception e) {
+                // Se evalúa con el intérprete, que registra el error
+                log.debug("Lógica de regla {} no analizable: {}", rule.getId(), e.getMessage());
+            }
+        }
+        return logic;
+    }
+
+    /**
+     * Id y lógica (JSON) de cada regla, en orden: clave de la caché.
+     */
+    private static List<String> logicKey(List<Rule> rules) {
+        List<String> key = new ArrayList<>(rules.size() * 2);
+        for (Rule rule : rules) {
+            key.add(rule.getId());
+            key.add(rule.getLogicJson());
+        }
+        return key;
+    }
+
+    private static final class Cached<T> {
+        private final List<String> logic;
+        private final T ruleset;
+
+        private Cached(List<String> logic, T ruleset) {
+            this.logic = logic;
+            this.ruleset = ruleset;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.eterna.dx.rulesengine.service;
 
 import com.eterna.dx.rulesengine.config.AppProperties;
+import com.eterna.dx.rulesengine.dsl.ColumnarRuleset;
+import com.eterna.dx.rulesengine.dsl.CompiledRule;
+import com.eterna.dx.rulesengine.dsl.CompiledRuleset;
 import com.eterna.dx.rulesengine.dsl.DSLParser;
 import com.eterna.dx.rulesengine.dsl.Node;
 import com.eterna.dx.rulesengine.dto.response.RecommendationEvent;
@@ -9,17 +12,25 @@ import com.eterna.dx.rulesengine.dto.response.SimulationResult;
 import com.eterna.dx.rulesengine.entity.Audit;
 import com.eterna.dx.rulesengine.entity.Rule;
 import com.eterna.dx.rulesengine.entity.RuleMessage;
-import com.eterna.dx.rulesengine.features.CombinedRecord;
+import com.eterna.dx.rulesengine.features.FeatureCache;
+import com.eterna.dx.rulesengine.features.FeatureDemand;
+import com.eterna.dx.rulesengine.features.FeatureMaterializer;
 import com.eterna.dx.rulesengine.features.FeatureService;
 import com.eterna.dx.rulesengine.repository.AuditRepository;
 import com.eterna.dx.rulesengine.repository.RuleRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -32,18 +43,85 @@ import java.util.stream.Collectors;
 public class RulesEngineService {
 
     private final FeatureService featureService;
+    private final FeatureMaterializer featureMaterializer;
+    private final FeatureCache featureCache;
     private final MessageService messageService;
+    private final FeatureDemandService featureDemandService;
+    private final RuleCompilationService ruleCompilationService;
     private final DSLParser dslParser;
     private final RuleRepository ruleRepository;
     private final AuditRepository auditRepository;
     private final AppProperties appProperties;
 
+    // Evaluaciones en curso por (usuario, fecha, tenant, debug)
+    private final Map<EvaluationKey, CompletableFuture<SimulationResult>> inFlight = new ConcurrentHashMap<>();
+
     /**
      * Evalúa todas las reglas para un usuario en una fecha específica.
      * Equivalente a evaluate_user() en Python.
+     *
+     * Las llamadas concurrentes con el mismo (usuario, fecha, tenant, debug)
+     * comparten una única evaluación: solo la primera calcula features, evalúa
+     * reglas y escribe auditorías; el resto espera su resultado. La evaluación
+     * sigue compartida hasta que su transacción termina, para que una llamada
+     * posterior no la repita sin ver sus auditorías.
      */
     @Transactional
     public SimulationResult evaluateUser(String userId, LocalDate targetDate, String tenantId, boolean debug) {
+        EvaluationKey key = new EvaluationKey(userId, targetDate, tenantId, debug);
+        CompletableFuture<SimulationResult> future = new CompletableFuture<>();
+        CompletableFuture<SimulationResult> existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null) {
+            log.info("Evaluación de usuario {} en fecha {} (tenant: {}) ya en curso, se reutiliza su resultado",
+                    userId, targetDate, tenantId);
+            try {
+                return forCaller(existing.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        try {
+            SimulationResult result = evaluateUserOnce(userId, targetDate, tenantId, debug);
+            future.complete(result);
+            return forCaller(result);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            releaseAfterCompletion(key, future);
+        }
+    }
+
+    /**
+     * Quita la evaluación de las compartidas al terminar la transacción
+     * (commit o rollback) o, si no hay transacción, inmediatamente.
+     */
+    private void releaseAfterCompletion(EvaluationKey key, CompletableFuture<SimulationResult> future) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            inFlight.remove(key, future);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                inFlight.remove(key, future);
+            }
+        });
+    }
+
+    /**
+     * Copia del resultado compartido para un llamante.
+     */
+    private static SimulationResult forCaller(SimulationResult result) {
+        return SimulationResult.builder()
+                .events(new ArrayList<>(result.getEvents()))
+                .debug(result.getDebug())
+                .build();
+    }
+
+    private SimulationResult evaluateUserOnce(String userId, LocalDate targetDate, String tenantId, boolean debug) {
         log.info("Evaluando reglas para usuario {} en fecha {} (tenant: {}, debug: {})", 
                 userId, targetDate, tenantId, debug);
 
@@ -51,8 +129,13 @@ public class RulesEngineService {
         List<RuleDebugInfo> debugInfo = new ArrayList<>();
 
         try {
-            // 1. Generar features
-            Map<String, Map<String, Object>> features = buildUserFeatures(userId, targetDate);
+            // 1. Obtener reglas activas
+            List<Rule> activeRules = ruleRepository.findByTenantIdAndEnabledOrderByPriorityDescSeverityDesc(tenantId, true);
+            log.debug("Encontradas {} reglas activas para tenant {}", activeRules.size(), tenantId);
+
+            // 2. Generar solo las features que usan las reglas del tenant
+            FeatureDemand demand = featureDemandService.forRules(tenantId, activeRules);
+            Map<String, Map<String, Object>> features = buildUserFeatures(userId, targetDate, demand);
             
             if (features.isEmpty()) {
                 log.warn("No hay datos para usuario {} hasta fecha {}", userId, targetDate);
@@ -62,14 +145,19 @@ public class RulesEngineService {
                         .build();
             }
 
-            // 2. Obtener reglas activas
-            List<Rule> activeRules = ruleRepository.findByTenantIdAndEnabledOrderByPriorityDescSeverityDesc(tenantId, true);
-            log.debug("Encontradas {} reglas activas para tenant {}", activeRules.size(), tenantId);
+            // Con reglas compiladas las features se resuelven a slots una vez por evaluación
+            CompiledRuleset compiled = null;
+            CompiledRuleset.Bound slots = null;
+            if (appProperties.isCompiledRulesEnabled()) {
+                compiled = ruleCompilationService.forRules(tenantId, activeRules);
+                slots = compiled.bind(features);
+            }
 
             // 3. Evaluar cada regla
             for (Rule rule : activeRules) {
                 try {
-                    RecommendationEvent event = evaluateRule(rule, features, userId, targetDate, tenantId);
+                    Integer outcome = slots != null ? compiled.evaluate(rule.getId(), slots) : null;
+                    RecommendationEvent event = evaluateRule(rule, features, outcome, debug, userId, targetDate, tenantId);
                     
                     // Crear información de debug
                     if (debug) {
@@ -130,11 +218,18 @@ public class RulesEngineService {
 
     /**
      * Construye las features para un usuario.
+     * Se sirven de la caché o, si no, de la tabla materializada cuando hay una fila vigente.
      */
-    private Map<String, Map<String, Object>> buildUserFeatures(String userId, LocalDate targetDate) {
+    private Map<String, Map<String, Object>> buildUserFeatures(String userId, LocalDate targetDate,
+                                                               FeatureDemand demand) {
         try {
-            List<CombinedRecord> allRecords = featureService.loadBaseDataframe();
-            return featureService.buildFeatures(allRecords, targetDate, userId);
+            return featureCache.getOrCompute(userId, targetDate, demand, () -> {
+                Map<String, Map<String, Object>> materialized = featureMaterializer.lookup(userId, targetDate, demand);
+                if (materialized != null) {
+                    return materialized;
+                }
+                return featureService.buildFeatures(userId, targetDate, demand);
+            });
         } catch (Exception e) {
             log.error("Error construyendo features para usuario {}: {}", userId, e.getMessage());
             return Map.of();
@@ -143,8 +238,15 @@ public class RulesEngineService {
 
     /**
      * Evalúa una regla específica contra las features.
+     *
+     * @param compiledOutcome resultado de la regla compilada, o null si no se ha
+     *                        compilado. Si es falso no se recorre el árbol (la
+     *                        auditoría queda sin traza) salvo en modo debug o con
+     *                        {@code compiledRulesAuditTrace}; en otro caso el
+     *                        intérprete construye la traza y el resultado.
      */
-    private RecommendationEvent evaluateRule(Rule rule, Map<String, Map<String, Object>> features, 
+    private RecommendationEvent evaluateRule(Rule rule, Map<String, Map<String, Object>> features,
+                                           Integer compiledOutcome, boolean debug,
                                            String userId, LocalDate targetDate, String tenantId) {
         List<Map<String, Object>> whyTrace = new ArrayList<>();
         boolean fired = false;
@@ -153,8 +255,11 @@ public class RulesEngineService {
 
         try {
             // 1. Parsear y evaluar la lógica de la regla
-            Node ruleNode = dslParser.parseNode(rule.getLogic());
-            fired = ruleNode.eval(features, whyTrace);
+            boolean compiledFalse = compiledOutcome != null && compiledOutcome == CompiledRule.FALSE;
+            if (!compiledFalse || debug || appProperties.isCompiledRulesAuditTrace()) {
+                Node ruleNode = dslParser.parseRule(rule.getLogic());
+                fired = ruleNode.eval(features, whyTrace);
+            }
 
             log.debug("Regla {} evaluada: fired={}", rule.getId(), fired);
 
@@ -324,11 +429,111 @@ public class RulesEngineService {
         return filtered;
     }
 
+    /**
+     * Evalúa las reglas activas de un tenant para muchos usuarios en una fecha
+     * (ejecuciones nocturnas). Las features de todos los usuarios se disponen
+     * por columnas y cada regla se evalúa para el lote entero
+     * ({@link ColumnarRuleset}); las reglas o usuarios no soportados se evalúan
+     * con el intérprete. No selecciona mensajes, ni aplica cooldowns, ni
+     * escribe auditorías: informa de qué reglas se disparan y para quién.
+     *
+     * @param userIds usuarios a evaluar, o null para todos los del almacén
+     */
+    public Map<String, Object> evaluateBatch(String tenantId, LocalDate targetDate, Collection<String> userIds) {
+        long startTime = System.currentTimeMillis();
+        List<Rule> activeRules = ruleRepository.findByTenantIdAndEnabledOrderByPriorityDescSeverityDesc(tenantId, true);
+        FeatureDemand demand = featureDemandService.forRules(tenantId, activeRules);
+
+        List<String> candidates = new ArrayList<>(userIds != null ? userIds : featureService.getUserIds());
+        Collections.sort(candidates);
+        List<Map<String, Map<String, Object>>> candidateFeatures = candidates.parallelStream()
+                .map(userId -> buildUserFeatures(userId, targetDate, demand))
+                .collect(Collectors.toList());
+
+        // Sin datos hasta la fecha no se evalúa (como en evaluateUser)
+        List<String> users = new ArrayList<>();
+        List<Map<String, Map<String, Object>>> features = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (!candidateFeatures.get(i).isEmpty()) {
+                users.add(candidates.get(i));
+                features.add(candidateFeatures.get(i));
+            }
+        }
+
+        ColumnarRuleset columnar = ruleCompilationService.columnarForRules(tenantId, activeRules);
+        ColumnarRuleset.Batch batch = columnar.bind(features);
+
+        List<Map<String, Object>> ruleResults = new ArrayList<>();
+        long interpreted = 0;
+        for (Rule rule : activeRules) {
+            int[] outcomes = columnar.evaluate(rule.getId(), batch);
+            Node ruleNode = null;
+            List<String> fired = new ArrayList<>();
+            int errors = 0;
+            for (int i = 0; i < users.size(); i++) {
+                int outcome = outcomes != null ? outcomes[i] : ColumnarRuleset.INTERPRETED;
+                if (outcome == ColumnarRuleset.INTERPRETED) {
+                    interpreted++;
+                    try {
+                        if (ruleNode == null) {
+                            ruleNode = dslParser.parseRule(rule.getLogic());
+                        }
+                        outcome = ruleNode.eval(features.get(i), new ArrayList<>()) ? CompiledRule.TRUE : CompiledRule.FALSE;
+                    } catch (Exception e) {
+                        outcome = CompiledRule.ERROR;
+                    }
+                }
+                if (outcome == CompiledRule.TRUE) {
+                    fired.add(users.get(i));
+                } else if (outcome == CompiledRule.ERROR) {
+                    errors++;
+                }
+            }
+
+            Map<String, Object> ruleResult = new LinkedHashMap<>();
+            ruleResult.put("rule_id", rule.getId());
+            ruleResult.put("fired", fired.size());
+            ruleResult.put("errors", errors);
+            ruleResult.put("users", fired);
+            ruleResults.add(ruleResult);
+        }
+
+        long millis = System.currentTimeMillis() - startTime;
+        log.info("Evaluación por lotes de tenant {} en fecha {}: {} reglas x {} usuarios en {} ms ({} evaluaciones con el intérprete)",
+                tenantId, targetDate, activeRules.size(), users.size(), millis, interpreted);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("tenant_id", tenantId);
+        summary.put("date", targetDate.toString());
+        summary.put("users", users.size());
+        summary.put("users_without_data", candidates.size() - users.size());
+        summary.put("rules", ruleResults);
+        summary.put("interpreted_evaluations", interpreted);
+        summary.put("millis", millis);
+        return summary;
+    }
+
     /**
      * Obtiene features calculadas para un usuario (endpoint de debug).
+     * Sin tenant devuelve el conjunto completo; con tenant, solo lo que usan sus reglas.
      */
-    public Map<String, Map<String, Object>> getFeatures(String userId, LocalDate date) {
-        return buildUserFeatures(userId, date);
+    public Map<String, Map<String, Object>> getFeatures(String userId, LocalDate date, String tenantId) {
+        FeatureDemand demand = FeatureDemand.ALL;
+        if (tenantId != null) {
+            List<Rule> activeRules = ruleRepository.findByTenantIdAndEnabledOrderByPriorityDescSeverityDesc(tenantId, true);
+            demand = featureDemandService.forRules(tenantId, activeRules);
+        }
+        return buildUserFeatures(userId, date, demand);
     }
-}
 
+    /**
+     * Clave de coalescencia de evaluaciones.
+     */
+    @Value
+    private static class EvaluationKey {
+        String userId;
+        LocalDate date;
+        String tenantId;
+        boolean debug;
+    }
+}
@@ -0,0 +1,44 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.features;
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.node;
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.outcome;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnarRulesetTest {
+
+    @Test
+    void batchMatchesInterpreter() {
+        Random random = new Random(4);
+        Map<String, Node> rules = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++) {
+            rules.put("r" + i, node(random, 0));
+        }
+        List<Map<String, Map<String, Object>>> users = new ArrayList<>();
+        for (int user = 0; user < 300; user++) {
+            users.add(features(random));
+        }
+        ColumnarRuleset ruleset = ColumnarRuleset.compile(rules);
+        assertTrue(ruleset.size() > 0);
+        ColumnarRuleset.Batch batch = ruleset.bind(users);
+
+        for (Map.Entry<String, Node> entry : rules.entrySet()) {
+            int[] outcomes = ruleset.evaluate(entry.getKey(), batch);
+            if (outcomes == null) {
+                continue;
+            }
+            for (int user = 0; user < users.size(); user++) {
+                assertEquals(outcome(entry.getValue(), users.get(user)), outcomes[user], entry.getKey() + " con " + users.get(user));
+            }
+        }
+    }
+}
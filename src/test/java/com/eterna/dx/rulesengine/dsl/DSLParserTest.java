@@ -0,0 +1,83 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import com.eterna.dx.rulesengine.config.AppProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DSLParserTest {
+
+    private final DSLParser parser = new DSLParser(new AppProperties());
+
+    @Test
+    void forDaysIsStreak() {
+        Node node = parser.parseNode(Map.of("var", "steps", "op", "<", "value", 5000, "for_days", 3));
+
+        TemporalCondition condition = (TemporalCondition) node;
+        assertEquals(3, condition.getDays());
+        assertNull(condition.getWindow());
+        assertFalse(condition.isDelta());
+        assertEquals("streak_lt_5000_3d", condition.aggregator());
+        assertEquals(Map.of("steps", Set.of("streak_lt_5000_3d")), refs(node));
+    }
+
+    @Test
+    void ofLastIsCountWithDelta() {
+        Node node = parser.parseNode(Map.of("var", "hrv", "op", "<", "value", 0, "delta", true,
+                "days", 4, "of_last", 7, "required", true));
+
+        TemporalCondition condition = (TemporalCondition) node;
+        assertEquals(4, condition.getDays());
+        assertEquals(7, (int) condition.getWindow());
+        assertEquals("count_delta_lt_0_7d", condition.aggregator());
+        assertEquals(NumericCondition.builder().var("hrv").agg("count_delta_lt_0_7d").op(">=").value(4.0)
+                .required(true).build(), condition.lowered());
+    }
+
+    @Test
+    void temporalConditionReadsAggregatorCell() {
+        Node node = parser.parseNode(Map.of("var", "steps", "op", ">=", "value", 2.5, "days", 2, "of_last", 5));
+        Map<String, Map<String, Object>> features = Map.of("steps", Map.of("count_ge_2.5_5d", 2.0));
+
+        assertTrue(node.eval(features, new ArrayList<>()));
+        assertFalse(node.eval(Map.of("steps", Map.of("count_ge_2.5_5d", 1.0)), new ArrayList<>()));
+    }
+
+    @Test
+    void invalidTemporalConditionsAreRejected() {
+        List<Map<String, Object>> invalid = List.of(
+                temporal("for_days", 0),
+                temporal("for_days", 1000),
+                temporal("for_days", "3"),
+                Map.of("var", "steps", "op", "<", "value", 5000, "days", 8, "of_last", 7),
+                Map.of("var", "steps", "op", "<", "value", 5000, "of_last", 7),
+                Map.of("var", "steps", "op", "in", "value", 5000, "for_days", 3),
+                Map.of("var", "steps", "op", "<", "value", "abc", "for_days", 3));
+
+        for (Map<String, Object> json : invalid) {
+            assertThrows(IllegalArgumentException.class, () -> parser.parseNode(json));
+        }
+    }
+
+    private static Map<String, Object> temporal(String key, Object days) {
+        Map<String, Object> json = new HashMap<>(Map.of("var", "steps", "op", "<", "value", 5000));
+        json.put(key, days);
+        return json;
+    }
+
+    private static Map<String, Set<String>> refs(Node node) {
+        Map<String, Set<String>> refs = new HashMap<>();
+        node.collectFeatures(refs);
+        return refs;
+    }
+}
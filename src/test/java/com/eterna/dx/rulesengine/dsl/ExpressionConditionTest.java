@@ -0,0 +1,141 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import com.eterna.dx.rulesengine.config.AppProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpressionConditionTest {
+
+    private static final ArithmeticExpression RATIO = ArithmeticExpression.apply("/", List.of(
+            ArithmeticExpression.ref("hrv", "current"), ArithmeticExpression.ref("resting_hr", "mean_7d")));
+
+    @Test
+    void comparesExpressionWithThreshold() {
+        Node condition = ExpressionCondition.builder().expr(RATIO).op("<").value(0.8).build();
+        List<Map<String, Object>> trace = new ArrayList<>();
+
+        assertTrue(condition.eval(features(30.0, 60.0), trace));
+        assertEquals(0.5, trace.get(0).get("observed"));
+        assertFalse(condition.eval(features(60.0, 60.0), new ArrayList<>()));
+    }
+
+    @Test
+    void missingOperandIsFalseWithNullInTrace() {
+        for (boolean required : new boolean[]{false, true}) {
+            Node condition = ExpressionCondition.builder().expr(RATIO).op("<").value(0.8).required(required).build();
+            List<Map<String, Object>> trace = new ArrayList<>();
+
+            assertFalse(condition.eval(features(30.0, null), trace));
+            assertEquals(1, trace.size());
+            assertTrue(trace.get(0).containsKey("observed"));
+            assertNull(trace.get(0).get("observed"));
+            assertEquals(required, trace.get(0).get("required"));
+        }
+    }
+
+    @Test
+    void nanOperandIsPresentButNeverFires() {
+        Node condition = ExpressionCondition.builder().expr(RATIO).op("<").value(0.8).build();
+        List<Map<String, Object>> trace = new ArrayList<>();
+
+        assertFalse(condition.eval(features(Double.NaN, 60.0), trace));
+        assertEquals(Double.NaN, trace.get(0).get("observed"));
+        assertTrue(ArithmeticExpression.isMissing(RATIO.eval(features(30.0, null))));
+        assertFalse(ArithmeticExpression.isMissing(RATIO.eval(features(Double.NaN, 60.0))));
+        assertFalse(ArithmeticExpression.isMissing(RATIO.eval(features(0.0, 0.0))));
+    }
+
+    @Test
+    void arityIsCheckedWhenParsing() {
+        DSLParser parser = new DSLParser(new AppProperties());
+        for (Object expr : List.of(Map.of("/", List.of(1, 2, Map.of("var", "hrv"))), Map.of("abs", List.of()),
+                Map.of("pow", List.of(Map.of("var", "hrv"), 2)))) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> parser.parseNode(Map.of("expr", expr, "op", "<", "value", 1)));
+        }
+        ExpressionCondition parsed = (ExpressionCondition) parser.parseNode(Map.of(
+                "expr", Map.of("-", Map.of("var", "hrv")), "op", "<", "value", 0));
+        assertTrue(parsed.eval(features(30.0, 60.0), new ArrayList<>()));
+
+        // Una expresión construida sin parsear se comprueba al evaluarla
+        ArithmeticExpression malformed = ArithmeticExpression.apply("/", List.of(ArithmeticExpression.constant(1)));
+        assertThrows(IllegalArgumentException.class, () -> malformed.eval(features(30.0, 60.0)));
+    }
+
+    @Test
+    void missingOperatorOrThresholdIsFalse() {
+        Node noOperator = ExpressionCondition.builder().expr(RATIO).value(0.8).build();
+        Node noThreshold = ExpressionCondition.builder().expr(RATIO).op("<").build();
+        List<Map<String, Object>> trace = new ArrayList<>();
+
+        assertFalse(noOperator.eval(features(30.0, 60.0), trace));
+        assertFalse(noThreshold.eval(features(30.0, 60.0), trace));
+        assertEquals(2, trace.size());
+        assertNull(trace.get(0).get("op"));
+        assertNull(trace.get(1).get("threshold"));
+    }
+
+    @Test
+    void compiledRuleMatchesMissingOperand() {
+        Node condition = ExpressionCondition.builder().expr(RATIO).op("<").value(0.8).build();
+        CompiledRuleset compiled = new RuleCompiler().compile(Map.of("ratio", condition));
+        Map<String, Map<String, Object>> features = features(30.0, null);
+
+        assertEquals(CompiledRule.FALSE, (int) compiled.evaluate("ratio", compiled.bind(features)));
+        assertEquals(CompiledRule.TRUE, (int) compiled.evaluate("ratio", compiled.bind(features(30.0, 60.0))));
+    }
+
+    @Test
+    void randomExpressionsMatchAcrossEvaluators() {
+        Random random = new Random(6);
+        Map<String, Node> rules = new LinkedHashMap<>();
+        for (int i = 0; i < 300; i++) {
+            rules.put("e" + i, ExpressionCondition.builder().expr(RuleFixtures.expression(random, 0))
+                    .op(RuleFixtures.pick(random, RuleFixtures.OPS)).value(RuleFixtures.threshold(random)).build());
+        }
+        CompiledRuleset compiled = new RuleCompiler().compile(rules);
+        ColumnarRuleset columnar = ColumnarRuleset.compile(rules);
+        List<Map<String, Map<String, Object>>> users = new ArrayList<>();
+        for (int user = 0; user < 200; user++) {
+            users.add(RuleFixtures.features(random));
+        }
+        ColumnarRuleset.Batch batch = columnar.bind(users);
+
+        for (Map.Entry<String, Node> entry : rules.entrySet()) {
+            int[] outcomes = columnar.evaluate(entry.getKey(), batch);
+            for (int user = 0; user < users.size(); user++) {
+                int expected = RuleFixtures.outcome(entry.getValue(), users.get(user));
+                Integer result = compiled.evaluate(entry.getKey(), compiled.bind(users.get(user)));
+                if (result != null) {
+                    assertEquals(expected, (int) result, entry.getKey() + " con " + users.get(user));
+                }
+                if (outcomes != null) {
+                    assertEquals(expected, outcomes[user], entry.getKey() + " con " + users.get(user));
+                }
+            }
+        }
+    }
+
+    private static Map<String, Map<String, Object>> features(Double hrv, Double restingMean) {
+        Map<String, Map<String, Object>> features = new HashMap<>();
+        Map<String, Object> hrvValues = new HashMap<>();
+        hrvValues.put("current", hrv);
+        features.put("hrv", hrvValues);
+        Map<String, Object> resting = new HashMap<>();
+        resting.put("mean_7d", restingMean);
+        features.put("resting_hr", resting);
+        return features;
+    }
+}
@@ -0,0 +1,70 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.all;
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.numeric;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RuleBddTest {
+
+    @Test
+    void contradictoryComparisonsNeverFire() {
+        Map<String, Node> rules = new LinkedHashMap<>();
+        rules.put("contradiction", all(numeric("steps", ">", 10), numeric("steps", "<", 5)));
+        rules.put("between", all(numeric("steps", "between", List.of(1, 3)), numeric("steps", ">", 3)));
+        rules.put("satisfiable", all(numeric("steps", ">", 10), numeric("steps", "<", 50)));
+
+        RuleBdd diagram = RuleBdd.build(rules);
+
+        assertEquals(List.of("contradiction", "between"), diagram.neverFiring());
+    }
+
+    @Test
+    void reorderedConjunctionsAreEquivalent() {
+        Map<String, Node> rules = new LinkedHashMap<>();
+        rules.put("ab", all(numeric("steps", ">", 10), numeric("hrv", "<", 5)));
+        rules.put("ba", all(numeric("hrv", "<", 5), numeric("steps", ">", 10)));
+        rules.put("other", all(numeric("steps", ">", 10), numeric("hrv", "<", 6)));
+
+        RuleBdd diagram = RuleBdd.build(rules);
+
+        assertEquals(List.of(List.of("ab", "ba")), diagram.duplicates());
+        assertTrue(diagram.neverFiring().isEmpty());
+    }
+
+    @Test
+    void sharedPredicatesAreCountedOnce() {
+        Map<String, Node> rules = new LinkedHashMap<>();
+        rules.put("a", all(numeric("steps", ">", 10), numeric("hrv", "<", 5)));
+        rules.put("b", AnyCondition.builder().any(List.of(numeric("steps", ">", 10), numeric("sleep", ">=", 420))).build());
+
+        RuleBdd diagram = RuleBdd.build(rules);
+
+        assertEquals(3, diagram.predicateCount());
+        assertEquals(List.of("a", "b"), diagram.ruleIds());
+    }
+
+    @Test
+    void unsupportedRulesAreLeftOut() {
+        Map<String, Node> rules = new LinkedHashMap<>();
+        rules.put("in", numeric("steps", "in", List.of(1, 2)));
+        rules.put("expression", ExpressionCondition.builder()
+                .expr(ArithmeticExpression.apply("/", List.of(ArithmeticExpression.ref("hrv", "current"),
+                        ArithmeticExpression.ref("rhr", "current"))))
+                .op("<").value(0.8).build());
+        rules.put("numeric", numeric("steps", ">", 10));
+
+        RuleBdd diagram = RuleBdd.build(rules);
+
+        assertFalse(diagram.contains("in"));
+        assertFalse(diagram.contains("expression"));
+        assertTrue(diagram.contains("numeric"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.features;
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.node;
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.outcome;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compara las reglas compiladas con el intérprete sobre reglas y features aleatorias.
+ */
+class RuleCompilerTest {
+
+    @Test
+    void compiledMatchesInterpreter() {
+        assertMatches(false, false, 1L);
+    }
+
+    @Test
+    void adaptiveMatchesInterpreter() {
+        assertMatches(true, false, 2L);
+    }
+
+    @Test
+    void diagramMatchesInterpreter() {
+        assertMatches(false, true, 3L);
+    }
+
+    @Test
+    void unsupportedOperatorFallsBackToInterpreter() {
+        Node rule = NumericCondition.builder().var("steps").op("in").value(List.of(1, 2)).build();
+        CompiledRuleset compiled = new RuleCompiler().compile(Map.of("in", rule));
+
+        assertFalse(compiled.contains("in"));
+    }
+
+    @Test
+    void isCompilableAgreesWithCompile() {
+        Random random = new Random(4);
+        Map<String, Node> rules = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++) {
+            rules.put("r" + i, node(random, 0));
+        }
+        rules.put("in", NumericCondition.builder().var("steps").op("in").value(List.of(1, 2)).build());
+        RuleCompiler compiler = new RuleCompiler();
+        CompiledRuleset compiled = compiler.compile(rules);
+
+        for (Map.Entry<String, Node> entry : rules.entrySet()) {
+            assertEquals(compiled.contains(entry.getKey()), compiler.isCompilable(entry.getValue()), entry.getKey());
+        }
+    }
+
+    private static void assertMatches(boolean adaptive, boolean diagram, long seed) {
+        Random random = new Random(seed);
+        Map<String, Node> rules = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++) {
+            rules.put("r" + i, node(random, 0));
+        }
+        CompiledRuleset compiled = new RuleCompiler().compile(rules, adaptive, diagram);
+        assertTrue(compiled.size() > 0);
+
+        int compared = 0;
+        for (int sample = 0; sample < 2000; sample++) {
+            Map<String, Map<String, Object>> features = features(random);
+            CompiledRuleset.Bound slots = compiled.bind(features);
+            for (Map.Entry<String, Node> entry : rules.entrySet()) {
+                Integer result = compiled.evaluate(entry.getKey(), slots);
+                if (result == null) {
+                    continue;
+                }
+                assertEquals(outcome(entry.getValue(), features), (int) result, entry.getKey() + " con " + features);
+                compared++;
+            }
+        }
+        assertTrue(compared > 0);
+    }
+}
@@ -0,0 +1,144 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Reglas y features aleatorias, y constructores abreviados, compartidos por los
+ * tests que comparan otras formas de evaluar con el intérprete.
+ */
+final class RuleFixtures {
+
+    static final String[] VARS = {"steps", "hrv", "sleep", "rhr"};
+    static final String[] AGGS = {"current", "mean_7d", "min_7d"};
+    static final String[] OPS = {"<", "<=", ">", ">=", "==", "between", null};
+    static final String[] ARITHMETIC = {"+", "-", "*", "/", "abs", "min", "max"};
+
+    private RuleFixtures() {
+    }
+
+    /**
+     * Regla aleatoria con grupos anidados y condiciones numéricas, relativas y de expresión.
+     */
+    static Node node(Random random, int depth) {
+        int kind = depth > 3 ? 3 + random.nextInt(3) : random.nextInt(6);
+        switch (kind) {
+            case 0:
+                return AllCondition.builder().all(children(random, depth, 4)).build();
+            case 1:
+                return AnyCondition.builder().any(children(random, depth, 4)).build();
+            case 2:
+                return NoneCondition.builder().none(children(random, depth, 3)).build();
+            case 3:
+                return NumericCondition.builder().var(pick(random, VARS)).agg(pick(random, AGGS))
+                        .op(pick(random, OPS)).value(threshold(random)).build();
+            case 4:
+                return RelativeCondition.builder()
+                        .left(RelativeCondition.VarRef.builder().var(pick(random, VARS)).agg(pick(random, AGGS))
+                                .scale(random.nextBoolean() ? null : 0.5 * random.nextInt(4)).build())
+                        .op(pick(random, OPS))
+                        .right(RelativeCondition.VarRef.builder().var(pick(random, VARS)).agg(pick(random, AGGS)).build())
+                        .build();
+            default:
+                return ExpressionCondition.builder().expr(expression(random, 0)).op(pick(random, OPS))
+                        .value(threshold(random)).build();
+        }
+    }
+
+    static ArithmeticExpression expression(Random random, int depth) {
+        int kind = random.nextInt(depth > 1 ? 2 : 4);
+        if (kind == 0) {
+            return ArithmeticExpression.ref(pick(random, VARS), pick(random, AGGS));
+        }
+        if (kind == 1) {
+            return ArithmeticExpression.constant(random.nextInt(5) - 1);
+        }
+        String op = pick(random, ARITHMETIC);
+        int count = "abs".equals(op) ? 1 : "/".equals(op) ? 2 : "-".equals(op) ? 1 + random.nextInt(2) : 2 + random.nextInt(2);
+        List<ArithmeticExpression> args = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            args.add(expression(random, depth + 1));
+        }
+        return ArithmeticExpression.apply(op, args);
+    }
+
+    /**
+     * Umbral nulo, numérico, textual, de rango o -0.0.
+     */
+    static Object threshold(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return null;
+            case 1:
+                return "5";
+            case 2:
+                return List.of(random.nextInt(6), random.nextInt(6));
+            case 3:
+                return "abc";
+            case 4:
+                return -0.0;
+            default:
+                return (double) random.nextInt(8);
+        }
+    }
+
+    /**
+     * Features con variables y agregados ausentes, nulos, enteros, -0.0 y NaN.
+     */
+    static Map<String, Map<String, Object>> features(Random random) {
+        Map<String, Map<String, Object>> features = new HashMap<>();
+        for (String var : VARS) {
+            if (random.nextInt(8) == 0) {
+                continue;
+            }
+            Map<String, Object> aggregates = new HashMap<>();
+            for (String agg : AGGS) {
+                int kind = random.nextInt(12);
+                if (kind == 0) {
+                    continue;
+                }
+                aggregates.put(agg, kind == 1 ? null
+                        : kind == 2 ? (Object) (long) random.nextInt(8)
+                        : kind == 3 ? -0.0
+                        : kind == 4 ? Double.NaN
+                        : (Object) (random.nextInt(8) - 0.5 * random.nextInt(2)));
+            }
+            features.put(var, aggregates);
+        }
+        return features;
+    }
+
+    /**
+     * Resultado del intérprete con la codificación de {@link CompiledRule}.
+     */
+    static int outcome(Node node, Map<String, Map<String, Object>> features) {
+        try {
+            return node.eval(features, new ArrayList<>()) ? CompiledRule.TRUE : CompiledRule.FALSE;
+        } catch (RuntimeException e) {
+            return CompiledRule.ERROR;
+        }
+    }
+
+    static Node all(Node... children) {
+        return AllCondition.builder().all(List.of(children)).build();
+    }
+
+    static Node numeric(String var, String op, Object value) {
+        return NumericCondition.builder().var(var).agg("current").op(op).value(value).build();
+    }
+
+    static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static List<Node> children(Random random, int depth, int max) {
+        List<Node> children = new ArrayList<>();
+        for (int i = random.nextInt(max); i > 0; i--) {
+            children.add(node(random, depth + 1));
+        }
+        return children;
+    }
+}
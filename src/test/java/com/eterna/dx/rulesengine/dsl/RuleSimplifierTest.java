@@ -0,0 +1,76 @@
+package com.eterna.dx.rulesengine.dsl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.all;
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.features;
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.node;
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.numeric;
+import static com.eterna.dx.rulesengine.dsl.RuleFixtures.outcome;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RuleSimplifierTest {
+
+    @Test
+    void adjacentBoundsMergeIntoBetween() {
+        Node rule = all(all(numeric("steps", ">=", 1)), numeric("steps", "<=", 9), numeric("steps", ">=", 3));
+
+        Node simplified = RuleSimplifier.simplify(rule);
+
+        assertEquals(NumericCondition.builder().var("steps").agg("current").op("between").value(List.of(3.0, 9.0))
+                .build(), simplified);
+    }
+
+    @Test
+    void nestedGroupsAndRepeatedLeavesAreFlattened() {
+        Node rule = AnyCondition.builder().any(List.of(
+                numeric("steps", ">", 10),
+                AnyCondition.builder().any(List.of(numeric("hrv", "<", 5), numeric("steps", ">", 10))).build()))
+                .build();
+
+        Node simplified = RuleSimplifier.simplify(rule);
+
+        assertEquals(AnyCondition.builder().any(List.of(numeric("steps", ">", 10), numeric("hrv", "<", 5))).build(),
+                simplified);
+        assertEquals(3, RuleSimplifier.size(simplified));
+    }
+
+    @Test
+    void allIsCutAfterNeverTrueChild() {
+        Node rule = all(numeric("steps", ">", 10), numeric("hrv", "<", "abc"), numeric("steps", "<", 50));
+
+        Node simplified = RuleSimplifier.simplify(rule);
+
+        assertEquals(all(numeric("steps", ">", 10), numeric("hrv", "<", "abc")), simplified);
+        assertTrue(RuleSimplifier.neverTrue(numeric("hrv", "<", "abc")));
+        assertTrue(RuleSimplifier.neverTrue(numeric("steps", "between", List.of(5, 1))));
+        assertFalse(RuleSimplifier.neverTrue(numeric("steps", "between", List.of(1, 5))));
+    }
+
+    @Test
+    void simpleRuleIsReturnedUnchanged() {
+        Node rule = all(numeric("steps", ">", 10), numeric("hrv", "<", 5));
+
+        assertSame(rule, RuleSimplifier.simplify(rule));
+    }
+
+    @Test
+    void simplifiedRuleFiresLikeOriginal() {
+        Random random = new Random(5);
+        for (int i = 0; i < 5000; i++) {
+            Node rule = node(random, 0);
+            Node simplified = RuleSimplifier.simplify(rule);
+            for (int sample = 0; sample < 20; sample++) {
+                Map<String, Map<String, Object>> features = features(random);
+                assertEquals(outcome(rule, features), outcome(simplified, features), rule + " con " + features);
+            }
+        }
+    }
+}
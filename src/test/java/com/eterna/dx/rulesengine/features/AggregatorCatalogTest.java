@@ -0,0 +1,304 @@
+package com.eterna.dx.rulesengine.features;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compara los agregadores deslizantes con el cálculo directo sobre la ventana
+ * en series aleatorias con huecos, NaN y valores repetidos.
+ */
+class AggregatorCatalogTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    void percentileMatchesSortedWindow() {
+        for (String name : List.of("p0_5d", "p25_7d", "p50_7d", "p90_30d", "p100_3d", "p50_1d")) {
+            assertMatches(name, 11L, (series, day, spec) -> percentile(window(series, day, spec), spec));
+        }
+    }
+
+    @Test
+    void extremesMatchWindow() {
+        for (int days : new int[]{1, 4, 14}) {
+            assertMatches("min_" + days + "d", 12L, (series, day, spec) -> {
+                double[][] window = window(series, day, spec);
+                return window.length == 0 ? null : Arrays.stream(window).mapToDouble(p -> p[1]).min().getAsDouble();
+            });
+            assertMatches("max_" + days + "d", 13L, (series, day, spec) -> {
+                double[][] window = window(series, day, spec);
+                return window.length == 0 ? null : Arrays.stream(window).mapToDouble(p -> p[1]).max().getAsDouble();
+            });
+        }
+    }
+
+    @Test
+    void slopeMatchesLeastSquares() {
+        for (String name : List.of("slope_2d", "slope_7d", "slope_30d")) {
+            assertMatches(name, 14L, (series, day, spec) -> slope(window(series, day, spec)));
+        }
+    }
+
+    @Test
+    void ewmaFromWarmupMatchesFullHistory() {
+        Random random = new Random(15);
+        for (int span : new int[]{1, 3, 7, 30}) {
+            AggregatorCatalog.Spec spec = AggregatorCatalog.spec("ewma_" + span + "d");
+            assertEquals(0, spec.getWindowDays());
+            double alpha = 2.0 / (span + 1);
+            List<double[]> series = series(random, 3000);
+            SlidingAggregator streaming = spec.newInstance();
+            List<Double> valid = new ArrayList<>();
+            double full = Double.NaN;
+            for (double[] point : series) {
+                streaming.add((int) point[0], point[1]);
+                streaming.advanceTo((int) point[0]);
+                if (Double.isFinite(point[1])) {
+                    valid.add(point[1]);
+                    full = Double.isNaN(full) ? point[1] : alpha * point[1] + (1 - alpha) * full;
+                }
+                if (valid.isEmpty()) {
+                    assertNull(streaming.result());
+                    continue;
+                }
+                assertEquals(full, streaming.result(), TOLERANCE * Math.max(1.0, Math.abs(full)));
+
+                // Empezar en los valores de calentamiento apenas cambia el resultado
+                SlidingAggregator warm = spec.newInstance();
+                for (Double value : valid.subList(Math.max(0, valid.size() - spec.getWarmupValues()), valid.size())) {
+                    warm.add((int) point[0], value);
+                }
+                assertEquals(full, warm.result(), TOLERANCE * 20);
+            }
+        }
+    }
+
+    @Test
+    void percentileRebalancesWithDuplicates() {
+        SlidingAggregator aggregator = AggregatorCatalog.spec("p50_3d").newInstance();
+        double[] values = {2, 2, 2, 1, 2, 3, 3, 3, 2};
+        double[] expected = {2, 2, 2, 2, 2, 2, 3, 3, 3};
+        for (int day = 0; day < values.length; day++) {
+            aggregator.add(day, values[day]);
+            aggregator.advanceTo(day);
+            assertEquals(expected[day], aggregator.result(), 0.0, "día " + day);
+        }
+    }
+
+    @Test
+    void temporalMatchesDayByDayCheck() {
+        for (String name : List.of("streak_ge_1_3d", "streak_lt_2_1d", "streak_delta_gt_0_4d", "count_eq_0_5d",
+                "count_le_1.5_1d", "count_delta_lt_0_7d", "count_delta_ge_-1_30d")) {
+            assertMatches(name, 16L, AggregatorCatalogTest::temporal);
+        }
+    }
+
+    @Test
+    void streakIsCutByGapsAndCappedAtDays() {
+        SlidingAggregator streak = AggregatorCatalog.spec("streak_ge_1_3d").newInstance();
+        // Días 0-4 cumplen, 5 sin registro, 6 cumple, 7 NaN, 8 cumple
+        double[] values = {1, 2, 1, 5, 1, Double.NaN, 1, Double.NaN, 3};
+        double[] expected = {1, 2, 3, 3, 3, 0, 1, 0, 1};
+        for (int day = 0; day < values.length; day++) {
+            if (day != 5) {
+                streak.add(day, values[day]);
+            }
+            streak.advanceTo(day);
+            assertEquals(expected[day], streak.result(), 0.0, "día " + day);
+        }
+    }
+
+    @Test
+    void countSlidesOverGaps() {
+        SlidingAggregator count = AggregatorCatalog.spec("count_lt_5_3d").newInstance();
+        count.add(0, 1);
+        count.add(1, 9);
+        count.add(2, 2);
+        count.advanceTo(2);
+        assertEquals(2.0, count.result(), 0.0);
+        // Días 3 y 4 sin registro: el día 0 y luego el 2 salen de la ventana
+        count.advanceTo(3);
+        assertEquals(1.0, count.result(), 0.0);
+        count.advanceTo(5);
+        assertEquals(0.0, count.result(), 0.0);
+    }
+
+    @Test
+    void deltaAtWindowStartUsesPreviousDay() {
+        AggregatorCatalog.Spec spec = AggregatorCatalog.spec("count_delta_gt_0_3d");
+        assertEquals(4, spec.getWindowDays());
+        // Subidas los días 1 y 3; la del día 1 (primero de la ventana de 3 días) necesita el día 0
+        double[] values = {1, 2, 2, 3};
+        SlidingAggregator fromWindowStart = spec.newInstance();
+        for (int day = 3 - spec.getWindowDays() + 1; day <= 3; day++) {
+            fromWindowStart.add(day, values[day]);
+        }
+        fromWindowStart.advanceTo(3);
+        assertEquals(2.0, fromWindowStart.result(), 0.0);
+
+        // Sin el día anterior (hueco) la variación no cuenta
+        SlidingAggregator withGap = spec.newInstance();
+        withGap.add(0, 1);
+        withGap.add(2, 5);
+        withGap.add(3, 6);
+        withGap.advanceTo(3);
+        assertEquals(1.0, withGap.result(), 0.0);
+
+        SlidingAggregator streak = AggregatorCatalog.spec("streak_delta_gt_0_2d").newInstance();
+        streak.add(0, 1);
+        streak.add(1, 2);
+        streak.add(2, 3);
+        streak.add(3, 4);
+        streak.advanceTo(3);
+        assertEquals(2.0, streak.result(), 0.0);
+    }
+
+    private interface Expected {
+        Double compute(List<double[]> series, int day, AggregatorCatalog.Spec spec);
+    }
+
+    /**
+     * Recorre la serie día a día (incluidos los huecos, sin registro) y compara
+     * el resultado con el cálculo directo sobre los valores válidos de la ventana.
+     */
+    private static void assertMatches(String name, long seed, Expected expected) {
+        AggregatorCatalog.Spec spec = AggregatorCatalog.spec(name);
+        Random random = new Random(seed);
+        for (int round = 0; round < 20; round++) {
+            List<double[]> series = series(random, 200);
+            SlidingAggregator aggregator = spec.newInstance();
+            int next = 0;
+            int first = (int) series.get(0)[0];
+            int last = (int) series.get(series.size() - 1)[0];
+            for (int day = first; day <= last + spec.getWindowDays(); day++) {
+                while (next < series.size() && series.get(next)[0] == day) {
+                    aggregator.add(day, series.get(next)[1]);
+                    next++;
+                }
+                aggregator.advanceTo(day);
+                Double want = expected.compute(series, day, spec);
+                Double got = aggregator.result();
+                if (want == null) {
+                    assertNull(got, name + " día " + day);
+                } else {
+                    assertTrue(got != null, name + " día " + day);
+                    assertEquals(want, got, TOLERANCE * Math.max(1.0, Math.abs(want)), name + " día " + day);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serie de (día, valor) con huecos de hasta 3 días, NaN, infinitos y
+     * valores enteros pequeños para que se repitan.
+     */
+    private static List<double[]> series(Random random, int size) {
+        List<double[]> series = new ArrayList<>();
+        int day = 19000;
+        for (int i = 0; i < size; i++) {
+            day += random.nextInt(8) == 0 ? 2 + random.nextInt(3) : 1;
+            int kind = random.nextInt(12);
+            double value = kind == 0 ? Double.NaN
+                    : kind == 1 ? Double.POSITIVE_INFINITY
+                    : kind < 6 ? random.nextInt(4)
+                    : random.nextInt(200) / 4.0 - 10;
+            series.add(new double[]{day, value});
+        }
+        return series;
+    }
+
+    private static double[][] window(List<double[]> series, int day, AggregatorCatalog.Spec spec) {
+        int days = spec.getWindowDays();
+        return series.stream()
+                .filter(p -> p[0] > day - days && p[0] <= day && Double.isFinite(p[1]))
+                .toArray(double[][]::new);
+    }
+
+    private static Double percentile(double[][] window, AggregatorCatalog.Spec spec) {
+        if (window.length == 0) {
+            return null;
+        }
+        double p = Integer.parseInt(spec.getName().substring(1, spec.getName().indexOf('_'))) / 100.0;
+        double[] sorted = Arrays.stream(window).mapToDouble(point -> point[1]).sorted().toArray();
+        double rank = p * (sorted.length - 1);
+        int low = (int) Math.floor(rank);
+        double fraction = rank - low;
+        return fraction == 0.0 ? sorted[low] : sorted[low] + (sorted[low + 1] - sorted[low]) * fraction;
+    }
+
+    private static Double slope(double[][] window) {
+        int n = window.length;
+        if (n < 2) {
+            return null;
+        }
+        double meanX = Arrays.stream(window).mapToDouble(p -> p[0]).average().getAsDouble();
+        double meanY = Arrays.stream(window).mapToDouble(p -> p[1]).average().getAsDouble();
+        double covariance = 0;
+        double variance = 0;
+        for (double[] point : window) {
+            covariance += (point[0] - meanX) * (point[1] - meanY);
+            variance += (point[0] - meanX) * (point[0] - meanX);
+        }
+        return covariance / variance;
+    }
+
+    /**
+     * Racha o recuento comprobando día a día el valor o la variación respecto al día anterior.
+     */
+    private static Double temporal(List<double[]> series, int day, AggregatorCatalog.Spec spec) {
+        Matcher matcher = Pattern.compile("(streak|count)_(delta_)?(lt|le|gt|ge|eq)_(-?[\\d.]+)_(\\d+)d")
+                .matcher(spec.getName());
+        assertTrue(matcher.matches());
+        boolean delta = matcher.group(2) != null;
+        double threshold = Double.parseDouble(matcher.group(4));
+        int days = Integer.parseInt(matcher.group(5));
+        Map<Integer, Double> values = new HashMap<>();
+        for (double[] point : series) {
+            values.put((int) point[0], point[1]);
+        }
+
+        int matches = 0;
+        for (int d = day; d > day - days; d--) {
+            Double value = values.get(d);
+            double x = value == null ? Double.NaN : value;
+            if (delta) {
+                Double previous = values.get(d - 1);
+                x = previous == null ? Double.NaN : x - previous;
+            }
+            boolean holds = Double.isFinite(x) && compare(matcher.group(3), x, threshold);
+            if (holds) {
+                matches++;
+            } else if ("streak".equals(matcher.group(1))) {
+                break;
+            }
+        }
+        return (double) matches;
+    }
+
+    private static boolean compare(String comparison, double x, double threshold) {
+        switch (comparison) {
+            case "lt":
+                return x < threshold;
+            case "le":
+                return x <= threshold;
+            case "gt":
+                return x > threshold;
+            case "ge":
+                return x >= threshold;
+            default:
+                return x == threshold;
+        }
+    }
+}
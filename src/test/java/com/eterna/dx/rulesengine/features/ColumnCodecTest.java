@@ -0,0 +1,102 @@
+package com.eterna.dx.rulesengine.features;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnCodecTest {
+
+    @Test
+    void zigzagRoundTrips() {
+        for (long value : new long[]{0, 1, -1, 63, -64, 12345, -98765, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertEquals(value, ColumnCodec.unzigzag(ColumnCodec.zigzag(value)));
+        }
+        assertEquals(1, ColumnCodec.zigzag(-1));
+        assertEquals(2, ColumnCodec.zigzag(1));
+    }
+
+    @Test
+    void varintsAndBytesRoundTrip() {
+        long[] values = {0, 1, 127, 128, 300, 1L << 35, -1, Long.MAX_VALUE, Long.MIN_VALUE};
+        ColumnCodec.Writer writer = new ColumnCodec.Writer();
+        writer.writeByte(ColumnCodec.MODE_INT | ColumnCodec.FLAG_HAS_NULLS);
+        for (long value : values) {
+            writer.writeVarLong(value);
+        }
+
+        ColumnCodec.Reader reader = reader(writer);
+        assertEquals(ColumnCodec.MODE_INT | ColumnCodec.FLAG_HAS_NULLS, reader.readByte());
+        for (long value : values) {
+            assertEquals(value, reader.readVarLong());
+        }
+        assertEquals(writer.size(), reader.position());
+    }
+
+    @Test
+    void smallDeltasTakeOneByte() {
+        ColumnCodec.Writer writer = new ColumnCodec.Writer();
+        writer.writeVarLong(ColumnCodec.zigzag(-60));
+        assertEquals(1, writer.size());
+    }
+
+    @Test
+    void gorillaRoundTripsExactBits() {
+        double[] values = {72.5, 72.5, 72.25, 1e-300, -0.0, 0.0, Double.MAX_VALUE, Double.MIN_VALUE,
+                Double.POSITIVE_INFINITY, 3.141592653589793, 3.141592653589793, -2.5};
+        assertGorillaRoundTrip(values);
+
+        Random random = new Random(42);
+        double[] noisy = new double[1000];
+        for (int i = 0; i < noisy.length; i++) {
+            noisy[i] = i % 7 == 0 ? noisy[Math.max(0, i - 1)] : 60 + random.nextGaussian() * 5;
+        }
+        assertGorillaRoundTrip(noisy);
+    }
+
+    @Test
+    void gorillaFollowedByVarintsKeepsPositions() {
+        ColumnCodec.Writer writer = new ColumnCodec.Writer();
+        writer.writeGorilla(new double[]{1.5, 2.75, 2.75}, 3);
+        writer.writeVarLong(987654321L);
+
+        ColumnCodec.Reader reader = reader(writer);
+        double[] out = new double[3];
+        reader.readGorilla(out, 3);
+        assertEquals(2.75, out[2], 0.0);
+        assertEquals(987654321L, reader.readVarLong());
+    }
+
+    @Test
+    void detectsExactIntegers() {
+        assertTrue(ColumnCodec.isExactInteger(0.0));
+        assertTrue(ColumnCodec.isExactInteger(-12000.0));
+        assertTrue(ColumnCodec.isExactInteger(9007199254740991.0));
+        assertFalse(ColumnCodec.isExactInteger(-0.0));
+        assertFalse(ColumnCodec.isExactInteger(0.5));
+        assertFalse(ColumnCodec.isExactInteger(9007199254740992.0));
+        assertFalse(ColumnCodec.isExactInteger(Double.NaN));
+        assertFalse(ColumnCodec.isExactInteger(Double.POSITIVE_INFINITY));
+    }
+
+    private static void assertGorillaRoundTrip(double[] values) {
+        ColumnCodec.Writer writer = new ColumnCodec.Writer();
+        writer.writeGorilla(values, values.length);
+
+        double[] out = new double[values.length];
+        ColumnCodec.Reader reader = reader(writer);
+        reader.readGorilla(out, values.length);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(out[i]), "valor " + i);
+        }
+        assertEquals(writer.size(), reader.position());
+    }
+
+    private static ColumnCodec.Reader reader(ColumnCodec.Writer writer) {
+        return new ColumnCodec.Reader(ByteBuffer.wrap(writer.bytes(), 0, writer.size()), 0);
+    }
+}
@@ -0,0 +1,68 @@
+package com.eterna.dx.rulesengine.features;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DatasetSnapshotTest {
+
+    @Test
+    void roundTripsRecordsAndStamp() throws IOException {
+        for (boolean compressed : new boolean[]{false, true}) {
+            Path path = Files.createTempDirectory("snapshot").resolve("dataset.snapshot");
+            List<CombinedRecord> records = records();
+            DatasetSnapshot.write(records, path, 42L, compressed);
+
+            assertEquals(42L, DatasetSnapshot.readSourceStamp(path));
+            List<CombinedRecord> read = DatasetSnapshot.read(path);
+            assertEquals(records.size(), read.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(records.get(i).getUserId(), read.get(i).getUserId());
+                assertEquals(records.get(i).getDate(), read.get(i).getDate());
+                assertEquals(records.get(i).get(0), read.get(i).get(0), 0.0);
+                assertEquals(records.get(i).get(1), read.get(i).get(1), 0.0);
+            }
+        }
+    }
+
+    @Test
+    void shortOrForeignFilesHaveNoStamp() throws IOException {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path missing = dir.resolve("missing.snapshot");
+        Path truncated = dir.resolve("truncated.snapshot");
+        Path foreign = dir.resolve("foreign.snapshot");
+        DatasetSnapshot.write(records(), truncated, 42L, false);
+        Files.write(truncated, Arrays.copyOf(Files.readAllBytes(truncated), 9));
+        Files.write(foreign, new byte[64]);
+
+        assertEquals(-1L, DatasetSnapshot.readSourceStamp(missing));
+        assertEquals(-1L, DatasetSnapshot.readSourceStamp(truncated));
+        assertEquals(-1L, DatasetSnapshot.readSourceStamp(foreign));
+    }
+
+    private static List<CombinedRecord> records() {
+        FeatureSchema schema = new FeatureSchema();
+        int steps = schema.register("steps", true);
+        int resting = schema.register("resting_heart_rate", false);
+        List<CombinedRecord> records = new ArrayList<>();
+        for (String userId : List.of("u1", "u2")) {
+            for (int day = 0; day < 3; day++) {
+                CombinedRecord record = new CombinedRecord(schema, userId, LocalDate.of(2024, 1, 1).plusDays(day));
+                record.set(steps, 1000 * day);
+                if (day != 1) {
+                    record.set(resting, 55.5 + day);
+                }
+                records.add(record);
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,64 @@
+package com.eterna.dx.rulesengine.features;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DateColumnParserTest {
+
+    @Test
+    void parsesIsoDatesWithOptionalTime() {
+        DateColumnParser parser = new DateColumnParser();
+        assertEquals(LocalDate.of(2024, 2, 29), parser.parse("2024-02-29"));
+        assertEquals(LocalDate.of(2024, 3, 1), parser.parse(" 2024-03-01T08:30:00 "));
+        assertEquals(LocalDate.of(1969, 12, 31).toEpochDay(), parser.parseEpochDay("1969-12-31"));
+    }
+
+    @Test
+    void rejectsInvalidDates() {
+        DateColumnParser parser = new DateColumnParser();
+        assertNull(parser.parse(null));
+        assertNull(parser.parse(""));
+        assertNull(parser.parse("no es fecha"));
+        assertEquals(DateColumnParser.INVALID, parser.parseEpochDay("2024-13-01"));
+    }
+
+    @Test
+    void sampleFixesMonthDayOrderForEarlierAmbiguousRows() {
+        DateColumnParser parser = new DateColumnParser();
+        parser.sample("03/04/2024");
+        parser.sample("03/25/2024");
+
+        assertEquals(LocalDate.of(2024, 3, 4), parser.parse("03/04/2024"));
+        assertEquals(LocalDate.of(2024, 3, 25), parser.parse("03/25/2024"));
+    }
+
+    @Test
+    void sampleFixesDayMonthOrder() {
+        DateColumnParser parser = new DateColumnParser();
+        parser.sample("25/03/2024");
+
+        assertEquals(LocalDate.of(2024, 4, 3), parser.parse("03/04/2024"));
+    }
+
+    @Test
+    void ambiguousColumnDefaultsToDayMonthAndNeverFlips() {
+        DateColumnParser parser = new DateColumnParser();
+        parser.sample("01/02/2024");
+
+        assertEquals(LocalDate.of(2024, 2, 1), parser.parse("01/02/2024"));
+        // Una fila que solo encaja como MM/dd no cambia el orden de la columna
+        assertEquals(LocalDate.of(2024, 3, 25), parser.parse("03/25/2024"));
+        assertEquals(LocalDate.of(2024, 4, 3), parser.parse("03/04/2024"));
+    }
+
+    @Test
+    void firstParsedRowFixesOrderWithoutSample() {
+        DateColumnParser parser = new DateColumnParser();
+        assertEquals(LocalDate.of(2024, 3, 25), parser.parse("03/25/2024"));
+        assertEquals(LocalDate.of(2024, 3, 4), parser.parse("03/04/2024"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.eterna.dx.rulesengine.features;
+
+import com.eterna.dx.rulesengine.config.DataProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FeatureCacheTest {
+
+    private static final LocalDate DATE = LocalDate.of(2024, 2, 1);
+
+    @Test
+    void invalidatingUserKeepsOtherUsersEntries() {
+        FeatureCache cache = cache(100);
+        AtomicInteger computed = new AtomicInteger();
+        for (String userId : List.of("u1", "u2")) {
+            for (int day = 0; day < 3; day++) {
+                get(cache, userId, DATE.plusDays(day), computed);
+            }
+        }
+        assertEquals(6, computed.get());
+
+        cache.invalidateUsers(List.of("u1", "unknown"));
+
+        assertEquals(3, cache.stats().get("size"));
+        assertEquals(3L, cache.stats().get("invalidations"));
+        get(cache, "u2", DATE, computed);
+        assertEquals(6, computed.get());
+        get(cache, "u1", DATE, computed);
+        assertEquals(7, computed.get());
+    }
+
+    @Test
+    void evictedEntriesLeaveTheUserIndex() {
+        FeatureCache cache = cache(2);
+        AtomicInteger computed = new AtomicInteger();
+        get(cache, "u1", DATE, computed);
+        get(cache, "u2", DATE, computed);
+        get(cache, "u2", DATE.plusDays(1), computed);
+
+        assertEquals(1L, cache.stats().get("evictions"));
+        cache.invalidateUser("u1");
+        assertEquals(0L, cache.stats().get("invalidations"));
+        cache.invalidateUser("u2");
+        assertEquals(2L, cache.stats().get("invalidations"));
+        assertEquals(0, cache.stats().get("size"));
+    }
+
+    @Test
+    void invalidateAllClearsEveryUser() {
+        FeatureCache cache = cache(100);
+        AtomicInteger computed = new AtomicInteger();
+        get(cache, "u1", DATE, computed);
+        get(cache, "u2", DATE, computed);
+
+        cache.invalidateAll();
+        cache.invalidateUser("u1");
+
+        assertEquals(2L, cache.stats().get("invalidations"));
+        get(cache, "u1", DATE, computed);
+        assertEquals(3, computed.get());
+    }
+
+    private static FeatureCache cache(int maxEntries) {
+        DataProperties properties = new DataProperties();
+        properties.setFeatureCacheMaxEntries(maxEntries);
+        return new FeatureCache(properties, new FeatureStore(), null);
+    }
+
+    private static void get(FeatureCache cache, String userId, LocalDate date, AtomicInteger computed) {
+        cache.getOrCompute(userId, date, FeatureDemand.ALL, () -> {
+            computed.incrementAndGet();
+            return Map.of("steps", Map.of("current", 1000.0));
+        });
+    }
+}
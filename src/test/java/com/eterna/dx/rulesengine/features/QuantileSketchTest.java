@@ -0,0 +1,203 @@
+package com.eterna.dx.rulesengine.features;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compara rangos y cuantiles del sketch con los de la lista ordenada de valores.
+ */
+class QuantileSketchTest {
+
+    // Error de rango admitido una vez compactado, en fracción del total
+    private static final double RANK_ERROR = 0.02;
+
+    @Test
+    void exactBeforeCompaction() {
+        Random random = new Random(21);
+        QuantileSketch sketch = new QuantileSketch(500);
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            double value = random.nextInt(50);
+            values.add(value);
+            sketch.update(value);
+        }
+        sketch.update(Double.NaN);
+
+        assertEquals(400, sketch.count());
+        double[] sorted = sorted(values);
+        for (double q = 0; q <= 1.0; q += 0.05) {
+            assertEquals(interpolate(sorted, q), sketch.quantile(q), 1e-12, "q=" + q);
+        }
+        for (int value = -1; value <= 51; value++) {
+            assertEquals(rank(sorted, value), sketch.percentileRank(value), 1e-9, "valor " + value);
+        }
+    }
+
+    @Test
+    void compactedErrorIsBounded() {
+        Random random = new Random(22);
+        QuantileSketch sketch = new QuantileSketch(200);
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            double value = random.nextGaussian() * 10 + (random.nextInt(10) == 0 ? 40 : 0);
+            values.add(value);
+            sketch.update(value);
+        }
+
+        assertBounded(sketch, sorted(values));
+    }
+
+    @Test
+    void removalsAreDiscountedExactly() {
+        Random random = new Random(23);
+        QuantileSketch sketch = new QuantileSketch(2000);
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            double value = random.nextInt(300) / 2.0;
+            values.add(value);
+            sketch.update(value);
+        }
+        Collections.shuffle(values, random);
+        for (Double value : new ArrayList<>(values.subList(0, 500))) {
+            sketch.remove(value);
+            values.remove(value);
+        }
+
+        assertEquals(500, sketch.removedCount());
+        assertEquals(1000, sketch.count());
+        double[] sorted = sorted(values);
+        for (double q = 0; q <= 1.0; q += 0.05) {
+            assertEquals(interpolate(sorted, q), sketch.quantile(q), 1e-12, "q=" + q);
+        }
+        for (int value = 0; value <= 150; value += 5) {
+            assertEquals(rank(sorted, value), sketch.percentileRank(value), 1e-9, "valor " + value);
+        }
+    }
+
+    @Test
+    void compactedRemovalsStayBounded() {
+        Random random = new Random(24);
+        QuantileSketch sketch = new QuantileSketch(200);
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            double value = random.nextDouble() * 100;
+            values.add(value);
+            sketch.update(value);
+        }
+        // Se retira una décima parte, sesgada hacia los valores altos
+        List<Double> kept = new ArrayList<>();
+        for (Double value : values) {
+            if (value > 80 && random.nextInt(2) == 0) {
+                sketch.remove(value);
+            } else {
+                kept.add(value);
+            }
+        }
+
+        assertEquals(values.size() - kept.size(), sketch.removedCount());
+        assertEquals(kept.size(), sketch.count());
+        assertBounded(sketch, sorted(kept));
+    }
+
+    @Test
+    void mergeMatchesUnion() {
+        Random random = new Random(25);
+        QuantileSketch merged = new QuantileSketch(200);
+        List<Double> union = new ArrayList<>();
+        for (int part = 0; part < 4; part++) {
+            QuantileSketch cohort = new QuantileSketch(200);
+            for (int i = 0; i < 8000; i++) {
+                double value = random.nextGaussian() * (part + 1) + 5 * part;
+                cohort.update(value);
+                union.add(value);
+            }
+            for (int i = 0; i < 200; i++) {
+                double value = union.remove(union.size() - 1);
+                cohort.remove(value);
+            }
+            merged.merge(cohort);
+        }
+
+        assertEquals(800, merged.removedCount());
+        assertEquals(union.size(), merged.count());
+        assertBounded(merged, sorted(union));
+    }
+
+    @Test
+    void smallMergeStaysExact() {
+        QuantileSketch a = new QuantileSketch(100);
+        QuantileSketch b = new QuantileSketch(100);
+        for (int i = 0; i < 10; i++) {
+            a.update(i);
+            b.update(10 + i);
+        }
+        a.merge(b);
+
+        assertEquals(20, a.count());
+        assertEquals(9.5, a.quantile(0.5), 1e-12);
+        assertEquals(50.0, a.percentileRank(9.5), 1e-12);
+        assertTrue(Double.isNaN(new QuantileSketch(100).quantile(0.5)));
+    }
+
+    private static void assertBounded(QuantileSketch sketch, double[] sorted) {
+        for (double q = 0.01; q < 1.0; q += 0.01) {
+            double value = sketch.quantile(q);
+            double below = (double) lowerBound(sorted, value) / sorted.length;
+            double atMost = (double) upperBound(sorted, value) / sorted.length;
+            assertTrue(below - RANK_ERROR <= q && q <= atMost + RANK_ERROR,
+                    "q=" + q + " valor " + value + " rango [" + below + ", " + atMost + "]");
+        }
+        for (double q = 0.01; q < 1.0; q += 0.01) {
+            double value = sorted[(int) (q * (sorted.length - 1))];
+            assertEquals(rank(sorted, value), sketch.percentileRank(value), 100 * RANK_ERROR, "valor " + value);
+        }
+    }
+
+    private static double[] sorted(List<Double> values) {
+        double[] sorted = values.stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static double interpolate(double[] sorted, double q) {
+        double position = q * (sorted.length - 1);
+        int low = (int) Math.floor(position);
+        double fraction = position - low;
+        return fraction > 0.0 && low + 1 < sorted.length
+                ? sorted[low] + (sorted[low + 1] - sorted[low]) * fraction
+                : sorted[low];
+    }
+
+    /**
+     * Porcentaje de valores menores más la mitad de los iguales.
+     */
+    private static double rank(double[] sorted, double value) {
+        int below = lowerBound(sorted, value);
+        int atMost = upperBound(sorted, value);
+        return 100.0 * (below + (atMost - below) / 2.0) / sorted.length;
+    }
+
+    private static int lowerBound(double[] sorted, double value) {
+        int index = 0;
+        while (index < sorted.length && sorted[index] < value) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int upperBound(double[] sorted, double value) {
+        int index = 0;
+        while (index < sorted.length && sorted[index] <= value) {
+            index++;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,110 @@
+package com.eterna.dx.rulesengine.features;
+
+import com.eterna.dx.rulesengine.config.DataProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TemporalStatesTest {
+
+    private static final LocalDate START = LocalDate.of(2024, 1, 1);
+    private static final List<AggregatorCatalog.Spec> SPECS = List.of(
+            AggregatorCatalog.spec("count_delta_lt_0_7d"),
+            AggregatorCatalog.spec("count_ge_2_5d"),
+            AggregatorCatalog.spec("max_7d"),
+            AggregatorCatalog.spec("streak_delta_gt_0_4d"),
+            AggregatorCatalog.spec("streak_lt_3_3d"));
+
+    @Test
+    void matchesWindowScanAcrossIngest() {
+        Random random = new Random(31);
+        FeatureStore store = new FeatureStore();
+        TemporalStates states = states(store);
+        int steps = load(store, random, 20);
+
+        int last = 19;
+        for (int round = 0; round < 300; round++) {
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                last += random.nextInt(6) == 0 ? 2 + random.nextInt(3) : 1;
+                store.upsert(List.of(record(store, last, value(random))));
+            } else if (kind == 6) {
+                // Cambia un día ya contado
+                store.upsert(List.of(record(store, last - random.nextInt(8), value(random))));
+            }
+            int day = kind == 7 ? last - 1 - random.nextInt(5) : last + random.nextInt(3);
+            assertEquals(scan(store, steps, day), compute(store, states, steps, day), "día " + day);
+        }
+    }
+
+    @Test
+    void newDaysKeepStateAndChangedDaysDropIt() {
+        Random random = new Random(32);
+        FeatureStore store = new FeatureStore();
+        TemporalStates states = states(store);
+        int steps = load(store, random, 10);
+
+        compute(store, states, steps, 9);
+        assertEquals(1, states.size());
+        store.upsert(List.of(record(store, 10, 1.0), record(store, 11, 4.0)));
+        assertEquals(1, states.size());
+        assertEquals(scan(store, steps, 11), compute(store, states, steps, 11));
+
+        store.upsert(List.of(record(store, 5, 2.0)));
+        assertEquals(0, states.size());
+        assertEquals(scan(store, steps, 11), compute(store, states, steps, 11));
+
+        store.replaceAll(store.getSchema(), List.of(record(store, 0, 1.0)));
+        assertEquals(0, states.size());
+    }
+
+    private static TemporalStates states(FeatureStore store) {
+        TemporalStates states = new TemporalStates(new DataProperties(), store);
+        states.register();
+        return states;
+    }
+
+    private static Map<String, Object> compute(FeatureStore store, TemporalStates states, int ordinal, int day) {
+        LocalDate date = START.plusDays(day);
+        Map<String, Object> out = new HashMap<>();
+        new CatalogAggregates(store.getSeriesUntil("u1", date), "u1", states).computeInto(ordinal, SPECS, date, out);
+        return out;
+    }
+
+    private static Map<String, Object> scan(FeatureStore store, int ordinal, int day) {
+        LocalDate date = START.plusDays(day);
+        Map<String, Object> out = new HashMap<>();
+        new CatalogAggregates(store.getSeriesUntil("u1", date)).computeInto(ordinal, SPECS, date, out);
+        return out;
+    }
+
+    private static int load(FeatureStore store, Random random, int days) {
+        FeatureSchema schema = new FeatureSchema();
+        int steps = schema.register("steps", false);
+        List<CombinedRecord> records = new ArrayList<>();
+        for (int day = 0; day < days; day++) {
+            CombinedRecord record = new CombinedRecord(schema, "u1", START.plusDays(day));
+            record.set(steps, value(random));
+            records.add(record);
+        }
+        store.replaceAll(schema, records);
+        return steps;
+    }
+
+    private static CombinedRecord record(FeatureStore store, int day, double value) {
+        CombinedRecord record = new CombinedRecord(store.getSchema(), "u1", START.plusDays(day));
+        record.set(store.getSchema().ordinal("steps"), value);
+        return record;
+    }
+
+    private static double value(Random random) {
+        return random.nextInt(8) == 0 ? Double.NaN : random.nextInt(5);
+    }
+}